@@ -0,0 +1,82 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.UncheckedSQLException;
+import net.toiditimtoi.jdbc.async.AsyncPersistenceExecutor;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 10 000 concurrent requests selecting a post by id, against a pool of 10 connections:
+ * <ul>
+ *     <li>through {@link AsyncPersistenceExecutor}, which only starts as many requests as there are connections</li>
+ *     <li>the classic way, on a fixed pool of 200 platform threads which all compete for the 10 connections</li>
+ * </ul>
+ * The score is the time per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AsyncExecutorBenchmark {
+    private static final String SELECT_BY_ID_SQL = "SELECT title FROM " + BenchmarkDatabase.TABLE + " WHERE id = ?";
+    private static final int ROWS = 10_000;
+    private static final int REQUESTS = 10_000;
+    private static final int PLATFORM_THREADS = 200;
+
+    private AsyncPersistenceExecutor asyncExecutor;
+    private ExecutorService platformThreads;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        asyncExecutor = new AsyncPersistenceExecutor(BenchmarkDatabase.dataSource());
+        platformThreads = Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        asyncExecutor.close();
+        platformThreads.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void asyncExecutor() {
+        var requests = new CompletableFuture<?>[REQUESTS];
+        for (var i = 0; i < REQUESTS; i++) {
+            requests[i] = asyncExecutor.queryFirst(SELECT_BY_ID_SQL, resultSet -> resultSet.getString(1), (long) i % ROWS + 1);
+        }
+        CompletableFuture.allOf(requests).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void platformThreadPool() {
+        var pool = BenchmarkDatabase.dataSource();
+        var requests = new CompletableFuture<?>[REQUESTS];
+        for (var i = 0; i < REQUESTS; i++) {
+            var id = (long) i % ROWS + 1;
+            requests[i] = CompletableFuture.supplyAsync(() -> {
+                try (var connection = pool.getConnection()) {
+                    return CachedStatements.queryFirst(connection, SELECT_BY_ID_SQL, resultSet -> resultSet.getString(1), id);
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(e);
+                }
+            }, platformThreads);
+        }
+        CompletableFuture.allOf(requests).join();
+    }
+}
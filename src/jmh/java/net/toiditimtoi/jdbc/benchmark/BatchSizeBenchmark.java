@@ -0,0 +1,70 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Inserting 1000 rows with {@link BatchWriter}, for several batch sizes, as JDBC batches and as multi-row INSERTs.
+ * Every invocation is rolled back, so the table does not grow. Scores are per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchSizeBenchmark {
+    private static final int ROWS = 1_000;
+
+    @Param({"1", "10", "50", "100", "500"})
+    public int batchSize;
+
+    @Param({"JDBC_BATCH", "MULTI_ROW_INSERT"})
+    public BatchConfig.Mode mode;
+
+    private Connection connection;
+    private BatchConfig config;
+    private final List<Post> posts = IntStream.range(0, ROWS).mapToObj(i -> Post.newPost("Benchmark post " + i)).toList();
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(0);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+        connection.setAutoCommit(false);
+        config = mode == BatchConfig.Mode.MULTI_ROW_INSERT ? BatchConfig.of(batchSize).rewritingInserts() : BatchConfig.of(batchSize);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long insert() throws SQLException {
+        try (var writer = new BatchWriter<Post>(connection, BenchmarkDatabase.INSERT_SQL, config, (statement, index, post) -> {
+            statement.setString(index, post.title());
+            statement.setInt(index + 1, post.version());
+        })) {
+            writer.addAll(posts);
+            writer.flush();
+            return writer.getRowsAffected();
+        } finally {
+            connection.rollback();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The database the benchmarks of a forked JVM run against.
+ * <p>
+ * With {@code -Djmh.jdbc.url=...} (see {@code -PjmhJdbcUrl} in build.gradle) that database is used, otherwise a
+ * Postgres container is started on first use and stopped when the fork exits. Benchmarks write to their own
+ * {@value #TABLE} table, so pointing them at the database of the tests does not disturb the post table.
+ */
+final class BenchmarkDatabase {
+    static final String TABLE = "bench_post";
+    static final String INSERT_SQL = "INSERT INTO " + TABLE + "(title, version) VALUES (?, ?)";
+    static final String SELECT_ALL_SQL = "SELECT id, title, version FROM " + TABLE;
+
+    private static PooledDataSource dataSource;
+
+    private BenchmarkDatabase() {
+    }
+
+    static synchronized PooledDataSource dataSource() {
+        if (dataSource == null) {
+            var url = System.getProperty("jmh.jdbc.url");
+            PoolConfig config;
+            if (url != null) {
+                config = PoolConfig.of(url, System.getProperty("jmh.jdbc.user", "postgres"), System.getProperty("jmh.jdbc.password", ""));
+            } else {
+                var container = new PostgreSQLContainer<>("postgres:15-alpine")
+                        // durability is not what is measured here, and fsync noise would hide the differences
+                        .withCommand("postgres", "-c", "fsync=off", "-c", "synchronous_commit=off");
+                container.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(container::stop));
+                config = PoolConfig.of(container.getJdbcUrl(), container.getUsername(), container.getPassword());
+            }
+            dataSource = new PooledDataSource(config);
+        }
+        return dataSource;
+    }
+
+    /**
+     * Drops and fills the benchmark table with the given number of posts.
+     */
+    static void recreateTable(int rows) throws SQLException {
+        try (var connection = dataSource().getConnection()) {
+            try (var statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE IF EXISTS " + TABLE);
+                statement.executeUpdate("CREATE TABLE " + TABLE + "(id bigserial PRIMARY KEY, title varchar(255), version int)");
+            }
+            insert(connection, rows);
+            try (var statement = connection.createStatement()) {
+                statement.executeUpdate("VACUUM ANALYZE " + TABLE);
+            }
+        }
+    }
+
+    static void truncate() throws SQLException {
+        try (var connection = dataSource().getConnection(); var statement = connection.createStatement()) {
+            statement.executeUpdate("TRUNCATE " + TABLE + " RESTART IDENTITY");
+        }
+    }
+
+    private static void insert(Connection connection, int rows) throws SQLException {
+        try (var writer = new BatchWriter<Post>(connection, INSERT_SQL, BatchConfig.of(1_000).rewritingInserts(), (statement, index, post) -> {
+            statement.setString(index, post.title());
+            statement.setInt(index + 1, post.version());
+        })) {
+            for (var i = 0; i < rows; i++) {
+                writer.add(Post.newPost("Benchmark post " + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.columnar.ColumnarPostScan;
+import net.toiditimtoi.jdbc.columnar.ScanSummary;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reporting scan of 200 000 posts with 100 distinct titles: count, minimum and maximum version, posts per title.
+ * <ul>
+ *     <li>{@link ColumnarPostScan#summarize(String, Object...)}, decoding into reused columnar chunks</li>
+ *     <li>a Post per row aggregated into a HashMap, through the same kind of server-side cursor</li>
+ * </ul>
+ * Run with {@code -PjmhProfilers=gc} to see the bytes allocated per scan ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ColumnarScanBenchmark {
+    private static final int ROWS = 200_000;
+    private static final int CHUNK_SIZE = 4_096;
+    private static final RowMapper<Post> POST_MAPPER = RowMappers.forRecord(Post.class);
+
+    private ColumnarPostScan scan;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        try (var connection = BenchmarkDatabase.dataSource().getConnection(); var statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE " + BenchmarkDatabase.TABLE + " SET title = 'Report ' || (id % 100), version = id % 7");
+            statement.executeUpdate("VACUUM ANALYZE " + BenchmarkDatabase.TABLE);
+        }
+        scan = new ColumnarPostScan(BenchmarkDatabase.dataSource(), CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public ScanSummary columnarChunks() throws SQLException {
+        return scan.summarize(BenchmarkDatabase.SELECT_ALL_SQL);
+    }
+
+    @Benchmark
+    public Map<String, Long> objectPerRow() throws SQLException {
+        var titleCounts = new HashMap<String, Long>();
+        var maxVersion = Integer.MIN_VALUE;
+        try (var connection = BenchmarkDatabase.dataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try (var statement = connection.prepareStatement(BenchmarkDatabase.SELECT_ALL_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(CHUNK_SIZE);
+                try (var resultSet = statement.executeQuery()) {
+                    var mapper = POST_MAPPER.bind(resultSet);
+                    while (resultSet.next()) {
+                        var post = mapper.map(resultSet);
+                        titleCounts.merge(post.title(), 1L, Long::sum);
+                        maxVersion = Math.max(maxVersion, post.version());
+                    }
+                }
+            }
+            connection.commit();
+        }
+        titleCounts.put("max version", (long) maxVersion);
+        return titleCounts;
+    }
+}
@@ -0,0 +1,82 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.context.PostPersistenceContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dirty check of a flush over 100 000 managed posts, {@code dirtyPercent} of them changed:
+ * <ul>
+ *     <li>{@link PostPersistenceContext#countDirty()}, comparing the posts with the titles and versions kept in arrays</li>
+ *     <li>the generic way, a map of loaded copies compared field by field through reflection</li>
+ * </ul>
+ * No database is involved, the posts are attached as if they had been read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DirtyCheckBenchmark {
+    private static final int POSTS = 100_000;
+
+    @Param({"0", "1", "100"})
+    public int dirtyPercent;
+
+    private PostPersistenceContext context;
+    private Map<Long, Post> loaded;
+    private Map<Long, Post> current;
+    private Method[] accessors;
+
+    @Setup
+    public void setUp() {
+        // the context never uses its connection for a dirty check
+        context = new PostPersistenceContext(null, 100);
+        loaded = new HashMap<>();
+        current = new HashMap<>();
+        var dirtyEvery = dirtyPercent == 0 ? Integer.MAX_VALUE : 100 / dirtyPercent;
+        for (var id = 1L; id <= POSTS; id++) {
+            var post = context.attach(new Post(id, "Benchmark post " + id, 0));
+            // a copy, like a generic context has to take
+            loaded.put(id, new Post(post.id(), new String(post.title()), post.version()));
+            if (id % dirtyEvery == 0) {
+                post = context.update(post.withTitle(post.title() + " 2nd"));
+            }
+            current.put(id, post);
+        }
+        accessors = Arrays.stream(Post.class.getRecordComponents()).map(RecordComponent::getAccessor).toArray(Method[]::new);
+    }
+
+    @Benchmark
+    public int primitiveSnapshots() {
+        return context.countDirty();
+    }
+
+    @Benchmark
+    public int reflectiveDeepEquality() throws ReflectiveOperationException {
+        var dirty = 0;
+        for (var entry : current.entrySet()) {
+            var before = loaded.get(entry.getKey());
+            for (var accessor : accessors) {
+                if (!Objects.deepEquals(accessor.invoke(before), accessor.invoke(entry.getValue()))) {
+                    dirty++;
+                    break;
+                }
+            }
+        }
+        return dirty;
+    }
+}
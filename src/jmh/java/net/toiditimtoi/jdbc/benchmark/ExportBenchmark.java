@@ -0,0 +1,65 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.export.ExportConfig;
+import net.toiditimtoi.jdbc.export.ExportFormat;
+import net.toiditimtoi.jdbc.export.ExportResult;
+import net.toiditimtoi.jdbc.export.PostExporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An export of 1 000 000 posts to files by {@link PostExporter}, with 1 to 8 workers, in both formats. The time
+ * should go down with the workers until the server runs out of cores or the disk out of bandwidth.
+ * {@link RowByRowExportBenchmark} measures the loop this replaces.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark {
+    static final int ROWS = 1_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    @Param({"CSV", "COLUMNAR"})
+    public ExportFormat format;
+
+    private PostExporter exporter;
+    private Path directory;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        exporter = new PostExporter(BenchmarkDatabase.dataSource(),
+                ExportConfig.defaults().withTable(BenchmarkDatabase.TABLE).withFormat(format).withWorkers(workers));
+        directory = Files.createTempDirectory("export-benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public ExportResult exporter() throws SQLException, IOException {
+        return exporter.export(directory, "posts");
+    }
+}
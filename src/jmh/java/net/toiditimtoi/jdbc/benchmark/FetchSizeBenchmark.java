@@ -0,0 +1,41 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.query.StreamingQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming 100 000 rows through a server-side cursor, for several fetch sizes.
+ * Small fetch sizes pay a round trip every few rows, large ones hold more rows in memory at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FetchSizeBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int fetchSize;
+
+    private StreamingQuery query;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(100_000);
+        query = new StreamingQuery(BenchmarkDatabase.dataSource(), fetchSize);
+    }
+
+    @Benchmark
+    public long stream() throws SQLException {
+        try (var rows = query.stream(BenchmarkDatabase.SELECT_ALL_SQL, resultSet -> resultSet.getString(2))) {
+            return rows.mapToLong(String::length).sum();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.counter.CounterBuffer;
+import net.toiditimtoi.jdbc.counter.CounterBufferConfig;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 16 threads incrementing the counter of the same row, the {@code version} of the first post:
+ * <ul>
+ *     <li>{@code DIRECT}: one autocommitted {@code UPDATE ... SET version = version + 1} per increment. Every
+ *     UPDATE waits for the row lock of the previous one, the throughput is one commit at a time</li>
+ *     <li>{@code BOUNDED_DELAY}: a {@link CounterBuffer} flushing every 100 ms, the increments only touch memory</li>
+ *     <li>{@code FLUSH_ON_COMMIT}: a {@link CounterBuffer} whose increments wait for the commit of their flush. The
+ *     16 threads share every flush, so the throughput is bound by the flushes instead of the row lock</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(16)
+public class HotRowCounterBenchmark {
+    private static final String INCREMENT_SQL = "UPDATE " + BenchmarkDatabase.TABLE + " SET version = version + 1 WHERE id = ?";
+    private static final long HOT_ID = 1;
+
+    @Param({"DIRECT", "BOUNDED_DELAY", "FLUSH_ON_COMMIT"})
+    public String strategy;
+
+    private CounterBuffer buffer;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(100);
+        if (!strategy.equals("DIRECT")) {
+            buffer = new CounterBuffer(BenchmarkDatabase.dataSource(), BenchmarkDatabase.TABLE, "version",
+                    CounterBufferConfig.defaults().withDurability(CounterBufferConfig.Durability.valueOf(strategy)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        if (buffer != null) {
+            buffer.close();
+            System.out.println(buffer.getStats());
+        }
+    }
+
+    @Benchmark
+    public void increment() throws SQLException {
+        if (buffer != null) {
+            buffer.increment(HOT_ID);
+            return;
+        }
+        try (var connection = BenchmarkDatabase.dataSource().getConnection()) {
+            CachedStatements.executeUpdate(connection, INCREMENT_SQL, HOT_ID);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.metrics.InstrumentedDataSource;
+import net.toiditimtoi.jdbc.metrics.JdbcMetrics;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@link InstrumentedDataSource} costs: the hot path of the application (borrow a connection, run a cached
+ * PreparedStatement, read one row) and a fetch of 1 000 rows, each with and without the instrumentation.
+ * The difference between the two {@code instrumented} values is the overhead, it should stay within a few percent.
+ * Several threads record into the same histograms, as they would in production.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class InstrumentationOverheadBenchmark {
+    private static final String SELECT_BY_ID_SQL = "SELECT title FROM " + BenchmarkDatabase.TABLE + " WHERE id = ?";
+    private static final String SELECT_PAGE_SQL = "SELECT id, title, version FROM " + BenchmarkDatabase.TABLE + " WHERE id <= ?";
+    private static final int ROWS = 10_000;
+
+    @Param({"false", "true"})
+    public boolean instrumented;
+
+    private DataSource dataSource;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        dataSource = instrumented
+                ? new InstrumentedDataSource(BenchmarkDatabase.dataSource(), new JdbcMetrics())
+                : BenchmarkDatabase.dataSource();
+    }
+
+    @Benchmark
+    public String selectById() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return CachedStatements.queryFirst(connection, SELECT_BY_ID_SQL, resultSet -> resultSet.getString(1),
+                    ThreadLocalRandom.current().nextLong(1, ROWS + 1)).orElse(null);
+        }
+    }
+
+    @Benchmark
+    public long fetch1000Rows() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return CachedStatements.execute(connection, SELECT_PAGE_SQL, statement -> {
+                statement.setLong(1, 1_000);
+                var sum = 0L;
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        sum += resultSet.getLong(1) + resultSet.getString(2).length();
+                    }
+                }
+                return sum;
+            });
+        }
+    }
+}
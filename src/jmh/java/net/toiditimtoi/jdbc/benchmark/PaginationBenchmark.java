@@ -0,0 +1,102 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.page.Page;
+import net.toiditimtoi.jdbc.page.PostOrder;
+import net.toiditimtoi.jdbc.page.PostPager;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetching the n-th page of 20 posts out of 200 000, in id order and in title order, three ways:
+ * <ul>
+ *     <li>{@link PostPager}, seeking in the index from the cursor of the previous page</li>
+ *     <li>{@code OFFSET (n - 1) * 20 LIMIT 20}, the server reads and drops the rows of all the previous pages</li>
+ *     <li>a scrollable ResultSet moved with {@code absolute()}, the driver reads the whole table into the heap</li>
+ * </ul>
+ * The keyset score should not depend on {@code page}, the two others grow with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PaginationBenchmark {
+    private static final int ROWS = 200_000;
+    private static final int PAGE_SIZE = 20;
+    private static final RowMapper<Post> POST_MAPPER = RowMappers.forRecord(Post.class);
+
+    @Param({"1", "100", "10000"})
+    public int page;
+
+    @Param({"ID", "TITLE"})
+    public PostOrder order;
+
+    private Connection connection;
+    private PostPager pager;
+    private String cursor;
+    private String orderedSql;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+        try (var statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE INDEX ON " + BenchmarkDatabase.TABLE + "(title, id)");
+            statement.executeUpdate("ANALYZE " + BenchmarkDatabase.TABLE);
+        }
+        pager = new PostPager(BenchmarkDatabase.dataSource(), BenchmarkDatabase.TABLE, order, PAGE_SIZE);
+        orderedSql = BenchmarkDatabase.SELECT_ALL_SQL + (order == PostOrder.ID ? " ORDER BY id" : " WHERE title IS NOT NULL ORDER BY title, id");
+        // a cursor is only reached through the pages before it, like a client following the next links
+        Page previous = null;
+        for (var i = 1; i < page; i++) {
+            previous = previous == null ? pager.first(connection) : pager.page(connection, previous.nextCursor());
+        }
+        cursor = previous == null ? null : previous.nextCursor();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public List<Post> keyset() throws SQLException {
+        return pager.page(connection, cursor).posts();
+    }
+
+    @Benchmark
+    public List<Post> offsetLimit() throws SQLException {
+        return CachedStatements.query(connection, orderedSql + " OFFSET ? LIMIT ?", POST_MAPPER, (page - 1) * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Post> scrollableResultSet() throws SQLException {
+        try (var statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+             var resultSet = statement.executeQuery(orderedSql)) {
+            var posts = new ArrayList<Post>(PAGE_SIZE);
+            if (resultSet.absolute((page - 1) * PAGE_SIZE + 1)) {
+                var mapper = POST_MAPPER.bind(resultSet);
+                do {
+                    posts.add(mapper.map(resultSet));
+                } while (posts.size() < PAGE_SIZE && resultSet.next());
+            }
+            return posts;
+        }
+    }
+}
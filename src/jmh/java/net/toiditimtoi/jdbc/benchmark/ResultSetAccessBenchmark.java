@@ -0,0 +1,76 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RecordRowMapper;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the columns of 1000 rows by index, by label, and with the mapper compiled once per result layout.
+ * By label, the driver looks the name up in the column map of every row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResultSetAccessBenchmark {
+    private Connection connection;
+    private PreparedStatement statement;
+    private final RecordRowMapper<Post> mapper = RowMappers.forRecord(Post.class);
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(1_000);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+        statement = connection.prepareStatement(BenchmarkDatabase.SELECT_ALL_SQL);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void byIndex(Blackhole blackhole) throws SQLException {
+        try (var resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getString(2));
+                blackhole.consume(resultSet.getInt(3));
+            }
+        }
+    }
+
+    @Benchmark
+    public void byLabel(Blackhole blackhole) throws SQLException {
+        try (var resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong("id"));
+                blackhole.consume(resultSet.getString("title"));
+                blackhole.consume(resultSet.getInt("version"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void compiledRecordMapper(Blackhole blackhole) throws SQLException {
+        try (var resultSet = statement.executeQuery()) {
+            var rowMapper = mapper.bind(resultSet);
+            while (resultSet.next()) {
+                blackhole.consume(rowMapper.map(resultSet));
+            }
+        }
+    }
+}
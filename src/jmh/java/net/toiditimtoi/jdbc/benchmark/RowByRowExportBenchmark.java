@@ -0,0 +1,59 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The export {@link ExportBenchmark} is compared with: {@code SELECT *} of the same 1 000 000 posts on one connection,
+ * a {@code String.format} per row written to a buffered file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RowByRowExportBenchmark {
+    private Path file;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        BenchmarkDatabase.recreateTable(ExportBenchmark.ROWS);
+        file = Files.createTempFile("row-by-row", ".csv");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long rowByRow() throws SQLException, IOException {
+        var rows = 0L;
+        try (var connection = BenchmarkDatabase.dataSource().getConnection();
+             var writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            connection.setAutoCommit(false);
+            try (var statement = connection.createStatement()) {
+                statement.setFetchSize(10_000);
+                try (var resultSet = statement.executeQuery(BenchmarkDatabase.SELECT_ALL_SQL)) {
+                    while (resultSet.next()) {
+                        writer.write(String.format("%d,%s,%d%n", resultSet.getLong(1), resultSet.getString(2), resultSet.getInt(3)));
+                        rows++;
+                    }
+                }
+            }
+            connection.commit();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,55 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading 10 000 rows once through a forward-only and through a scroll-insensitive ResultSet.
+ * Reading them once, scrolling buys nothing: the rows must be kept around in case the cursor goes back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScrollBenchmark {
+    @Param({"TYPE_FORWARD_ONLY", "TYPE_SCROLL_INSENSITIVE"})
+    public String resultSetType;
+
+    private Connection connection;
+    private int type;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(10_000);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+        type = resultSetType.equals("TYPE_FORWARD_ONLY") ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.TYPE_SCROLL_INSENSITIVE;
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void readOnce(Blackhole blackhole) throws SQLException {
+        try (var statement = connection.createStatement(type, ResultSet.CONCUR_READ_ONLY);
+             var resultSet = statement.executeQuery(BenchmarkDatabase.SELECT_ALL_SQL)) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(resultSet.getString(2));
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.snapshot.PostSnapshot;
+import net.toiditimtoi.jdbc.snapshot.RefreshResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bringing 20 000 posts held in memory up to date after {@code changedRows} of them got a new version:
+ * <ul>
+ *     <li>{@link PostSnapshot#refresh()}, one query returning the changed posts</li>
+ *     <li>reading the whole table again</li>
+ *     <li>{@code refreshRow()} on every row of an updatable scrollable ResultSet, like ResultSetTest does</li>
+ * </ul>
+ * Only the incremental refresh gets cheaper when fewer posts change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SnapshotRefreshBenchmark {
+    private static final int ROWS = 20_000;
+    private static final String CHANGE_SQL = "UPDATE " + BenchmarkDatabase.TABLE + " SET version = version + 1 WHERE id <= ?";
+
+    @Param({"0", "20", "2000"})
+    public int changedRows;
+
+    private Connection connection;
+    private PostSnapshot snapshot;
+    private ResultSet scrollableResultSet;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+        snapshot = PostSnapshot.ofTable(BenchmarkDatabase.dataSource(), BenchmarkDatabase.TABLE);
+        snapshot.refresh(connection);
+        // refreshRow() needs an updatable ResultSet
+        scrollableResultSet = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE)
+                .executeQuery(BenchmarkDatabase.SELECT_ALL_SQL);
+    }
+
+    @Setup(Level.Invocation)
+    public void changeRows() throws SQLException {
+        if (changedRows > 0) {
+            try (var statement = connection.prepareStatement(CHANGE_SQL)) {
+                statement.setInt(1, changedRows);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        scrollableResultSet.getStatement().close();
+        connection.close();
+    }
+
+    @Benchmark
+    public RefreshResult incrementalRefresh() throws SQLException {
+        return snapshot.refresh(connection);
+    }
+
+    @Benchmark
+    public RefreshResult reloadAll() throws SQLException {
+        return PostSnapshot.ofTable(BenchmarkDatabase.dataSource(), BenchmarkDatabase.TABLE).refresh(connection);
+    }
+
+    @Benchmark
+    public void refreshRowPerRow(Blackhole blackhole) throws SQLException {
+        scrollableResultSet.beforeFirst();
+        while (scrollableResultSet.next()) {
+            scrollableResultSet.refreshRow();
+            blackhole.consume(scrollableResultSet.getInt(3));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selecting a post by id with a Statement and the id formatted into the SQL, with a PreparedStatement prepared for
+ * every execution, and with a PreparedStatement kept in the statement cache of the connection, which the server
+ * ends up executing without parsing and planning it again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StatementBenchmark {
+    private static final String SELECT_BY_ID_SQL = "SELECT title FROM " + BenchmarkDatabase.TABLE + " WHERE id = ?";
+    private static final int ROWS = 10_000;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(ROWS);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private static long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, ROWS + 1);
+    }
+
+    @Benchmark
+    public String statement() throws SQLException {
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT title FROM " + BenchmarkDatabase.TABLE + " WHERE id = " + randomId())) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    @Benchmark
+    public String preparedStatement() throws SQLException {
+        try (var statement = connection.prepareStatement(SELECT_BY_ID_SQL)) {
+            statement.setLong(1, randomId());
+            try (var resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    @Benchmark
+    public String cachedPreparedStatement() throws SQLException {
+        return CachedStatements.queryFirst(connection, SELECT_BY_ID_SQL, resultSet -> resultSet.getString(1), randomId()).orElse(null);
+    }
+}
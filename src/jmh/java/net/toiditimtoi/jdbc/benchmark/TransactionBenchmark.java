@@ -0,0 +1,70 @@
+package net.toiditimtoi.jdbc.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting 100 rows in auto-commit mode, where every INSERT is a transaction of its own with its own commit,
+ * and in a single explicit transaction. Scores are per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionBenchmark {
+    private static final int ROWS = 100;
+
+    private Connection connection;
+
+    @Setup
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.recreateTable(0);
+        connection = BenchmarkDatabase.dataSource().getConnection();
+    }
+
+    @Setup(Level.Iteration)
+    public void truncate() throws SQLException {
+        BenchmarkDatabase.truncate();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private void insertRows() throws SQLException {
+        try (var statement = connection.prepareStatement(BenchmarkDatabase.INSERT_SQL)) {
+            for (var i = 0; i < ROWS; i++) {
+                statement.setString(1, "Benchmark post " + i);
+                statement.setInt(2, 0);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void autoCommit() throws SQLException {
+        connection.setAutoCommit(true);
+        insertRows();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void explicitTransaction() throws SQLException {
+        connection.setAutoCommit(false);
+        insertRows();
+        connection.commit();
+    }
+}
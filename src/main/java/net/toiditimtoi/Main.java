@@ -1,7 +1,146 @@
 package net.toiditimtoi;
 
+import net.toiditimtoi.jdbc.load.LoadConfig;
+import net.toiditimtoi.jdbc.load.LoadGenerator;
+import net.toiditimtoi.jdbc.load.OperationMix;
+import net.toiditimtoi.jdbc.load.ReportFile;
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs a {@link LoadGenerator} against a Postgres server:
+ * <pre>
+ * ./gradlew run --args="--url=jdbc:postgresql://localhost:5432/postgres --password=secret --rate=2000 --duration=2m --output=build/load.csv"
+ * </pre>
+ */
 public class Main {
-    public static void main(String[] args) {
-        System.out.println("Hello world!");
+    private static final Set<String> OPTIONS = Set.of("url", "user", "password", "mode", "rate", "concurrency", "duration",
+            "warmup", "interval", "mix", "table", "seed", "output", "help");
+    private static final String USAGE = """
+            Options, all optional:
+              --url=jdbc:postgresql://localhost:5432/postgres
+              --user=postgres
+              --password=
+              --mode=open|closed        open: requests arrive at --rate, closed: --concurrency workers back to back
+              --rate=1000               requests per second of the open loop
+              --concurrency=16          workers and connections
+              --duration=1m             measured time, like 30s, 2m or PT1H
+              --warmup=10s
+              --interval=1s             how often the console and the output file get a report
+              --mix=lookup=70,insert=12,versioned_update=12,delete=5,scan=1
+              --table=post              created with the columns of post when missing
+              --seed=10000              posts inserted before the run
+              --output=load.csv         or load.json
+            """;
+
+    public static void main(String[] args) throws Exception {
+        var options = parse(args);
+        if (options.containsKey("help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        var config = configOf(options);
+        var url = options.getOrDefault("url", "jdbc:postgresql://localhost:5432/postgres");
+        var poolConfig = PoolConfig.of(url, options.getOrDefault("user", "postgres"), options.getOrDefault("password", ""))
+                .withMaxPoolSize(config.concurrency());
+        var output = options.get("output");
+
+        System.out.println("%s against %s".formatted(config, url));
+        try (var pool = new PooledDataSource(poolConfig);
+             var file = output == null ? null : ReportFile.create(Path.of(output))) {
+            var result = new LoadGenerator(pool, config).run(reports -> {
+                System.out.println(reports.get(reports.size() - 1));
+                if (file != null) {
+                    file.append(reports);
+                }
+            });
+
+            System.out.println("Response times, from the scheduled start of every request:");
+            result.responseTimes().forEach(System.out::println);
+            System.out.println("Service times, from the moment a worker started every request:");
+            result.serviceTimes().forEach(System.out::println);
+            if (result.missedRequests() > 0) {
+                System.out.println("%d requests were never sent, the database could not keep up with the rate".formatted(result.missedRequests()));
+            }
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        var options = new HashMap<String, String>();
+        for (var arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option=value but was " + arg + "\n" + USAGE);
+            }
+            var separator = arg.indexOf('=');
+            var name = separator < 0 ? arg.substring(2) : arg.substring(2, separator);
+            if (!OPTIONS.contains(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg + "\n" + USAGE);
+            }
+            options.put(name, separator < 0 ? "" : arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static LoadConfig configOf(Map<String, String> options) {
+        var config = LoadConfig.defaults();
+        if (options.containsKey("mode")) {
+            config = config.withMode(switch (options.get("mode").toLowerCase(Locale.ROOT)) {
+                case "open" -> LoadConfig.Mode.OPEN_LOOP;
+                case "closed" -> LoadConfig.Mode.CLOSED_LOOP;
+                default -> throw new IllegalArgumentException("--mode is open or closed but was " + options.get("mode"));
+            });
+        }
+        if (options.containsKey("rate")) {
+            config = config.withRate(Double.parseDouble(options.get("rate")));
+        }
+        if (options.containsKey("concurrency")) {
+            config = config.withConcurrency(Integer.parseInt(options.get("concurrency")));
+        }
+        if (options.containsKey("duration")) {
+            config = config.withDuration(durationOf(options.get("duration")));
+        }
+        if (options.containsKey("warmup")) {
+            config = config.withWarmup(durationOf(options.get("warmup")));
+        }
+        if (options.containsKey("interval")) {
+            config = config.withReportInterval(durationOf(options.get("interval")));
+        }
+        if (options.containsKey("mix")) {
+            config = config.withMix(OperationMix.parse(options.get("mix")));
+        }
+        if (options.containsKey("table")) {
+            config = config.withTable(options.get("table"));
+        }
+        if (options.containsKey("seed")) {
+            config = config.withSeedRows(Integer.parseInt(options.get("seed")));
+        }
+        return config;
+    }
+
+    /**
+     * 500ms, 30s, 2m, 1h, or an ISO-8601 duration.
+     */
+    private static Duration durationOf(String value) {
+        var text = value.trim().toLowerCase(Locale.ROOT);
+        if (text.startsWith("p")) {
+            return Duration.parse(text.toUpperCase(Locale.ROOT));
+        }
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        var amount = Long.parseLong(text.substring(0, text.length() - 1));
+        return switch (text.charAt(text.length() - 1)) {
+            case 's' -> Duration.ofSeconds(amount);
+            case 'm' -> Duration.ofMinutes(amount);
+            case 'h' -> Duration.ofHours(amount);
+            default -> throw new IllegalArgumentException("Expected a duration like 500ms, 30s, 2m or 1h but was " + value);
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package net.toiditimtoi.jdbc;
+
+/**
+ * An immutable row of the post table.
+ * An id of 0 means the post has not been inserted yet, the database (or an id allocator) assigns the real one.
+ */
+public record Post(long id, String title, int version) {
+
+    public static Post newPost(String title) {
+        return new Post(0, title, 0);
+    }
+
+    public Post withId(long id) {
+        return new Post(id, title, version);
+    }
+
+    public Post withTitle(String title) {
+        return new Post(id, title, version);
+    }
+
+    public Post withVersion(int version) {
+        return new Post(id, title, version);
+    }
+
+    public boolean isNew() {
+        return id == 0;
+    }
+}
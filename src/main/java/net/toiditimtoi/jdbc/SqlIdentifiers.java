@@ -0,0 +1,37 @@
+package net.toiditimtoi.jdbc;
+
+import java.util.regex.Pattern;
+
+/**
+ * Checks the names concatenated into SQL, where a bind parameter cannot stand for them: only plain, unquoted
+ * identifiers are accepted, so a name coming from a configuration cannot smuggle SQL in.
+ */
+public final class SqlIdentifiers {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+
+    private SqlIdentifiers() {
+    }
+
+    /**
+     * @return the table name, optionally qualified by its schema
+     * @throws IllegalArgumentException when it is not one
+     */
+    public static String requireTableName(String table) {
+        if (table == null || !TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("Not a table name: " + table);
+        }
+        return table;
+    }
+
+    /**
+     * @return the column name
+     * @throws IllegalArgumentException when it is not one
+     */
+    public static String requireColumnName(String column) {
+        if (column == null || !IDENTIFIER.matcher(column).matches()) {
+            throw new IllegalArgumentException("Not a column name: " + column);
+        }
+        return column;
+    }
+}
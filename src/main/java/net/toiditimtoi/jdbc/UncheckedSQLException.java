@@ -0,0 +1,22 @@
+package net.toiditimtoi.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Carries a {@link SQLException} through APIs that cannot throw checked exceptions, like Iterator or Stream.
+ */
+public class UncheckedSQLException extends RuntimeException {
+
+    public UncheckedSQLException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    public UncheckedSQLException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
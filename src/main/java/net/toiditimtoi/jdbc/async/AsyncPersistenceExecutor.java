@@ -0,0 +1,258 @@
+package net.toiditimtoi.jdbc.async;
+
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs database work off the caller's thread and hands back a {@link CompletableFuture}.
+ * <p>
+ * A request needs a connection to make progress, so no more requests run than there are connections: a
+ * {@link Semaphore} with one permit per connection of the pool admits them, the others wait in a queue. Waiting costs
+ * no thread: a request only gets a thread once it is admitted, and the thread finishing a request admits the next one.
+ * So tens of thousands of requests can be in flight with only {@code maxConcurrency} threads busy, and none of them
+ * waits inside the pool for a connection.
+ * <p>
+ * On Java 21 and later the requests run on virtual threads, one per request. They are looked up reflectively so
+ * that the project still builds for Java 17, where a fixed pool of {@code maxConcurrency} platform threads is used
+ * instead. Nothing on the path of a request holds a monitor while it blocks, which would pin a virtual thread to its
+ * carrier: the pool and the statement cache only use atomics, and pgjdbc guards its connections with locks since 42.6.0.
+ * <p>
+ * The callbacks and the stages chained to the returned futures without an executor run on those threads, they
+ * should not block on anything but the database.
+ */
+public final class AsyncPersistenceExecutor implements AutoCloseable {
+    private static final int DEFAULT_MAX_QUEUED = 100_000;
+
+    @FunctionalInterface
+    public interface ConnectionCallback<T> {
+        T doInConnection(Connection connection) throws SQLException;
+    }
+
+    private record Request<T>(ConnectionCallback<T> callback, boolean transactional, CompletableFuture<T> future) {
+    }
+
+    private final DataSource dataSource;
+    private final int maxConcurrency;
+    private final int maxQueued;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Request<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private volatile boolean shutdown;
+
+    /**
+     * @param maxConcurrency requests running at the same time, at most the number of connections of the data source
+     * @param maxQueued      requests submitted and not started yet, the ones beyond are rejected
+     */
+    public AsyncPersistenceExecutor(DataSource dataSource, int maxConcurrency, int maxQueued) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1 but was " + maxConcurrency);
+        }
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("maxQueued must be at least 1 but was " + maxQueued);
+        }
+        this.dataSource = dataSource;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+        this.permits = new Semaphore(maxConcurrency);
+        var virtualThreadExecutor = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtualThreadExecutor != null;
+        this.executor = virtualThreads ? virtualThreadExecutor : newPlatformThreadPool(maxConcurrency);
+    }
+
+    /**
+     * One request per connection of the pool.
+     */
+    public AsyncPersistenceExecutor(PooledDataSource pool) {
+        this(pool, pool.getConfig().maxPoolSize(), DEFAULT_MAX_QUEUED);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            var factory = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invokeExact();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // before Java 21
+            return null;
+        } catch (UnsupportedOperationException e) {
+            // Java 19 and 20 without --enable-preview
+            return null;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot create the virtual thread executor", e);
+        }
+    }
+
+    private static ExecutorService newPlatformThreadPool(int threads) {
+        var count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            var thread = new Thread(runnable, "async-persistence-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the callback with a connection of its own, in auto-commit mode.
+     */
+    public <T> CompletableFuture<T> execute(ConnectionCallback<T> callback) {
+        return submit(callback, false);
+    }
+
+    /**
+     * Runs the callback in a transaction, committed when it returns and rolled back when it throws.
+     */
+    public <T> CompletableFuture<T> inTransaction(ConnectionCallback<T> callback) {
+        return submit(callback, true);
+    }
+
+    public <T> CompletableFuture<List<T>> query(String sql, RowMapper<T> mapper, Object... parameters) {
+        return execute(connection -> CachedStatements.query(connection, sql, mapper, parameters));
+    }
+
+    public <T> CompletableFuture<Optional<T>> queryFirst(String sql, RowMapper<T> mapper, Object... parameters) {
+        return execute(connection -> CachedStatements.queryFirst(connection, sql, mapper, parameters));
+    }
+
+    public CompletableFuture<Integer> executeUpdate(String sql, Object... parameters) {
+        return execute(connection -> CachedStatements.executeUpdate(connection, sql, parameters));
+    }
+
+    private <T> CompletableFuture<T> submit(ConnectionCallback<T> callback, boolean transactional) {
+        var future = new CompletableFuture<T>();
+        if (shutdown) {
+            future.completeExceptionally(new RejectedExecutionException("The executor has been closed"));
+            return future;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            future.completeExceptionally(new RejectedExecutionException(
+                    "%d requests are already waiting for one of the %d connections".formatted(maxQueued, maxConcurrency)));
+            return future;
+        }
+        queue.add(new Request<>(callback, transactional, future));
+        dispatch();
+        return future;
+    }
+
+    /**
+     * Starts queued requests while there are permits. Called after every submission and after every completion, so a
+     * request queued while all the permits were taken is started by the request which gives its permit back.
+     */
+    private void dispatch() {
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            var request = queue.poll();
+            if (request == null) {
+                // another thread took it, the loop checks again whether something was queued in between
+                permits.release();
+                continue;
+            }
+            queued.decrementAndGet();
+            try {
+                executor.execute(() -> run(request));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                request.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    private <T> void run(Request<T> request) {
+        try {
+            // cancelled while it was waiting
+            if (!request.future().isDone()) {
+                var result = call(request);
+                request.future().complete(result);
+            }
+        } catch (Throwable e) {
+            request.future().completeExceptionally(e);
+        } finally {
+            completed.increment();
+            permits.release();
+            dispatch();
+        }
+    }
+
+    private <T> T call(Request<T> request) throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            if (!request.transactional()) {
+                return request.callback().doInConnection(connection);
+            }
+            // closing the connection rolls back when the callback throws
+            connection.setAutoCommit(false);
+            var result = request.callback().doInConnection(connection);
+            connection.commit();
+            return result;
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Requests holding a permit, at most {@link #getMaxConcurrency()}.
+     */
+    public int getRunning() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * Requests waiting for a permit.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops accepting requests, lets the queued and running ones finish and waits for them.
+     */
+    @Override
+    public void close() {
+        shutdown = true;
+        try {
+            while (queued.get() > 0 || getRunning() > 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package net.toiditimtoi.jdbc.batch;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link BatchWriter}.
+ *
+ * @param batchSize           rows buffered before they are sent to the database in one round trip
+ * @param mode                how a batch is sent
+ * @param generatedKeyColumns columns whose generated values are read back, empty if we are not interested in them
+ */
+public record BatchConfig(int batchSize, Mode mode, List<String> generatedKeyColumns) {
+
+    public enum Mode {
+        /**
+         * {@link java.sql.PreparedStatement#addBatch()} for each row and one {@link java.sql.PreparedStatement#executeBatch()}.
+         * Works for any INSERT, UPDATE or DELETE.
+         */
+        JDBC_BATCH,
+        /**
+         * {@code INSERT ... VALUES (?, ?)} is rewritten into {@code INSERT ... VALUES (?, ?), (?, ?), ...} with one
+         * group per row, which is what pgjdbc does with {@code reWriteBatchedInserts=true}.
+         * The server parses and plans one statement per batch instead of one per row.
+         */
+        MULTI_ROW_INSERT
+    }
+
+    public BatchConfig {
+        Objects.requireNonNull(mode, "mode");
+        generatedKeyColumns = List.copyOf(generatedKeyColumns);
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+    }
+
+    public static BatchConfig of(int batchSize) {
+        return new BatchConfig(batchSize, Mode.JDBC_BATCH, List.of());
+    }
+
+    public BatchConfig rewritingInserts() {
+        return new BatchConfig(batchSize, Mode.MULTI_ROW_INSERT, generatedKeyColumns);
+    }
+
+    public BatchConfig returningKeys(String... columns) {
+        return new BatchConfig(batchSize, mode, List.of(columns));
+    }
+
+    public boolean returnsGeneratedKeys() {
+        return !generatedKeyColumns.isEmpty();
+    }
+}
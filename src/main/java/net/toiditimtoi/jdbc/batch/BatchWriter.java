@@ -0,0 +1,213 @@
+package net.toiditimtoi.jdbc.batch;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers rows and writes them with one round trip per batch instead of one per row.
+ * <pre>{@code
+ * try (var writer = new BatchWriter<Post>(connection, "INSERT INTO post(title, version) VALUES (?, ?)",
+ *         BatchConfig.of(50).rewritingInserts().returningKeys("id"),
+ *         (statement, index, post) -> {
+ *             statement.setString(index, post.title());
+ *             statement.setInt(index + 1, post.version());
+ *         })) {
+ *     writer.onGeneratedKey((post, id) -> ...);
+ *     posts.forEach(writer::add);
+ * }
+ * }</pre>
+ * A batch is sent as soon as {@link BatchConfig#batchSize()} rows are buffered, the remaining rows are sent by
+ * {@link #flush()} or {@link #close()}. The writer does not commit, transaction demarcation is left to the caller.
+ * <p>
+ * Like the connection it writes to, a writer must not be shared between threads.
+ */
+public final class BatchWriter<T> implements AutoCloseable {
+    private final Connection connection;
+    private final String sql;
+    private final BatchConfig config;
+    private final ParameterBinder<T> binder;
+    private final InsertRewriter rewriter;
+    private final List<T> pending;
+
+    private PreparedStatement fullBatchStatement;
+    private GeneratedKeyListener<? super T> keyListener = (row, key) -> { };
+    private RowCountListener<? super T> countListener = (row, count) -> { };
+    private long rowsWritten;
+    private long rowsAffected;
+    private long roundTrips;
+
+    public BatchWriter(Connection connection, String sql, BatchConfig config, ParameterBinder<T> binder) {
+        this.connection = connection;
+        this.sql = sql;
+        this.config = config;
+        this.binder = binder;
+        this.pending = new ArrayList<>(config.batchSize());
+        if (config.mode() == BatchConfig.Mode.MULTI_ROW_INSERT) {
+            this.rewriter = new InsertRewriter(sql);
+            if ((long) rewriter.parametersPerRow() * config.batchSize() > InsertRewriter.MAX_BIND_PARAMETERS) {
+                throw new IllegalArgumentException("A batch of %d rows with %d parameters each exceeds the %d bind parameters Postgres accepts"
+                        .formatted(config.batchSize(), rewriter.parametersPerRow(), InsertRewriter.MAX_BIND_PARAMETERS));
+            }
+        } else {
+            this.rewriter = null;
+        }
+    }
+
+    /**
+     * Called for every row once its batch has been written, with the value of the first generated key column.
+     * Only useful when the config asks for {@link BatchConfig#returningKeys(String...)}.
+     */
+    public BatchWriter<T> onGeneratedKey(GeneratedKeyListener<? super T> keyListener) {
+        this.keyListener = keyListener;
+        return this;
+    }
+
+    /**
+     * Called for every row once its batch has been written, with the update count of that row.
+     * Only a JDBC batch reports counts per row, a rewritten multi-row INSERT is a single statement.
+     */
+    public BatchWriter<T> onRowCount(RowCountListener<? super T> countListener) {
+        if (rewriter != null) {
+            throw new IllegalStateException("Row counts are only reported per row in JDBC_BATCH mode");
+        }
+        this.countListener = countListener;
+        return this;
+    }
+
+    public void add(T row) throws SQLException {
+        pending.add(row);
+        if (pending.size() >= config.batchSize()) {
+            flush();
+        }
+    }
+
+    public void addAll(Iterable<? extends T> rows) throws SQLException {
+        for (var row : rows) {
+            add(row);
+        }
+    }
+
+    /**
+     * Sends the buffered rows, if any.
+     *
+     * @return the number of rows inserted, updated or deleted by this flush
+     */
+    public long flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        try {
+            var affected = rewriter != null ? flushRewritten() : flushJdbcBatch();
+            roundTrips++;
+            rowsWritten += pending.size();
+            rowsAffected += affected;
+            return affected;
+        } finally {
+            // a failed batch is not retried: the transaction it belonged to is aborted anyway
+            pending.clear();
+        }
+    }
+
+    private long flushJdbcBatch() throws SQLException {
+        var statement = fullBatchStatement();
+        for (var row : pending) {
+            binder.bind(statement, 1, row);
+            statement.addBatch();
+        }
+        int[] counts;
+        try {
+            counts = statement.executeBatch();
+        } catch (SQLException e) {
+            statement.clearBatch();
+            throw e;
+        }
+        var affected = 0L;
+        for (var i = 0; i < counts.length; i++) {
+            // drivers may answer SUCCESS_NO_INFO instead of a count, the row was still written
+            affected += counts[i] == Statement.SUCCESS_NO_INFO ? 1 : counts[i];
+            countListener.onCount(pending.get(i), counts[i]);
+        }
+        readGeneratedKeys(statement);
+        return affected;
+    }
+
+    private long flushRewritten() throws SQLException {
+        // full batches reuse one statement, only the last partial batch needs its own
+        if (pending.size() == config.batchSize()) {
+            return executeRewritten(fullBatchStatement());
+        }
+        try (var statement = prepare(rewriter.rewrite(pending.size()))) {
+            return executeRewritten(statement);
+        }
+    }
+
+    private long executeRewritten(PreparedStatement statement) throws SQLException {
+        var index = 1;
+        for (var row : pending) {
+            binder.bind(statement, index, row);
+            index += rewriter.parametersPerRow();
+        }
+        var affected = statement.executeUpdate();
+        readGeneratedKeys(statement);
+        return affected;
+    }
+
+    private void readGeneratedKeys(PreparedStatement statement) throws SQLException {
+        if (!config.returnsGeneratedKeys()) {
+            return;
+        }
+        try (var keys = statement.getGeneratedKeys()) {
+            for (var row : pending) {
+                if (!keys.next()) {
+                    throw new SQLException("The driver returned fewer generated keys than the %d rows written".formatted(pending.size()));
+                }
+                keyListener.onKey(row, keys.getLong(1));
+            }
+        }
+    }
+
+    private PreparedStatement fullBatchStatement() throws SQLException {
+        if (fullBatchStatement == null) {
+            fullBatchStatement = prepare(rewriter != null ? rewriter.rewrite(config.batchSize()) : sql);
+        }
+        return fullBatchStatement;
+    }
+
+    private PreparedStatement prepare(String statementSql) throws SQLException {
+        if (config.returnsGeneratedKeys()) {
+            return connection.prepareStatement(statementSql, config.generatedKeyColumns().toArray(String[]::new));
+        }
+        return connection.prepareStatement(statementSql);
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Flushes the remaining rows and closes the statement.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            if (fullBatchStatement != null) {
+                fullBatchStatement.close();
+                fullBatchStatement = null;
+            }
+        }
+    }
+}
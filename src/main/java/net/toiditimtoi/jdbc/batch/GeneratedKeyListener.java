@@ -0,0 +1,9 @@
+package net.toiditimtoi.jdbc.batch;
+
+/**
+ * Receives the key the database generated for a row, in the order the rows were added to the {@link BatchWriter}.
+ */
+@FunctionalInterface
+public interface GeneratedKeyListener<T> {
+    void onKey(T row, long key);
+}
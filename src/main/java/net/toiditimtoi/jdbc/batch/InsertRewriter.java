@@ -0,0 +1,79 @@
+package net.toiditimtoi.jdbc.batch;
+
+import java.util.Locale;
+
+/**
+ * Turns {@code INSERT INTO post(title, version) VALUES (?, ?)} into the same statement with n VALUES groups.
+ */
+final class InsertRewriter {
+    // Postgres binds at most this many parameters in one statement
+    static final int MAX_BIND_PARAMETERS = 32767;
+
+    private final String prefix;
+    private final String valuesGroup;
+    private final String suffix;
+    private final int parametersPerRow;
+
+    InsertRewriter(String sql) {
+        var upper = sql.toUpperCase(Locale.ROOT);
+        if (!upper.stripLeading().startsWith("INSERT")) {
+            throw new IllegalArgumentException("Only INSERT statements can be rewritten into a multi-row VALUES list: " + sql);
+        }
+        var valuesAt = upper.indexOf("VALUES");
+        var open = valuesAt < 0 ? -1 : sql.indexOf('(', valuesAt);
+        var close = open < 0 ? -1 : matchingParenthesis(sql, open);
+        if (close < 0) {
+            throw new IllegalArgumentException("Cannot find the VALUES (...) group of: " + sql);
+        }
+        this.prefix = sql.substring(0, open);
+        this.valuesGroup = sql.substring(open, close + 1);
+        this.suffix = sql.substring(close + 1);
+        this.parametersPerRow = countParameters(valuesGroup);
+        if (countParameters(prefix) + countParameters(suffix) > 0) {
+            throw new IllegalArgumentException("Parameters outside of the VALUES group cannot be repeated per row: " + sql);
+        }
+    }
+
+    int parametersPerRow() {
+        return parametersPerRow;
+    }
+
+    String rewrite(int rows) {
+        var sql = new StringBuilder(prefix.length() + suffix.length() + rows * (valuesGroup.length() + 2));
+        sql.append(prefix).append(valuesGroup);
+        for (var i = 1; i < rows; i++) {
+            sql.append(", ").append(valuesGroup);
+        }
+        return sql.append(suffix).toString();
+    }
+
+    private static int matchingParenthesis(String sql, int open) {
+        var depth = 0;
+        var quoted = false;
+        for (var i = open; i < sql.length(); i++) {
+            var c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int countParameters(String sql) {
+        var count = 0;
+        var quoted = false;
+        for (var i = 0; i < sql.length(); i++) {
+            var c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,14 @@
+package net.toiditimtoi.jdbc.batch;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Sets the parameters of one row on a statement.
+ * The first parameter of the row is at {@code firstIndex}, the next one at {@code firstIndex + 1} and so on.
+ * When inserts are rewritten into a multi-row VALUES list, the same binder is called once per row with a growing index.
+ */
+@FunctionalInterface
+public interface ParameterBinder<T> {
+    void bind(PreparedStatement statement, int firstIndex, T row) throws SQLException;
+}
@@ -0,0 +1,11 @@
+package net.toiditimtoi.jdbc.batch;
+
+/**
+ * Receives the update count of every row of a JDBC batch, in the order the rows were added to the {@link BatchWriter}.
+ * A count of 0 for an UPDATE means its WHERE clause matched nothing, which is how an optimistic lock conflict shows up.
+ * {@link java.sql.Statement#SUCCESS_NO_INFO} means the driver did not tell.
+ */
+@FunctionalInterface
+public interface RowCountListener<T> {
+    void onCount(T row, int count);
+}
@@ -0,0 +1,79 @@
+package net.toiditimtoi.jdbc.cache;
+
+/**
+ * Approximate access frequencies of post ids, the "TinyLFU" part of the cache.
+ * <p>
+ * A count-min sketch with 4-bit counters: every id increments one counter in each of 4 rows, its frequency is the
+ * smallest of them. It costs half a byte per counter whatever the number of ids seen, including the ids that were
+ * never admitted. Once {@code 10 * maximumSize} increments happened, all counters are halved, so that ids which were
+ * popular a long time ago do not stay popular forever.
+ * <p>
+ * Not thread-safe, used under the eviction lock of {@link PostCache}.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    // clears the bit shifted in from the neighbouring counter when all counters are halved at once
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    // 16 counters of 4 bits per long
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        var length = Integer.highestOneBit(Math.max(8, maximumSize - 1) << 1);
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+    }
+
+    int frequency(long key) {
+        var hash = spread(key);
+        var frequency = MAX_COUNT;
+        for (var i = 0; i < 4; i++) {
+            frequency = Math.min(frequency, (int) (table[slot(hash, i)] >>> offset(hash, i)) & MAX_COUNT);
+        }
+        return frequency;
+    }
+
+    void increment(long key) {
+        var hash = spread(key);
+        var added = false;
+        for (var i = 0; i < 4; i++) {
+            var slot = slot(hash, i);
+            var offset = offset(hash, i);
+            if (((table[slot] >>> offset) & MAX_COUNT) != MAX_COUNT) {
+                table[slot] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (var i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int slot(long hash, int row) {
+        var h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int offset(long hash, int row) {
+        // which of the 16 counters of the long, a different one per row
+        return (int) ((hash >>> (row << 2)) & 15) << 2;
+    }
+
+    private static long spread(long key) {
+        var h = key * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,408 @@
+package net.toiditimtoi.jdbc.cache;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of posts by id, so that reading a hot post does not cost a connection and a round trip every time.
+ * <p>
+ * Eviction follows W-TinyLFU: a new post enters a small LRU window (1% of the cache). When it leaves the window it
+ * only gets into the main area if it was requested more often than the post it would evict, according to a
+ * {@link FrequencySketch} remembering the frequency of every id requested, cached or not. So a burst of posts read
+ * once, like a scan, cannot push the popular posts out. The main area is a segmented LRU: posts hit again while
+ * on probation are promoted to the protected segment (80% of the main area).
+ * <p>
+ * Hits never lock: the posts are read from a {@link ConcurrentHashMap} and the access is recorded in a lossy ring
+ * buffer, which is replayed on the eviction policy by whichever thread gets the lock. When the buffer is full,
+ * accesses are dropped, which only makes the recency order slightly less precise.
+ * <p>
+ * Entries are immutable {@link Post} snapshots, and a cached post is only ever replaced by a higher version of it.
+ * Writers refresh the cache with the posts they committed (see {@link #refresh(Post)}), a load that read the
+ * previous version before the commit and finishes after it cannot overwrite the newer post.
+ * {@link net.toiditimtoi.jdbc.update.OptimisticPostUpdater} and
+ * {@link net.toiditimtoi.jdbc.context.PostPersistenceContext} do that for the posts they update, and invalidate the
+ * ones they delete; code changing posts with plain SQL has to {@link #invalidate(long)} them. Invalidating a post also
+ * discards the load of it in flight, if any: it may have read the row before the change, and caching it would keep
+ * the stale or deleted post until it is evicted.
+ */
+public final class PostCache {
+    private static final String SELECT_POST_SQL = "SELECT id, title, version FROM post WHERE id = ?";
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node {
+        final long id;
+        volatile Post post;
+        // guarded by the eviction lock, null once the node left the cache
+        Segment segment;
+        Node previous;
+        Node next;
+
+        Node(Post post) {
+            this.id = post.id();
+            this.post = post;
+        }
+    }
+
+    /**
+     * A SELECT in flight, which the threads missing the same post wait for.
+     */
+    private static final class Load {
+        final CompletableFuture<Optional<Post>> future = new CompletableFuture<>();
+        // guarded by the eviction lock, set when the post is invalidated while it is loaded
+        boolean invalidated;
+    }
+
+    /**
+     * Doubly linked list of nodes, the eldest at the head.
+     */
+    private static final class AccessOrder {
+        Node head;
+        Node tail;
+        int size;
+
+        void add(Node node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToTail(Node node) {
+            if (node != tail) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        Node poll() {
+            var node = head;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final int maximumSize;
+    private final int maximumWindow;
+    private final int maximumMain;
+    private final int maximumProtected;
+    private final PostCacheStats stats = new PostCacheStats();
+
+    private final ConcurrentHashMap<Long, Node> posts;
+    private final ConcurrentHashMap<Long, Load> loading = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<Node> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferWrites = new AtomicLong();
+    private volatile long readBufferReads;
+
+    // everything below is guarded by the eviction lock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protectedSegment = new AccessOrder();
+
+    public PostCache(DataSource dataSource, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1 but was " + maximumSize);
+        }
+        this.dataSource = dataSource;
+        this.maximumSize = maximumSize;
+        this.maximumWindow = Math.max(1, maximumSize / 100);
+        this.maximumMain = maximumSize - maximumWindow;
+        this.maximumProtected = maximumMain * 4 / 5;
+        this.posts = new ConcurrentHashMap<>(maximumSize * 4 / 3 + 1);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * The post with the given id, read from the database on a miss.
+     * Threads missing the same post at the same time wait for a single SELECT.
+     */
+    public Optional<Post> get(long id) throws SQLException {
+        var node = posts.get(id);
+        if (node != null) {
+            stats.hits.increment();
+            recordRead(node);
+            return Optional.of(node.post);
+        }
+        stats.misses.increment();
+        return load(id);
+    }
+
+    /**
+     * The cached post, without loading it on a miss and without counting a hit or a miss.
+     */
+    public Optional<Post> getIfPresent(long id) {
+        var node = posts.get(id);
+        return node == null ? Optional.empty() : Optional.of(node.post);
+    }
+
+    private Optional<Post> load(long id) throws SQLException {
+        var load = new Load();
+        var inFlight = loading.putIfAbsent(id, load);
+        if (inFlight != null) {
+            return await(inFlight.future);
+        }
+        try {
+            var start = System.nanoTime();
+            Optional<Post> post;
+            try (var connection = dataSource.getConnection()) {
+                post = CachedStatements.queryFirst(connection, SELECT_POST_SQL, RowMappers.forRecord(Post.class), id);
+            }
+            stats.loads.increment();
+            stats.loadNanos.add(System.nanoTime() - start);
+            post.ifPresent(loaded -> cacheLoaded(load, loaded));
+            load.future.complete(post);
+            return post;
+        } catch (SQLException | RuntimeException e) {
+            load.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, load);
+        }
+    }
+
+    private void cacheLoaded(Load load, Post post) {
+        evictionLock.lock();
+        try {
+            if (load.invalidated) {
+                // the callers of the load still get the post, it was current when they asked for it
+                stats.discardedLoads.increment();
+                return;
+            }
+            put(post);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static Optional<Post> await(CompletableFuture<Optional<Post>> load) throws SQLException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for another thread loading the same post", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException cause) {
+                throw new SQLException(cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), cause);
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Caches the given committed post, unless a higher version of it is already cached.
+     * Must only be called once the transaction which wrote the post committed.
+     */
+    public void refresh(Post post) {
+        evictionLock.lock();
+        try {
+            put(post);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void put(Post post) {
+        drainReadBuffer();
+        var node = posts.get(post.id());
+        if (node == null) {
+            node = new Node(post);
+            posts.put(post.id(), node);
+            onAdd(node);
+        } else if (node.post.version() < post.version()) {
+            node.post = post;
+            onAccess(node);
+        }
+    }
+
+    public void refresh(Collection<Post> posts) {
+        posts.forEach(this::refresh);
+    }
+
+    /**
+     * Forgets the post, after it was changed or deleted without going through {@link #refresh(Post)}, and keeps a load
+     * of it in flight from caching what it read.
+     */
+    public void invalidate(long id) {
+        evictionLock.lock();
+        try {
+            var load = loading.get(id);
+            if (load != null) {
+                load.invalidated = true;
+            }
+            var node = posts.remove(id);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        evictionLock.lock();
+        try {
+            loading.values().forEach(load -> load.invalidated = true);
+            posts.values().forEach(this::unlink);
+            posts.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void recordRead(Node node) {
+        var writes = readBufferWrites.get();
+        var pending = writes - readBufferReads;
+        if (pending < READ_BUFFER_SIZE && readBufferWrites.compareAndSet(writes, writes + 1)) {
+            readBuffer.lazySet((int) (writes & READ_BUFFER_MASK), node);
+            pending++;
+        }
+        if (pending >= READ_BUFFER_SIZE / 2 && evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        var reads = readBufferReads;
+        var writes = readBufferWrites.get();
+        for (; reads < writes; reads++) {
+            var node = readBuffer.getAndSet((int) (reads & READ_BUFFER_MASK), null);
+            if (node == null) {
+                // the slot was claimed but not written yet, resume from here on the next drain
+                break;
+            }
+            if (node.segment != null) {
+                onAccess(node);
+            }
+        }
+        readBufferReads = reads;
+    }
+
+    private void onAccess(Node node) {
+        sketch.increment(node.id);
+        switch (node.segment) {
+            case WINDOW -> window.moveToTail(node);
+            case PROBATION -> {
+                probation.remove(node);
+                node.segment = Segment.PROTECTED;
+                protectedSegment.add(node);
+                if (protectedSegment.size > maximumProtected) {
+                    var demoted = protectedSegment.poll();
+                    demoted.segment = Segment.PROBATION;
+                    probation.add(demoted);
+                }
+            }
+            case PROTECTED -> protectedSegment.moveToTail(node);
+        }
+    }
+
+    private void onAdd(Node node) {
+        sketch.increment(node.id);
+        node.segment = Segment.WINDOW;
+        window.add(node);
+        if (window.size > maximumWindow) {
+            admit(window.poll());
+        }
+    }
+
+    /**
+     * A post leaving the window gets into the main area if there is room, or if it is more popular than the eldest
+     * post on probation, which is then evicted instead.
+     */
+    private void admit(Node candidate) {
+        if (probation.size + protectedSegment.size < maximumMain) {
+            candidate.segment = Segment.PROBATION;
+            probation.add(candidate);
+            return;
+        }
+        if (probation.size == 0 && protectedSegment.size > 0) {
+            var demoted = protectedSegment.poll();
+            demoted.segment = Segment.PROBATION;
+            probation.add(demoted);
+        }
+        var victim = probation.head;
+        if (victim != null && sketch.frequency(candidate.id) > sketch.frequency(victim.id)) {
+            probation.remove(victim);
+            evict(victim);
+            candidate.segment = Segment.PROBATION;
+            probation.add(candidate);
+        } else {
+            evict(candidate);
+        }
+    }
+
+    private void evict(Node node) {
+        node.segment = null;
+        if (posts.remove(node.id, node)) {
+            stats.evictions.increment();
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.segment == null) {
+            return;
+        }
+        switch (node.segment) {
+            case WINDOW -> window.remove(node);
+            case PROBATION -> probation.remove(node);
+            case PROTECTED -> protectedSegment.remove(node);
+        }
+        node.segment = null;
+    }
+
+    public int size() {
+        return posts.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public PostCacheStats getStats() {
+        return stats;
+    }
+}
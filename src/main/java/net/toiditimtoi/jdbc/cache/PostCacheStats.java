@@ -0,0 +1,62 @@
+package net.toiditimtoi.jdbc.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a {@link PostCache} saved, and what its misses cost.
+ * Every miss is a round trip to the database, so {@link #getHits()} is the number of round trips saved.
+ */
+public final class PostCacheStats {
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder loads = new LongAdder();
+    final LongAdder loadNanos = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder discardedLoads = new LongAdder();
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * How many SELECTs were sent. Lower than {@link #getMisses()} when threads missing the same post share one load.
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Loads not cached because the post was invalidated while they were in flight.
+     */
+    public long getDiscardedLoads() {
+        return discardedLoads.sum();
+    }
+
+    /**
+     * Average time spent loading a post on a miss, borrowing the connection included.
+     */
+    public double getAverageLoadNanos() {
+        var loads = getLoads();
+        return loads == 0 ? 0 : (double) loadNanos.sum() / loads;
+    }
+
+    public double getHitRatio() {
+        var hits = getHits();
+        var total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "PostCacheStats[hits=%d, misses=%d, loads=%d, evictions=%d, discardedLoads=%d, averageLoad=%.0fus]"
+                .formatted(getHits(), getMisses(), getLoads(), getEvictions(), getDiscardedLoads(), getAverageLoadNanos() / 1_000);
+    }
+}
@@ -0,0 +1,50 @@
+package net.toiditimtoi.jdbc.cache;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link QueryResultCache}.
+ * Start from {@link #defaults()} and adjust with the {@code withXxx} methods.
+ *
+ * @param maximumBytes   the estimated size of the cached rows above which the least recently used results are
+ *                       evicted, see {@link RowSet#estimatedBytes()}
+ * @param pollInterval   how long the listener waits for notifications before checking whether the cache was closed
+ * @param reconnectDelay how long the listener waits before listening again after losing its connection. The cache is
+ *                       bypassed meanwhile, since it would not hear about the writes
+ */
+public record QueryCacheConfig(long maximumBytes, Duration pollInterval, Duration reconnectDelay) {
+
+    public QueryCacheConfig {
+        Objects.requireNonNull(pollInterval, "pollInterval");
+        Objects.requireNonNull(reconnectDelay, "reconnectDelay");
+        if (maximumBytes < 1) {
+            throw new IllegalArgumentException("maximumBytes must be at least 1 but was " + maximumBytes);
+        }
+        if (pollInterval.isNegative() || pollInterval.isZero()) {
+            throw new IllegalArgumentException("pollInterval must be positive but was " + pollInterval);
+        }
+        if (reconnectDelay.isNegative()) {
+            throw new IllegalArgumentException("reconnectDelay must not be negative but was " + reconnectDelay);
+        }
+    }
+
+    /**
+     * 64 MB of results, the listener polling every 500 ms and reconnecting after a second.
+     */
+    public static QueryCacheConfig defaults() {
+        return new QueryCacheConfig(64L << 20, Duration.ofMillis(500), Duration.ofSeconds(1));
+    }
+
+    public QueryCacheConfig withMaximumBytes(long maximumBytes) {
+        return new QueryCacheConfig(maximumBytes, pollInterval, reconnectDelay);
+    }
+
+    public QueryCacheConfig withPollInterval(Duration pollInterval) {
+        return new QueryCacheConfig(maximumBytes, pollInterval, reconnectDelay);
+    }
+
+    public QueryCacheConfig withReconnectDelay(Duration reconnectDelay) {
+        return new QueryCacheConfig(maximumBytes, pollInterval, reconnectDelay);
+    }
+}
@@ -0,0 +1,82 @@
+package net.toiditimtoi.jdbc.cache;
+
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a {@link QueryResultCache} saved, and how quickly it heard about the writes.
+ * Queries the cache cannot follow are sent to the database and counted as bypasses, neither hits nor misses.
+ */
+public final class QueryCacheStats {
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder bypasses = new LongAdder();
+    final LongAdder discardedLoads = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder invalidations = new LongAdder();
+    final LongAdder notifications = new LongAdder();
+    final LatencyHistogram invalidationLag = new LatencyHistogram();
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Queries which were not cacheable: not a plain SELECT, or reading a table without a notification trigger, or
+     * sent while the listener was not connected.
+     */
+    public long getBypasses() {
+        return bypasses.sum();
+    }
+
+    /**
+     * Results read while one of their tables was written, not cached since they may already be stale.
+     */
+    public long getDiscardedLoads() {
+        return discardedLoads.sum();
+    }
+
+    /**
+     * Results evicted to stay within the size bound.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Results removed because one of their tables was written.
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getNotifications() {
+        return notifications.sum();
+    }
+
+    /**
+     * Time from the write, as stamped by the trigger with the clock of the database, to the eviction of the results
+     * reading the table. Meaningful when the clocks of the database and of this JVM agree.
+     */
+    public LatencyHistogram getInvalidationLag() {
+        return invalidationLag;
+    }
+
+    public double getHitRatio() {
+        var hits = getHits();
+        var total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCacheStats[hits=%d, misses=%d, bypasses=%d, evictions=%d, invalidations=%d, notifications=%d, lagP99=%dus]"
+                .formatted(getHits(), getMisses(), getBypasses(), getEvictions(), getInvalidations(), getNotifications(),
+                        invalidationLag.getValueAtPercentile(99) / 1_000);
+    }
+}
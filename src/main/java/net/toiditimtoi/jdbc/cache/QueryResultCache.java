@@ -0,0 +1,447 @@
+package net.toiditimtoi.jdbc.cache;
+
+import net.toiditimtoi.jdbc.SqlIdentifiers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.postgresql.PGConnection;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Results of the SELECTs run again and again, kept in memory until one of the tables they read is written, by this
+ * JVM or by any other.
+ * <p>
+ * Results are keyed by the SQL, whitespace normalized, and the bound parameters, compared with {@code equals}. They
+ * are stored as immutable {@link RowSet}s, and the least recently used ones are evicted when their estimated size
+ * goes above {@link QueryCacheConfig#maximumBytes()}.
+ * <p>
+ * Invalidation is per table, tables being told apart by their schema: a query on {@code other.post} is not cached
+ * because {@code public.post} is watched. {@link #watch(String...)} installs a statement-level trigger on a table,
+ * which sends a notification on the {@value #CHANNEL} channel for every INSERT, UPDATE, DELETE or TRUNCATE, whoever
+ * runs it. Postgres delivers notifications when the writing transaction commits, and a listener thread holding one
+ * connection of the pool evicts the results of the table as soon as it receives them, usually within a millisecond or
+ * two. Until then, another JVM may still read the previous results: the
+ * {@link QueryCacheStats#getInvalidationLag() lag} measures how long that window is.
+ * <p>
+ * A JVM can read its own writes immediately: writers commit through {@link #commit(Connection, String...)}, or call
+ * {@link #invalidate(String)} after an autocommitted write. A result loaded while one of its tables is invalidated
+ * may have read the previous rows, so it is not cached.
+ * <p>
+ * Only queries whose tables are all watched are cached, everything else goes straight to the database: statements
+ * which are not a plain SELECT, locking reads, queries calling a function other than the usual aggregates and a few
+ * immutable ones, since it may be volatile or read other tables, and any query run while the listener is not
+ * connected, since the cache would not hear about the writes meanwhile.
+ */
+public final class QueryResultCache implements AutoCloseable {
+    public static final String CHANNEL = "query_cache";
+    private static final System.Logger LOGGER = System.getLogger(QueryResultCache.class.getName());
+    // the payload is the schema-qualified table and the time of the write in microseconds, to measure the
+    // invalidation lag
+    private static final String NOTIFY_FUNCTION_SQL = "CREATE OR REPLACE FUNCTION query_cache_notify() RETURNS trigger AS $$ "
+            + "BEGIN "
+            + "PERFORM pg_notify('" + CHANNEL + "', TG_TABLE_SCHEMA || '.' || TG_TABLE_NAME || ':' || (extract(epoch FROM clock_timestamp()) * 1000000)::bigint); "
+            + "RETURN NULL; "
+            + "END $$ LANGUAGE plpgsql";
+    // the table a name stands for, through the search_path when it is not qualified; no row when there is none
+    private static final String QUALIFIED_NAME_SQL = "SELECT n.nspname || '.' || c.relname FROM pg_class c "
+            + "JOIN pg_namespace n ON n.oid = c.relnamespace WHERE c.oid = to_regclass(?)";
+    // the SQL of an application is a fixed set of strings, this only bounds a misuse
+    private static final int MAX_SHAPES = 10_000;
+
+    private record Shape(String sql, Set<String> tables) {
+    }
+
+    private record Key(String sql, List<Object> parameters) {
+    }
+
+    private record Entry(RowSet rows, Set<String> tables) {
+    }
+
+    private final DataSource dataSource;
+    private final QueryCacheConfig config;
+    private final QueryCacheStats stats = new QueryCacheStats();
+    private final Map<String, Shape> shapes = new ConcurrentHashMap<>();
+    // schema-qualified, lower case
+    private final Set<String> watchedTables = ConcurrentHashMap.newKeySet();
+    private final Thread listener;
+    private volatile boolean listening;
+    private volatile boolean closed;
+
+    // everything below is guarded by the lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<Key>> keysByTable = new HashMap<>();
+    // bumped by every invalidation, a load is only cached if the generations of its tables did not move
+    private final Map<String, Long> generations = new HashMap<>();
+    private long epoch;
+    private long bytes;
+
+    public QueryResultCache(DataSource dataSource, QueryCacheConfig config) {
+        this.dataSource = dataSource;
+        this.config = config;
+        this.listener = new Thread(this::listen, "query-cache-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    public QueryResultCache(DataSource dataSource) {
+        this(dataSource, QueryCacheConfig.defaults());
+    }
+
+    public QueryCacheConfig getConfig() {
+        return config;
+    }
+
+    public QueryCacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Whether the listener is connected. When it is not, every query is sent to the database.
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * The watched tables, schema-qualified.
+     */
+    public Set<String> getWatchedTables() {
+        return Set.copyOf(watchedTables);
+    }
+
+    /**
+     * Installs the notification trigger on the tables, so that the results reading them can be cached. A table not
+     * qualified with its schema is the one the search_path finds. Installing it again, from this JVM or another one,
+     * is harmless.
+     */
+    public void watch(String... tables) throws SQLException {
+        for (var table : tables) {
+            SqlIdentifiers.requireTableName(table);
+        }
+        var qualified = new ArrayList<String>(tables.length);
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            try {
+                statement.execute(NOTIFY_FUNCTION_SQL);
+                for (var table : tables) {
+                    statement.execute("DROP TRIGGER IF EXISTS query_cache_notify ON " + table);
+                    statement.execute("CREATE TRIGGER query_cache_notify AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON "
+                            + table + " FOR EACH STATEMENT EXECUTE FUNCTION query_cache_notify()");
+                    qualified.add(qualifiedName(connection, table)
+                            .orElseThrow(() -> new SQLException("Table %s does not exist".formatted(table), "42P01")));
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        watchedTables.addAll(qualified);
+    }
+
+    /**
+     * The rows of the query, from the cache when the same query with the same parameters was run since its tables
+     * were last written.
+     */
+    public RowSet query(String sql, Object... parameters) throws SQLException {
+        var shape = shapeOf(sql);
+        if (!listening || shape.tables().isEmpty() || !watchedTables.containsAll(shape.tables())) {
+            stats.bypasses.increment();
+            return load(sql, parameters);
+        }
+        var key = new Key(shape.sql(), Arrays.asList(parameters.clone()));
+        long generation;
+        lock.lock();
+        try {
+            var entry = entries.get(key);
+            if (entry != null) {
+                stats.hits.increment();
+                return entry.rows();
+            }
+            generation = generationOf(shape.tables());
+        } finally {
+            lock.unlock();
+        }
+        stats.misses.increment();
+        var rows = load(shape.sql(), parameters);
+        lock.lock();
+        try {
+            if (listening && generation == generationOf(shape.tables())) {
+                store(key, new Entry(rows, shape.tables()));
+            } else {
+                stats.discardedLoads.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return rows;
+    }
+
+    public <T> List<T> query(String sql, RowSet.RowReader<T> reader, Object... parameters) throws SQLException {
+        return query(sql, parameters).map(reader);
+    }
+
+    private Shape shapeOf(String sql) throws SQLException {
+        var shape = shapes.get(sql);
+        if (shape == null) {
+            if (shapes.size() >= MAX_SHAPES) {
+                shapes.clear();
+            }
+            var normalized = SqlTables.normalize(sql);
+            shape = new Shape(normalized, qualifiedNames(SqlTables.tablesOf(normalized)));
+            shapes.put(sql, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * The tables the names read by a query stand for, resolved once per query. Empty when one of them is not a table.
+     */
+    private Set<String> qualifiedNames(Set<String> tables) throws SQLException {
+        if (tables.isEmpty()) {
+            return Set.of();
+        }
+        var qualified = new HashSet<String>();
+        try (var connection = dataSource.getConnection()) {
+            for (var table : tables) {
+                var name = qualifiedName(connection, table);
+                if (name.isEmpty()) {
+                    // the query fails, or the table was dropped since; not worth caching either way
+                    return Set.of();
+                }
+                qualified.add(name.get());
+            }
+        }
+        return Set.copyOf(qualified);
+    }
+
+    private static Optional<String> qualifiedName(Connection connection, String table) throws SQLException {
+        return CachedStatements.queryFirst(connection, QUALIFIED_NAME_SQL, resultSet -> resultSet.getString(1), table)
+                .map(name -> name.toLowerCase(Locale.ROOT));
+    }
+
+    private RowSet load(String sql, Object[] parameters) throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return CachedStatements.execute(connection, sql, statement -> {
+                for (var i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                try (var resultSet = statement.executeQuery()) {
+                    return RowSet.read(resultSet);
+                }
+            });
+        }
+    }
+
+    /**
+     * Generations only grow, so their sum changes as soon as any of them does.
+     */
+    private long generationOf(Set<String> tables) {
+        var generation = epoch;
+        for (var table : tables) {
+            generation += generations.getOrDefault(table, 0L);
+        }
+        return generation;
+    }
+
+    private void store(Key key, Entry entry) {
+        var size = entry.rows().estimatedBytes();
+        if (size > config.maximumBytes()) {
+            stats.evictions.increment();
+            return;
+        }
+        var previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.rows().estimatedBytes();
+        }
+        bytes += size;
+        for (var table : entry.tables()) {
+            keysByTable.computeIfAbsent(table, ignored -> new HashSet<>()).add(key);
+        }
+        var eldest = entries.entrySet().iterator();
+        while (bytes > config.maximumBytes()) {
+            var evicted = eldest.next();
+            eldest.remove();
+            forget(evicted.getKey(), evicted.getValue());
+            stats.evictions.increment();
+        }
+    }
+
+    private void forget(Key key, Entry entry) {
+        bytes -= entry.rows().estimatedBytes();
+        for (var table : entry.tables()) {
+            var keys = keysByTable.get(table);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByTable.remove(table);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts the results reading the table. Results being loaded meanwhile are not cached. A table not qualified with
+     * its schema stands for the watched tables of that name in every schema.
+     */
+    public void invalidate(String table) {
+        var name = table.toLowerCase(Locale.ROOT);
+        lock.lock();
+        try {
+            if (name.indexOf('.') >= 0) {
+                invalidateQualified(name);
+            } else {
+                for (var watched : watchedTables) {
+                    if (watched.endsWith("." + name)) {
+                        invalidateQualified(watched);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void invalidateQualified(String table) {
+        generations.merge(table, 1L, Long::sum);
+        var keys = keysByTable.remove(table);
+        if (keys != null) {
+            for (var key : keys) {
+                var entry = entries.remove(key);
+                if (entry != null) {
+                    forget(key, entry);
+                    stats.invalidations.increment();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            epoch++;
+            stats.invalidations.add(entries.size());
+            entries.clear();
+            keysByTable.clear();
+            bytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits the transaction of the connection, and evicts the results reading the tables it wrote. Once this
+     * returns, no query of this cache returns rows read before the commit.
+     */
+    public void commit(Connection connection, String... tables) throws SQLException {
+        connection.commit();
+        for (var table : tables) {
+            invalidate(table);
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEstimatedBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void listen() {
+        var pollMillis = (int) Math.max(1, config.pollInterval().toMillis());
+        while (!closed) {
+            try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+                connection.setAutoCommit(true);
+                statement.execute("LISTEN " + CHANNEL);
+                var notifications = connection.unwrap(PGConnection.class);
+                // the writes committed before LISTEN were never heard of
+                invalidateAll();
+                listening = true;
+                while (!closed) {
+                    var received = notifications.getNotifications(pollMillis);
+                    if (received != null) {
+                        for (var notification : received) {
+                            onNotification(notification.getParameter());
+                        }
+                    }
+                }
+                listening = false;
+                // the connection goes back to the pool
+                statement.execute("UNLISTEN *");
+            } catch (SQLException | RuntimeException e) {
+                listening = false;
+                invalidateAll();
+                if (closed) {
+                    return;
+                }
+                LOGGER.log(System.Logger.Level.WARNING, "Not listening for writes, queries bypass the cache until the listener reconnects", e);
+                try {
+                    Thread.sleep(config.reconnectDelay().toMillis());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void onNotification(String payload) {
+        stats.notifications.increment();
+        var separator = payload.lastIndexOf(':');
+        if (separator < 0) {
+            // not ours, and not worth guessing which table it is about
+            invalidateAll();
+            return;
+        }
+        invalidate(payload.substring(0, separator));
+        try {
+            var writtenMicros = Long.parseLong(payload.substring(separator + 1));
+            var now = Instant.now();
+            var nowMicros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+            stats.invalidationLag.record(Math.max(0, nowMicros - writtenMicros) * 1_000);
+        } catch (NumberFormatException e) {
+            // a NOTIFY sent by hand, the table is invalidated all the same
+        }
+    }
+
+    /**
+     * Stops the listener. The cache is bypassed from then on.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        listening = false;
+        listener.interrupt();
+        try {
+            listener.join(config.pollInterval().toMillis() * 2 + 1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        invalidateAll();
+    }
+}
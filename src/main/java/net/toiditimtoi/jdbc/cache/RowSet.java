@@ -0,0 +1,176 @@
+package net.toiditimtoi.jdbc.cache;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The rows of a query result, detached from the connection and immutable, as a {@link QueryResultCache} keeps them.
+ * <p>
+ * The values are stored in a single array, row after row, as {@code ResultSet.getObject} returned them: no object per
+ * row. Mutable values, like a {@code byte[]} or a {@code Timestamp}, are shared by every reader and must not be
+ * modified.
+ */
+public final class RowSet {
+    // a reference and an object header, what any value costs at least
+    private static final int REFERENCE_BYTES = 8;
+    private static final int OBJECT_HEADER_BYTES = 16;
+
+    /**
+     * Turns a row into an object, like {@link net.toiditimtoi.jdbc.query.RowMapper} does for a ResultSet.
+     */
+    @FunctionalInterface
+    public interface RowReader<T> {
+        T read(Row row);
+    }
+
+    private final String[] labels;
+    private final Object[] values;
+    private final int size;
+    private final long estimatedBytes;
+
+    private RowSet(String[] labels, Object[] values) {
+        this.labels = labels;
+        this.values = values;
+        this.size = labels.length == 0 ? 0 : values.length / labels.length;
+        var bytes = (long) OBJECT_HEADER_BYTES * 3 + (long) REFERENCE_BYTES * (labels.length + values.length);
+        for (var label : labels) {
+            bytes += sizeOf(label);
+        }
+        for (var value : values) {
+            bytes += sizeOf(value);
+        }
+        this.estimatedBytes = bytes;
+    }
+
+    /**
+     * Reads the remaining rows of the ResultSet.
+     */
+    static RowSet read(ResultSet resultSet) throws SQLException {
+        var metaData = resultSet.getMetaData();
+        var labels = new String[metaData.getColumnCount()];
+        for (var i = 0; i < labels.length; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1).toLowerCase(Locale.ROOT);
+        }
+        var values = new ArrayList<>();
+        while (resultSet.next()) {
+            for (var i = 1; i <= labels.length; i++) {
+                values.add(resultSet.getObject(i));
+            }
+        }
+        return new RowSet(labels, values.toArray());
+    }
+
+    private static long sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String string) {
+            // the object, its array, at most 2 bytes per char
+            return OBJECT_HEADER_BYTES * 2 + 8 + 2L * string.length();
+        }
+        if (value instanceof byte[] bytes) {
+            return OBJECT_HEADER_BYTES + bytes.length;
+        }
+        if (value instanceof Long || value instanceof Double) {
+            return OBJECT_HEADER_BYTES + 8;
+        }
+        if (value instanceof BigDecimal decimal) {
+            return OBJECT_HEADER_BYTES * 3 + decimal.unscaledValue().bitLength() / 8 + 8;
+        }
+        return OBJECT_HEADER_BYTES + 8;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The labels of the columns, in lower case.
+     */
+    public List<String> columnLabels() {
+        return List.of(labels);
+    }
+
+    /**
+     * Roughly what the rows take on the heap, what the size bound of the cache counts.
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Reads every row, in order.
+     */
+    public <T> List<T> map(RowReader<T> reader) {
+        var result = new ArrayList<T>(size);
+        // one Row moved from row to row
+        var row = new Row();
+        for (row.index = 0; row.index < size; row.index++) {
+            result.add(reader.read(row));
+        }
+        return result;
+    }
+
+    /**
+     * A row of the set, only valid while it is being read.
+     */
+    public final class Row {
+        private int index;
+
+        private Row() {
+        }
+
+        /**
+         * @param column the first column is 1, as in JDBC
+         */
+        public Object getObject(int column) {
+            if (column < 1 || column > labels.length) {
+                throw new IndexOutOfBoundsException("Column %d out of %d".formatted(column, labels.length));
+            }
+            return values[index * labels.length + column - 1];
+        }
+
+        public Object getObject(String label) {
+            return getObject(findColumn(label));
+        }
+
+        public String getString(String label) {
+            var value = getObject(label);
+            return value == null ? null : value.toString();
+        }
+
+        /**
+         * 0 for NULL, like {@link ResultSet#getLong(String)}.
+         */
+        public long getLong(String label) {
+            var value = getObject(label);
+            return value == null ? 0 : ((Number) value).longValue();
+        }
+
+        /**
+         * 0 for NULL, like {@link ResultSet#getInt(String)}.
+         */
+        public int getInt(String label) {
+            var value = getObject(label);
+            return value == null ? 0 : ((Number) value).intValue();
+        }
+
+        public int findColumn(String label) {
+            for (var i = 0; i < labels.length; i++) {
+                if (labels[i].equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new IllegalArgumentException("No column labelled " + label + " in " + Arrays.toString(labels));
+        }
+    }
+}
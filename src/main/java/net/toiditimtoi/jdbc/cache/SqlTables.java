@@ -0,0 +1,186 @@
+package net.toiditimtoi.jdbc.cache;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The cache key of a query and the tables it reads.
+ * <p>
+ * This is not a SQL parser: it looks for the identifiers following FROM and JOIN, and gives up on anything it does not
+ * understand. Giving up means the query is not cached, which is always safe.
+ */
+final class SqlTables {
+    private static final Pattern FROM_OR_JOIN = Pattern.compile("\\b(?:from|join)\\s+");
+    private static final Pattern LOCKING_OR_SIDE_EFFECTS = Pattern.compile("\\bfor\\s+(?:update|share|no\\s+key|key)\\b|\\binto\\b");
+    private static final Pattern CALL = Pattern.compile("\\b([a-z_][a-z0-9_$.]*)\\s*\\(");
+    // words followed by a parenthesis which are not function calls
+    private static final Set<String> NOT_A_FUNCTION = Set.of("select", "from", "join", "lateral", "only", "where", "on",
+            "using", "and", "or", "not", "in", "exists", "any", "some", "all", "as", "values", "case", "when", "then",
+            "else", "over", "filter", "group", "by", "is", "between", "like", "union", "intersect", "except");
+    // aggregates and functions whose result only depends on their arguments; any other function may be volatile, like
+    // now(), or read tables of its own
+    private static final Set<String> IMMUTABLE_FUNCTIONS = Set.of("count", "sum", "min", "max", "avg", "bool_and",
+            "bool_or", "array_agg", "string_agg", "row_number", "rank", "dense_rank", "coalesce", "nullif", "greatest",
+            "least", "abs", "round", "lower", "upper", "length", "trim", "cast");
+    private static final Set<String> NOT_AN_ALIAS = Set.of("where", "join", "inner", "left", "right", "full", "cross",
+            "natural", "on", "using", "group", "order", "limit", "offset", "having", "window", "union", "intersect",
+            "except", "fetch", "for");
+
+    private SqlTables() {
+    }
+
+    /**
+     * The SQL with its runs of whitespace outside literals collapsed and without a trailing semicolon, so that the
+     * same query written on several lines or on one shares its cache entries.
+     */
+    static String normalize(String sql) {
+        var normalized = new StringBuilder(sql.length());
+        var quote = (char) 0;
+        var pendingSpace = false;
+        for (var i = 0; i < sql.length(); i++) {
+            var c = sql.charAt(i);
+            if (quote != 0) {
+                normalized.append(c);
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+                normalized.append(c);
+            }
+        }
+        var length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ';') {
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * The lower case names of the tables a SELECT reads, schema-qualified when they are in the SQL, empty when the
+     * query must not be cached: not a plain SELECT, a locking read, or a query calling a function anywhere, in the FROM
+     * clause or not, other than the usual aggregates and a few immutable functions.
+     */
+    static Set<String> tablesOf(String normalizedSql) {
+        var sql = withoutLiterals(normalizedSql).toLowerCase(Locale.ROOT);
+        if (!sql.startsWith("select ") || LOCKING_OR_SIDE_EFFECTS.matcher(sql).find()) {
+            return Set.of();
+        }
+        var call = CALL.matcher(sql);
+        while (call.find()) {
+            var name = call.group(1);
+            if (!NOT_A_FUNCTION.contains(name) && !IMMUTABLE_FUNCTIONS.contains(name)) {
+                return Set.of();
+            }
+        }
+        var tables = new LinkedHashSet<String>();
+        var matcher = FROM_OR_JOIN.matcher(sql);
+        while (matcher.find()) {
+            var position = matcher.end();
+            while (true) {
+                if (position < sql.length() && sql.charAt(position) == '(') {
+                    // a subquery, its own FROM is found by the outer loop
+                    var close = closingParenthesis(sql, position);
+                    if (close < 0) {
+                        return Set.of();
+                    }
+                    position = skipAlias(sql, skipSpaces(sql, close + 1));
+                } else {
+                    var end = identifierEnd(sql, position);
+                    if (end == position) {
+                        return Set.of();
+                    }
+                    var name = sql.substring(position, end);
+                    if (name.equals("only") || name.equals("lateral")) {
+                        position = skipSpaces(sql, end);
+                        continue;
+                    }
+                    tables.add(name);
+                    position = skipAlias(sql, skipSpaces(sql, end));
+                }
+                if (position < sql.length() && sql.charAt(position) == ',') {
+                    position = skipSpaces(sql, position + 1);
+                    continue;
+                }
+                break;
+            }
+        }
+        return tables;
+    }
+
+    private static int skipAlias(String sql, int position) {
+        var end = identifierEnd(sql, position);
+        if (end == position) {
+            return position;
+        }
+        var word = sql.substring(position, end);
+        if (NOT_AN_ALIAS.contains(word)) {
+            return position;
+        }
+        if (word.equals("as")) {
+            return skipAlias(sql, skipSpaces(sql, end));
+        }
+        return skipSpaces(sql, end);
+    }
+
+    private static int identifierEnd(String sql, int position) {
+        var end = position;
+        while (end < sql.length()) {
+            var c = sql.charAt(end);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.')) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    private static int closingParenthesis(String sql, int open) {
+        var depth = 0;
+        for (var i = open; i < sql.length(); i++) {
+            var c = sql.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(String sql, int position) {
+        while (position < sql.length() && sql.charAt(position) == ' ') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * String literals emptied, so that the words they contain are not taken for SQL, and the double quotes of
+     * identifiers removed.
+     */
+    private static String withoutLiterals(String sql) {
+        var text = new StringBuilder(sql.length());
+        var inLiteral = false;
+        for (var i = 0; i < sql.length(); i++) {
+            var c = sql.charAt(i);
+            if (c == '\'') {
+                inLiteral = !inLiteral;
+                text.append(c);
+            } else if (!inLiteral && c != '"') {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
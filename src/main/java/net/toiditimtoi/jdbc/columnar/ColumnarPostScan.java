@@ -0,0 +1,133 @@
+package net.toiditimtoi.jdbc.columnar;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Scans posts for reporting without creating an object per row.
+ * <p>
+ * Mapping every row to a {@link net.toiditimtoi.jdbc.Post}, like the loops of GeneralTest and QueryingTheDbTest do,
+ * allocates a record and a String per row, all garbage as soon as they are counted. Here the rows are decoded into a
+ * {@link PostChunk} of {@code chunkSize} posts, column by column, and the same chunk is refilled until the end of the
+ * scan:
+ * <ul>
+ *     <li>ids and versions are parsed by the driver into primitives, straight into {@code long[]} and {@code int[]}</li>
+ *     <li>titles are dictionary-encoded: the bytes pgjdbc received are looked up in a {@link TitleDictionary}, and
+ *     only a title never seen before becomes a String. {@code getBytes} on a varchar column hands out the buffer of
+ *     the driver without copying it</li>
+ *     <li>rows are read through a server-side cursor fetching {@code chunkSize} rows at a time, as
+ *     {@link net.toiditimtoi.jdbc.query.StreamingQuery} does, so the driver never holds more than a chunk either</li>
+ * </ul>
+ * What is still allocated per row is the row buffer of the driver itself.
+ * <p>
+ * The chunks are kept on the heap: allocated once per scan, they cost the garbage collector nothing, and the
+ * aggregations over primitive arrays are vectorized by the JIT, which loops over a ByteBuffer are not.
+ */
+public final class ColumnarPostScan {
+    private final DataSource dataSource;
+    private final int chunkSize;
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(PostChunk chunk) throws SQLException;
+    }
+
+    public ColumnarPostScan(DataSource dataSource, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1 but was " + chunkSize);
+        }
+        this.dataSource = dataSource;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Runs the query and hands its rows to the consumer chunk by chunk, always in the same {@link PostChunk}.
+     *
+     * @param sql a query whose first three columns are the id, the title and the version of a post
+     * @return the posts scanned
+     */
+    public long scan(String sql, ChunkConsumer consumer, Object... parameters) throws SQLException {
+        var chunk = new PostChunk(chunkSize, new TitleDictionary());
+        var rows = 0L;
+        try (var connection = dataSource.getConnection()) {
+            // the cursor lives in a transaction
+            connection.setAutoCommit(false);
+            try (var statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(chunkSize);
+                for (var i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        var index = chunk.size;
+                        chunk.ids[index] = resultSet.getLong(1);
+                        chunk.titleCodes[index] = chunk.dictionary().encode(resultSet.getBytes(2));
+                        chunk.versions[index] = resultSet.getInt(3);
+                        if (++chunk.size == chunkSize) {
+                            consumer.accept(chunk);
+                            rows += chunk.size;
+                            chunk.size = 0;
+                        }
+                    }
+                }
+            }
+            if (chunk.size > 0) {
+                consumer.accept(chunk);
+                rows += chunk.size;
+            }
+            connection.commit();
+        }
+        return rows;
+    }
+
+    /**
+     * Scans the query and aggregates its posts: count, minimum and maximum of the ids and versions, and the count of
+     * every title.
+     */
+    public ScanSummary summarize(String sql, Object... parameters) throws SQLException {
+        var aggregates = new Aggregates();
+        var rows = scan(sql, aggregates, parameters);
+        return aggregates.summary(rows);
+    }
+
+    private static final class Aggregates implements ChunkConsumer {
+        private long minId = Long.MAX_VALUE;
+        private long maxId = Long.MIN_VALUE;
+        private int minVersion = Integer.MAX_VALUE;
+        private int maxVersion = Integer.MIN_VALUE;
+        private long sumVersions;
+        private long[] titleCounts = new long[0];
+        private TitleDictionary dictionary;
+
+        @Override
+        public void accept(PostChunk chunk) {
+            minId = Math.min(minId, chunk.minId());
+            maxId = Math.max(maxId, chunk.maxId());
+            minVersion = Math.min(minVersion, chunk.minVersion());
+            maxVersion = Math.max(maxVersion, chunk.maxVersion());
+            sumVersions += chunk.sumVersions();
+            titleCounts = chunk.countByTitle(titleCounts);
+            dictionary = chunk.dictionary();
+        }
+
+        ScanSummary summary(long rows) {
+            if (rows == 0) {
+                return new ScanSummary(0, 0, 0, 0, 0, 0, Map.of(), 0);
+            }
+            var counts = new LinkedHashMap<String, Long>();
+            for (var code = 0; code < dictionary.size(); code++) {
+                counts.put(dictionary.title(code), titleCounts[code + 1]);
+            }
+            return new ScanSummary(rows, minId, maxId, minVersion, maxVersion, sumVersions,
+                    Collections.unmodifiableMap(counts), titleCounts[0]);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package net.toiditimtoi.jdbc.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Up to {@link #capacity()} posts stored column by column: the i-th post is {@code id(i), title(i), version(i)}, its
+ * title held as a code of the {@link TitleDictionary} of the scan.
+ * <p>
+ * A scan fills the same chunk again and again, the arrays are allocated once. A chunk is only valid during the
+ * callback it is handed to, what is needed afterwards has to be copied or aggregated.
+ * <p>
+ * The aggregations are plain loops over primitive arrays, which the JIT unrolls and turns into SIMD instructions.
+ */
+public final class PostChunk {
+    final long[] ids;
+    final int[] versions;
+    final int[] titleCodes;
+    private final TitleDictionary dictionary;
+    int size;
+
+    PostChunk(int capacity, TitleDictionary dictionary) {
+        this.ids = new long[capacity];
+        this.versions = new int[capacity];
+        this.titleCodes = new int[capacity];
+        this.dictionary = dictionary;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public long id(int index) {
+        return ids[checkIndex(index)];
+    }
+
+    public int version(int index) {
+        return versions[checkIndex(index)];
+    }
+
+    /**
+     * The code of the title in {@link #dictionary()}, {@link TitleDictionary#NULL} for a NULL title.
+     */
+    public int titleCode(int index) {
+        return titleCodes[checkIndex(index)];
+    }
+
+    public String title(int index) {
+        return dictionary.title(titleCode(index));
+    }
+
+    public TitleDictionary dictionary() {
+        return dictionary;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index %d out of a chunk of %d posts".formatted(index, size));
+        }
+        return index;
+    }
+
+    public long minId() {
+        var min = Long.MAX_VALUE;
+        for (var i = 0; i < size; i++) {
+            min = Math.min(min, ids[i]);
+        }
+        return min;
+    }
+
+    public long maxId() {
+        var max = Long.MIN_VALUE;
+        for (var i = 0; i < size; i++) {
+            max = Math.max(max, ids[i]);
+        }
+        return max;
+    }
+
+    public int minVersion() {
+        var min = Integer.MAX_VALUE;
+        for (var i = 0; i < size; i++) {
+            min = Math.min(min, versions[i]);
+        }
+        return min;
+    }
+
+    public int maxVersion() {
+        var max = Integer.MIN_VALUE;
+        for (var i = 0; i < size; i++) {
+            max = Math.max(max, versions[i]);
+        }
+        return max;
+    }
+
+    public long sumVersions() {
+        var sum = 0L;
+        for (var i = 0; i < size; i++) {
+            sum += versions[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the posts of the chunk to the count of their title: {@code counts[code + 1]} for a title, {@code counts[0]}
+     * for the NULL titles.
+     *
+     * @param counts the counts so far, may be shorter than the dictionary
+     * @return the counts, in a larger array when new titles appeared
+     */
+    public long[] countByTitle(long[] counts) {
+        var needed = dictionary.size() + 1;
+        if (counts.length < needed) {
+            counts = Arrays.copyOf(counts, Math.max(needed, counts.length * 2));
+        }
+        for (var i = 0; i < size; i++) {
+            // TitleDictionary.NULL is -1
+            counts[titleCodes[i] + 1]++;
+        }
+        return counts;
+    }
+}
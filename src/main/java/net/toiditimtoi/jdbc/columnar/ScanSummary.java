@@ -0,0 +1,14 @@
+package net.toiditimtoi.jdbc.columnar;
+
+import java.util.Map;
+
+/**
+ * Aggregates of the posts of a scan. The minimums and maximums are 0 when the scan found no post.
+ *
+ * @param rows        the posts scanned
+ * @param titleCounts the posts per title, in the order the titles were met
+ * @param nullTitles  the posts without a title
+ */
+public record ScanSummary(long rows, long minId, long maxId, int minVersion, int maxVersion, long sumVersions,
+                          Map<String, Long> titleCounts, long nullTitles) {
+}
@@ -0,0 +1,92 @@
+package net.toiditimtoi.jdbc.columnar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The distinct titles met during a scan, each with a code: 0 for the first one, 1 for the next one, and so on.
+ * <p>
+ * Titles are looked up by their UTF-8 bytes as the driver received them, so a title already known costs a hash and a
+ * comparison of bytes: no String is decoded. Only a new title is copied and decoded, once for the whole scan.
+ */
+public final class TitleDictionary {
+    /**
+     * The code of a NULL title.
+     */
+    public static final int NULL = -1;
+
+    private byte[][] keys = new byte[16][];
+    private String[] titles = new String[16];
+    private int size;
+
+    // open addressing from the hash of the bytes to the code + 1, 0 is a free slot; at most half full
+    private int[] table = new int[32];
+
+    /**
+     * The code of the title, added if it is new. The bytes are not kept, they may be reused by the caller.
+     */
+    int encode(byte[] utf8) {
+        if (utf8 == null) {
+            return NULL;
+        }
+        var hash = hash(utf8);
+        var mask = table.length - 1;
+        var slot = hash & mask;
+        for (var code = table[slot]; code != 0; code = table[slot]) {
+            if (Arrays.equals(keys[code - 1], utf8)) {
+                return code - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(utf8.clone(), slot);
+    }
+
+    private int add(byte[] key, int slot) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            titles = Arrays.copyOf(titles, size * 2);
+        }
+        var code = size++;
+        keys[code] = key;
+        titles[code] = new String(key, StandardCharsets.UTF_8);
+        table[slot] = code + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return code;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        var mask = table.length - 1;
+        for (var code = 0; code < size; code++) {
+            var slot = hash(keys[code]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = code + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes) {
+        var hash = Arrays.hashCode(bytes);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The title of a code, null for {@link #NULL}.
+     */
+    public String title(int code) {
+        if (code == NULL) {
+            return null;
+        }
+        if (code < 0 || code >= size) {
+            throw new IndexOutOfBoundsException("No title has the code " + code);
+        }
+        return titles[code];
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,25 @@
+package net.toiditimtoi.jdbc.context;
+
+import net.toiditimtoi.jdbc.Post;
+
+import java.util.List;
+
+/**
+ * What a {@link PostPersistenceContext#flush()} wrote.
+ *
+ * @param inserted   the persisted posts, with the ids the database gave them
+ * @param updated    the posts whose title changed, with their new version
+ * @param deleted    the ids of the removed posts
+ * @param roundTrips the batches sent, all statements together
+ */
+public record FlushResult(List<Post> inserted, List<Post> updated, List<Long> deleted, long roundTrips) {
+
+    public boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "%d inserted, %d updated, %d deleted in %d round trips".formatted(inserted.size(), updated.size(), deleted.size(), roundTrips);
+    }
+}
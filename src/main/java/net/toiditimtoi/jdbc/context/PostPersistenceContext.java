@@ -0,0 +1,407 @@
+package net.toiditimtoi.jdbc.context;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import net.toiditimtoi.jdbc.cache.PostCache;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import net.toiditimtoi.jdbc.update.OptimisticLockException;
+import net.toiditimtoi.jdbc.update.OptimisticPostUpdater;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A unit of work over the posts: it remembers the posts read in a transaction and writes what changed when it is
+ * flushed, instead of one executeUpdate per change as it happens.
+ * <ul>
+ *     <li>{@link #find(long)} goes through an identity map: reading a post twice costs one query and returns the same
+ *     {@link Post} instance, until it is changed.</li>
+ *     <li>Posts are immutable, a change is handed over with {@link #update(Post)}. Nothing is written until
+ *     {@link #flush()}, which compares every managed post with the title and version it was loaded with. Those are
+ *     kept in plain arrays next to the ids, the check is a reference comparison for the untouched posts and a
+ *     String comparison for the others, no reflection and no copy of the entities.</li>
+ *     <li>A flush sends the inserts, then the updates, then the deletes, each statement in JDBC batches of
+ *     {@code batchSize} rows: a few round trips for the whole unit of work. Updates and deletes are sorted by id, so
+ *     two units of work touching the same posts lock them in the same order and cannot deadlock.</li>
+ *     <li>Updates and deletes check the version read, like {@link OptimisticPostUpdater}. A post changed or deleted by
+ *     someone else since fails the flush with an {@link OptimisticLockException}.</li>
+ * </ul>
+ * The transaction belongs to the caller, {@link #commit()} is a shortcut for flushing and committing it. After a
+ * failed flush the transaction has to be rolled back and the context thrown away, it may have recorded part of the
+ * changes as written.
+ * <p>
+ * Given a {@link PostCache}, {@link #commit()} refreshes it with the posts updated by the flushes since the last
+ * commit and invalidates the deleted ones, once they are committed. A caller committing the connection itself after
+ * {@link #flush()} has to do that with the {@link FlushResult}.
+ * <p>
+ * Like the connection it works with, a context must not be shared between threads.
+ */
+public final class PostPersistenceContext {
+    private static final String SELECT_BY_IDS_SQL = "SELECT id, title, version FROM post WHERE id = ANY(?)";
+    private static final String INSERT_SQL = "INSERT INTO post(title, version) VALUES (?, ?)";
+    private static final String DELETE_SQL = "DELETE FROM post WHERE id = ? AND version = ?";
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final byte MANAGED = 0;
+    private static final byte REMOVED = 1;
+    private static final byte DELETED = 2;
+
+    private final Connection connection;
+    private final int batchSize;
+    private final PostCache cache;
+    private final List<Post> persisted = new ArrayList<>();
+    // written by the flushes since the last commit, for the cache
+    private final List<Post> flushedUpdates = new ArrayList<>();
+    private final List<Long> flushedDeletes = new ArrayList<>();
+
+    // entry i is the post ids[i], as it was loaded and as it is now
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private String[] loadedTitles = new String[INITIAL_CAPACITY];
+    private int[] loadedVersions = new int[INITIAL_CAPACITY];
+    private Post[] current = new Post[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    // open addressing from the id to its entry index + 1, 0 is a free slot; at most half full
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+
+    public PostPersistenceContext(Connection connection, int batchSize) {
+        this(connection, batchSize, null);
+    }
+
+    /**
+     * @param cache refreshed with the posts updated and cleared of the posts deleted by {@link #commit()}
+     */
+    public PostPersistenceContext(Connection connection, int batchSize, PostCache cache) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.cache = cache;
+    }
+
+    /**
+     * The managed post, loaded first if it is not managed yet. Empty if it does not exist or was removed.
+     */
+    public Optional<Post> find(long id) throws SQLException {
+        var posts = findAll(List.of(id));
+        return posts.isEmpty() ? Optional.empty() : Optional.of(posts.get(0));
+    }
+
+    /**
+     * The managed posts with these ids, in the same order. The ones not managed yet are loaded in a single query,
+     * the ones which do not exist or were removed are left out.
+     */
+    public List<Post> findAll(Collection<Long> ids) throws SQLException {
+        var missing = ids.stream().filter(id -> indexOf(id) < 0).distinct().toArray();
+        if (missing.length > 0) {
+            var idArray = connection.createArrayOf("bigint", missing);
+            try {
+                for (var post : CachedStatements.query(connection, SELECT_BY_IDS_SQL, RowMappers.forRecord(Post.class), idArray)) {
+                    add(post);
+                }
+            } finally {
+                idArray.free();
+            }
+        }
+        var posts = new ArrayList<Post>(ids.size());
+        for (var id : ids) {
+            var entry = indexOf(id);
+            if (entry >= 0 && states[entry] == MANAGED) {
+                posts.add(current[entry]);
+            }
+        }
+        return posts;
+    }
+
+    /**
+     * Manages a post read some other way, as it is now in the database. A post already managed is not replaced.
+     *
+     * @return the managed post
+     */
+    public Post attach(Post post) {
+        if (post.isNew()) {
+            throw new IllegalArgumentException("A new post is persisted, not attached");
+        }
+        var entry = indexOf(post.id());
+        if (entry < 0) {
+            entry = add(post);
+        }
+        return current[entry];
+    }
+
+    /**
+     * Inserts the post at the next flush. The post it becomes, with its id, is in {@link FlushResult#inserted()}.
+     */
+    public void persist(Post post) {
+        if (!post.isNew()) {
+            throw new IllegalArgumentException("Post %d already exists, it is attached or updated".formatted(post.id()));
+        }
+        persisted.add(post);
+    }
+
+    /**
+     * Replaces the managed post with the same id. Its version is the one the post was loaded with, whatever the
+     * given post says: it is what the flush checks.
+     *
+     * @return the managed post
+     */
+    public Post update(Post post) {
+        var entry = managedEntry(post.id());
+        current[entry] = post.version() == loadedVersions[entry] ? post : post.withVersion(loadedVersions[entry]);
+        return current[entry];
+    }
+
+    /**
+     * Deletes the managed post at the next flush.
+     */
+    public void remove(long id) {
+        states[managedEntry(id)] = REMOVED;
+    }
+
+    private int managedEntry(long id) {
+        var entry = indexOf(id);
+        if (entry < 0 || states[entry] != MANAGED) {
+            throw new IllegalArgumentException("Post %d is not managed by this context".formatted(id));
+        }
+        return entry;
+    }
+
+    public boolean isDirty(long id) {
+        var entry = indexOf(id);
+        return entry >= 0 && isDirtyEntry(entry);
+    }
+
+    private boolean isDirtyEntry(int entry) {
+        if (states[entry] != MANAGED) {
+            return false;
+        }
+        var title = current[entry].title();
+        var loadedTitle = loadedTitles[entry];
+        // an untouched post still holds the loaded String
+        return title != loadedTitle && (title == null || !title.equals(loadedTitle));
+    }
+
+    /**
+     * The managed posts the next flush would update: the dirty check of the flush, without writing anything.
+     */
+    public int countDirty() {
+        var dirty = 0;
+        for (var entry = 0; entry < size; entry++) {
+            if (isDirtyEntry(entry)) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * The posts held, removed ones included until they are flushed.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the pending changes in the transaction of the connection, without committing it.
+     */
+    public FlushResult flush() throws SQLException {
+        var roundTrips = 0L;
+
+        var inserted = new ArrayList<Post>(persisted.size());
+        if (!persisted.isEmpty()) {
+            var config = BatchConfig.of(batchSize).rewritingInserts().returningKeys("id");
+            try (var writer = new BatchWriter<Post>(connection, INSERT_SQL, config, (statement, index, post) -> {
+                statement.setString(index, post.title());
+                statement.setInt(index + 1, post.version());
+            })) {
+                writer.onGeneratedKey((post, id) -> inserted.add(post.withId(id)));
+                writer.addAll(persisted);
+                writer.flush();
+                roundTrips += writer.getRoundTrips();
+            }
+            persisted.clear();
+        }
+
+        var updatedEntries = entriesSortedById(false);
+        if (updatedEntries.length > 0) {
+            var stale = new ArrayList<Integer>();
+            try (var writer = new BatchWriter<Integer>(connection, OptimisticPostUpdater.VERSIONED_UPDATE_SQL, BatchConfig.of(batchSize), (statement, index, entry) -> {
+                statement.setString(index, current[entry].title());
+                statement.setLong(index + 1, ids[entry]);
+                statement.setInt(index + 2, loadedVersions[entry]);
+            })) {
+                writer.onRowCount((entry, count) -> checkCount(entry, count, stale));
+                for (var entry : updatedEntries) {
+                    writer.add(entry);
+                }
+                writer.flush();
+                roundTrips += writer.getRoundTrips();
+            }
+            failOnStale(stale);
+        }
+        var updated = new ArrayList<Post>(updatedEntries.length);
+        for (var entry : updatedEntries) {
+            var post = current[entry].withVersion(loadedVersions[entry] + 1);
+            loadedTitles[entry] = post.title();
+            loadedVersions[entry] = post.version();
+            current[entry] = post;
+            updated.add(post);
+        }
+
+        var deletedEntries = entriesSortedById(true);
+        if (deletedEntries.length > 0) {
+            var stale = new ArrayList<Integer>();
+            try (var writer = new BatchWriter<Integer>(connection, DELETE_SQL, BatchConfig.of(batchSize), (statement, index, entry) -> {
+                statement.setLong(index, ids[entry]);
+                statement.setInt(index + 1, loadedVersions[entry]);
+            })) {
+                writer.onRowCount((entry, count) -> checkCount(entry, count, stale));
+                for (var entry : deletedEntries) {
+                    writer.add(entry);
+                }
+                writer.flush();
+                roundTrips += writer.getRoundTrips();
+            }
+            failOnStale(stale);
+        }
+        var deleted = new ArrayList<Long>(deletedEntries.length);
+        for (var entry : deletedEntries) {
+            states[entry] = DELETED;
+            deleted.add(ids[entry]);
+        }
+
+        // the inserted posts are managed from now on, at the version they were inserted with
+        for (var post : inserted) {
+            add(post);
+        }
+        if (cache != null) {
+            flushedUpdates.addAll(updated);
+            flushedDeletes.addAll(deleted);
+        }
+        return new FlushResult(inserted, updated, deleted, roundTrips);
+    }
+
+    /**
+     * Flushes and commits the transaction of the connection, then brings the cache, if any, up to date.
+     */
+    public FlushResult commit() throws SQLException {
+        var result = flush();
+        connection.commit();
+        if (cache != null) {
+            cache.refresh(flushedUpdates);
+            flushedDeletes.forEach(cache::invalidate);
+            flushedUpdates.clear();
+            flushedDeletes.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Forgets every post, managed or pending, without writing anything.
+     */
+    public void clear() {
+        persisted.clear();
+        Arrays.fill(current, 0, size, null);
+        Arrays.fill(loadedTitles, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    private void checkCount(int entry, int count, List<Integer> stale) {
+        if (count == 0) {
+            stale.add(entry);
+        } else if (count != 1 && count != Statement.SUCCESS_NO_INFO) {
+            throw new IllegalStateException("Versioned statement on post %d matched %d rows".formatted(ids[entry], count));
+        }
+    }
+
+    private void failOnStale(List<Integer> stale) throws OptimisticLockException {
+        if (!stale.isEmpty()) {
+            var entry = stale.get(0);
+            throw new OptimisticLockException(current[entry].withVersion(loadedVersions[entry]), 1);
+        }
+    }
+
+    /**
+     * The dirty entries, or the removed ones, in id order.
+     */
+    private int[] entriesSortedById(boolean removed) {
+        var count = 0;
+        var selected = new long[size];
+        for (var entry = 0; entry < size; entry++) {
+            if (removed ? states[entry] == REMOVED : isDirtyEntry(entry)) {
+                selected[count++] = ids[entry];
+            }
+        }
+        Arrays.sort(selected, 0, count);
+        var entries = new int[count];
+        for (var i = 0; i < count; i++) {
+            entries[i] = indexOf(selected[i]);
+        }
+        return entries;
+    }
+
+    private int indexOf(long id) {
+        var mask = table.length - 1;
+        for (var slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+            var entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (ids[entry - 1] == id) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private int add(Post post) {
+        if (size == ids.length) {
+            var capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            loadedTitles = Arrays.copyOf(loadedTitles, capacity);
+            loadedVersions = Arrays.copyOf(loadedVersions, capacity);
+            current = Arrays.copyOf(current, capacity);
+            states = Arrays.copyOf(states, capacity);
+            rehash(capacity * 2);
+        }
+        var entry = size++;
+        ids[entry] = post.id();
+        loadedTitles[entry] = post.title();
+        loadedVersions[entry] = post.version();
+        current[entry] = post;
+        states[entry] = MANAGED;
+        insert(entry);
+        return entry;
+    }
+
+    private void rehash(int tableSize) {
+        table = new int[tableSize];
+        for (var entry = 0; entry < size; entry++) {
+            insert(entry);
+        }
+    }
+
+    private void insert(int entry) {
+        var mask = table.length - 1;
+        var slot = hash(ids[entry]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+    }
+
+    private static int hash(long id) {
+        var hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,123 @@
+package net.toiditimtoi.jdbc.copy;
+
+import org.postgresql.copy.CopyIn;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+/**
+ * Encodes rows in the binary format of COPY and sends them to the server whenever the buffer is full.
+ * <p>
+ * The format is a fixed header, then for every row the number of fields (int16) followed by each field as its length
+ * (int32, -1 for NULL) and its bytes in the binary send format of its type, and finally -1 (int16).
+ * Integers are big-endian, like {@link ByteBuffer} writes them, and text is sent as UTF-8.
+ * <p>
+ * One buffer is reused for the whole COPY, so the memory used does not depend on the number of rows.
+ */
+final class BinaryCopyEncoder {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+    // the largest fixed size field plus its length
+    private static final int MAX_FIXED_FIELD_BYTES = 12;
+
+    private final CopyIn copyIn;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder();
+    private long bytesSent;
+
+    BinaryCopyEncoder(CopyIn copyIn, int bufferSize) {
+        this.copyIn = copyIn;
+        // CopyIn only accepts byte arrays, a heap buffer hands over its array without copying it
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    void writeHeader() {
+        buffer.put(SIGNATURE);
+        // flags, then the length of the header extension
+        buffer.putInt(0);
+        buffer.putInt(0);
+    }
+
+    void startRow(int fieldCount) throws SQLException {
+        ensureRemaining(2);
+        buffer.putShort((short) fieldCount);
+    }
+
+    void writeLong(long value) throws SQLException {
+        ensureRemaining(MAX_FIXED_FIELD_BYTES);
+        buffer.putInt(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    void writeInt(int value) throws SQLException {
+        ensureRemaining(MAX_FIXED_FIELD_BYTES);
+        buffer.putInt(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void writeNull() throws SQLException {
+        ensureRemaining(4);
+        buffer.putInt(-1);
+    }
+
+    void writeText(String value) throws SQLException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        // at most 3 bytes per UTF-16 char, a surrogate pair is 4 bytes for 2 chars
+        var maxBytes = value.length() * 3L;
+        if (maxBytes + 4 > buffer.capacity()) {
+            writeLargeText(value);
+            return;
+        }
+        ensureRemaining((int) maxBytes + 4);
+        var lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 4);
+        utf8.reset();
+        var result = utf8.encode(CharBuffer.wrap(value), buffer, true);
+        if (result == CoderResult.UNDERFLOW) {
+            result = utf8.flush(buffer);
+        }
+        if (!result.isUnderflow()) {
+            throw new SQLException("Cannot encode text as UTF-8: " + result);
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    private void writeLargeText(String value) throws SQLException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureRemaining(4);
+        buffer.putInt(bytes.length);
+        flush();
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        bytesSent += bytes.length;
+    }
+
+    void writeTrailer() throws SQLException {
+        ensureRemaining(2);
+        buffer.putShort((short) -1);
+        flush();
+    }
+
+    private void ensureRemaining(int bytes) throws SQLException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (buffer.position() > 0) {
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+            bytesSent += buffer.position();
+            buffer.clear();
+        }
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+}
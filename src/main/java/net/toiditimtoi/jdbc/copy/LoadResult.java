@@ -0,0 +1,22 @@
+package net.toiditimtoi.jdbc.copy;
+
+import java.time.Duration;
+
+/**
+ * @param rows    the rows inserted
+ * @param bytes   the bytes sent, 0 when the rows were inserted with INSERT statements
+ * @param elapsed the time the load took, commit included
+ * @param copy    whether COPY was used, or batched INSERT statements as a fallback
+ */
+public record LoadResult(long rows, long bytes, Duration elapsed, boolean copy) {
+
+    public double rowsPerSecond() {
+        var nanos = elapsed.toNanos();
+        return nanos == 0 ? 0 : rows * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "%d rows with %s in %d ms (%.0f rows/s)".formatted(rows, copy ? "COPY" : "INSERT", elapsed.toMillis(), rowsPerSecond());
+    }
+}
@@ -0,0 +1,31 @@
+package net.toiditimtoi.jdbc.copy;
+
+/**
+ * Posts stored column by column: the i-th post is {@code ids[i], titles[i], versions[i]}.
+ * Reading parallel arrays avoids creating a {@link net.toiditimtoi.jdbc.Post} per row for data which is already
+ * columnar, like a file being imported.
+ *
+ * @param ids      the ids to insert, or null to let the serial default of the table assign them
+ * @param titles   the titles, null elements are inserted as NULL
+ * @param versions the versions
+ */
+public record PostColumns(long[] ids, String[] titles, int[] versions) {
+
+    public PostColumns {
+        if (titles.length != versions.length || ids != null && ids.length != titles.length) {
+            throw new IllegalArgumentException("All columns must have the same length");
+        }
+    }
+
+    public static PostColumns withoutIds(String[] titles, int[] versions) {
+        return new PostColumns(null, titles, versions);
+    }
+
+    public int size() {
+        return titles.length;
+    }
+
+    public boolean hasIds() {
+        return ids != null;
+    }
+}
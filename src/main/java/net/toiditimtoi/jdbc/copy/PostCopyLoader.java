@@ -0,0 +1,194 @@
+package net.toiditimtoi.jdbc.copy;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.Iterator;
+
+/**
+ * Inserts large amounts of posts with {@code COPY post FROM STDIN (FORMAT binary)}.
+ * <p>
+ * COPY streams the rows in one statement: no statement per row or per batch to parse, bind and execute, and the rows
+ * are sent in the binary representation Postgres stores, so the server does not parse text either.
+ * The rows are encoded into a buffer of {@code bufferSize} bytes which is sent every time it is full, so an iterator
+ * producing millions of posts never has more than that in memory.
+ * <p>
+ * Every load borrows a connection and runs in its own transaction: either all the rows are inserted or none.
+ * When the connection is not a pgjdbc one, COPY is not available and the rows are inserted with multi-row INSERTs
+ * instead, see {@link LoadResult#copy()}.
+ */
+public final class PostCopyLoader {
+    private static final String COPY_WITH_IDS_SQL = "COPY post(id, title, version) FROM STDIN (FORMAT binary)";
+    private static final String COPY_SQL = "COPY post(title, version) FROM STDIN (FORMAT binary)";
+    private static final String INSERT_WITH_IDS_SQL = "INSERT INTO post(id, title, version) VALUES (?, ?, ?)";
+    // no row, only the type of the column
+    private static final String ID_TYPE_SQL = "SELECT id FROM post WHERE false";
+    private static final String INSERT_SQL = "INSERT INTO post(title, version) VALUES (?, ?)";
+    private static final int FALLBACK_BATCH_SIZE = 1_000;
+
+    private final DataSource dataSource;
+    private final int bufferSize;
+
+    public PostCopyLoader(DataSource dataSource, int bufferSize) {
+        if (bufferSize < 1024) {
+            throw new IllegalArgumentException("bufferSize must be at least 1024 bytes but was " + bufferSize);
+        }
+        this.dataSource = dataSource;
+        this.bufferSize = bufferSize;
+    }
+
+    public PostCopyLoader(DataSource dataSource) {
+        this(dataSource, 64 * 1024);
+    }
+
+    /**
+     * Inserts the posts the iterator returns, consuming it as the buffer is sent.
+     *
+     * @param withIds whether the ids of the posts are inserted, or assigned by the serial default of the table
+     */
+    public LoadResult load(Iterator<Post> posts, boolean withIds) throws SQLException {
+        return load(withIds ? COPY_WITH_IDS_SQL : COPY_SQL, withIds ? INSERT_WITH_IDS_SQL : INSERT_SQL,
+                (encoder, bigintIds) -> {
+                    var rows = 0L;
+                    while (posts.hasNext()) {
+                        var post = posts.next();
+                        encoder.startRow(withIds ? 3 : 2);
+                        if (withIds) {
+                            writeId(encoder, post.id(), bigintIds);
+                        }
+                        encoder.writeText(post.title());
+                        encoder.writeInt(post.version());
+                        rows++;
+                    }
+                    return rows;
+                },
+                writer -> {
+                    while (posts.hasNext()) {
+                        writer.add(posts.next());
+                    }
+                },
+                withIds);
+    }
+
+    /**
+     * Inserts the posts stored in the given columns.
+     */
+    public LoadResult load(PostColumns columns) throws SQLException {
+        var withIds = columns.hasIds();
+        return load(withIds ? COPY_WITH_IDS_SQL : COPY_SQL, withIds ? INSERT_WITH_IDS_SQL : INSERT_SQL,
+                (encoder, bigintIds) -> {
+                    for (var i = 0; i < columns.size(); i++) {
+                        encoder.startRow(withIds ? 3 : 2);
+                        if (withIds) {
+                            writeId(encoder, columns.ids()[i], bigintIds);
+                        }
+                        encoder.writeText(columns.titles()[i]);
+                        encoder.writeInt(columns.versions()[i]);
+                    }
+                    return columns.size();
+                },
+                writer -> {
+                    for (var i = 0; i < columns.size(); i++) {
+                        writer.add(new Post(withIds ? columns.ids()[i] : 0, columns.titles()[i], columns.versions()[i]));
+                    }
+                },
+                withIds);
+    }
+
+    @FunctionalInterface
+    private interface RowEncoder {
+        /**
+         * @param bigintIds whether the id column is an int8, or an int4: binary COPY does not convert between the two
+         */
+        long encode(BinaryCopyEncoder encoder, boolean bigintIds) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface RowInserter {
+        void insert(BatchWriter<Post> writer) throws SQLException;
+    }
+
+    private LoadResult load(String copySql, String insertSql, RowEncoder rows, RowInserter fallback, boolean withIds) throws SQLException {
+        var start = System.nanoTime();
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            if (connection.isWrapperFor(PGConnection.class)) {
+                // before the COPY, the connection accepts no other statement during it
+                var bigintIds = withIds && hasBigintIds(connection);
+                var copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copySql);
+                var encoder = new BinaryCopyEncoder(copyIn, bufferSize);
+                var rowCount = copy(copyIn, encoder, rows, bigintIds);
+                connection.commit();
+                return new LoadResult(rowCount, encoder.getBytesSent(), Duration.ofNanos(System.nanoTime() - start), true);
+            }
+            var rowCount = insert(connection, insertSql, fallback, withIds);
+            connection.commit();
+            return new LoadResult(rowCount, 0, Duration.ofNanos(System.nanoTime() - start), false);
+        }
+    }
+
+    /**
+     * Whether the id column is an int8, like a bigserial, or an int4, like a serial.
+     */
+    private static boolean hasBigintIds(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement(); var resultSet = statement.executeQuery(ID_TYPE_SQL)) {
+            return resultSet.getMetaData().getColumnType(1) == Types.BIGINT;
+        }
+    }
+
+    private static void writeId(BinaryCopyEncoder encoder, long id, boolean bigintIds) throws SQLException {
+        if (bigintIds) {
+            encoder.writeLong(id);
+        } else if (id == (int) id) {
+            encoder.writeInt((int) id);
+        } else {
+            throw new SQLException("Id " + id + " does not fit the int4 id column");
+        }
+    }
+
+    private static long copy(CopyIn copyIn, BinaryCopyEncoder encoder, RowEncoder rows, boolean bigintIds) throws SQLException {
+        try {
+            encoder.writeHeader();
+            var rowCount = rows.encode(encoder, bigintIds);
+            encoder.writeTrailer();
+            var copied = copyIn.endCopy();
+            if (copied != rowCount) {
+                throw new SQLException("COPY inserted %d rows instead of %d".formatted(copied, rowCount));
+            }
+            return copied;
+        } catch (SQLException | RuntimeException e) {
+            if (copyIn.isActive()) {
+                // otherwise the connection stays in COPY mode, and closing it rolls back the transaction anyway
+                try {
+                    copyIn.cancelCopy();
+                } catch (SQLException cancelFailure) {
+                    e.addSuppressed(cancelFailure);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static long insert(Connection connection, String insertSql, RowInserter rows, boolean withIds) throws SQLException {
+        try (var writer = new BatchWriter<Post>(connection, insertSql, BatchConfig.of(FALLBACK_BATCH_SIZE).rewritingInserts(),
+                (statement, index, post) -> {
+                    if (withIds) {
+                        statement.setLong(index++, post.id());
+                    }
+                    statement.setString(index, post.title());
+                    statement.setInt(index + 1, post.version());
+                })) {
+            rows.insert(writer);
+            writer.flush();
+            return writer.getRowsWritten();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package net.toiditimtoi.jdbc.counter;
+
+import net.toiditimtoi.jdbc.SqlIdentifiers;
+import net.toiditimtoi.jdbc.UncheckedSQLException;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts in memory the increments of a counter column, like views or likes, and writes them in batches of
+ * {@code UPDATE table SET column = column + ? WHERE id = ?}, one per id whatever the number of increments it received.
+ * <p>
+ * Incrementing a hot row directly takes its row lock for the whole transaction, so the increments of a row are
+ * serialized, one commit after the other, whatever the number of connections. The buffer adds them to a
+ * {@link CounterCell} instead, striped like a {@link java.util.concurrent.atomic.LongAdder} so that the threads do not
+ * contend in memory either, and a single flusher writes the sum of every cell in one transaction. The throughput of a
+ * hot row is then bound by how fast increments can be added in memory, and its row is locked once per flush.
+ * <p>
+ * The ids are updated in ascending order, so that two buffers flushing the same rows do not deadlock. A flush which
+ * fails puts its sums back, they are written by the next one. The increments of an id without a row are dropped and
+ * counted by {@link CounterStats#getMissingRows()}.
+ * <p>
+ * With {@link CounterBufferConfig.Durability#BOUNDED_DELAY} the increments not flushed yet are lost if the JVM dies,
+ * at most {@link CounterBufferConfig#flushInterval()} of them. {@link CounterBufferConfig.Durability#FLUSH_ON_COMMIT}
+ * makes {@link #increment(long, long)} wait for the commit of its flush.
+ * <p>
+ * The flushes bypass any {@link net.toiditimtoi.jdbc.cache.PostCache}. A counter column is not part of a
+ * {@link net.toiditimtoi.jdbc.Post}, so the cached posts stay right; a cache of rows holding the counter has to be
+ * invalidated by the caller.
+ */
+public final class CounterBuffer implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(CounterBuffer.class.getName());
+    // a cell which drained nothing that many flushes in a row is removed
+    private static final int IDLE_FLUSHES_BEFORE_RETIREMENT = 2;
+
+    private record Pending(long id, long delta) {
+    }
+
+    private final DataSource dataSource;
+    private final String updateSql;
+    private final CounterBufferConfig config;
+    private final CounterStats stats = new CounterStats();
+    private final ConcurrentHashMap<Long, CounterCell> cells = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Thread flusher;
+    // completed by the commit of the next flush, swapped by the flush before it drains the cells
+    private volatile CompletableFuture<Void> nextFlush = new CompletableFuture<>();
+    private volatile boolean closed;
+
+    public CounterBuffer(DataSource dataSource, String table, String column, CounterBufferConfig config) {
+        SqlIdentifiers.requireTableName(table);
+        SqlIdentifiers.requireColumnName(column);
+        this.dataSource = dataSource;
+        this.updateSql = "UPDATE " + table + " SET " + column + " = " + column + " + ? WHERE id = ?";
+        this.config = config;
+        this.flusher = new Thread(this::flushContinuously, "counter-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public CounterBufferConfig getConfig() {
+        return config;
+    }
+
+    public CounterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Adds the delta to the counter of the id. With {@link CounterBufferConfig.Durability#FLUSH_ON_COMMIT}, returns
+     * once the flush writing it committed.
+     *
+     * @throws UncheckedSQLException with {@link CounterBufferConfig.Durability#FLUSH_ON_COMMIT}, when the flush failed.
+     *                               The increment stays pending and is written by a later flush
+     */
+    public void increment(long id, long delta) {
+        if (closed) {
+            throw new IllegalStateException("The counter buffer is closed");
+        }
+        add(id, delta);
+        stats.increments.increment();
+        if (config.durability() == CounterBufferConfig.Durability.FLUSH_ON_COMMIT) {
+            // read after the add: this flush has not drained the cells yet, it will see the increment
+            var flush = nextFlush;
+            try {
+                if (closed) {
+                    // the flusher may be gone, and the last flush of close() may have swapped the future already
+                    flush();
+                    return;
+                }
+                LockSupport.unpark(flusher);
+                flush.join();
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException cause) {
+                    throw new UncheckedSQLException(cause);
+                }
+                throw e;
+            }
+        }
+    }
+
+    public void increment(long id) {
+        increment(id, 1);
+    }
+
+    private void add(long id, long delta) {
+        var cell = cells.get(id);
+        if (cell != null && cell.add(delta)) {
+            return;
+        }
+        // no cell, or the flusher retired it meanwhile
+        while (true) {
+            cell = cells.compute(id, (key, current) -> current == null || current.isRetired() ? new CounterCell() : current);
+            if (cell.add(delta)) {
+                break;
+            }
+        }
+        if (cells.size() >= config.maxPendingIds()) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    /**
+     * The increments of the id not written yet.
+     */
+    public long pendingDelta(long id) {
+        var cell = cells.get(id);
+        return cell == null ? 0 : cell.pending();
+    }
+
+    /**
+     * Writes every increment added so far, and waits for the commit.
+     */
+    public void flush() throws SQLException {
+        flushLock.lock();
+        try {
+            var flushed = nextFlush;
+            nextFlush = new CompletableFuture<>();
+            try {
+                write(drain());
+                flushed.complete(null);
+            } catch (SQLException | RuntimeException e) {
+                flushed.completeExceptionally(e);
+                throw e;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private List<Pending> drain() {
+        var pending = new ArrayList<Pending>();
+        for (var entry : cells.entrySet()) {
+            var cell = entry.getValue();
+            var delta = cell.drain();
+            if (delta == 0 && ++cell.idleFlushes >= IDLE_FLUSHES_BEFORE_RETIREMENT) {
+                // an add which raced with the drain above fails on the retired cell and goes to a new one
+                delta = cell.retire();
+                cells.remove(entry.getKey(), cell);
+                stats.retiredCells.increment();
+            } else if (delta != 0) {
+                cell.idleFlushes = 0;
+            }
+            if (delta != 0) {
+                pending.add(new Pending(entry.getKey(), delta));
+            }
+        }
+        pending.sort(Comparator.comparingLong(Pending::id));
+        return pending;
+    }
+
+    private void write(List<Pending> pending) throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        var began = System.nanoTime();
+        var missing = new long[1];
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (var writer = new BatchWriter<Pending>(connection, updateSql, BatchConfig.of(config.batchSize()),
+                        (statement, index, row) -> {
+                            statement.setLong(index, row.delta());
+                            statement.setLong(index + 1, row.id());
+                        })) {
+                    writer.onRowCount((row, count) -> {
+                        if (count == 0) {
+                            missing[0]++;
+                        }
+                    });
+                    writer.addAll(pending);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            stats.failures.increment();
+            for (var row : pending) {
+                add(row.id(), row.delta());
+            }
+            throw e;
+        }
+        stats.flushes.increment();
+        stats.rowsUpdated.add(pending.size() - missing[0]);
+        stats.missingRows.add(missing[0]);
+        stats.flushTimes.record(System.nanoTime() - began);
+    }
+
+    private void flushContinuously() {
+        var failureLogged = false;
+        while (!closed) {
+            if (config.durability() == CounterBufferConfig.Durability.BOUNDED_DELAY) {
+                LockSupport.parkNanos(config.flushInterval().toNanos());
+            } else {
+                // woken up by the writers, a writer arriving during a flush is written by the next one right after
+                LockSupport.park();
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+                failureLogged = false;
+            } catch (SQLException | RuntimeException e) {
+                if (!failureLogged) {
+                    LOGGER.log(System.Logger.Level.WARNING, "Flushing the counters failed, retrying with the next flush", e);
+                    failureLogged = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the flusher and writes the remaining increments.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,68 @@
+package net.toiditimtoi.jdbc.counter;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link CounterBuffer}.
+ * Start from {@link #defaults()} and adjust with the {@code withXxx} methods.
+ *
+ * @param durability    when an increment reaches the database
+ * @param flushInterval how often the pending increments are written with {@link Durability#BOUNDED_DELAY}: an
+ *                      increment is lost if the JVM dies within that delay
+ * @param maxPendingIds ids with pending increments above which a flush starts without waiting for the interval
+ * @param batchSize     UPDATEs per round trip of a flush
+ */
+public record CounterBufferConfig(Durability durability, Duration flushInterval, int maxPendingIds, int batchSize) {
+
+    public enum Durability {
+        /**
+         * {@link CounterBuffer#increment(long, long)} returns at once, a background thread writes the increments
+         * every {@link #flushInterval()}, or sooner when {@link #maxPendingIds()} ids are waiting.
+         */
+        BOUNDED_DELAY,
+        /**
+         * {@link CounterBuffer#increment(long, long)} returns once the increment is committed. The increments of the
+         * threads waiting at the same time are written by the same transaction, a group commit: one UPDATE per id
+         * however many threads incremented it.
+         */
+        FLUSH_ON_COMMIT
+    }
+
+    public CounterBufferConfig {
+        Objects.requireNonNull(durability, "durability");
+        Objects.requireNonNull(flushInterval, "flushInterval");
+        if (flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("flushInterval must be positive but was " + flushInterval);
+        }
+        if (maxPendingIds < 1) {
+            throw new IllegalArgumentException("maxPendingIds must be at least 1 but was " + maxPendingIds);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+    }
+
+    /**
+     * Bounded delay of 100 ms, flushing sooner once 10 000 ids are pending, 500 UPDATEs per round trip.
+     */
+    public static CounterBufferConfig defaults() {
+        return new CounterBufferConfig(Durability.BOUNDED_DELAY, Duration.ofMillis(100), 10_000, 500);
+    }
+
+    public CounterBufferConfig withDurability(Durability durability) {
+        return new CounterBufferConfig(durability, flushInterval, maxPendingIds, batchSize);
+    }
+
+    public CounterBufferConfig withFlushInterval(Duration flushInterval) {
+        return new CounterBufferConfig(durability, flushInterval, maxPendingIds, batchSize);
+    }
+
+    public CounterBufferConfig withMaxPendingIds(int maxPendingIds) {
+        return new CounterBufferConfig(durability, flushInterval, maxPendingIds, batchSize);
+    }
+
+    public CounterBufferConfig withBatchSize(int batchSize) {
+        return new CounterBufferConfig(durability, flushInterval, maxPendingIds, batchSize);
+    }
+}
@@ -0,0 +1,124 @@
+package net.toiditimtoi.jdbc.counter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The increments of one id not written yet, striped like a {@link java.util.concurrent.atomic.LongAdder}: threads
+ * add to a single value until they collide, then to one stripe each, a cache line apart, so that incrementing a hot
+ * counter from many threads never contends on a single word.
+ * <p>
+ * Unlike a LongAdder, a cell can be retired: every stripe is swapped for a sentinel, and an add landing after that
+ * fails instead of being lost, so the caller adds to a new cell. That is what lets {@link CounterBuffer} drop the
+ * cells of ids not incremented anymore without ever losing an increment.
+ */
+final class CounterCell {
+    private static final long RETIRED = Long.MIN_VALUE;
+    // 8 longs, 64 bytes between two stripes
+    private static final int PADDING = 8;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+    private static final AtomicLongArray RETIRED_STRIPES = retiredStripes();
+
+    private final AtomicLong base = new AtomicLong();
+    private final AtomicReference<AtomicLongArray> stripes = new AtomicReference<>();
+    // only read and written by the flushing thread
+    int idleFlushes;
+
+    private static AtomicLongArray retiredStripes() {
+        var stripes = new AtomicLongArray(STRIPES * PADDING);
+        for (var i = 0; i < stripes.length(); i++) {
+            stripes.set(i, RETIRED);
+        }
+        return stripes;
+    }
+
+    /**
+     * @return false if the cell is retired, the delta was not added
+     */
+    boolean add(long delta) {
+        var striped = stripes.get();
+        if (striped == null) {
+            var value = base.get();
+            if (value == RETIRED) {
+                return false;
+            }
+            if (base.compareAndSet(value, value + delta)) {
+                return true;
+            }
+            // another thread is adding at the same time, spread the adds from now on
+            stripes.compareAndSet(null, new AtomicLongArray(STRIPES * PADDING));
+            striped = stripes.get();
+        }
+        var stripe = stripeOfCurrentThread();
+        while (true) {
+            var index = stripe * PADDING;
+            var value = striped.get(index);
+            if (value == RETIRED) {
+                return false;
+            }
+            if (striped.compareAndSet(index, value, value + delta)) {
+                return true;
+            }
+            stripe = (stripe + 1) & (STRIPES - 1);
+        }
+    }
+
+    private static int stripeOfCurrentThread() {
+        var hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 40) & (STRIPES - 1);
+    }
+
+    /**
+     * The increments added since the last drain, reset to 0. Every stripe is swapped atomically, so a concurrent add
+     * is counted either by this drain or by the next one.
+     */
+    long drain() {
+        var sum = base.getAndSet(0);
+        var striped = stripes.get();
+        if (striped != null) {
+            for (var i = 0; i < striped.length(); i += PADDING) {
+                sum += striped.getAndSet(i, 0);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Retires the cell: adds fail from now on.
+     *
+     * @return the increments added since the last drain
+     */
+    long retire() {
+        // no stripes can be created after this, a thread failing on the base would otherwise add to fresh stripes
+        stripes.compareAndSet(null, RETIRED_STRIPES);
+        var sum = base.getAndSet(RETIRED);
+        var striped = stripes.get();
+        if (striped != RETIRED_STRIPES) {
+            for (var i = 0; i < striped.length(); i += PADDING) {
+                sum += striped.getAndSet(i, RETIRED);
+            }
+        }
+        return sum;
+    }
+
+    boolean isRetired() {
+        return base.get() == RETIRED;
+    }
+
+    /**
+     * The increments not drained yet, without resetting them. Not a snapshot while other threads add.
+     */
+    long pending() {
+        var value = base.get();
+        var sum = value == RETIRED ? 0 : value;
+        var striped = stripes.get();
+        if (striped != null && striped != RETIRED_STRIPES) {
+            for (var i = 0; i < striped.length(); i += PADDING) {
+                var stripe = striped.get(i);
+                sum += stripe == RETIRED ? 0 : stripe;
+            }
+        }
+        return sum;
+    }
+}
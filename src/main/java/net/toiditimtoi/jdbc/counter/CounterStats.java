@@ -0,0 +1,79 @@
+package net.toiditimtoi.jdbc.counter;
+
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many increments a {@link CounterBuffer} received, and how few UPDATEs it needed to write them.
+ */
+public final class CounterStats {
+    final LongAdder increments = new LongAdder();
+    final LongAdder flushes = new LongAdder();
+    final LongAdder rowsUpdated = new LongAdder();
+    final LongAdder missingRows = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder retiredCells = new LongAdder();
+    final LatencyHistogram flushTimes = new LatencyHistogram();
+
+    public long getIncrements() {
+        return increments.sum();
+    }
+
+    /**
+     * Flushes which wrote at least one id. Flushes finding nothing pending do not open a transaction.
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * UPDATEs committed, one per id and flush.
+     */
+    public long getRowsUpdated() {
+        return rowsUpdated.sum();
+    }
+
+    /**
+     * UPDATEs which matched no row: the increments of an id without a row are dropped.
+     */
+    public long getMissingRows() {
+        return missingRows.sum();
+    }
+
+    /**
+     * Flushes which failed. Their increments stay pending and are written by the next flush.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Cells of ids not incremented for two flushes, removed to keep the buffer small.
+     */
+    public long getRetiredCells() {
+        return retiredCells.sum();
+    }
+
+    /**
+     * Time of the flushes, from the drain of the cells to the commit.
+     */
+    public LatencyHistogram getFlushTimes() {
+        return flushTimes;
+    }
+
+    /**
+     * Increments per UPDATE: 1 without any coalescing, the number of increments of a flush interval for a hot row.
+     */
+    public double getCoalescingRatio() {
+        var rows = getRowsUpdated();
+        return rows == 0 ? 0 : (double) getIncrements() / rows;
+    }
+
+    @Override
+    public String toString() {
+        return "CounterStats[increments=%d, flushes=%d, rowsUpdated=%d, coalescing=%.1f, missingRows=%d, failures=%d, flushP99=%dus]"
+                .formatted(getIncrements(), getFlushes(), getRowsUpdated(), getCoalescingRatio(), getMissingRows(),
+                        getFailures(), flushTimes.getValueAtPercentile(99) / 1_000);
+    }
+}
@@ -0,0 +1,90 @@
+package net.toiditimtoi.jdbc.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The posts of one block of the {@link ExportFormat#COLUMNAR} format, filled from rows of a binary COPY and written
+ * again and again, the arrays are allocated once per range. The titles are copied from the bytes the server sent,
+ * which are already UTF-8, never decoded into Strings.
+ */
+final class ColumnarBlock {
+    private final long[] ids;
+    private final int[] versions;
+    private final int[] titleOffsets;
+    private final byte[] nullTitles;
+    private final byte[] nullVersions;
+    private byte[] titles = new byte[4096];
+    private int size;
+
+    ColumnarBlock(int capacity) {
+        this.ids = new long[capacity];
+        this.versions = new int[capacity];
+        this.titleOffsets = new int[capacity + 1];
+        this.nullTitles = new byte[(capacity + 7) / 8];
+        this.nullVersions = new byte[(capacity + 7) / 8];
+    }
+
+    boolean isFull() {
+        return size == ids.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds the row at the position of the buffer: the fields of {@code id, title, version} in the binary COPY format,
+     * each one its length (-1 for NULL) then its big-endian value.
+     */
+    void add(ByteBuffer row) {
+        var idLength = row.getInt();
+        if (idLength != Long.BYTES) {
+            throw new IllegalStateException("Expected an id of 8 bytes but its length was " + idLength);
+        }
+        ids[size] = row.getLong();
+
+        var titleStart = titleOffsets[size];
+        var titleLength = row.getInt();
+        if (titleLength < 0) {
+            nullTitles[size >> 3] |= (byte) (1 << (size & 7));
+            titleLength = 0;
+        } else {
+            if (titleStart + titleLength > titles.length) {
+                titles = Arrays.copyOf(titles, Math.max(titles.length * 2, titleStart + titleLength));
+            }
+            row.get(titles, titleStart, titleLength);
+        }
+        titleOffsets[size + 1] = titleStart + titleLength;
+
+        var versionLength = row.getInt();
+        if (versionLength < 0) {
+            nullVersions[size >> 3] |= (byte) (1 << (size & 7));
+        } else {
+            versions[size] = row.getInt();
+        }
+        size++;
+    }
+
+    void writeTo(MappedFileWriter out) throws IOException {
+        var bitmapBytes = (size + 7) / 8;
+        var titleBytes = titleOffsets[size];
+        out.putInt(size);
+        out.putInt(titleBytes);
+        out.putLongs(ids, size);
+        out.putInts(versions, size);
+        out.putInts(titleOffsets, size + 1);
+        out.put(nullTitles, 0, bitmapBytes);
+        out.put(nullVersions, 0, bitmapBytes);
+        out.put(titles, 0, titleBytes);
+        out.align(Long.BYTES);
+    }
+
+    void clear() {
+        Arrays.fill(nullTitles, 0, (size + 7) / 8, (byte) 0);
+        Arrays.fill(nullVersions, 0, (size + 7) / 8, (byte) 0);
+        Arrays.fill(versions, 0, size, 0);
+        size = 0;
+    }
+}
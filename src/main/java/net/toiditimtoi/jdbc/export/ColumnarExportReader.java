@@ -0,0 +1,77 @@
+package net.toiditimtoi.jdbc.export;
+
+import net.toiditimtoi.jdbc.copy.PostColumns;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads back the files of an {@link ExportFormat#COLUMNAR} export, block by block.
+ */
+public final class ColumnarExportReader {
+    /**
+     * The first 8 bytes of a columnar file, in ASCII.
+     */
+    public static final String MAGIC = "POSTCOL1";
+
+    @FunctionalInterface
+    public interface BlockConsumer {
+        void accept(PostColumns block) throws IOException;
+    }
+
+    private ColumnarExportReader() {
+    }
+
+    /**
+     * Hands every block of the file to the consumer, NULL titles as null and NULL versions as 0.
+     *
+     * @return the number of posts read
+     */
+    public static long read(Path file, BlockConsumer consumer) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            var magic = new byte[MAGIC.length()];
+            buffer.get(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+                throw new IOException(file + " is not a columnar export");
+            }
+            var rows = 0L;
+            int size;
+            while ((size = buffer.getInt()) > 0) {
+                var titleBytes = buffer.getInt();
+                var ids = new long[size];
+                buffer.asLongBuffer().get(ids);
+                buffer.position(buffer.position() + size * Long.BYTES);
+                var versions = new int[size];
+                buffer.asIntBuffer().get(versions);
+                buffer.position(buffer.position() + size * Integer.BYTES);
+                var offsets = new int[size + 1];
+                buffer.asIntBuffer().get(offsets);
+                buffer.position(buffer.position() + (size + 1) * Integer.BYTES);
+                var nullTitles = new byte[(size + 7) / 8];
+                buffer.get(nullTitles);
+                // then the bitmap of the NULL versions, which were written as 0
+                buffer.position(buffer.position() + nullTitles.length);
+                var titlesStart = buffer.position();
+
+                var titles = new String[size];
+                for (var i = 0; i < size; i++) {
+                    if ((nullTitles[i >> 3] & (1 << (i & 7))) == 0) {
+                        var bytes = new byte[offsets[i + 1] - offsets[i]];
+                        buffer.get(titlesStart + offsets[i], bytes);
+                        titles[i] = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                }
+                buffer.position(titlesStart + titleBytes);
+                buffer.position(buffer.position() + (-buffer.position() & (Long.BYTES - 1)));
+                consumer.accept(new PostColumns(ids, titles, versions));
+                rows += size;
+            }
+            return rows;
+        }
+    }
+}
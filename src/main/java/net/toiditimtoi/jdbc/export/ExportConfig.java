@@ -0,0 +1,71 @@
+package net.toiditimtoi.jdbc.export;
+
+import net.toiditimtoi.jdbc.SqlIdentifiers;
+
+import java.util.Objects;
+
+/**
+ * Settings of a {@link PostExporter}.
+ * Start from {@link #defaults()} and adjust with the {@code withXxx} methods.
+ *
+ * @param table           a table with the columns of post
+ * @param format          the format of the files
+ * @param workers         ranges exported at the same time, each on a connection of its own. The pool needs one more
+ *                        connection, which holds the snapshot the workers read
+ * @param rangesPerWorker ranges of ids per worker: more ranges than workers keep every worker busy until the end
+ *                        when the ids are not evenly spread
+ * @param regionBytes     size of the regions of the files mapped at once. A file grows by a region at a time and
+ *                        is truncated to what was written at the end
+ * @param blockRows       posts per block of the {@link ExportFormat#COLUMNAR} format
+ */
+public record ExportConfig(String table, ExportFormat format, int workers, int rangesPerWorker, int regionBytes,
+                           int blockRows) {
+    public ExportConfig {
+        Objects.requireNonNull(table, "table");
+        Objects.requireNonNull(format, "format");
+        SqlIdentifiers.requireTableName(table);
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1 but was " + workers);
+        }
+        if (rangesPerWorker < 1) {
+            throw new IllegalArgumentException("rangesPerWorker must be at least 1 but was " + rangesPerWorker);
+        }
+        if (regionBytes < 4096) {
+            throw new IllegalArgumentException("regionBytes must be at least 4096 but was " + regionBytes);
+        }
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("blockRows must be at least 1 but was " + blockRows);
+        }
+    }
+
+    /**
+     * The post table in CSV, by 4 workers, 4 ranges each, in regions of 64 MB, and blocks of 65 536 posts for the columnar format.
+     */
+    public static ExportConfig defaults() {
+        return new ExportConfig("post", ExportFormat.CSV, 4, 4, 64 << 20, 1 << 16);
+    }
+
+    public ExportConfig withTable(String table) {
+        return new ExportConfig(table, format, workers, rangesPerWorker, regionBytes, blockRows);
+    }
+
+    public ExportConfig withFormat(ExportFormat format) {
+        return new ExportConfig(table, format, workers, rangesPerWorker, regionBytes, blockRows);
+    }
+
+    public ExportConfig withWorkers(int workers) {
+        return new ExportConfig(table, format, workers, rangesPerWorker, regionBytes, blockRows);
+    }
+
+    public ExportConfig withRangesPerWorker(int rangesPerWorker) {
+        return new ExportConfig(table, format, workers, rangesPerWorker, regionBytes, blockRows);
+    }
+
+    public ExportConfig withRegionBytes(int regionBytes) {
+        return new ExportConfig(table, format, workers, rangesPerWorker, regionBytes, blockRows);
+    }
+
+    public ExportConfig withBlockRows(int blockRows) {
+        return new ExportConfig(table, format, workers, rangesPerWorker, regionBytes, blockRows);
+    }
+}
@@ -0,0 +1,35 @@
+package net.toiditimtoi.jdbc.export;
+
+/**
+ * How a {@link PostExporter} writes the posts.
+ */
+public enum ExportFormat {
+    /**
+     * {@code id,title,version} lines as written by {@code COPY ... (FORMAT csv)}, the first file starting with that
+     * header. The files concatenated in the order of their names are a CSV of the whole table, ordered by id.
+     */
+    CSV(".csv"),
+    /**
+     * Blocks of posts stored column by column, little-endian, read back with {@link ColumnarExportReader}. The file
+     * starts with {@link ColumnarExportReader#MAGIC}, then every block is:
+     * <ul>
+     *     <li>the number of posts n (int32), and the length of the titles in bytes (int32)</li>
+     *     <li>the ids (n int64), the versions (n int32)</li>
+     *     <li>the offsets of the titles (n + 1 int32): title i is the UTF-8 bytes {@code [offset(i), offset(i + 1))}</li>
+     *     <li>a bitmap of the NULL titles, then one of the NULL versions, (n + 7) / 8 bytes each, lowest bit first</li>
+     *     <li>the bytes of the titles, then zeros up to a multiple of 8 bytes, so that the next ids are aligned</li>
+     * </ul>
+     * A block of 0 posts ends the file.
+     */
+    COLUMNAR(".col");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String extension() {
+        return extension;
+    }
+}
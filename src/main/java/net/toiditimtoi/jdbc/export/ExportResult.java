@@ -0,0 +1,28 @@
+package net.toiditimtoi.jdbc.export;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * What a {@link PostExporter} wrote.
+ *
+ * @param files   one per range of ids, in the order of the ids
+ * @param rows    posts exported
+ * @param bytes   size of all the files
+ * @param elapsed from the start of the snapshot to the last file closed
+ */
+public record ExportResult(List<Path> files, long rows, long bytes, Duration elapsed) {
+
+    public ExportResult {
+        files = List.copyOf(files);
+    }
+
+    public double rowsPerSecond() {
+        return elapsed.isZero() ? 0 : rows * 1e9 / elapsed.toNanos();
+    }
+
+    public double megabytesPerSecond() {
+        return elapsed.isZero() ? 0 : bytes * 1e9 / elapsed.toNanos() / (1 << 20);
+    }
+}
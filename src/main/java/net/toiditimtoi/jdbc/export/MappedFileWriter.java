@@ -0,0 +1,96 @@
+package net.toiditimtoi.jdbc.export;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a file through a memory-mapped region of it, mapping the next region from the current position when it is
+ * full. Mapping beyond the end of the file extends it, so the file is preallocated a region at a time; it is
+ * truncated to the bytes written when the writer is closed.
+ * <p>
+ * The bytes are copied into the page cache with no system call per write, and written back by the kernel. A mapped
+ * region cannot be unmapped explicitly, it is released when its buffer is garbage collected: on Linux a mapped file
+ * can be truncated meanwhile, on Windows the truncation fails.
+ */
+final class MappedFileWriter implements AutoCloseable {
+    private final FileChannel channel;
+    private final int regionBytes;
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    MappedFileWriter(Path path, int regionBytes) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.regionBytes = regionBytes;
+        try {
+            map(0, regionBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void map(long start, int size) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = start;
+    }
+
+    /**
+     * Maps the next region from the current position if fewer than the given bytes remain in this one. The tail of
+     * the previous region is mapped again as the head of the next one, nothing is skipped.
+     */
+    private void ensureRemaining(int bytes) throws IOException {
+        if (region.remaining() < bytes) {
+            map(position(), Math.max(regionBytes, bytes));
+        }
+    }
+
+    long position() {
+        return regionStart + region.position();
+    }
+
+    void put(byte[] bytes, int offset, int length) throws IOException {
+        ensureRemaining(length);
+        region.put(bytes, offset, length);
+    }
+
+    void putInt(int value) throws IOException {
+        ensureRemaining(Integer.BYTES);
+        region.putInt(value);
+    }
+
+    void putInts(int[] values, int length) throws IOException {
+        ensureRemaining(length * Integer.BYTES);
+        region.asIntBuffer().put(values, 0, length);
+        region.position(region.position() + length * Integer.BYTES);
+    }
+
+    void putLongs(long[] values, int length) throws IOException {
+        ensureRemaining(length * Long.BYTES);
+        region.asLongBuffer().put(values, 0, length);
+        region.position(region.position() + length * Long.BYTES);
+    }
+
+    /**
+     * Writes zeros up to the next multiple of the alignment.
+     */
+    void align(int alignment) throws IOException {
+        var padding = (int) (-position() & (alignment - 1));
+        ensureRemaining(padding);
+        for (var i = 0; i < padding; i++) {
+            region.put((byte) 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            channel.truncate(position());
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package net.toiditimtoi.jdbc.export;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Exports the post table, or another with its columns, to files, range of ids by range of ids, several ranges at the same time.
+ * <p>
+ * A {@code SELECT *} read row by row and formatted into Strings keeps one connection and one core busy, whatever the
+ * server and the disks could do. Here the ids are split into {@code workers * rangesPerWorker} ranges, and every
+ * worker runs {@code COPY (SELECT ... WHERE id >= ? AND id < ? ORDER BY id) TO STDOUT} for its next range on a
+ * connection of its own, which the primary key turns into an index range scan. The bytes the server sends are
+ * written as they are into a file per range, through {@link MappedFileWriter}:
+ * <ul>
+ *     <li>in {@link ExportFormat#CSV} the server formats the lines, the client only copies them</li>
+ *     <li>in {@link ExportFormat#COLUMNAR} the rows come in the binary COPY format, and their fields are copied into
+ *     the columns of a {@link ColumnarBlock}: ids and versions are decoded into primitives, titles stay bytes</li>
+ * </ul>
+ * No String is created per row either way. The throughput grows with the workers until the server runs out of cores
+ * or the disk out of bandwidth.
+ * <p>
+ * The ranges read the same snapshot: a coordinating connection exports its snapshot with
+ * {@code pg_export_snapshot()} and keeps its transaction open while the workers import it with
+ * {@code SET TRANSACTION SNAPSHOT}, like the parallel pg_dump does. So the files are a consistent copy of the table
+ * however long the export takes, and the data source needs {@code workers + 1} connections. The export needs a pgjdbc
+ * connection for COPY.
+ * <p>
+ * When a range fails, the files of the export are deleted.
+ */
+public final class PostExporter {
+    private static final AtomicInteger EXPORT_NUMBER = new AtomicInteger();
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f-]+");
+    private static final byte[] BINARY_COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+    private static final byte[] COLUMNAR_MAGIC = ColumnarExportReader.MAGIC.getBytes(StandardCharsets.US_ASCII);
+
+    private record Range(int index, long from, long to) {
+    }
+
+    private record RangeResult(Path file, long rows, long bytes) {
+    }
+
+    private final DataSource dataSource;
+    private final ExportConfig config;
+
+    public PostExporter(DataSource dataSource, ExportConfig config) {
+        this.dataSource = dataSource;
+        this.config = config;
+    }
+
+    public ExportConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Exports every post to the directory, in files named {@code name-0000}, {@code name-0001}... followed by the
+     * extension of the format, one per range of ids.
+     */
+    public ExportResult export(Path directory, String name) throws SQLException, IOException {
+        var start = System.nanoTime();
+        Files.createDirectories(directory);
+        try (var coordinator = dataSource.getConnection()) {
+            coordinator.setAutoCommit(false);
+            coordinator.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                List<Range> ranges;
+                String snapshot;
+                try (var statement = coordinator.createStatement();
+                     var resultSet = statement.executeQuery("SELECT pg_export_snapshot(), min(id), max(id) FROM " + config.table())) {
+                    resultSet.next();
+                    snapshot = resultSet.getString(1);
+                    var min = resultSet.getLong(2);
+                    ranges = resultSet.wasNull() ? List.of(new Range(0, 0, 0)) : split(min, resultSet.getLong(3));
+                }
+                if (!SNAPSHOT_ID.matcher(snapshot).matches()) {
+                    throw new SQLException("Unexpected snapshot id " + snapshot);
+                }
+                var results = exportRanges(ranges, snapshot, directory, name);
+                coordinator.commit();
+
+                var files = new ArrayList<Path>(results.size());
+                var rows = 0L;
+                var bytes = 0L;
+                for (var result : results) {
+                    files.add(result.file());
+                    rows += result.rows();
+                    bytes += result.bytes();
+                }
+                return new ExportResult(files, rows, bytes, Duration.ofNanos(System.nanoTime() - start));
+            } catch (SQLException | IOException | RuntimeException e) {
+                coordinator.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Ranges of about the same width from {@code min} to {@code max} included, at most one per id.
+     */
+    private List<Range> split(long min, long max) {
+        var span = max - min + 1;
+        var count = (int) Math.min((long) config.workers() * config.rangesPerWorker(), span);
+        var ranges = new ArrayList<Range>(count);
+        var from = min;
+        for (var i = 0; i < count; i++) {
+            var to = i == count - 1 ? max + 1 : min + (long) ((double) span * (i + 1) / count);
+            ranges.add(new Range(i, from, to));
+            from = to;
+        }
+        return ranges;
+    }
+
+    private List<RangeResult> exportRanges(List<Range> ranges, String snapshot, Path directory, String name) throws SQLException, IOException {
+        var exportNumber = EXPORT_NUMBER.incrementAndGet();
+        var threadNumber = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(Math.min(config.workers(), ranges.size()), runnable -> {
+            var thread = new Thread(runnable, "post-export-%d-%d".formatted(exportNumber, threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        var files = new ArrayList<Path>(ranges.size());
+        try {
+            var futures = new ArrayList<Future<RangeResult>>(ranges.size());
+            for (var range : ranges) {
+                var file = directory.resolve("%s-%04d%s".formatted(name, range.index(), config.format().extension()));
+                files.add(file);
+                futures.add(executor.submit(() -> exportRange(range, snapshot, file)));
+            }
+            var results = new ArrayList<RangeResult>(futures.size());
+            Exception failure = null;
+            var interrupted = false;
+            for (var future : futures) {
+                try {
+                    while (true) {
+                        try {
+                            results.add(future.get());
+                            break;
+                        } catch (InterruptedException e) {
+                            // the ranges hold connections and write files, they are not abandoned
+                            interrupted = true;
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    var cause = e.getCause() instanceof Exception exception ? exception : new IllegalStateException(e.getCause());
+                    if (failure == null) {
+                        failure = cause;
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                deleteQuietly(files, failure);
+                if (failure instanceof SQLException sqlException) {
+                    throw new SQLException(sqlException.getMessage(), sqlException.getSQLState(), sqlException.getErrorCode(), sqlException);
+                }
+                if (failure instanceof IOException) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+                throw new SQLException("Exporting a range of posts failed", failure);
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void deleteQuietly(List<Path> files, Exception failure) {
+        for (var file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    private RangeResult exportRange(Range range, String snapshot, Path file) throws SQLException, IOException {
+        try (var connection = dataSource.getConnection()) {
+            if (!connection.isWrapperFor(PGConnection.class)) {
+                throw new SQLFeatureNotSupportedException("Exporting posts needs the COPY of a pgjdbc connection");
+            }
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (var statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+            }
+            var columnar = config.format() == ExportFormat.COLUMNAR;
+            var copyOut = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(copySql(config.table(), range, columnar));
+            RangeResult result;
+            try (var out = new MappedFileWriter(file, config.regionBytes())) {
+                var rows = columnar ? writeColumnar(copyOut, out) : writeCsv(copyOut, out);
+                result = new RangeResult(file, rows, out.position());
+            } catch (SQLException | IOException | RuntimeException e) {
+                if (copyOut.isActive()) {
+                    // otherwise the connection stays in COPY mode
+                    try {
+                        copyOut.cancelCopy();
+                    } catch (SQLException cancelFailure) {
+                        e.addSuppressed(cancelFailure);
+                    }
+                }
+                throw e;
+            }
+            connection.commit();
+            return result;
+        }
+    }
+
+    private static String copySql(String table, Range range, boolean columnar) {
+        // COPY takes no parameters, the bounds are numbers formatted by the JVM
+        var select = "SELECT %s, title, version FROM %s WHERE id >= %d AND id < %d ORDER BY id"
+                .formatted(columnar ? "id::bigint" : "id", table, range.from(), range.to());
+        if (columnar) {
+            return "COPY (" + select + ") TO STDOUT (FORMAT binary)";
+        }
+        return "COPY (" + select + ") TO STDOUT (FORMAT csv" + (range.index() == 0 ? ", HEADER" : "") + ")";
+    }
+
+    /**
+     * Every message of the server is a line of CSV, written as it is.
+     */
+    private static long writeCsv(CopyOut copyOut, MappedFileWriter out) throws SQLException, IOException {
+        byte[] line;
+        while ((line = copyOut.readFromCopy()) != null) {
+            out.put(line, 0, line.length);
+        }
+        return copyOut.getHandledRowCount();
+    }
+
+    /**
+     * The server sends every row in a message of its own, the first one preceded by the header of the binary format
+     * and the last message holding the trailer.
+     */
+    private long writeColumnar(CopyOut copyOut, MappedFileWriter out) throws SQLException, IOException {
+        out.put(COLUMNAR_MAGIC, 0, COLUMNAR_MAGIC.length);
+        var block = new ColumnarBlock(config.blockRows());
+        var rows = 0L;
+        var first = true;
+        byte[] data;
+        while ((data = copyOut.readFromCopy()) != null) {
+            var message = ByteBuffer.wrap(data);
+            if (first) {
+                skipHeader(message);
+                first = false;
+            }
+            while (message.hasRemaining()) {
+                var fields = message.getShort();
+                if (fields == -1) {
+                    break;
+                }
+                if (fields != 3) {
+                    throw new SQLException("Expected the 3 columns of post but a row had " + fields);
+                }
+                block.add(message);
+                rows++;
+                if (block.isFull()) {
+                    block.writeTo(out);
+                    block.clear();
+                }
+            }
+        }
+        if (!block.isEmpty()) {
+            block.writeTo(out);
+        }
+        out.putInt(0);
+        return rows;
+    }
+
+    private static void skipHeader(ByteBuffer message) throws SQLException {
+        var signature = new byte[BINARY_COPY_SIGNATURE.length];
+        message.get(signature);
+        if (!Arrays.equals(signature, BINARY_COPY_SIGNATURE)) {
+            throw new SQLException("The server did not answer in the binary COPY format");
+        }
+        // flags, then the length of the header extension
+        message.getInt();
+        var extension = message.getInt();
+        message.position(message.position() + extension);
+    }
+}
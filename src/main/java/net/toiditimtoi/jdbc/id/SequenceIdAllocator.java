@@ -0,0 +1,153 @@
+package net.toiditimtoi.jdbc.id;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out ids from memory and only goes to the database sequence once every {@code allocationSize} ids.
+ * <p>
+ * As sql_stories/identity_column_and_sequence.txt shows, every nextval is a round trip. Knowing the ids up front also
+ * means inserts can be batched without reading the generated keys back.
+ * <p>
+ * Two strategies are supported:
+ * <ul>
+ *     <li>{@link Strategy#POOLED_LO}: the sequence itself increments by {@code allocationSize}, nextval returning v
+ *     reserves {@code [v, v + allocationSize)}. Rows inserted with the column default (nextval) by other clients
+ *     simply take one value of the sequence, so both kinds of writers can share the same sequence.</li>
+ *     <li>{@link Strategy#HI_LO}: the sequence increments by 1 and its value is a "hi" number, nextval returning hi
+ *     reserves {@code [(hi - 1) * allocationSize + 1, hi * allocationSize]}. The ids are not values of the sequence,
+ *     so every writer of the table must use the same hi/lo allocator, usually on a dedicated sequence.</li>
+ * </ul>
+ * Either way every range comes from an atomic nextval, so several JVMs sharing the sequence never get overlapping ranges.
+ * <p>
+ * Taking an id is a single getAndIncrement on the current range. Only the thread that exhausts a range fetches the
+ * next one, the others wait for it.
+ */
+public final class SequenceIdAllocator {
+
+    public enum Strategy {
+        HI_LO,
+        POOLED_LO
+    }
+
+    private final DataSource dataSource;
+    private final String sequenceName;
+    private final int allocationSize;
+    private final Strategy strategy;
+    private final ReentrantLock refillLock = new ReentrantLock();
+    private final AtomicLong rangesFetched = new AtomicLong();
+
+    private volatile Range current = Range.EXHAUSTED;
+    private volatile boolean incrementVerified;
+
+    public SequenceIdAllocator(DataSource dataSource, String sequenceName, int allocationSize, Strategy strategy) {
+        this.dataSource = Objects.requireNonNull(dataSource, "dataSource");
+        this.sequenceName = Objects.requireNonNull(sequenceName, "sequenceName");
+        this.strategy = Objects.requireNonNull(strategy, "strategy");
+        if (allocationSize < 1) {
+            throw new IllegalArgumentException("allocationSize must be at least 1 but was " + allocationSize);
+        }
+        this.allocationSize = allocationSize;
+    }
+
+    public long nextId() throws SQLException {
+        while (true) {
+            var range = current;
+            var id = range.next.getAndIncrement();
+            if (id < range.limit) {
+                return id;
+            }
+            refill(range);
+        }
+    }
+
+    private void refill(Range exhausted) throws SQLException {
+        refillLock.lock();
+        try {
+            // another thread may have refilled while we were waiting for the lock
+            if (current != exhausted) {
+                return;
+            }
+            var value = nextSequenceValue();
+            var low = strategy == Strategy.POOLED_LO ? value : (value - 1) * allocationSize + 1;
+            current = new Range(low, low + allocationSize);
+            rangesFetched.incrementAndGet();
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    private long nextSequenceValue() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            if (strategy == Strategy.POOLED_LO && !incrementVerified) {
+                verifyIncrement(connection);
+                incrementVerified = true;
+            }
+            try (var statement = connection.prepareStatement("SELECT nextval(?::regclass)")) {
+                statement.setString(1, sequenceName);
+                try (var resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * With pooled-lo, a sequence incrementing by less than the allocation size would hand the same ids to two JVMs.
+     * The name is resolved like nextval resolves it: through the search_path, schema-qualified or quoted.
+     */
+    private void verifyIncrement(Connection connection) throws SQLException {
+        var sql = "SELECT seqincrement FROM pg_sequence WHERE seqrelid = ?::regclass";
+        try (var statement = connection.prepareStatement(sql)) {
+            statement.setString(1, sequenceName);
+            try (var resultSet = statement.executeQuery()) {
+                // a missing relation already failed the cast, so this one is not a sequence
+                if (!resultSet.next()) {
+                    throw new SQLException("%s is not a sequence".formatted(sequenceName));
+                }
+                var incrementBy = resultSet.getLong(1);
+                if (incrementBy != allocationSize) {
+                    throw new IllegalStateException("Sequence %s increments by %d but the allocation size is %d, run ALTER SEQUENCE %s INCREMENT BY %d"
+                            .formatted(sequenceName, incrementBy, allocationSize, sequenceName, allocationSize));
+                }
+            }
+        }
+    }
+
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getAllocationSize() {
+        return allocationSize;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * How many times the database was asked for a new range, which is the number of round trips spent on ids.
+     */
+    public long getRangesFetched() {
+        return rangesFetched.get();
+    }
+
+    private static final class Range {
+        static final Range EXHAUSTED = new Range(0, 0);
+
+        final AtomicLong next;
+        // exclusive
+        final long limit;
+
+        Range(long low, long limit) {
+            this.next = new AtomicLong(low);
+            this.limit = limit;
+        }
+    }
+}
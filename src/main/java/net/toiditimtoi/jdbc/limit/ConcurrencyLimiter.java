@@ -0,0 +1,261 @@
+package net.toiditimtoi.jdbc.limit;
+
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits statements to the database while fewer than a limit are in flight, the limit being adjusted from their
+ * latency by a {@link GradientLimit}.
+ * <p>
+ * When Postgres slows down, sending it more statements only makes every one of them slower: they queue for the CPU,
+ * the disks and the locks inside the server, and the latency of all of them explodes while the throughput does not
+ * move. Here the excess waits in front of the database instead, in a bounded queue, and the limit shrinks until the
+ * statements in flight are answered about as fast as on an idle database, their round trip timed from the borrowed
+ * connection to the end of the callback. A request beyond the queue fails at once with a
+ * {@link SQLTransientException}, which the caller can turn into a 503 and a retry later.
+ * <p>
+ * Every request carries a {@link Deadline}. It bounds the wait for a permit and the wait for a connection of the
+ * pool, and becomes the {@link java.sql.Statement#setQueryTimeout(int) query timeout} of the statement: a request
+ * which can no longer be answered in time fails with a {@link SQLTimeoutException} without being sent, the
+ * database never works for a caller who gave up already.
+ * <pre>{@code
+ * var limiter = new ConcurrencyLimiter(pool, LimiterConfig.of(pool.getConfig().maxPoolSize()));
+ * var post = limiter.queryFirst(Deadline.after(Duration.ofMillis(300)), "SELECT ... WHERE id = ?", mapper, id);
+ * }</pre>
+ * Every request borrows its own connection for a single statement, in auto-commit mode.
+ */
+public final class ConcurrencyLimiter {
+    private final DataSource dataSource;
+    private final LimiterConfig config;
+    private final GradientLimit limit;
+    private final LimiterStats stats = new LimiterStats();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    // guarded by the lock
+    private int inFlight;
+    private int waiting;
+
+    public ConcurrencyLimiter(DataSource dataSource, LimiterConfig config) {
+        this.dataSource = dataSource;
+        this.config = config;
+        this.limit = new GradientLimit(config, System.nanoTime());
+    }
+
+    public LimiterConfig getConfig() {
+        return config;
+    }
+
+    public LimiterStats getStats() {
+        return stats;
+    }
+
+    public int getLimit() {
+        return limit.get();
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests waiting for a permit.
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int executeUpdate(Deadline deadline, String sql, Object... parameters) throws SQLException {
+        return execute(deadline, sql, statement -> {
+            CachedStatements.bind(statement, parameters);
+            return statement.executeUpdate();
+        });
+    }
+
+    public <T> List<T> query(Deadline deadline, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        return execute(deadline, sql, statement -> {
+            CachedStatements.bind(statement, parameters);
+            try (var resultSet = statement.executeQuery()) {
+                var rowMapper = mapper.bind(resultSet);
+                var rows = new ArrayList<T>();
+                while (resultSet.next()) {
+                    rows.add(rowMapper.map(resultSet));
+                }
+                return rows;
+            }
+        });
+    }
+
+    public <T> Optional<T> queryFirst(Deadline deadline, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        return execute(deadline, sql, statement -> {
+            CachedStatements.bind(statement, parameters);
+            statement.setMaxRows(1);
+            try (var resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.ofNullable(mapper.bind(resultSet).map(resultSet)) : Optional.empty();
+            } finally {
+                statement.setMaxRows(0);
+            }
+        });
+    }
+
+    /**
+     * Lends the cached statement of the SQL to the callback once admitted, with the query timeout of the deadline.
+     *
+     * @throws SQLTransientException when the queue is full
+     * @throws SQLTimeoutException   with the SQLState {@link Deadline#NOT_SENT} when the deadline passed before the
+     *                               statement was sent
+     * @throws SQLException          when the statement failed, with the SQLState 57014 if it was cancelled by its
+     *                               query timeout
+     */
+    public <R> R execute(Deadline deadline, String sql, CachedStatements.StatementCallback<R> callback) throws SQLException {
+        var began = System.nanoTime();
+        int inFlightWhenAdmitted;
+        try {
+            inFlightWhenAdmitted = acquire(deadline);
+        } catch (SQLTimeoutException e) {
+            stats.expired.increment();
+            stats.responseTimes.record(System.nanoTime() - began);
+            throw e;
+        }
+        // the limit is adjusted from the round trip of the statement alone: with the waits for a permit and a
+        // connection, which grow with the overload, the latency would never come back down to the baseline
+        var sent = false;
+        var sentAt = 0L;
+        var answeredAt = 0L;
+        var dropped = false;
+        try (var connection = borrow(deadline)) {
+            sent = true;
+            sentAt = System.nanoTime();
+            try {
+                return CachedStatements.execute(connection, sql, statement -> {
+                    statement.setQueryTimeout(deadline.queryTimeoutSeconds());
+                    try {
+                        return callback.doInStatement(statement);
+                    } finally {
+                        // the statement goes back to the cache of the connection
+                        statement.setQueryTimeout(0);
+                    }
+                });
+            } finally {
+                answeredAt = System.nanoTime();
+            }
+        } catch (SQLTimeoutException e) {
+            // thrown by the deadline, before the statement was sent
+            sent = false;
+            stats.expired.increment();
+            throw e;
+        } catch (SQLException e) {
+            if (Deadline.QUERY_CANCELED.equals(e.getSQLState())) {
+                dropped = true;
+                stats.timeouts.increment();
+            }
+            throw e;
+        } finally {
+            var now = System.nanoTime();
+            release();
+            stats.responseTimes.record(now - began);
+            if (sent && limit.onSample(answeredAt, answeredAt - sentAt, inFlightWhenAdmitted, dropped)) {
+                stats.limitChanges.increment();
+                // a higher limit admits waiting requests, which no release would wake up
+                lock.lock();
+                try {
+                    permitReleased.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the statements in flight once admitted, this one included
+     */
+    private int acquire(Deadline deadline) throws SQLException {
+        lock.lock();
+        try {
+            // the requests already waiting go first
+            if (waiting == 0 && inFlight < limit.get()) {
+                stats.admitted.increment();
+                return ++inFlight;
+            }
+            if (waiting >= config.maxQueued()) {
+                stats.rejected.increment();
+                throw new SQLTransientException("%d statements are in flight, the current limit, and %d requests are already waiting"
+                        .formatted(inFlight, waiting), "53000");
+            }
+            waiting++;
+            try {
+                var remaining = deadline.remainingNanos();
+                while (inFlight >= limit.get()) {
+                    if (remaining <= 0) {
+                        throw deadline.expired("while waiting for a permit");
+                    }
+                    remaining = permitReleased.awaitNanos(remaining);
+                }
+            } finally {
+                waiting--;
+            }
+            stats.admitted.increment();
+            stats.queued.increment();
+            return ++inFlight;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a permit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Connection borrow(Deadline deadline) throws SQLException {
+        if (deadline.isExpired()) {
+            throw deadline.expired("before a connection was borrowed");
+        }
+        if (!(dataSource instanceof PooledDataSource pool)) {
+            return dataSource.getConnection();
+        }
+        var remaining = deadline.remaining();
+        var timeout = remaining.compareTo(pool.getConfig().connectionTimeout()) < 0 ? remaining : pool.getConfig().connectionTimeout();
+        try {
+            return pool.getConnection(timeout);
+        } catch (SQLTransientConnectionException e) {
+            if (!deadline.isExpired()) {
+                throw e;
+            }
+            var expired = deadline.expired("while waiting for a connection");
+            expired.initCause(e);
+            throw expired;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.toiditimtoi.jdbc.limit;
+
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which a request must be answered, on the {@link System#nanoTime()} clock. It is handed down with the
+ * request so that every wait on its way, for a permit, for a connection, for the statement, stops at the same moment.
+ *
+ * @param nanoTime the value of {@link System#nanoTime()} at which the request expires
+ */
+public record Deadline(long nanoTime) {
+    // the SQLState of a statement cancelled by Postgres, by statement_timeout or by a cancel request
+    static final String QUERY_CANCELED = "57014";
+    /**
+     * The SQLState of a request whose deadline passed before its statement was sent: the timeout expired state of
+     * SQL/CLI, distinct from {@code 57014} so that callers can tell a statement the server never saw from one it
+     * cancelled.
+     */
+    public static final String NOT_SENT = "HYT00";
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    public long remainingNanos() {
+        return nanoTime - System.nanoTime();
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, remainingNanos()));
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * The remaining time for {@link java.sql.Statement#setQueryTimeout(int)}, which counts in whole seconds: rounded
+     * up, so a statement is never cancelled before the deadline, but up to a second after it.
+     *
+     * @throws SQLTimeoutException with the SQLState {@link #NOT_SENT} when the deadline has passed, the statement
+     *                             must not be sent
+     */
+    public int queryTimeoutSeconds() throws SQLTimeoutException {
+        var remaining = remainingNanos();
+        if (remaining <= 0) {
+            throw expired("before the statement was sent");
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (remaining + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    SQLTimeoutException expired(String when) {
+        return new SQLTimeoutException("The deadline passed %s, %dms ago".formatted(when,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime)), NOT_SENT);
+    }
+}
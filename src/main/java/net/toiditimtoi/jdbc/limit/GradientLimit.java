@@ -0,0 +1,126 @@
+package net.toiditimtoi.jdbc.limit;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The number of statements a {@link ConcurrencyLimiter} lets in flight, adjusted from their latency.
+ * <p>
+ * Every window, the mean latency of its statements is compared with the latency the database had without load,
+ * tracked as the lowest of those means over the last {@value #BASELINE_WINDOWS} windows. A minimum does not follow the
+ * means up: an overload, which the limit keeps short, never becomes the new normal, while a database which really got
+ * slower has its new latency taken as the baseline once its older windows are gone. The latencies are those of the
+ * statements alone, the waits for a permit and a connection left out. While the statements are not slower than the
+ * baseline by more than the tolerance the limit grows, by about its square root per window: more statements in flight
+ * are answered as fast, the database has capacity left. When they are slower, statements are queueing inside the
+ * database, and the limit is multiplied by the ratio of the two latencies (at most halved per window). A window with a
+ * timeout cuts the limit by {@link LimiterConfig#backoffRatio()} whatever the latencies, the multiplicative decrease
+ * of AIMD.
+ * <p>
+ * The limit only grows when the requests use at least half of it: a limit which was never reached says nothing about
+ * the capacity of the database.
+ */
+final class GradientLimit {
+    // the weight of the new value, the limit moves a fifth of the way per window
+    private static final double SMOOTHING = 0.2;
+    // the no-load latency is the lowest mean of that many windows, half a minute with windows of 100 ms
+    private static final int BASELINE_WINDOWS = 300;
+    private static final int MIN_SAMPLES = 10;
+
+    private final LimiterConfig config;
+    private final long windowNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    // the state of the current window and the estimates, guarded by the lock
+    private long windowStart;
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+    // the means of the last windows, a ring
+    private final double[] windowMeans = new double[BASELINE_WINDOWS];
+    private int windowMeansNext;
+    private int windowMeansCount;
+    private double baselineNanos;
+    private double limit;
+    private volatile int currentLimit;
+
+    GradientLimit(LimiterConfig config, long nowNanos) {
+        this.config = config;
+        this.windowNanos = config.window().toNanos();
+        this.windowStart = nowNanos;
+        this.limit = config.initialLimit();
+        this.currentLimit = config.initialLimit();
+    }
+
+    int get() {
+        return currentLimit;
+    }
+
+    /**
+     * The estimate of the latency of a statement on an idle database, 0 until the first window ended.
+     */
+    long getBaselineNanos() {
+        lock.lock();
+        try {
+            return (long) baselineNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param inFlight the statements in flight when this one started, itself included
+     * @param dropped  the statement timed out, its latency says nothing but that it was too slow
+     * @return true if the limit changed
+     */
+    boolean onSample(long nowNanos, long latencyNanos, int inFlight, boolean dropped) {
+        lock.lock();
+        try {
+            if (dropped) {
+                windowDropped = true;
+            } else {
+                windowSum += latencyNanos;
+                windowCount++;
+            }
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+            if (nowNanos - windowStart < windowNanos || (windowCount < MIN_SAMPLES && !windowDropped)) {
+                return false;
+            }
+
+            if (windowDropped) {
+                limit *= config.backoffRatio();
+            } else {
+                var meanNanos = (double) windowSum / windowCount;
+                baselineNanos = updateBaseline(meanNanos);
+                var gradient = Math.max(0.5, Math.min(1.0, config.tolerance() * baselineNanos / meanNanos));
+                var newLimit = limit * gradient + Math.sqrt(limit);
+                if (windowMaxInFlight < limit / 2) {
+                    newLimit = Math.min(newLimit, limit);
+                }
+                limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            }
+            limit = Math.max(config.minLimit(), Math.min(config.maxLimit(), limit));
+
+            windowStart = nowNanos;
+            windowSum = 0;
+            windowCount = 0;
+            windowMaxInFlight = 0;
+            windowDropped = false;
+            var previous = currentLimit;
+            currentLimit = (int) limit;
+            return currentLimit != previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double updateBaseline(double meanNanos) {
+        windowMeans[windowMeansNext] = meanNanos;
+        windowMeansNext = (windowMeansNext + 1) % BASELINE_WINDOWS;
+        windowMeansCount = Math.min(windowMeansCount + 1, BASELINE_WINDOWS);
+        var baseline = meanNanos;
+        for (var i = 0; i < windowMeansCount; i++) {
+            baseline = Math.min(baseline, windowMeans[i]);
+        }
+        return baseline;
+    }
+}
@@ -0,0 +1,78 @@
+package net.toiditimtoi.jdbc.limit;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link ConcurrencyLimiter}.
+ * Start from {@link #of(int)} and adjust with the {@code withXxx} methods.
+ *
+ * @param initialLimit  statements in flight allowed until the first latency measurements come in
+ * @param minLimit      the limit never goes below it, however slow the database gets
+ * @param maxLimit      the limit never goes above it, usually the number of connections of the pool
+ * @param maxQueued     requests waiting for a permit beyond which the next ones fail at once, 0 to never wait
+ * @param window        how often the limit is adjusted, from the mean latency of the statements of the window
+ * @param tolerance     how much slower than the latency without load the statements may get before the limit goes
+ *                      down: 1.5 lets them take 50% longer
+ * @param backoffRatio  the limit is multiplied by it after a window in which a statement timed out
+ */
+public record LimiterConfig(int initialLimit, int minLimit, int maxLimit, int maxQueued, Duration window,
+                            double tolerance, double backoffRatio) {
+
+    public LimiterConfig {
+        Objects.requireNonNull(window, "window");
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit must be at least 1 but was " + minLimit);
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit must be at least minLimit but was " + maxLimit);
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit but was " + initialLimit);
+        }
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued must not be negative but was " + maxQueued);
+        }
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window must be positive but was " + window);
+        }
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("tolerance must be at least 1 but was " + tolerance);
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1 but was " + backoffRatio);
+        }
+    }
+
+    /**
+     * Up to {@code maxLimit} statements in flight, starting from a quarter of it, and 4 waiting requests per permit.
+     * The limit is adjusted every 100 ms, lets the statements get 50% slower, and is cut by 10% on timeouts.
+     */
+    public static LimiterConfig of(int maxLimit) {
+        return new LimiterConfig(Math.max(1, maxLimit / 4), 1, maxLimit, maxLimit * 4, Duration.ofMillis(100), 1.5, 0.9);
+    }
+
+    public LimiterConfig withInitialLimit(int initialLimit) {
+        return new LimiterConfig(initialLimit, minLimit, maxLimit, maxQueued, window, tolerance, backoffRatio);
+    }
+
+    public LimiterConfig withMinLimit(int minLimit) {
+        return new LimiterConfig(initialLimit, minLimit, maxLimit, maxQueued, window, tolerance, backoffRatio);
+    }
+
+    public LimiterConfig withMaxQueued(int maxQueued) {
+        return new LimiterConfig(initialLimit, minLimit, maxLimit, maxQueued, window, tolerance, backoffRatio);
+    }
+
+    public LimiterConfig withWindow(Duration window) {
+        return new LimiterConfig(initialLimit, minLimit, maxLimit, maxQueued, window, tolerance, backoffRatio);
+    }
+
+    public LimiterConfig withTolerance(double tolerance) {
+        return new LimiterConfig(initialLimit, minLimit, maxLimit, maxQueued, window, tolerance, backoffRatio);
+    }
+
+    public LimiterConfig withBackoffRatio(double backoffRatio) {
+        return new LimiterConfig(initialLimit, minLimit, maxLimit, maxQueued, window, tolerance, backoffRatio);
+    }
+}
@@ -0,0 +1,71 @@
+package net.toiditimtoi.jdbc.limit;
+
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a {@link ConcurrencyLimiter} let through, and what it turned away before it reached the database.
+ */
+public final class LimiterStats {
+    final LongAdder admitted = new LongAdder();
+    final LongAdder queued = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder expired = new LongAdder();
+    final LongAdder timeouts = new LongAdder();
+    final LongAdder limitChanges = new LongAdder();
+    final LatencyHistogram responseTimes = new LatencyHistogram();
+
+    /**
+     * Requests which got a permit, at once or after waiting.
+     */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * Admitted requests which had to wait for their permit.
+     */
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    /**
+     * Requests failed at once because {@link LimiterConfig#maxQueued()} requests were already waiting.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Requests whose deadline passed while they waited for a permit or a connection: their statement was never sent.
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * Statements cancelled by their query timeout, sent but not answered before the deadline.
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getLimitChanges() {
+        return limitChanges.sum();
+    }
+
+    /**
+     * Time of the requests, waiting for a permit included, whatever their outcome. Rejected requests are not timed.
+     */
+    public LatencyHistogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    @Override
+    public String toString() {
+        return "LimiterStats[admitted=%d, queued=%d, rejected=%d, expired=%d, timeouts=%d, limitChanges=%d, p99=%dus]"
+                .formatted(getAdmitted(), getQueued(), getRejected(), getExpired(), getTimeouts(), getLimitChanges(),
+                        responseTimes.getValueAtPercentile(99) / 1_000);
+    }
+}
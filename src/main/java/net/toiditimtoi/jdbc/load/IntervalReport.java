@@ -0,0 +1,58 @@
+package net.toiditimtoi.jdbc.load;
+
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Throughput and latency of one operation, or of {@value #ALL} of them, over an interval of a run or over the whole run.
+ *
+ * @param elapsed    time since the end of the warmup, at the end of the interval
+ * @param operation  the name of the operation in lower case, or {@value #ALL}
+ * @param count      requests completed in the interval
+ * @param errors     requests that failed, counted in {@code count} as well
+ * @param throughput completed requests per second
+ */
+public record IntervalReport(Duration elapsed,
+                             String operation,
+                             long count,
+                             long errors,
+                             double throughput,
+                             long p50Nanos,
+                             long p99Nanos,
+                             long p999Nanos,
+                             long maxNanos) {
+    public static final String ALL = "all";
+    public static final String CSV_HEADER = "elapsed_s,operation,count,errors,throughput,p50_us,p99_us,p999_us,max_us";
+
+    static IntervalReport of(Duration elapsed, String operation, LatencyHistogram latencies, long errors, long intervalNanos) {
+        var count = latencies.getCount();
+        return new IntervalReport(elapsed, operation, count, errors,
+                intervalNanos == 0 ? 0 : count * 1e9 / intervalNanos,
+                latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(99),
+                latencies.getValueAtPercentile(99.9), latencies.getMaxNanos());
+    }
+
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%.3f,%s,%d,%d,%.1f,%d,%d,%d,%d", elapsed.toNanos() / 1e9, operation, count, errors,
+                throughput, p50Nanos / 1_000, p99Nanos / 1_000, p999Nanos / 1_000, maxNanos / 1_000);
+    }
+
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"elapsedSeconds\":%.3f,\"operation\":\"%s\",\"count\":%d,\"errors\":%d,"
+                        + "\"throughput\":%.1f,\"p50Micros\":%d,\"p99Micros\":%d,\"p999Micros\":%d,\"maxMicros\":%d}",
+                elapsed.toNanos() / 1e9, operation, count, errors, throughput,
+                p50Nanos / 1_000, p99Nanos / 1_000, p999Nanos / 1_000, maxNanos / 1_000);
+    }
+
+    /**
+     * One line of the console report.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%8.1fs %-16s %9d ops %10.1f/s  p50=%8.3fms  p99=%8.3fms  p99.9=%8.3fms  max=%8.3fms  errors=%d",
+                elapsed.toNanos() / 1e9, operation, count, throughput,
+                p50Nanos / 1e6, p99Nanos / 1e6, p999Nanos / 1e6, maxNanos / 1e6, errors);
+    }
+}
@@ -0,0 +1,108 @@
+package net.toiditimtoi.jdbc.load;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link LoadGenerator}.
+ * Start from {@link #defaults()} and adjust with the {@code withXxx} methods.
+ *
+ * @param mode           open loop, requests arriving at a fixed rate whether or not the previous ones completed, or
+ *                       closed loop, a fixed number of workers sending a request as soon as their previous one completed
+ * @param rate           requests per second of the open loop, ignored by the closed loop
+ * @param concurrency    the workers, and the connections of the pool. In open loop, requests wait for a free worker
+ *                       when all of them are busy, and that wait counts in their latency
+ * @param duration       how long requests are measured, after the warmup
+ * @param warmup         how long requests run before being measured, to warm the JIT, the pool and the statement caches
+ * @param reportInterval how often throughput and latency are reported
+ * @param mix            the operations sent
+ * @param table          the table the operations read and write, created with the columns of post when missing
+ * @param seedRows       posts inserted before the run
+ */
+public record LoadConfig(Mode mode,
+                         double rate,
+                         int concurrency,
+                         Duration duration,
+                         Duration warmup,
+                         Duration reportInterval,
+                         OperationMix mix,
+                         String table,
+                         int seedRows) {
+
+    public enum Mode {
+        OPEN_LOOP,
+        CLOSED_LOOP
+    }
+
+    public LoadConfig {
+        Objects.requireNonNull(mode, "mode");
+        Objects.requireNonNull(duration, "duration");
+        Objects.requireNonNull(warmup, "warmup");
+        Objects.requireNonNull(reportInterval, "reportInterval");
+        Objects.requireNonNull(mix, "mix");
+        Objects.requireNonNull(table, "table");
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate must be positive but was " + rate);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1 but was " + concurrency);
+        }
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("duration must be positive but was " + duration);
+        }
+        if (warmup.isNegative()) {
+            throw new IllegalArgumentException("warmup must not be negative but was " + warmup);
+        }
+        if (reportInterval.isNegative() || reportInterval.isZero()) {
+            throw new IllegalArgumentException("reportInterval must be positive but was " + reportInterval);
+        }
+        if (seedRows < 0) {
+            throw new IllegalArgumentException("seedRows must not be negative but was " + seedRows);
+        }
+    }
+
+    /**
+     * 1 000 requests per second of the {@link OperationMix#readHeavy() read-heavy mix} for a minute, after 10 seconds
+     * of warmup, on 16 connections, against the post table seeded with 10 000 posts.
+     */
+    public static LoadConfig defaults() {
+        return new LoadConfig(Mode.OPEN_LOOP, 1_000, 16, Duration.ofMinutes(1), Duration.ofSeconds(10), Duration.ofSeconds(1),
+                OperationMix.readHeavy(), "post", 10_000);
+    }
+
+    public LoadConfig withMode(Mode mode) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withRate(double rate) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withConcurrency(int concurrency) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withDuration(Duration duration) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withWarmup(Duration warmup) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withReportInterval(Duration reportInterval) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withMix(OperationMix mix) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withTable(String table) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+
+    public LoadConfig withSeedRows(int seedRows) {
+        return new LoadConfig(mode, rate, concurrency, duration, warmup, reportInterval, mix, table, seedRows);
+    }
+}
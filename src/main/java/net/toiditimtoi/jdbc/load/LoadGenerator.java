@@ -0,0 +1,235 @@
+package net.toiditimtoi.jdbc.load;
+
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts a mix of the persistence operations of the project on a database, and measures throughput and latency over
+ * time.
+ * <p>
+ * A closed loop (a fixed number of workers, each sending its next request when the previous one completed) slows
+ * down with the database: when a request stalls for a second, the requests that would have arrived meanwhile are
+ * never sent, and never measured. That is coordinated omission, and it makes the high percentiles look far better
+ * than what users see, since real users keep arriving. So the open loop schedules request i at
+ * {@code start + i / rate}, whatever happened before, and measures its latency from that scheduled time: a request
+ * which waited 800 ms for a free worker reports those 800 ms. The closed loop is still useful to find the maximum
+ * throughput, and the service times (from the moment a worker started the request) are reported as well, to compare.
+ * <p>
+ * Latencies are recorded in {@link LatencyHistogram}s, a fresh one per interval and operation, and one for the
+ * whole run. A request is counted in the interval it completed in.
+ */
+public final class LoadGenerator {
+    private static final System.Logger LOGGER = System.getLogger(LoadGenerator.class.getName());
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final int ALL = OPERATIONS.length;
+
+    @FunctionalInterface
+    public interface IntervalListener {
+        void onInterval(List<IntervalReport> reports) throws IOException;
+    }
+
+    /**
+     * Latencies and errors per operation, and of all of them at index {@link #ALL}.
+     */
+    private static final class Recorder {
+        final LatencyHistogram[] latencies = new LatencyHistogram[ALL + 1];
+        final LongAdder[] errors = new LongAdder[ALL + 1];
+        // the workers recording into this recorder right now
+        final AtomicInteger writers = new AtomicInteger();
+
+        Recorder() {
+            for (var i = 0; i <= ALL; i++) {
+                latencies[i] = new LatencyHistogram();
+                errors[i] = new LongAdder();
+            }
+        }
+
+        void record(Operation operation, long nanos, boolean failed) {
+            latencies[operation.ordinal()].record(nanos);
+            latencies[ALL].record(nanos);
+            if (failed) {
+                errors[operation.ordinal()].increment();
+                errors[ALL].increment();
+            }
+        }
+
+        List<IntervalReport> reports(Duration elapsed, long intervalNanos) {
+            var reports = new ArrayList<IntervalReport>();
+            for (var operation : OPERATIONS) {
+                var index = operation.ordinal();
+                if (latencies[index].getCount() > 0) {
+                    reports.add(IntervalReport.of(elapsed, operation.name().toLowerCase(Locale.ROOT), latencies[index],
+                            errors[index].sum(), intervalNanos));
+                }
+            }
+            reports.add(IntervalReport.of(elapsed, IntervalReport.ALL, latencies[ALL], errors[ALL].sum(), intervalNanos));
+            return reports;
+        }
+    }
+
+    private final LoadConfig config;
+    private final Workload workload;
+    private final Recorder responseTimes = new Recorder();
+    private final Recorder serviceTimes = new Recorder();
+    private final AtomicLong nextSlot = new AtomicLong();
+    private final LongAdder missed = new LongAdder();
+    private final AtomicBoolean failureLogged = new AtomicBoolean();
+    private final AtomicBoolean started = new AtomicBoolean();
+    // swapped at the end of every interval, once the workers still recording into the old one are done with it
+    private volatile Recorder interval = new Recorder();
+    private volatile boolean stopped;
+
+    public LoadGenerator(DataSource dataSource, LoadConfig config) {
+        this.config = config;
+        this.workload = new Workload(dataSource, config.table());
+    }
+
+    public LoadConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Prepares the table, runs the warmup then the measured requests, and hands the reports of every interval to the
+     * listener as they come. A generator runs once.
+     */
+    public LoadResult run(IntervalListener listener) throws SQLException, IOException, InterruptedException {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("A load generator runs once");
+        }
+        workload.prepare(config.seedRows());
+
+        var start = System.nanoTime();
+        var measuredFrom = start + config.warmup().toNanos();
+        var end = measuredFrom + config.duration().toNanos();
+        var workersDone = new CountDownLatch(config.concurrency());
+        for (var i = 0; i < config.concurrency(); i++) {
+            var worker = new Thread(() -> {
+                try {
+                    if (config.mode() == LoadConfig.Mode.OPEN_LOOP) {
+                        openLoop(start, measuredFrom, end);
+                    } else {
+                        closedLoop(measuredFrom, end);
+                    }
+                } finally {
+                    workersDone.countDown();
+                }
+            }, "load-worker-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        try {
+            var intervals = new ArrayList<IntervalReport>();
+            workersDone.await(measuredFrom - System.nanoTime(), TimeUnit.NANOSECONDS);
+            var intervalStart = measuredFrom;
+            var done = false;
+            while (!done) {
+                var boundary = intervalStart + config.reportInterval().toNanos();
+                done = workersDone.await(boundary - System.nanoTime(), TimeUnit.NANOSECONDS);
+                var now = System.nanoTime();
+                var finished = interval;
+                interval = new Recorder();
+                while (finished.writers.get() > 0) {
+                    Thread.onSpinWait();
+                }
+                var reports = finished.reports(Duration.ofNanos(now - measuredFrom), now - intervalStart);
+                intervals.addAll(reports);
+                listener.onInterval(reports);
+                intervalStart = now;
+            }
+            var measuredNanos = intervalStart - measuredFrom;
+            var elapsed = Duration.ofNanos(measuredNanos);
+            return new LoadResult(intervals, responseTimes.reports(elapsed, measuredNanos),
+                    serviceTimes.reports(elapsed, measuredNanos), missed.sum());
+        } finally {
+            stopped = true;
+        }
+    }
+
+    private void openLoop(long start, long measuredFrom, long end) {
+        var nanosBetweenRequests = 1e9 / config.rate();
+        // a run which fell far behind its schedule does not drain its backlog forever
+        var drainDeadline = end + (end - start);
+        while (!stopped) {
+            var slot = nextSlot.getAndIncrement();
+            var scheduled = start + (long) (slot * nanosBetweenRequests);
+            if (scheduled >= end) {
+                return;
+            }
+            if (System.nanoTime() > drainDeadline) {
+                missed.increment();
+                continue;
+            }
+            long early;
+            while ((early = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(early);
+            }
+            execute(pick(), scheduled, measuredFrom);
+        }
+    }
+
+    private void closedLoop(long measuredFrom, long end) {
+        long now;
+        while (!stopped && (now = System.nanoTime()) < end) {
+            execute(pick(), now, measuredFrom);
+        }
+    }
+
+    private Operation pick() {
+        return config.mix().pick(ThreadLocalRandom.current().nextDouble());
+    }
+
+    private void execute(Operation operation, long scheduled, long measuredFrom) {
+        var began = System.nanoTime();
+        var failed = false;
+        try {
+            operation.execute(workload);
+        } catch (SQLException | RuntimeException e) {
+            failed = true;
+            if (failureLogged.compareAndSet(false, true)) {
+                LOGGER.log(System.Logger.Level.WARNING, "%s failed, the next failures are only counted".formatted(operation), e);
+            }
+        }
+        var finished = System.nanoTime();
+        if (scheduled >= measuredFrom) {
+            recordInterval(operation, finished - scheduled, failed);
+            responseTimes.record(operation, finished - scheduled, failed);
+            serviceTimes.record(operation, finished - began, failed);
+        }
+    }
+
+    /**
+     * Records into the current interval. A worker which read the interval just before it was swapped sees the swap
+     * once registered as a writer and moves to the new one; the one registered before is waited for by the swap, so
+     * no request is lost between two intervals.
+     */
+    private void recordInterval(Operation operation, long nanos, boolean failed) {
+        while (true) {
+            var recorder = interval;
+            recorder.writers.incrementAndGet();
+            try {
+                if (recorder == interval) {
+                    recorder.record(operation, nanos, failed);
+                    return;
+                }
+            } finally {
+                recorder.writers.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.toiditimtoi.jdbc.load;
+
+import java.util.List;
+
+/**
+ * What a {@link LoadGenerator} measured after its warmup.
+ *
+ * @param intervals      the reports of every interval, every operation then {@value IntervalReport#ALL}
+ * @param responseTimes  the whole run per operation, then all of them. In open loop the latency runs from the time
+ *                       the request was scheduled, the time spent waiting for a free worker included
+ * @param serviceTimes   the same requests, timed from the moment a worker started them, what a closed loop measures
+ * @param missedRequests requests of the open loop which were never started, because the run could not catch up with
+ *                       its schedule within another {@code warmup + duration} after its end
+ */
+public record LoadResult(List<IntervalReport> intervals,
+                         List<IntervalReport> responseTimes,
+                         List<IntervalReport> serviceTimes,
+                         long missedRequests) {
+
+    public LoadResult {
+        intervals = List.copyOf(intervals);
+        responseTimes = List.copyOf(responseTimes);
+        serviceTimes = List.copyOf(serviceTimes);
+    }
+
+    /**
+     * The response times of all the operations over the whole run.
+     */
+    public IntervalReport total() {
+        return responseTimes.get(responseTimes.size() - 1);
+    }
+
+    public IntervalReport totalServiceTime() {
+        return serviceTimes.get(serviceTimes.size() - 1);
+    }
+}
@@ -0,0 +1,74 @@
+package net.toiditimtoi.jdbc.load;
+
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The persistence paths a {@link LoadGenerator} exercises, each on a connection of its own borrowed from the pool.
+ * Ids are drawn uniformly between 1 and the highest id inserted, so some lookups, updates and deletes miss a
+ * deleted post, as they would in production.
+ */
+public enum Operation {
+    /**
+     * A post by primary key.
+     */
+    LOOKUP {
+        @Override
+        void execute(Workload workload) throws SQLException {
+            try (var connection = workload.dataSource().getConnection()) {
+                CachedStatements.queryFirst(connection, workload.selectByIdSql(), Workload.POST_MAPPER, workload.randomId());
+            }
+        }
+    },
+    /**
+     * Every post of the table, read through a server-side cursor.
+     */
+    SCAN {
+        @Override
+        void execute(Workload workload) throws SQLException {
+            try (var posts = workload.scanQuery().iterator(workload.selectAllSql(), Workload.POST_MAPPER)) {
+                while (posts.hasNext()) {
+                    posts.next();
+                }
+            }
+        }
+    },
+    INSERT {
+        @Override
+        void execute(Workload workload) throws SQLException {
+            try (var connection = workload.dataSource().getConnection()) {
+                var title = "Load post " + ThreadLocalRandom.current().nextInt(1_000_000);
+                var id = CachedStatements.queryFirst(connection, workload.insertSql(), resultSet -> resultSet.getLong(1), title).orElseThrow();
+                workload.inserted(id);
+            }
+        }
+    },
+    /**
+     * Reads a post and writes a new title if its version did not change meanwhile. Losing that race to another
+     * worker is not an error, the update simply changes no row.
+     */
+    VERSIONED_UPDATE {
+        @Override
+        void execute(Workload workload) throws SQLException {
+            try (var connection = workload.dataSource().getConnection()) {
+                var post = CachedStatements.queryFirst(connection, workload.selectByIdSql(), Workload.POST_MAPPER, workload.randomId());
+                if (post.isPresent()) {
+                    var title = "Updated post " + ThreadLocalRandom.current().nextInt(1_000_000);
+                    CachedStatements.executeUpdate(connection, workload.versionedUpdateSql(), title, post.get().id(), post.get().version());
+                }
+            }
+        }
+    },
+    DELETE {
+        @Override
+        void execute(Workload workload) throws SQLException {
+            try (var connection = workload.dataSource().getConnection()) {
+                CachedStatements.executeUpdate(connection, workload.deleteSql(), workload.randomId());
+            }
+        }
+    };
+
+    abstract void execute(Workload workload) throws SQLException;
+}
@@ -0,0 +1,90 @@
+package net.toiditimtoi.jdbc.load;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How often every {@link Operation} is picked, by relative weight.
+ *
+ * @param weights the weight of every operation, operations without a weight are never picked
+ */
+public record OperationMix(Map<Operation, Integer> weights) {
+
+    public OperationMix {
+        weights = Map.copyOf(weights);
+        var total = 0;
+        for (var entry : weights.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("The weight of %s must not be negative but was %d".formatted(entry.getKey(), entry.getValue()));
+            }
+            total += entry.getValue();
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one operation needs a positive weight");
+        }
+    }
+
+    /**
+     * Mostly lookups, like the read-heavy traffic of a blog: 70% lookups, 12% inserts, 12% versioned updates, 5%
+     * deletes and 1% full scans.
+     */
+    public static OperationMix readHeavy() {
+        return parse("lookup=70,insert=12,versioned_update=12,delete=5,scan=1");
+    }
+
+    /**
+     * Parses {@code lookup=70,scan=1,insert=10,...}, with the names of {@link Operation} in any case.
+     */
+    public static OperationMix parse(String mix) {
+        var weights = new EnumMap<Operation, Integer>(Operation.class);
+        for (var part : mix.split(",")) {
+            var keyValue = part.trim().split("=");
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight but was " + part);
+            }
+            var operation = Operation.valueOf(keyValue[0].trim().toUpperCase(Locale.ROOT));
+            weights.merge(operation, Integer.parseInt(keyValue[1].trim()), Integer::sum);
+        }
+        return new OperationMix(weights);
+    }
+
+    /**
+     * The operation of the given point of the cumulated weights.
+     *
+     * @param random uniformly distributed between 0 inclusive and 1 exclusive
+     */
+    Operation pick(double random) {
+        var total = 0;
+        for (var weight : weights.values()) {
+            total += weight;
+        }
+        var point = random * total;
+        var cumulated = 0;
+        Operation last = null;
+        for (var operation : Operation.values()) {
+            var weight = weights.getOrDefault(operation, 0);
+            if (weight == 0) {
+                continue;
+            }
+            cumulated += weight;
+            last = operation;
+            if (point < cumulated) {
+                return operation;
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public String toString() {
+        var mix = new StringBuilder();
+        for (var operation : Operation.values()) {
+            var weight = weights.getOrDefault(operation, 0);
+            if (weight > 0) {
+                mix.append(mix.isEmpty() ? "" : ",").append(operation.name().toLowerCase(Locale.ROOT)).append('=').append(weight);
+            }
+        }
+        return mix.toString();
+    }
+}
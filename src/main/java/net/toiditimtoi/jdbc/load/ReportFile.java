@@ -0,0 +1,63 @@
+package net.toiditimtoi.jdbc.load;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the reports of a run as they come, as CSV, or as a JSON array when the file name ends with {@code .json}.
+ * The file is complete, a valid JSON array included, once closed.
+ */
+public final class ReportFile implements AutoCloseable {
+    private final BufferedWriter writer;
+    private final boolean json;
+    private boolean empty = true;
+
+    private ReportFile(BufferedWriter writer, boolean json) {
+        this.writer = writer;
+        this.json = json;
+    }
+
+    public static ReportFile create(Path path) throws IOException {
+        var parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        var json = path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        var file = new ReportFile(Files.newBufferedWriter(path), json);
+        file.writer.write(json ? "[" : IntervalReport.CSV_HEADER);
+        file.writer.newLine();
+        return file;
+    }
+
+    public void append(List<IntervalReport> reports) throws IOException {
+        for (var report : reports) {
+            if (json) {
+                writer.write(empty ? "  " : ",\n  ");
+                writer.write(report.toJson());
+            } else {
+                writer.write(report.toCsv());
+                writer.newLine();
+            }
+            empty = false;
+        }
+        // a run can be watched, or killed, before it ends
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (writer) {
+            if (json) {
+                if (!empty) {
+                    writer.newLine();
+                }
+                writer.write("]");
+                writer.newLine();
+            }
+        }
+    }
+}
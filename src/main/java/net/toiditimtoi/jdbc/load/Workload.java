@@ -0,0 +1,95 @@
+package net.toiditimtoi.jdbc.load;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.SqlIdentifiers;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.query.StreamingQuery;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The table the operations run against, their SQL, and the highest id inserted so far.
+ */
+final class Workload {
+    static final RowMapper<Post> POST_MAPPER = resultSet -> new Post(resultSet.getLong(1), resultSet.getString(2), resultSet.getInt(3));
+    private static final int SCAN_FETCH_SIZE = 1_000;
+
+    private final DataSource dataSource;
+    private final String table;
+    private final StreamingQuery scanQuery;
+    private final String selectByIdSql;
+    private final String selectAllSql;
+    private final String insertSql;
+    private final String versionedUpdateSql;
+    private final String deleteSql;
+    private final AtomicLong maxId = new AtomicLong();
+
+    Workload(DataSource dataSource, String table) {
+        SqlIdentifiers.requireTableName(table);
+        this.dataSource = dataSource;
+        this.table = table;
+        this.scanQuery = new StreamingQuery(dataSource, SCAN_FETCH_SIZE);
+        this.selectByIdSql = "SELECT id, title, version FROM " + table + " WHERE id = ?";
+        this.selectAllSql = "SELECT id, title, version FROM " + table;
+        this.insertSql = "INSERT INTO " + table + "(title, version) VALUES (?, 0) RETURNING id";
+        this.versionedUpdateSql = "UPDATE " + table + " SET title = ?, version = version + 1 WHERE id = ? AND version = ?";
+        this.deleteSql = "DELETE FROM " + table + " WHERE id = ?";
+    }
+
+    /**
+     * Creates the table if it does not exist, with the columns of post, adds {@code seedRows} posts and reads the
+     * highest id.
+     */
+    void prepare(int seedRows) throws SQLException {
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + table + "(id bigserial PRIMARY KEY, title varchar(255), version int NOT NULL DEFAULT 0)");
+            if (seedRows > 0) {
+                CachedStatements.executeUpdate(connection, "INSERT INTO " + table + "(title, version) "
+                        + "SELECT 'Seed post ' || g, 0 FROM generate_series(1, ?) g", seedRows);
+                statement.executeUpdate("VACUUM ANALYZE " + table);
+            }
+            var highest = CachedStatements.queryFirst(connection, "SELECT coalesce(max(id), 0) FROM " + table, resultSet -> resultSet.getLong(1));
+            maxId.set(highest.orElse(0L));
+        }
+    }
+
+    DataSource dataSource() {
+        return dataSource;
+    }
+
+    StreamingQuery scanQuery() {
+        return scanQuery;
+    }
+
+    String selectByIdSql() {
+        return selectByIdSql;
+    }
+
+    String selectAllSql() {
+        return selectAllSql;
+    }
+
+    String insertSql() {
+        return insertSql;
+    }
+
+    String versionedUpdateSql() {
+        return versionedUpdateSql;
+    }
+
+    String deleteSql() {
+        return deleteSql;
+    }
+
+    long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, Math.max(1, maxId.get()) + 1);
+    }
+
+    void inserted(long id) {
+        maxId.accumulateAndGet(id, Math::max);
+    }
+}
@@ -0,0 +1,90 @@
+package net.toiditimtoi.jdbc.mapping;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Method handles reading one column by index, with the primitive getter whenever the target type is primitive,
+ * so the values never get boxed on the way.
+ */
+final class ColumnGetters {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Map<Class<?>, String> TYPED_GETTERS = Map.of(
+            int.class, "getInt",
+            long.class, "getLong",
+            double.class, "getDouble",
+            float.class, "getFloat",
+            short.class, "getShort",
+            byte.class, "getByte",
+            boolean.class, "getBoolean",
+            String.class, "getString",
+            BigDecimal.class, "getBigDecimal");
+
+    private static final MethodHandle GET_OBJECT;
+
+    static {
+        try {
+            GET_OBJECT = LOOKUP.findVirtual(ResultSet.class, "getObject", MethodType.methodType(Object.class, int.class, Class.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private ColumnGetters() {
+    }
+
+    /**
+     * @return a handle of type {@code (ResultSet) type} reading the given column
+     */
+    static MethodHandle getter(Class<?> type, int columnIndex) {
+        MethodHandle handle;
+        var name = TYPED_GETTERS.get(type);
+        try {
+            if (name != null) {
+                handle = LOOKUP.findVirtual(ResultSet.class, name, MethodType.methodType(type, int.class));
+            } else if (type.isPrimitive()) {
+                throw new IllegalArgumentException("No ResultSet getter for " + type);
+            } else {
+                // boxed types and everything else keep SQL NULL as null
+                handle = MethodHandles.insertArguments(GET_OBJECT, 2, type)
+                        .asType(MethodType.methodType(type, ResultSet.class, int.class));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ResultSet." + name + " not found", e);
+        }
+        return MethodHandles.insertArguments(handle, 1, columnIndex);
+    }
+
+    /**
+     * Finds the 1-based index of a column by label, case-insensitively. A camelCase name also matches its snake_case label.
+     */
+    static int indexOf(ResultSetMetaData metaData, String name) throws SQLException {
+        var snakeCase = name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+        for (var i = 1; i <= metaData.getColumnCount(); i++) {
+            var label = metaData.getColumnLabel(i);
+            if (label.equalsIgnoreCase(name) || label.equalsIgnoreCase(snakeCase)) {
+                return i;
+            }
+        }
+        throw new SQLException("Column %s is not part of the result".formatted(name), "42703");
+    }
+
+    /**
+     * Identifies the layout of a result, two results with the same key can share the same compiled mapper.
+     */
+    static String shapeOf(ResultSetMetaData metaData) throws SQLException {
+        var shape = new StringBuilder();
+        for (var i = 1; i <= metaData.getColumnCount(); i++) {
+            shape.append(metaData.getColumnLabel(i)).append(':').append(metaData.getColumnType(i)).append('|');
+        }
+        return shape.toString();
+    }
+}
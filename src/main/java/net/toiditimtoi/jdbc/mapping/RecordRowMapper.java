@@ -0,0 +1,113 @@
+package net.toiditimtoi.jdbc.mapping;
+
+import net.toiditimtoi.jdbc.query.RowMapper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps rows into a record, each component filled from the column with the same label.
+ * <p>
+ * Looking a column up by label means hashing the label for every value of every row. Here the labels are resolved
+ * once per result layout, and the getters and the canonical constructor are glued into one method handle
+ * {@code (ResultSet) -> R} that reads the columns by index with the primitive getters. The compiled handle is cached
+ * per layout, so another query returning the same columns does not even resolve the labels again.
+ * <p>
+ * Instances are thread-safe, get them from {@link RowMappers#forRecord(Class)}.
+ */
+public final class RecordRowMapper<R extends Record> implements RowMapper<R> {
+    private final Class<R> type;
+    private final RecordComponent[] components;
+    private final MethodHandle constructor;
+    private final ConcurrentHashMap<String, MethodHandle> compiledByShape = new ConcurrentHashMap<>();
+
+    RecordRowMapper(Class<R> type) {
+        this.type = type;
+        this.components = type.getRecordComponents();
+        var parameterTypes = Arrays.stream(components).map(RecordComponent::getType).toArray(Class<?>[]::new);
+        try {
+            var lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot access the canonical constructor of " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Maps the current row, looking its layout up in the cache: to map several rows of a ResultSet, {@link #bind(ResultSet)}
+     * it once instead.
+     */
+    @Override
+    public R map(ResultSet resultSet) throws SQLException {
+        return invoke(compiled(resultSet.getMetaData()), resultSet);
+    }
+
+    /**
+     * A mapper for the rows of the given ResultSet, its layout resolved once. It does not keep the ResultSet.
+     */
+    @Override
+    public RowMapper<R> bind(ResultSet resultSet) throws SQLException {
+        var handle = compiled(resultSet.getMetaData());
+        return row -> invoke(handle, row);
+    }
+
+    /**
+     * Maps every remaining row of the ResultSet.
+     */
+    public List<R> mapAll(ResultSet resultSet) throws SQLException {
+        var mapper = bind(resultSet);
+        var rows = new ArrayList<R>();
+        while (resultSet.next()) {
+            rows.add(mapper.map(resultSet));
+        }
+        return rows;
+    }
+
+    /**
+     * The compiled {@code (ResultSet) -> Object} handle for a result layout, for callers that drive the loop themselves.
+     */
+    MethodHandle compiled(ResultSetMetaData metaData) throws SQLException {
+        var shape = ColumnGetters.shapeOf(metaData);
+        var handle = compiledByShape.get(shape);
+        if (handle == null) {
+            handle = compile(metaData);
+            var existing = compiledByShape.putIfAbsent(shape, handle);
+            if (existing != null) {
+                handle = existing;
+            }
+        }
+        return handle;
+    }
+
+    private MethodHandle compile(ResultSetMetaData metaData) throws SQLException {
+        var getters = new MethodHandle[components.length];
+        for (var i = 0; i < components.length; i++) {
+            var columnIndex = ColumnGetters.indexOf(metaData, components[i].getName());
+            getters[i] = ColumnGetters.getter(components[i].getType(), columnIndex);
+        }
+        // (A, B, C) -> R  becomes  (ResultSet, ResultSet, ResultSet) -> R  becomes  (ResultSet) -> R
+        var filtered = MethodHandles.filterArguments(constructor, 0, getters);
+        var handle = MethodHandles.permuteArguments(filtered, MethodType.methodType(type, ResultSet.class), new int[components.length]);
+        return handle.asType(MethodType.methodType(Object.class, ResultSet.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private R invoke(MethodHandle handle, ResultSet resultSet) throws SQLException {
+        try {
+            return (R) (Object) handle.invokeExact(resultSet);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Mapping a row into " + type.getName() + " failed", e);
+        }
+    }
+}
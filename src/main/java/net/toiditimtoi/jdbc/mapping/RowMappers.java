@@ -0,0 +1,26 @@
+package net.toiditimtoi.jdbc.mapping;
+
+/**
+ * Entry point of the compiled row mappers. Mappers are cached, asking twice for the same record returns the same mapper.
+ */
+public final class RowMappers {
+    private static final ClassValue<RecordRowMapper<?>> RECORD_MAPPERS = new ClassValue<>() {
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        protected RecordRowMapper<?> computeValue(Class<?> type) {
+            return new RecordRowMapper(type.asSubclass(Record.class));
+        }
+    };
+
+    private RowMappers() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <R extends Record> RecordRowMapper<R> forRecord(Class<R> type) {
+        return (RecordRowMapper<R>) RECORD_MAPPERS.get(type);
+    }
+
+    public static <S> SinkRowMapper<S> forSink(Class<S> sinkType, String... columnLabels) {
+        return new SinkRowMapper<>(sinkType, columnLabels);
+    }
+}
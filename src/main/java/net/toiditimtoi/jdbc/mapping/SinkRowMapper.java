@@ -0,0 +1,116 @@
+package net.toiditimtoi.jdbc.mapping;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes the columns of each row into a functional interface with primitive parameters, for example
+ * <pre>{@code
+ * interface PostSink { void accept(long id, String title, int version); }
+ *
+ * var mapper = RowMappers.forSink(PostSink.class, "id", "title", "version");
+ * mapper.forEach(resultSet, (id, title, version) -> totalVersion += version);
+ * }</pre>
+ * Nothing is allocated per row: no object for the row and no boxing of the primitive columns.
+ * Like {@link RecordRowMapper}, the column labels are resolved once per result layout.
+ */
+public final class SinkRowMapper<S> {
+    private final Class<S> sinkType;
+    private final String[] columnLabels;
+    private final Class<?>[] parameterTypes;
+    private final MethodHandle sinkMethod;
+    private final ConcurrentHashMap<String, MethodHandle> compiledByShape = new ConcurrentHashMap<>();
+
+    SinkRowMapper(Class<S> sinkType, String... columnLabels) {
+        if (!sinkType.isInterface()) {
+            throw new IllegalArgumentException(sinkType.getName() + " is not an interface");
+        }
+        var abstractMethods = Arrays.stream(sinkType.getMethods())
+                .filter(method -> Modifier.isAbstract(method.getModifiers()))
+                .toArray(Method[]::new);
+        if (abstractMethods.length != 1) {
+            throw new IllegalArgumentException(sinkType.getName() + " must have exactly one abstract method");
+        }
+        var method = abstractMethods[0];
+        if (method.getParameterCount() != columnLabels.length) {
+            throw new IllegalArgumentException("%s takes %d parameters but %d columns were given"
+                    .formatted(method, method.getParameterCount(), columnLabels.length));
+        }
+        this.sinkType = sinkType;
+        this.columnLabels = columnLabels.clone();
+        this.parameterTypes = method.getParameterTypes();
+        try {
+            var lookup = MethodHandles.privateLookupIn(sinkType, MethodHandles.lookup());
+            this.sinkMethod = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access " + method, e);
+        }
+    }
+
+    /**
+     * Pushes the current row into the sink, looking its layout up in the cache: to push several rows of a ResultSet,
+     * use {@link #forEach(ResultSet, Object)}, which resolves it once.
+     */
+    public void accept(ResultSet resultSet, S sink) throws SQLException {
+        invoke(compiled(resultSet.getMetaData()), sink, resultSet);
+    }
+
+    /**
+     * Pushes every remaining row into the sink.
+     *
+     * @return the number of rows
+     */
+    public long forEach(ResultSet resultSet, S sink) throws SQLException {
+        var handle = compiled(resultSet.getMetaData());
+        var rows = 0L;
+        while (resultSet.next()) {
+            invoke(handle, sink, resultSet);
+            rows++;
+        }
+        return rows;
+    }
+
+    private MethodHandle compiled(ResultSetMetaData metaData) throws SQLException {
+        var shape = ColumnGetters.shapeOf(metaData);
+        var handle = compiledByShape.get(shape);
+        if (handle == null) {
+            handle = compile(metaData);
+            var existing = compiledByShape.putIfAbsent(shape, handle);
+            if (existing != null) {
+                handle = existing;
+            }
+        }
+        return handle;
+    }
+
+    private MethodHandle compile(ResultSetMetaData metaData) throws SQLException {
+        var getters = new MethodHandle[columnLabels.length];
+        for (var i = 0; i < columnLabels.length; i++) {
+            getters[i] = ColumnGetters.getter(parameterTypes[i], ColumnGetters.indexOf(metaData, columnLabels[i]));
+        }
+        // (S, A, B, C) -> void  becomes  (S, ResultSet, ResultSet, ResultSet) -> void  becomes  (S, ResultSet) -> void
+        var filtered = MethodHandles.filterArguments(sinkMethod, 1, getters);
+        var reorder = new int[columnLabels.length + 1];
+        Arrays.fill(reorder, 1, reorder.length, 1);
+        var handle = MethodHandles.permuteArguments(filtered, MethodType.methodType(void.class, sinkType, ResultSet.class), reorder);
+        return handle.asType(MethodType.methodType(void.class, Object.class, ResultSet.class));
+    }
+
+    private void invoke(MethodHandle handle, S sink, ResultSet resultSet) throws SQLException {
+        try {
+            handle.invokeExact((Object) sink, resultSet);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Pushing a row into " + sinkType.getName() + " failed", e);
+        }
+    }
+}
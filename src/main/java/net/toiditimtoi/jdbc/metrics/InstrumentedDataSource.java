@@ -0,0 +1,91 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+/**
+ * Wraps a DataSource, usually a {@link net.toiditimtoi.jdbc.pool.PooledDataSource}, so that its connections, the
+ * statements they create and the result sets those return record into a {@link JdbcMetrics}.
+ * <p>
+ * The wrappers stay out of the way of what they wrap: {@code unwrap} reaches the wrapped objects, so
+ * {@link net.toiditimtoi.jdbc.statement.CachedStatements} still uses the statement cache of the pool (and measures
+ * its statements too, see {@link net.toiditimtoi.jdbc.statement.StatementDecorator}) and COPY still finds the
+ * pgjdbc connection. On the hot path the wrappers add two {@code System.nanoTime()} calls per execution and one per
+ * result set, and a few uncontended atomic increments; see {@code InstrumentationOverheadBenchmark} for what that costs.
+ * <p>
+ * CallableStatements are handed out unwrapped, this project does not call procedures.
+ */
+public final class InstrumentedDataSource implements DataSource {
+    private final DataSource delegate;
+    private final JdbcMetrics metrics;
+
+    public InstrumentedDataSource(DataSource delegate, JdbcMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public JdbcMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        var start = System.nanoTime();
+        var connection = delegate.getConnection();
+        metrics.recordAcquire(System.nanoTime() - start);
+        return new InstrumentedConnection(connection, metrics);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        var start = System.nanoTime();
+        var connection = delegate.getConnection(username, password);
+        metrics.recordAcquire(System.nanoTime() - start);
+        return new InstrumentedConnection(connection, metrics);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (iface.isInstance(delegate)) {
+            return iface.cast(delegate);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || iface.isInstance(delegate) || delegate.isWrapperFor(iface);
+    }
+}
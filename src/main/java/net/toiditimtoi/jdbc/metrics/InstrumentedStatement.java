@@ -0,0 +1,491 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ * Times the executions of a Statement and wraps the result sets it returns so that their fetch is timed too.
+ * The statements of a JDBC batch are recorded under the shape of the first one added. An execution which throws, like
+ * one cancelled by its query timeout, is recorded as well, and counted as a failure of its shape.
+ */
+class InstrumentedStatement<S extends Statement> implements Statement {
+    final InstrumentedConnection connection;
+    final S delegate;
+    final JdbcMetrics metrics;
+
+    // the shape and SQL of the last execution, for getResultSet()
+    StatementMetrics lastStatement;
+    String lastSql;
+    private InstrumentedResultSet currentResultSet;
+    private String firstBatchSql;
+
+    InstrumentedStatement(InstrumentedConnection connection, S delegate) {
+        this.connection = connection;
+        this.delegate = delegate;
+        this.metrics = connection.metrics;
+    }
+
+    /**
+     * Executing a statement closes the result set of its previous execution, that is where the fetch of that one ends.
+     */
+    final long begin() {
+        if (currentResultSet != null) {
+            currentResultSet.finish();
+            currentResultSet = null;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records an execution, whether it returned or threw.
+     *
+     * @param rowsAffected the update count, -1 for a query, {@link JdbcMetrics#FAILED} when the execution threw
+     */
+    final void executed(StatementMetrics statement, String sql, long start, long rowsAffected) {
+        lastStatement = statement;
+        lastSql = sql;
+        connection.executed(statement, sql, System.nanoTime() - start, start, rowsAffected);
+    }
+
+    final ResultSet wrap(ResultSet resultSet, StatementMetrics statement, String sql) {
+        if (resultSet == null) {
+            return null;
+        }
+        currentResultSet = new InstrumentedResultSet(this, resultSet, statement, sql);
+        return currentResultSet;
+    }
+
+    /**
+     * The shape the current batch is recorded under, null if the batch is empty.
+     */
+    StatementMetrics batchStatement() {
+        return firstBatchSql == null ? null : metrics.statementFor(firstBatchSql);
+    }
+
+    String batchSql() {
+        return firstBatchSql;
+    }
+
+    private StatementMetrics statementFor(String sql) {
+        return metrics.statementFor(sql);
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var resultSet = wrap(delegate.executeQuery(sql), statement, sql);
+            rowsAffected = -1;
+            return resultSet;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeUpdate(sql);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeUpdate(sql, autoGeneratedKeys);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeUpdate(sql, columnIndexes);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeUpdate(sql, columnNames);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeLargeUpdate(sql);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeLargeUpdate(sql, columnIndexes);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var count = delegate.executeLargeUpdate(sql, columnNames);
+            rowsAffected = count;
+            return count;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var hasResultSet = delegate.execute(sql);
+            rowsAffected = hasResultSet ? -1 : delegate.getUpdateCount();
+            return hasResultSet;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var hasResultSet = delegate.execute(sql, autoGeneratedKeys);
+            rowsAffected = hasResultSet ? -1 : delegate.getUpdateCount();
+            return hasResultSet;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var hasResultSet = delegate.execute(sql, columnIndexes);
+            rowsAffected = hasResultSet ? -1 : delegate.getUpdateCount();
+            return hasResultSet;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        var statement = statementFor(sql);
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var hasResultSet = delegate.execute(sql, columnNames);
+            rowsAffected = hasResultSet ? -1 : delegate.getUpdateCount();
+            return hasResultSet;
+        } finally {
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        var resultSet = delegate.getResultSet();
+        if (resultSet == null || lastStatement == null) {
+            return resultSet;
+        }
+        if (currentResultSet != null && currentResultSet.delegate == resultSet) {
+            return currentResultSet;
+        }
+        return wrap(resultSet, lastStatement, lastSql);
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        delegate.addBatch(sql);
+        if (firstBatchSql == null) {
+            firstBatchSql = sql;
+        }
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        delegate.clearBatch();
+        firstBatchSql = null;
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        var statement = batchStatement();
+        if (statement == null) {
+            return delegate.executeBatch();
+        }
+        var sql = batchSql();
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var counts = delegate.executeBatch();
+            rowsAffected = 0L;
+            for (var count : counts) {
+                rowsAffected += Math.max(0, count);
+            }
+            return counts;
+        } finally {
+            // the driver clears the batch whether it succeeded or not
+            firstBatchSql = null;
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        var statement = batchStatement();
+        if (statement == null) {
+            return delegate.executeLargeBatch();
+        }
+        var sql = batchSql();
+        var start = begin();
+        var rowsAffected = JdbcMetrics.FAILED;
+        try {
+            var counts = delegate.executeLargeBatch();
+            rowsAffected = 0L;
+            for (var count : counts) {
+                rowsAffected += Math.max(0, count);
+            }
+            return counts;
+        } finally {
+            // the driver clears the batch whether it succeeded or not
+            firstBatchSql = null;
+            executed(statement, sql, start, rowsAffected);
+        }
+    }
+
+    @Override
+    public Connection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (currentResultSet != null) {
+            currentResultSet.finish();
+            currentResultSet = null;
+        }
+        delegate.close();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        delegate.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        delegate.setCursorName(name);
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return delegate.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate.getResultSetType();
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return delegate.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return delegate.getGeneratedKeys();
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        delegate.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        delegate.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate.isCloseOnCompletion();
+    }
+}
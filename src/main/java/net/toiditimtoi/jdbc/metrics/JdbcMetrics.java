@@ -0,0 +1,204 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time goes in JDBC, as recorded by an {@link InstrumentedDataSource}: how long borrowing a connection
+ * takes, how long transactions stay open, and for every statement shape its execution and fetch latencies and rows.
+ * <p>
+ * Statements are grouped by shape, their SQL with the literals replaced by {@code ?}. A PreparedStatement is looked up
+ * once when it is prepared, a plain Statement on every execution, through a map from the SQL text to its shape so
+ * that the SQL is only normalized the first time it is seen.
+ * <p>
+ * Statements slower than {@link MetricsConfig#slowStatementThreshold()} are emitted as JFR events, and so are suspected
+ * N+1 queries, so that a flight recording of a production JVM shows them with the stack trace which ran them:
+ * {@code jcmd <pid> JFR.start settings=profile} and look for the {@code JDBC} category.
+ */
+public final class JdbcMetrics {
+    public static final String OTHER_SHAPE = "<other>";
+    // the rows affected recorded for an execution which threw
+    static final long FAILED = Long.MIN_VALUE;
+
+    private final MetricsConfig config;
+    private final long slowStatementNanos;
+    private final ConcurrentHashMap<String, StatementMetrics> statements = new ConcurrentHashMap<>();
+    // by SQL text, bounded as well: SQL built with literals is a new key every time
+    private final ConcurrentHashMap<String, StatementMetrics> statementsBySql = new ConcurrentHashMap<>();
+    private final StatementMetrics other = new StatementMetrics(OTHER_SHAPE);
+    private final LatencyHistogram connectionAcquireTime = new LatencyHistogram();
+    private final LatencyHistogram transactionTime = new LatencyHistogram();
+    private final LongAdder nPlusOneSuspicions = new LongAdder();
+    private volatile NPlusOneListener nPlusOneListener;
+
+    public JdbcMetrics(MetricsConfig config) {
+        this.config = config;
+        this.slowStatementNanos = config.slowStatementThreshold().toNanos();
+    }
+
+    public JdbcMetrics() {
+        this(MetricsConfig.defaults());
+    }
+
+    public MetricsConfig getConfig() {
+        return config;
+    }
+
+    public JdbcMetrics onNPlusOne(NPlusOneListener listener) {
+        this.nPlusOneListener = listener;
+        return this;
+    }
+
+    /**
+     * The metrics of the shape of the given SQL, created on first use.
+     */
+    StatementMetrics statementFor(String sql) {
+        var statement = statementsBySql.get(sql);
+        if (statement != null) {
+            return statement;
+        }
+        var shape = SqlShapes.shapeOf(sql);
+        statement = statements.get(shape);
+        if (statement == null) {
+            statement = statements.size() < config.maxShapes()
+                    ? statements.computeIfAbsent(shape, StatementMetrics::new)
+                    : other;
+        }
+        if (statementsBySql.size() < config.maxShapes() * 4) {
+            statementsBySql.put(sql, statement);
+        }
+        return statement;
+    }
+
+    void recordAcquire(long nanos) {
+        connectionAcquireTime.record(nanos);
+    }
+
+    void recordTransaction(long nanos) {
+        transactionTime.record(nanos);
+    }
+
+    /**
+     * @param rowsAffected the update count, negative for a query
+     */
+    void recordExecution(StatementMetrics statement, String sql, long nanos, long rowsAffected) {
+        statement.executionTime.record(nanos);
+        var failed = rowsAffected == FAILED;
+        if (failed) {
+            statement.failures.increment();
+        } else if (rowsAffected > 0) {
+            statement.rowsAffected.add(rowsAffected);
+        }
+        if (nanos >= slowStatementNanos) {
+            emitSlowStatement(statement, sql, "execute", nanos, failed ? -1 : rowsAffected, failed);
+        }
+    }
+
+    void recordFetch(StatementMetrics statement, String sql, long nanos, long rows) {
+        statement.fetchTime.record(nanos);
+        statement.rowsReturned.add(rows);
+        if (nanos >= slowStatementNanos) {
+            emitSlowStatement(statement, sql, "fetch", nanos, rows, false);
+        }
+    }
+
+    private static void emitSlowStatement(StatementMetrics statement, String sql, String phase, long nanos, long rows, boolean failed) {
+        var event = new SlowStatementEvent();
+        if (event.isEnabled()) {
+            event.sql = sql;
+            event.shape = statement.getShape();
+            event.phase = phase;
+            event.elapsed = nanos;
+            event.rows = rows;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    void recordNPlusOne(StatementMetrics statement, String sql, int executions) {
+        statement.nPlusOneSuspicions.increment();
+        nPlusOneSuspicions.increment();
+        var event = new NPlusOneEvent();
+        if (event.isEnabled()) {
+            event.shape = statement.getShape();
+            event.executions = executions;
+            event.commit();
+        }
+        var listener = nPlusOneListener;
+        if (listener != null) {
+            listener.onSuspicion(statement, sql, executions);
+        }
+    }
+
+    /**
+     * The metrics of the shape of the given SQL, without creating them. The SQL may be any statement of that shape.
+     */
+    public StatementMetrics getStatement(String sql) {
+        var statement = statementsBySql.get(sql);
+        return statement != null ? statement : statements.get(SqlShapes.shapeOf(sql));
+    }
+
+    /**
+     * All the shapes executed so far, by shape.
+     */
+    public Map<String, StatementMetrics> getStatements() {
+        return Collections.unmodifiableMap(statements);
+    }
+
+    /**
+     * The statements whose shape was not tracked because {@link MetricsConfig#maxShapes()} was reached.
+     */
+    public StatementMetrics getOtherStatements() {
+        return other;
+    }
+
+    /**
+     * How long {@code getConnection()} took, which is mostly the time spent waiting for a free connection of a pool.
+     */
+    public LatencyHistogram getConnectionAcquireTime() {
+        return connectionAcquireTime;
+    }
+
+    /**
+     * From the first statement of a transaction until its commit or rollback. A transaction is only measured when
+     * auto-commit is off, long ones hold locks and keep vacuum from cleaning up.
+     */
+    public LatencyHistogram getTransactionTime() {
+        return transactionTime;
+    }
+
+    public long getNPlusOneSuspicions() {
+        return nPlusOneSuspicions.sum();
+    }
+
+    /**
+     * The shapes which took the most time, executing and fetching, one per line.
+     */
+    public String report(int limit) {
+        var report = new StringBuilder("%-80s %10s %10s %10s %10s %10s %12s%n".formatted("shape", "executions", "failures", "p50 us", "p99 us", "total ms", "rows"));
+        statements.values().stream()
+                .sorted(Comparator.comparingLong(JdbcMetrics::totalNanos).reversed())
+                .limit(limit)
+                .forEach(statement -> report.append("%-80.80s %10d %10d %10d %10d %10d %12d%n".formatted(
+                        statement.getShape(), statement.getExecutions(), statement.getFailures(),
+                        TimeUnit.NANOSECONDS.toMicros(statement.executionTime.getValueAtPercentile(50)),
+                        TimeUnit.NANOSECONDS.toMicros(statement.executionTime.getValueAtPercentile(99)),
+                        TimeUnit.NANOSECONDS.toMillis(totalNanos(statement)),
+                        statement.getRowsReturned() + statement.getRowsAffected())));
+        return report.toString();
+    }
+
+    private static long totalNanos(StatementMetrics statement) {
+        return statement.executionTime.getTotalNanos() + statement.fetchTime.getTotalNanos();
+    }
+
+    @Override
+    public String toString() {
+        return "JdbcMetrics[shapes=%d, acquire=%s, transactions=%s, nPlusOne=%d]"
+                .formatted(statements.size(), connectionAcquireTime, transactionTime, getNPlusOneSuspicions());
+    }
+}
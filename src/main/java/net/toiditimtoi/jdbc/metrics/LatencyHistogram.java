@@ -0,0 +1,125 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in nanoseconds, counted in buckets whose width grows with the value, like HdrHistogram does.
+ * <p>
+ * Values below 32 ns get a bucket each. Above, every power of two is split into 32 buckets, so a percentile is
+ * never off by more than 1/32 (about 3%) of its value, whether it is 50 microseconds or 5 seconds.
+ * Values above {@link #HIGHEST_TRACKABLE_NANOS} (about 36 minutes) are counted in the last bucket.
+ * <p>
+ * Recording is an increment of an {@link AtomicLongArray} slot and of two {@link LongAdder}s, no lock and no
+ * allocation, so all the connections of an application can record into the same histogram.
+ * The percentiles read while other threads record are not a consistent snapshot, which is fine for monitoring.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HIGHEST_EXPONENT = 40;
+    public static final long HIGHEST_TRACKABLE_NANOS = (1L << (HIGHEST_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (HIGHEST_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        var value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        total.add(value);
+        var currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        if (value > HIGHEST_TRACKABLE_NANOS) {
+            return BUCKET_COUNT - 1;
+        }
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        var shift = exponent - SUB_BUCKET_BITS;
+        // the 5 bits after the leading one
+        var subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * The highest value counted in the bucket, so that a percentile is never reported lower than it was.
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        var shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        var subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        var lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        var count = getCount();
+        return count == 0 ? 0 : (double) getTotalNanos() / count;
+    }
+
+    /**
+     * The latency which the given percentage of the recorded values did not exceed, 0 if nothing was recorded.
+     *
+     * @param percentile between 0 and 100, 99.9 for the 99.9th percentile
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100 but was " + percentile);
+        }
+        // counted from the buckets rather than the adder, so that the walk below always reaches its target
+        var counted = 0L;
+        var snapshot = new long[BUCKET_COUNT];
+        for (var i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            counted += snapshot[i];
+        }
+        if (counted == 0) {
+            return 0;
+        }
+        var target = Math.max(1, (long) Math.ceil(percentile / 100 * counted));
+        var seen = 0L;
+        for (var i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[count=%d, mean=%.1fus, p50=%dus, p99=%dus, p99.9=%dus, max=%dus]".formatted(
+                getCount(), getMeanNanos() / 1_000,
+                TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)),
+                TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)),
+                TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99.9)),
+                TimeUnit.NANOSECONDS.toMicros(getMaxNanos()));
+    }
+}
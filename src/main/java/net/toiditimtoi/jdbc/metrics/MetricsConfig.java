@@ -0,0 +1,45 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of the {@link JdbcMetrics} an {@link InstrumentedDataSource} records into.
+ * Start from {@link #defaults()} and adjust with the {@code withXxx} methods.
+ *
+ * @param slowStatementThreshold executions and fetches taking at least this long are emitted as a JFR
+ *                               {@code net.toiditimtoi.jdbc.SlowStatement} event
+ * @param nPlusOneThreshold      executions of the same statement shape within one transaction from which it is
+ *                               reported as a suspected N+1
+ * @param maxShapes              distinct statement shapes tracked, the statements beyond are counted together under
+ *                               {@link JdbcMetrics#OTHER_SHAPE} so that SQL built with literals cannot grow the metrics
+ *                               without bound
+ */
+public record MetricsConfig(Duration slowStatementThreshold, int nPlusOneThreshold, int maxShapes) {
+
+    public MetricsConfig {
+        Objects.requireNonNull(slowStatementThreshold, "slowStatementThreshold");
+        if (nPlusOneThreshold < 2) {
+            throw new IllegalArgumentException("nPlusOneThreshold must be at least 2 but was " + nPlusOneThreshold);
+        }
+        if (maxShapes < 1) {
+            throw new IllegalArgumentException("maxShapes must be at least 1 but was " + maxShapes);
+        }
+    }
+
+    public static MetricsConfig defaults() {
+        return new MetricsConfig(Duration.ofMillis(100), 10, 500);
+    }
+
+    public MetricsConfig withSlowStatementThreshold(Duration slowStatementThreshold) {
+        return new MetricsConfig(slowStatementThreshold, nPlusOneThreshold, maxShapes);
+    }
+
+    public MetricsConfig withNPlusOneThreshold(int nPlusOneThreshold) {
+        return new MetricsConfig(slowStatementThreshold, nPlusOneThreshold, maxShapes);
+    }
+
+    public MetricsConfig withMaxShapes(int maxShapes) {
+        return new MetricsConfig(slowStatementThreshold, nPlusOneThreshold, maxShapes);
+    }
+}
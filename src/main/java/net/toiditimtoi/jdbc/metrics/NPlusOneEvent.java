@@ -0,0 +1,27 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A transaction executing the same statement shape {@link MetricsConfig#nPlusOneThreshold()} times, see
+ * {@link NPlusOneListener}. The stack trace is the one of the execution which reached the threshold, inside the loop.
+ */
+@Name(NPlusOneEvent.NAME)
+@Label("Suspected N+1")
+@Description("The same JDBC statement shape executed many times in one transaction")
+@Category({"Java Application", "JDBC"})
+@StackTrace
+final class NPlusOneEvent extends Event {
+    static final String NAME = "net.toiditimtoi.jdbc.NPlusOne";
+
+    @Label("Shape")
+    String shape;
+
+    @Label("Executions")
+    int executions;
+}
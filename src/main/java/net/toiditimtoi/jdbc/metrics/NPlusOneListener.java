@@ -0,0 +1,11 @@
+package net.toiditimtoi.jdbc.metrics;
+
+/**
+ * Told when a transaction executes the same statement shape {@link MetricsConfig#nPlusOneThreshold()} times, which
+ * usually is a loop running one query per row of a previous query where a join or an {@code IN} list would do.
+ * It is called once per transaction and shape, on the thread executing the statement, so it must be quick.
+ */
+@FunctionalInterface
+public interface NPlusOneListener {
+    void onSuspicion(StatementMetrics statement, String sql, int executions);
+}
@@ -0,0 +1,46 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A statement which took longer than {@link MetricsConfig#slowStatementThreshold()} to execute or to be fetched.
+ * <p>
+ * Only created once the statement turned out to be slow, so the fast ones cost nothing. The event is therefore
+ * committed without a duration of its own, the time is in {@link #elapsed}. Its stack trace shows who ran the statement.
+ */
+@Name(SlowStatementEvent.NAME)
+@Label("Slow Statement")
+@Description("A JDBC statement slower than the configured threshold")
+@Category({"Java Application", "JDBC"})
+@StackTrace
+final class SlowStatementEvent extends Event {
+    static final String NAME = "net.toiditimtoi.jdbc.SlowStatement";
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Shape")
+    String shape;
+
+    @Label("Phase")
+    @Description("execute or fetch")
+    String phase;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Rows")
+    @Description("Rows affected by the execution, or rows fetched")
+    long rows;
+
+    @Label("Failed")
+    @Description("The execution threw, for example when its query timeout cancelled it")
+    boolean failed;
+}
@@ -0,0 +1,104 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL to its shape: the statement with its literals replaced by {@code ?}, so that
+ * {@code SELECT * FROM post WHERE id = 1} and {@code SELECT * FROM post WHERE id = 2} are measured together, like
+ * the PreparedStatement {@code SELECT * FROM post WHERE id = ?} they should have been.
+ * <p>
+ * String and numeric literals and {@code $1} parameters become {@code ?}, lists of them like {@code IN (1, 2, 3)}
+ * collapse to a single {@code ?} so that the number of values does not make a new shape, and whitespace is collapsed.
+ * Quoted identifiers are kept as they are. This is not a SQL parser, only good enough to group statements.
+ */
+final class SqlShapes {
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+
+    private SqlShapes() {
+    }
+
+    static String shapeOf(String sql) {
+        var shape = new StringBuilder(sql.length());
+        var length = sql.length();
+        var i = 0;
+        while (i < length) {
+            var c = sql.charAt(i);
+            if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                shape.append('?');
+            } else if (c == '"') {
+                var end = skipQuoted(sql, i, '"');
+                shape.append(sql, i, end);
+                i = end;
+            } else if (c == '$' && i + 1 < length && Character.isDigit(sql.charAt(i + 1))) {
+                i = skipDigits(sql, i + 1);
+                shape.append('?');
+            } else if (Character.isDigit(c) && !isPartOfIdentifier(shape)) {
+                i = skipNumber(sql, i);
+                shape.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (!shape.isEmpty() && i < length) {
+                    shape.append(' ');
+                }
+            } else {
+                shape.append(c);
+                i++;
+            }
+        }
+        return PARAMETER_LIST.matcher(shape).replaceAll("?");
+    }
+
+    /**
+     * The index after the closing quote, a doubled quote being an escaped one.
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        var i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipDigits(String sql, int start) {
+        var i = start;
+        while (i < sql.length() && Character.isDigit(sql.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipNumber(String sql, int start) {
+        var i = start;
+        while (i < sql.length()) {
+            var c = sql.charAt(i);
+            if (Character.isDigit(c) || c == '.') {
+                i++;
+            } else if ((c == 'e' || c == 'E') && i + 1 < sql.length()
+                    && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '-' || sql.charAt(i + 1) == '+')) {
+                i += 2;
+            } else {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    // a digit following a letter or an underscore belongs to a name, like post_2024 or sha256
+    private static boolean isPartOfIdentifier(StringBuilder shape) {
+        if (shape.isEmpty()) {
+            return false;
+        }
+        var previous = shape.charAt(shape.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+    }
+}
@@ -0,0 +1,78 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the statements of one shape (see {@link JdbcMetrics#getStatement(String)}) cost, over all the connections.
+ * <p>
+ * The execution time runs from the call to {@code execute*} until it returns, which for a query is until the first
+ * rows arrived. The fetch time then runs until the result set is exhausted or closed: it includes the round trips
+ * fetching the next rows when a fetch size is set, but also whatever the application did with each row, which keeps
+ * {@code next()} free of clock reads.
+ * <p>
+ * The executions which threw are timed like the others, and counted by {@link #getFailures()}.
+ */
+public final class StatementMetrics {
+    private final String shape;
+    final LatencyHistogram executionTime = new LatencyHistogram();
+    final LatencyHistogram fetchTime = new LatencyHistogram();
+    final LongAdder rowsReturned = new LongAdder();
+    final LongAdder rowsAffected = new LongAdder();
+    final LongAdder nPlusOneSuspicions = new LongAdder();
+    final LongAdder failures = new LongAdder();
+
+    StatementMetrics(String shape) {
+        this.shape = shape;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public long getExecutions() {
+        return executionTime.getCount();
+    }
+
+    /**
+     * The executions which threw, included in {@link #getExecutions()}.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    public LatencyHistogram getFetchTime() {
+        return fetchTime;
+    }
+
+    public long getRowsReturned() {
+        return rowsReturned.sum();
+    }
+
+    /**
+     * The update counts of the INSERT, UPDATE and DELETE statements, summed.
+     */
+    public long getRowsAffected() {
+        return rowsAffected.sum();
+    }
+
+    /**
+     * How many transactions executed this shape at least {@link MetricsConfig#nPlusOneThreshold()} times.
+     */
+    public long getNPlusOneSuspicions() {
+        return nPlusOneSuspicions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "StatementMetrics[shape=%s, executions=%d, failures=%d, p99=%dus, fetchP99=%dus, rowsReturned=%d, rowsAffected=%d, nPlusOne=%d]"
+                .formatted(shape, getExecutions(), getFailures(),
+                        TimeUnit.NANOSECONDS.toMicros(executionTime.getValueAtPercentile(99)),
+                        TimeUnit.NANOSECONDS.toMicros(fetchTime.getValueAtPercentile(99)),
+                        getRowsReturned(), getRowsAffected(), getNPlusOneSuspicions());
+    }
+}
@@ -0,0 +1,27 @@
+package net.toiditimtoi.jdbc.page;
+
+import net.toiditimtoi.jdbc.Post;
+
+import java.util.List;
+
+/**
+ * A page of posts, in the order of the pager which fetched it.
+ *
+ * @param posts          at most the page size of the pager
+ * @param nextCursor     the token of the page after this one, null on the last page
+ * @param previousCursor the token of the page before this one, null on the first page
+ */
+public record Page(List<Post> posts, String nextCursor, String previousCursor) {
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+
+    public boolean isEmpty() {
+        return posts.isEmpty();
+    }
+}
@@ -0,0 +1,34 @@
+package net.toiditimtoi.jdbc.page;
+
+/**
+ * The orders {@link PostPager} pages posts in. The id breaks the ties, so that no two posts are at the same place.
+ * Each order is backed by an index: the primary key for {@link #ID}, {@code post(title, id)} for {@link #TITLE}.
+ */
+public enum PostOrder {
+    ID("", "id", "id DESC", "id", "?"),
+    /**
+     * Posts without a title are left out: a NULL title compares to nothing, no cursor could go past them.
+     */
+    TITLE("title IS NOT NULL", "title, id", "title DESC, id DESC", "(title, id)", "(?, ?)");
+
+    final String filter;
+    final String ascending;
+    final String descending;
+    final String key;
+    final String keyPlaceholders;
+
+    PostOrder(String filter, String ascending, String descending, String key, String keyPlaceholders) {
+        this.filter = filter;
+        this.ascending = ascending;
+        this.descending = descending;
+        this.key = key;
+        this.keyPlaceholders = keyPlaceholders;
+    }
+
+    /**
+     * The values bound to {@link #keyPlaceholders}.
+     */
+    Object[] keyOf(long id, String title) {
+        return this == ID ? new Object[]{id} : new Object[]{title, id};
+    }
+}
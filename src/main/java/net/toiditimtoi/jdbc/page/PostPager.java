@@ -0,0 +1,187 @@
+package net.toiditimtoi.jdbc.page;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.SqlIdentifiers;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * Pages through the posts with the seek method (keyset pagination) instead of OFFSET or a scrollable ResultSet.
+ * <p>
+ * {@code OFFSET 200000 LIMIT 20} makes the server read and throw away 200 000 rows before returning 20, and
+ * {@code ResultSet.absolute(200001)} on a scrollable ResultSet is worse: pgjdbc reads the whole result into the heap
+ * first. Both cost more the further the page is. A page here starts where the previous one stopped:
+ * <pre>{@code
+ * SELECT id, title, version FROM post WHERE (title, id) > (?, ?) ORDER BY title, id LIMIT ?
+ * }</pre>
+ * The index on the order key goes straight to the first row of the page, so page 10 000 costs as much as page 1.
+ * A page fetched backward reads the same index the other way.
+ * <p>
+ * Pages are addressed by opaque cursor tokens, see {@link Page#nextCursor()}: the key of the row the page starts
+ * after (or ends before), encoded so that a client can hand it back in a URL. Unlike an offset, a cursor does not move
+ * when rows are inserted or deleted before it, nothing is skipped or shown twice while paging.
+ * What a pager cannot do is jump to page n without going through the pages before it.
+ */
+public final class PostPager {
+    private static final RowMapper<Post> POST_MAPPER = RowMappers.forRecord(Post.class);
+    private static final char SEPARATOR = '\n';
+
+    /**
+     * Where a page starts: after the key when going forward, before it when going backward.
+     */
+    private record Cursor(boolean forward, long id, String title) {
+    }
+
+    private final DataSource dataSource;
+    private final PostOrder order;
+    private final int pageSize;
+
+    private final String firstSql;
+    private final String lastSql;
+    private final String afterSql;
+    private final String beforeSql;
+
+    public PostPager(DataSource dataSource, PostOrder order, int pageSize) {
+        this(dataSource, "post", order, pageSize);
+    }
+
+    /**
+     * @param table a table with the columns of the post table, like a copy of it
+     */
+    public PostPager(DataSource dataSource, String table, PostOrder order, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1 but was " + pageSize);
+        }
+        SqlIdentifiers.requireTableName(table);
+        this.dataSource = dataSource;
+        this.order = order;
+        this.pageSize = pageSize;
+
+        var select = "SELECT id, title, version FROM " + table;
+        var all = order.filter.isEmpty() ? select : select + " WHERE " + order.filter;
+        var seek = (order.filter.isEmpty() ? select + " WHERE " : all + " AND ") + order.key;
+        this.firstSql = all + " ORDER BY " + order.ascending + " LIMIT ?";
+        this.lastSql = all + " ORDER BY " + order.descending + " LIMIT ?";
+        this.afterSql = seek + " > " + order.keyPlaceholders + " ORDER BY " + order.ascending + " LIMIT ?";
+        this.beforeSql = seek + " < " + order.keyPlaceholders + " ORDER BY " + order.descending + " LIMIT ?";
+    }
+
+    public PostOrder getOrder() {
+        return order;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public Page first() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return first(connection);
+        }
+    }
+
+    public Page last() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return last(connection);
+        }
+    }
+
+    /**
+     * The page a cursor points to, the first page for a null cursor.
+     *
+     * @throws IllegalArgumentException when the cursor was not made by a pager of the same order
+     */
+    public Page page(String cursor) throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return page(connection, cursor);
+        }
+    }
+
+    public Page first(Connection connection) throws SQLException {
+        return fetch(connection, true, null);
+    }
+
+    public Page last(Connection connection) throws SQLException {
+        return fetch(connection, false, null);
+    }
+
+    public Page page(Connection connection, String cursor) throws SQLException {
+        if (cursor == null) {
+            return first(connection);
+        }
+        var from = decode(cursor);
+        return fetch(connection, from.forward(), from);
+    }
+
+    /**
+     * Reads one row more than the page holds, to know whether there is another page in the direction of the read.
+     * In the other direction there is one as long as the page was fetched from a cursor.
+     */
+    private Page fetch(Connection connection, boolean forward, Cursor from) throws SQLException {
+        String sql;
+        Object[] parameters;
+        if (from == null) {
+            sql = forward ? firstSql : lastSql;
+            parameters = new Object[]{pageSize + 1};
+        } else {
+            sql = forward ? afterSql : beforeSql;
+            var key = order.keyOf(from.id(), from.title());
+            parameters = Arrays.copyOf(key, key.length + 1);
+            parameters[key.length] = pageSize + 1;
+        }
+        var posts = new ArrayList<>(CachedStatements.query(connection, sql, POST_MAPPER, parameters));
+        var more = posts.size() > pageSize;
+        if (more) {
+            posts.remove(pageSize);
+        }
+        if (!forward) {
+            Collections.reverse(posts);
+        }
+        if (posts.isEmpty()) {
+            // the rows past the cursor are gone, there is nothing to take a key from: start again from first()
+            return new Page(posts, null, null);
+        }
+        var hasNext = forward ? more : from != null;
+        var hasPrevious = forward ? from != null : more;
+        return new Page(Collections.unmodifiableList(posts),
+                hasNext ? encode(new Cursor(true, posts.get(posts.size() - 1).id(), posts.get(posts.size() - 1).title())) : null,
+                hasPrevious ? encode(new Cursor(false, posts.get(0).id(), posts.get(0).title())) : null);
+    }
+
+    private String encode(Cursor cursor) {
+        var text = order.name() + SEPARATOR + (cursor.forward() ? '>' : '<') + SEPARATOR + cursor.id()
+                + (order == PostOrder.ID ? "" : SEPARATOR + cursor.title());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Cursor decode(String token) {
+        String[] fields;
+        try {
+            // the title comes last and may contain the separator itself
+            fields = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR), 4);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Not a cursor: " + token, e);
+        }
+        if (!fields[0].equals(order.name())) {
+            throw new IllegalArgumentException("Not a cursor of the %s order: %s".formatted(order, token));
+        }
+        if (fields.length != (order == PostOrder.ID ? 3 : 4) || !fields[1].equals(">") && !fields[1].equals("<")) {
+            throw new IllegalArgumentException("Not a cursor: " + token);
+        }
+        try {
+            return new Cursor(fields[1].equals(">"), Long.parseLong(fields[2]), order == PostOrder.ID ? null : fields[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a cursor: " + token, e);
+        }
+    }
+}
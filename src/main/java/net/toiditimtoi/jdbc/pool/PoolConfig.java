@@ -0,0 +1,108 @@
+package net.toiditimtoi.jdbc.pool;
+
+import net.toiditimtoi.jdbc.statement.StatementCacheConfig;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link PooledDataSource}.
+ * Start from {@link #of(String, String, String)} which fills in sensible defaults and adjust with the {@code withXxx} methods.
+ *
+ * @param url                      JDBC URL used to open the physical connections
+ * @param user                     database user
+ * @param password                 database password
+ * @param maxPoolSize              upper bound of physical connections the pool will ever hold
+ * @param minIdle                  idle connections the housekeeper will never evict
+ * @param connectionTimeout        how long {@link PooledDataSource#getConnection()} waits before giving up
+ * @param idleTimeout              how long a connection may sit unused in the pool before it is closed
+ * @param validationIdleThreshold  a connection idle for less than this is handed out without calling {@code isValid}
+ * @param leakDetectionThreshold   a connection borrowed for longer than this is reported as a leak, {@code Duration.ZERO} disables it
+ * @param statementCache           the PreparedStatement cache kept for each physical connection
+ */
+public record PoolConfig(String url,
+                         String user,
+                         String password,
+                         int maxPoolSize,
+                         int minIdle,
+                         Duration connectionTimeout,
+                         Duration idleTimeout,
+                         Duration validationIdleThreshold,
+                         Duration leakDetectionThreshold,
+                         StatementCacheConfig statementCache) {
+
+    public PoolConfig {
+        Objects.requireNonNull(url, "url");
+        Objects.requireNonNull(connectionTimeout, "connectionTimeout");
+        Objects.requireNonNull(idleTimeout, "idleTimeout");
+        Objects.requireNonNull(validationIdleThreshold, "validationIdleThreshold");
+        Objects.requireNonNull(leakDetectionThreshold, "leakDetectionThreshold");
+        Objects.requireNonNull(statementCache, "statementCache");
+        if (maxPoolSize < 1) {
+            throw new IllegalArgumentException("maxPoolSize must be at least 1 but was " + maxPoolSize);
+        }
+        if (minIdle < 0 || minIdle > maxPoolSize) {
+            throw new IllegalArgumentException("minIdle must be between 0 and maxPoolSize but was " + minIdle);
+        }
+    }
+
+    public static PoolConfig of(String url, String user, String password) {
+        return new PoolConfig(url, user, password, 10, 0,
+                Duration.ofSeconds(30), Duration.ofMinutes(10), Duration.ofMillis(500), Duration.ZERO,
+                StatementCacheConfig.defaults());
+    }
+
+    /**
+     * The same settings for another server, like a replica of the database.
+     */
+    public PoolConfig withUrl(String url) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withMaxPoolSize(int maxPoolSize) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withMinIdle(int minIdle) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withConnectionTimeout(Duration connectionTimeout) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withIdleTimeout(Duration idleTimeout) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withValidationIdleThreshold(Duration validationIdleThreshold) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withLeakDetectionThreshold(Duration leakDetectionThreshold) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    public PoolConfig withStatementCache(StatementCacheConfig statementCache) {
+        return new PoolConfig(url, user, password, maxPoolSize, minIdle,
+                connectionTimeout, idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+
+    /**
+     * The settings without the password, which reports and logs must not print.
+     */
+    @Override
+    public String toString() {
+        return ("PoolConfig[url=%s, user=%s, password=%s, maxPoolSize=%d, minIdle=%d, connectionTimeout=%s, "
+                + "idleTimeout=%s, validationIdleThreshold=%s, leakDetectionThreshold=%s, statementCache=%s]")
+                .formatted(url, user, password == null ? null : "****", maxPoolSize, minIdle, connectionTimeout,
+                        idleTimeout, validationIdleThreshold, leakDetectionThreshold, statementCache);
+    }
+}
@@ -0,0 +1,80 @@
+package net.toiditimtoi.jdbc.pool;
+
+import net.toiditimtoi.jdbc.statement.StatementCache;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * One physical connection owned by the pool.
+ * The state field is the only thing borrowers race on: whoever flips it from NOT_IN_USE to IN_USE owns the connection.
+ */
+final class PoolEntry {
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_RESERVED = -1;
+    static final int STATE_REMOVED = -2;
+
+    private static final AtomicIntegerFieldUpdater<PoolEntry> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "state");
+
+    final Connection connection;
+    // null when the statement cache is disabled
+    final StatementCache statementCache;
+
+    // the state the physical connection was created with, restored every time it goes back to the pool
+    final boolean defaultAutoCommit;
+    final boolean defaultReadOnly;
+    final int defaultTransactionIsolation;
+
+    private volatile int state;
+    volatile long lastAccessedNanos;
+    volatile long borrowedAtNanos;
+    volatile Throwable borrowSite;
+    volatile boolean leakReported;
+
+    PoolEntry(Connection connection, StatementCache statementCache, int initialState) throws SQLException {
+        this.connection = connection;
+        this.statementCache = statementCache;
+        this.defaultAutoCommit = connection.getAutoCommit();
+        this.defaultReadOnly = connection.isReadOnly();
+        this.defaultTransactionIsolation = connection.getTransactionIsolation();
+        this.state = initialState;
+        this.lastAccessedNanos = System.nanoTime();
+    }
+
+    int getState() {
+        return state;
+    }
+
+    void setState(int newState) {
+        state = newState;
+    }
+
+    boolean compareAndSetState(int expected, int newState) {
+        return STATE.compareAndSet(this, expected, newState);
+    }
+
+    void markBorrowed(long nowNanos, boolean captureBorrowSite) {
+        borrowedAtNanos = nowNanos;
+        leakReported = false;
+        borrowSite = captureBorrowSite ? new Exception("Connection borrowed here") : null;
+    }
+
+    void markReturned(long nowNanos) {
+        lastAccessedNanos = nowNanos;
+        borrowSite = null;
+    }
+
+    void closeQuietly() {
+        if (statementCache != null) {
+            statementCache.close();
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // the connection is being thrown away, there is nothing useful to do with the failure
+        }
+    }
+}
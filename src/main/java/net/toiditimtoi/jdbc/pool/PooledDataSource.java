@@ -0,0 +1,362 @@
+package net.toiditimtoi.jdbc.pool;
+
+import net.toiditimtoi.jdbc.statement.StatementCache;
+import net.toiditimtoi.jdbc.statement.StatementCacheStats;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import static net.toiditimtoi.jdbc.pool.PoolEntry.STATE_IN_USE;
+import static net.toiditimtoi.jdbc.pool.PoolEntry.STATE_NOT_IN_USE;
+import static net.toiditimtoi.jdbc.pool.PoolEntry.STATE_REMOVED;
+import static net.toiditimtoi.jdbc.pool.PoolEntry.STATE_RESERVED;
+
+/**
+ * A small connection pool.
+ * Opening a physical connection to Postgres costs a TCP handshake, authentication and forking a new backend process,
+ * which is milliseconds. Borrowing an already opened connection from here costs microseconds.
+ * <p>
+ * The borrow path never takes a lock:
+ * <ol>
+ *     <li>first the connections this thread returned recently are tried (they are most likely still idle)</li>
+ *     <li>then every connection of the pool is tried</li>
+ *     <li>then a new physical connection is opened if the pool is not full yet</li>
+ *     <li>otherwise the thread waits until another thread hands a connection over</li>
+ * </ol>
+ * Trying a connection is a single compare-and-set on its state.
+ * <p>
+ * A connection is validated with {@link Connection#isValid(int)} only when it has been idle for longer than
+ * {@link PoolConfig#validationIdleThreshold()}, so hot connections are never pinged.
+ * When a connection is closed by the application, its open statements are closed, an uncommitted transaction is rolled
+ * back and autoCommit, readOnly and the isolation level are restored before the next borrower gets it.
+ * <p>
+ * Every physical connection also keeps a {@link StatementCache}, reached with
+ * {@code connection.unwrap(StatementCache.class)} or more simply through
+ * {@link net.toiditimtoi.jdbc.statement.CachedStatements}.
+ */
+public final class PooledDataSource implements DataSource, AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(PooledDataSource.class.getName());
+
+    private static final int THREAD_LOCAL_LIST_SIZE = 16;
+    private static final long HANDOFF_POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    private final PoolConfig config;
+    private final CopyOnWriteArrayList<PoolEntry> sharedList = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<List<PoolEntry>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(THREAD_LOCAL_LIST_SIZE));
+    private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final StatementCacheStats statementCacheStats = new StatementCacheStats();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean shutdown;
+    private volatile PrintWriter logWriter;
+
+    public PooledDataSource(PoolConfig config) {
+        this.config = config;
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var periodNanos = housekeepingPeriodNanos(config);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public PoolConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(config.connectionTimeout());
+    }
+
+    /**
+     * Like {@link #getConnection()}, waiting at most the given time instead of {@link PoolConfig#connectionTimeout()},
+     * for a caller with a deadline of its own.
+     */
+    public Connection getConnection(Duration timeout) throws SQLException {
+        if (shutdown) {
+            throw new SQLException("Pool has been closed", "08003");
+        }
+        var start = System.nanoTime();
+        var timeoutNanos = timeout.toNanos();
+        var remaining = timeoutNanos;
+        do {
+            var entry = borrow(remaining);
+            if (entry == null) {
+                break;
+            }
+            var now = System.nanoTime();
+            if (isAlive(entry, now)) {
+                entry.markBorrowed(now, !config.leakDetectionThreshold().isZero());
+                return new PooledConnection(this, entry);
+            }
+            evict(entry);
+            remaining = timeoutNanos - (System.nanoTime() - start);
+        } while (remaining > 0);
+        throw new SQLTransientConnectionException("Connection is not available, request timed out after %dms (total=%d, active=%d, waiting=%d)"
+                .formatted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), getTotalConnections(), getActiveConnections(), getThreadsAwaitingConnection()),
+                "08001");
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("A pooled DataSource always uses the credentials of its configuration");
+    }
+
+    private PoolEntry borrow(long timeoutNanos) throws SQLException {
+        var local = threadList.get();
+        for (var i = local.size() - 1; i >= 0; i--) {
+            var entry = local.remove(i);
+            if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return entry;
+            }
+        }
+
+        waiters.incrementAndGet();
+        try {
+            var deadline = System.nanoTime() + timeoutNanos;
+            do {
+                for (var entry : sharedList) {
+                    if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                        return entry;
+                    }
+                }
+                var created = tryCreate();
+                if (created != null) {
+                    return created;
+                }
+                // capacity can also be freed by an eviction, so we never park for long without rescanning
+                var handedOver = handoffQueue.poll(Math.min(HANDOFF_POLL_SLICE_NANOS, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (handedOver != null && handedOver.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                    return handedOver;
+                }
+            } while (deadline - System.nanoTime() > 0 && !shutdown);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", "08001", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private PoolEntry tryCreate() throws SQLException {
+        while (true) {
+            var total = totalConnections.get();
+            if (total >= config.maxPoolSize()) {
+                return null;
+            }
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                break;
+            }
+        }
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(config.url(), config.user(), config.password());
+            var statementCache = config.statementCache().isEnabled()
+                    ? new StatementCache(connection, config.statementCache(), statementCacheStats)
+                    : null;
+            var entry = new PoolEntry(connection, statementCache, STATE_IN_USE);
+            sharedList.add(entry);
+            return entry;
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            // opened but never pooled, nobody else would close it
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private boolean isAlive(PoolEntry entry, long nowNanos) {
+        if (nowNanos - entry.lastAccessedNanos < config.validationIdleThreshold().toNanos()) {
+            return true;
+        }
+        try {
+            return entry.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Called by {@link PooledConnection#close()} once the connection state has been reset.
+     */
+    void requite(PoolEntry entry) {
+        if (shutdown) {
+            evict(entry);
+            return;
+        }
+        entry.markReturned(System.nanoTime());
+        entry.setState(STATE_NOT_IN_USE);
+
+        // somebody is waiting, keep offering until they take it or until somebody else grabbed it from the shared list
+        for (var i = 0; waiters.get() > 0; i++) {
+            if (entry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+                return;
+            } else if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+
+        var local = threadList.get();
+        if (local.size() < THREAD_LOCAL_LIST_SIZE) {
+            local.add(entry);
+        }
+    }
+
+    void evict(PoolEntry entry) {
+        entry.setState(STATE_REMOVED);
+        if (sharedList.remove(entry)) {
+            totalConnections.decrementAndGet();
+        }
+        entry.closeQuietly();
+    }
+
+    private void housekeep() {
+        var now = System.nanoTime();
+        var idleTimeoutNanos = config.idleTimeout().toNanos();
+        var leakThresholdNanos = config.leakDetectionThreshold().toNanos();
+        for (var entry : sharedList) {
+            var state = entry.getState();
+            if (state == STATE_IN_USE) {
+                if (leakThresholdNanos > 0 && !entry.leakReported && now - entry.borrowedAtNanos > leakThresholdNanos) {
+                    entry.leakReported = true;
+                    LOGGER.log(System.Logger.Level.WARNING,
+                            "Connection leak detection triggered, connection has been borrowed for %dms".formatted(TimeUnit.NANOSECONDS.toMillis(now - entry.borrowedAtNanos)),
+                            entry.borrowSite);
+                }
+            } else if (state == STATE_NOT_IN_USE
+                    && now - entry.lastAccessedNanos > idleTimeoutNanos
+                    && totalConnections.get() > config.minIdle()
+                    && entry.compareAndSetState(STATE_NOT_IN_USE, STATE_RESERVED)) {
+                evict(entry);
+            }
+        }
+    }
+
+    private static long housekeepingPeriodNanos(PoolConfig config) {
+        var period = config.idleTimeout().toNanos();
+        if (!config.leakDetectionThreshold().isZero()) {
+            period = Math.min(period, config.leakDetectionThreshold().toNanos());
+        }
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(50), Math.min(period / 2, TimeUnit.SECONDS.toNanos(30)));
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getIdleConnections() {
+        var idle = 0;
+        for (var entry : sharedList) {
+            if (entry.getState() == STATE_NOT_IN_USE) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    public int getActiveConnections() {
+        var active = 0;
+        for (var entry : sharedList) {
+            if (entry.getState() == STATE_IN_USE) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public int getThreadsAwaitingConnection() {
+        return waiters.get();
+    }
+
+    /**
+     * Hits, misses and evictions of the statement caches of all the connections of this pool.
+     */
+    public StatementCacheStats getStatementCacheStats() {
+        return statementCacheStats;
+    }
+
+    /**
+     * Closes every idle connection right away, connections still borrowed are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        for (var entry : sharedList) {
+            if (entry.compareAndSetState(STATE_NOT_IN_USE, STATE_RESERVED)) {
+                evict(entry);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return shutdown;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Use PoolConfig.withConnectionTimeout instead");
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return (int) config.connectionTimeout().toSeconds();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("PooledDataSource is not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
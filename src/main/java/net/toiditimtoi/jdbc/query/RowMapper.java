@@ -0,0 +1,20 @@
+package net.toiditimtoi.jdbc.query;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a ResultSet into an object. It must not move the cursor.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    T map(ResultSet resultSet) throws SQLException;
+
+    /**
+     * The mapper for the rows of the given ResultSet. Loops call it once before mapping the first row, so that a
+     * mapper depending on the columns of the result resolves them once per ResultSet instead of once per row.
+     */
+    default RowMapper<T> bind(ResultSet resultSet) throws SQLException {
+        return this;
+    }
+}
@@ -0,0 +1,157 @@
+package net.toiditimtoi.jdbc.query;
+
+import net.toiditimtoi.jdbc.UncheckedSQLException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs a query through a server-side cursor so the rows arrive in chunks of {@code fetchSize}.
+ * <p>
+ * By default pgjdbc reads the whole result into the heap before {@link ResultSet#next()} returns the first row,
+ * and a scrollable ResultSet always does. The driver only uses a cursor (a named portal on the server) when all of these hold:
+ * <ul>
+ *     <li>the ResultSet is TYPE_FORWARD_ONLY</li>
+ *     <li>autocommit is off, because the portal lives inside a transaction</li>
+ *     <li>a fetch size greater than 0 is set</li>
+ * </ul>
+ * Each stream borrows its own connection and sets this up. Rows are only fetched when the consumer asks for them,
+ * so a slow consumer never has more than one chunk in memory. The stream must be closed, which closes the cursor and
+ * gives the connection back:
+ * <pre>{@code
+ * try (var posts = query.stream("SELECT * FROM post", resultSet -> resultSet.getString("title"))) {
+ *     posts.forEach(System.out::println);
+ * }
+ * }</pre>
+ */
+public final class StreamingQuery {
+    private final DataSource dataSource;
+    private final int fetchSize;
+
+    public StreamingQuery(DataSource dataSource, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1, otherwise the driver reads the whole result at once");
+        }
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * A lazily evaluated, sequential stream of the mapped rows. SQL failures surface as {@link UncheckedSQLException}.
+     */
+    public <T> Stream<T> stream(String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        var iterator = iterator(sql, mapper, parameters);
+        var spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    public <T> RowIterator<T> iterator(String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        var connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            var statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+            for (var i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            var resultSet = statement.executeQuery();
+            return new RowIterator<>(connection, statement, resultSet, mapper.bind(resultSet));
+        } catch (SQLException | RuntimeException e) {
+            // the connection goes back to the pool, which rolls back and closes the statement
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Iterates the cursor one row at a time. Closes itself after the last row, and must be closed when abandoned earlier.
+     */
+    public static final class RowIterator<T> implements Iterator<T>, AutoCloseable {
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final RowMapper<T> mapper;
+
+        private T next;
+        private boolean closed;
+
+        private RowIterator(Connection connection, PreparedStatement statement, ResultSet resultSet, RowMapper<T> mapper) {
+            this.connection = connection;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                if (resultSet.next()) {
+                    next = mapper.map(resultSet);
+                    return true;
+                }
+                finish(true);
+                return false;
+            } catch (SQLException e) {
+                close();
+                throw new UncheckedSQLException(e);
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var row = next;
+            next = null;
+            return row;
+        }
+
+        /**
+         * Closes the cursor early. Safe to call more than once.
+         */
+        @Override
+        public void close() {
+            try {
+                finish(false);
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        }
+
+        private void finish(boolean exhausted) throws SQLException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (connection; statement; resultSet) {
+                // a fully read cursor ends its transaction normally, an abandoned one is rolled back
+                if (exhausted) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package net.toiditimtoi.jdbc.routing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one node of a {@link RoutingDataSource} served, to check that the reads are actually spread over the replicas.
+ */
+public final class NodeStats {
+    private final String url;
+    private final boolean primary;
+    private final long createdNanos = System.nanoTime();
+    final AtomicInteger outstanding = new AtomicInteger();
+    final LongAdder routedConnections = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder exhausted = new LongAdder();
+    volatile boolean healthy = true;
+    volatile long replayedLsn = -1;
+
+    NodeStats(String url, boolean primary) {
+        this.url = url;
+        this.primary = primary;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    /**
+     * Whether the last health check or connection attempt succeeded.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Logical connections currently bound to this node, what least-outstanding-requests balancing compares.
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRoutedConnections() {
+        return routedConnections.sum();
+    }
+
+    /**
+     * Connections routed per second since the routing DataSource was created.
+     */
+    public double getRoutedConnectionsPerSecond() {
+        var elapsedNanos = System.nanoTime() - createdNanos;
+        return elapsedNanos == 0 ? 0 : getRoutedConnections() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Failed connection attempts and health checks.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Connections the pool of the node had none free for in time, while the node itself was reachable.
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * The WAL position a replica had replayed at its last health check, -1 if unknown or if the node is not a replica.
+     */
+    public long getReplayedLsn() {
+        return replayedLsn;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeStats[url=%s, %s, healthy=%b, outstanding=%d, routed=%d (%.1f/s), failures=%d, exhausted=%d]".formatted(
+                url, primary ? "primary" : "replica", healthy, getOutstanding(), getRoutedConnections(),
+                getRoutedConnectionsPerSecond(), getFailures(), getExhausted());
+    }
+}
@@ -0,0 +1,36 @@
+package net.toiditimtoi.jdbc.routing;
+
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Settings of a {@link RoutingDataSource}.
+ * Start from {@link #of(PoolConfig, String...)} and adjust with the {@code withXxx} methods.
+ *
+ * @param primary             the pool of the primary, the replicas get the same settings with their own URL
+ * @param replicaUrls         JDBC URLs of the replicas, read-only connections are spread over them
+ * @param healthCheckInterval how often every node is checked, an unhealthy replica is not routed to until a check
+ *                            finds it healthy again
+ */
+public record RoutingConfig(PoolConfig primary, List<String> replicaUrls, Duration healthCheckInterval) {
+
+    public RoutingConfig {
+        Objects.requireNonNull(primary, "primary");
+        Objects.requireNonNull(healthCheckInterval, "healthCheckInterval");
+        replicaUrls = List.copyOf(replicaUrls);
+        if (healthCheckInterval.isNegative() || healthCheckInterval.isZero()) {
+            throw new IllegalArgumentException("healthCheckInterval must be positive but was " + healthCheckInterval);
+        }
+    }
+
+    public static RoutingConfig of(PoolConfig primary, String... replicaUrls) {
+        return new RoutingConfig(primary, List.of(replicaUrls), Duration.ofSeconds(5));
+    }
+
+    public RoutingConfig withHealthCheckInterval(Duration healthCheckInterval) {
+        return new RoutingConfig(primary, replicaUrls, healthCheckInterval);
+    }
+}
@@ -0,0 +1,482 @@
+package net.toiditimtoi.jdbc.routing;
+
+import net.toiditimtoi.jdbc.statement.StatementDecorator;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * The connection handed out by {@link RoutingDataSource}. Until it is used, it only records auto-commit, read-only
+ * and the isolation level; the first call needing the database routes it and applies them to the physical connection.
+ * <p>
+ * A connection of a {@link RoutingSession} tells the session how far the primary is after every write it commits: on
+ * commit, and in auto-commit mode after every statement other than a SELECT, its own or borrowed from the statement
+ * cache, so that the other connections of the session read the write while this one is still open.
+ * <p>
+ * Like a physical JDBC connection, an instance must not be used by several threads at the same time.
+ */
+final class RoutingConnection implements Connection, StatementDecorator {
+    private final RoutingDataSource dataSource;
+    private final RoutingSession session;
+
+    private RoutingDataSource.Route route;
+    private boolean closed;
+    private boolean autoCommit = true;
+    private boolean readOnly;
+    private int transactionIsolation = -1;
+
+    RoutingConnection(RoutingDataSource dataSource, RoutingSession session) {
+        this.dataSource = dataSource;
+        this.session = session;
+    }
+
+    private Connection physical() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection is closed", "08003");
+        }
+        if (route == null) {
+            var newRoute = dataSource.route(readOnly, session);
+            try {
+                var connection = newRoute.connection();
+                if (!autoCommit) {
+                    connection.setAutoCommit(false);
+                }
+                if (readOnly) {
+                    connection.setReadOnly(true);
+                }
+                if (transactionIsolation != -1) {
+                    connection.setTransactionIsolation(transactionIsolation);
+                }
+            } catch (SQLException e) {
+                RoutingDataSource.release(newRoute);
+                throw e;
+            }
+            route = newRoute;
+        }
+        return route.connection();
+    }
+
+    private boolean isOnPrimary() {
+        return route != null && route.node().stats().isPrimary();
+    }
+
+    /**
+     * Tells the session how far the primary is once what this connection wrote is committed.
+     */
+    private void recordWrite() throws SQLException {
+        if (session != null && isOnPrimary() && !readOnly) {
+            session.recordWrite(RoutingDataSource.currentLsn(route.connection()));
+        }
+    }
+
+    /**
+     * The statement, recording the writes it runs in auto-commit mode for the session.
+     */
+    private <T extends Statement> T recordingWrites(T statement, Class<T> type, String sql) {
+        if (session == null || !isOnPrimary()) {
+            return statement;
+        }
+        return type.cast(Proxy.newProxyInstance(RoutingConnection.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    var executed = args != null && args.length > 0 && args[0] instanceof String text ? text : sql;
+                    if (autoCommit && method.getName().startsWith("execute") && !isSelect(executed)) {
+                        recordWrite();
+                    }
+                    return result;
+                }));
+    }
+
+    private static boolean isSelect(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        var start = 0;
+        while (start < sql.length() && Character.isWhitespace(sql.charAt(start))) {
+            start++;
+        }
+        return sql.regionMatches(true, start, "select", 0, 6);
+    }
+
+    @Override
+    public PreparedStatement decorate(String sql, PreparedStatement statement) throws SQLException {
+        var physical = physical();
+        var decorated = physical.isWrapperFor(StatementDecorator.class)
+                ? physical.unwrap(StatementDecorator.class).decorate(sql, statement)
+                : statement;
+        return recordingWrites(decorated, PreparedStatement.class, sql);
+    }
+
+    private void release() throws SQLException {
+        var released = route;
+        route = null;
+        RoutingDataSource.release(released);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        if (route != null) {
+            route.connection().setAutoCommit(autoCommit);
+        }
+        this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return autoCommit;
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        if (route != null) {
+            // throws in the middle of a transaction, like a physical connection does
+            route.connection().setReadOnly(readOnly);
+            if (!readOnly && !isOnPrimary()) {
+                // the replica cannot take writes, route again on next use
+                release();
+            }
+        }
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        if (route != null) {
+            route.connection().setTransactionIsolation(level);
+        }
+        this.transactionIsolation = level;
+    }
+
+    /**
+     * The isolation level set on this connection, the default of Postgres (read committed) before it is routed.
+     */
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        if (route != null) {
+            return route.connection().getTransactionIsolation();
+        }
+        return transactionIsolation != -1 ? transactionIsolation : TRANSACTION_READ_COMMITTED;
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        if (route != null) {
+            route.connection().commit();
+            recordWrite();
+        }
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        if (route != null) {
+            route.connection().rollback();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (route != null) {
+            try {
+                if (autoCommit) {
+                    recordWrite();
+                }
+            } finally {
+                release();
+            }
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        if (closed) {
+            return false;
+        }
+        return route == null || route.connection().isValid(timeout);
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (route != null) {
+            var aborted = route;
+            route = null;
+            try {
+                aborted.connection().abort(executor);
+            } finally {
+                aborted.node().stats().outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return route == null ? null : route.connection().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        if (route != null) {
+            route.connection().clearWarnings();
+        }
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return physical().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || physical().isWrapperFor(iface);
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return recordingWrites(physical().createStatement(), Statement.class, null);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return recordingWrites(physical().prepareStatement(sql), PreparedStatement.class, sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return recordingWrites(physical().prepareCall(sql), CallableStatement.class, sql);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return physical().nativeSQL(sql);
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return physical().getMetaData();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        physical().setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return physical().getCatalog();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return recordingWrites(physical().createStatement(resultSetType, resultSetConcurrency), Statement.class, null);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return recordingWrites(physical().prepareStatement(sql, resultSetType, resultSetConcurrency),
+                PreparedStatement.class, sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return recordingWrites(physical().prepareCall(sql, resultSetType, resultSetConcurrency),
+                CallableStatement.class, sql);
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return physical().getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        physical().setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        physical().setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return physical().getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return physical().setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return physical().setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        physical().rollback(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        physical().releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return recordingWrites(physical().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability),
+                Statement.class, null);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        var statement = physical().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        return recordingWrites(statement, PreparedStatement.class, sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return recordingWrites(physical().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+                CallableStatement.class, sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return recordingWrites(physical().prepareStatement(sql, autoGeneratedKeys), PreparedStatement.class, sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return recordingWrites(physical().prepareStatement(sql, columnIndexes), PreparedStatement.class, sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return recordingWrites(physical().prepareStatement(sql, columnNames), PreparedStatement.class, sql);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return physical().createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return physical().createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return physical().createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return physical().createSQLXML();
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        try {
+            physical().setClientInfo(name, value);
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Map.of(), e);
+        }
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        try {
+            physical().setClientInfo(properties);
+        } catch (SQLClientInfoException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Map.of(), e);
+        }
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return physical().getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return physical().getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return physical().createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return physical().createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        physical().setSchema(schema);
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return physical().getSchema();
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        physical().setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return physical().getNetworkTimeout();
+    }
+}
@@ -0,0 +1,360 @@
+package net.toiditimtoi.jdbc.routing;
+
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Sends read-write connections to the primary and read-only ones to its replicas, so that reads scale with the
+ * number of replicas.
+ * <p>
+ * The connections handed out are routed lazily: the application first says what it is about to do with
+ * {@code setReadOnly(true)}, and the node is only picked when the connection is used for the first time.
+ * <ul>
+ *     <li>a read-write connection always goes to the primary</li>
+ *     <li>a read-only connection goes to the healthy replica with the fewest connections currently bound to it, ties
+ *     broken round-robin, or to the primary when no replica is available</li>
+ *     <li>a connection routed to the primary stays there for good, so it reads its own writes even when switched to
+ *     read-only afterwards</li>
+ *     <li>a read-only connection switched back to read-write between two transactions gives its replica connection
+ *     back and is routed again, to the primary; the statements it created on the replica are closed</li>
+ * </ul>
+ * Connections of a {@link RoutingSession} additionally read what the session wrote through other connections.
+ * <p>
+ * Every node has its own {@link PooledDataSource}. A node failing to give a connection is marked unhealthy and the
+ * next one is tried, a node whose pool is only exhausted is skipped without being marked, and a health check runs
+ * every {@link RoutingConfig#healthCheckInterval()} to take nodes back in and to learn how far each replica replayed
+ * the WAL of the primary. See {@link #getReplicaStats()} for how the reads are spread.
+ */
+public final class RoutingDataSource implements DataSource, AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(RoutingDataSource.class.getName());
+    private static final String CURRENT_LSN_SQL = "SELECT pg_wal_lsn_diff(pg_current_wal_lsn(), '0/0')::bigint";
+    // null on a server which is not a replica
+    private static final String REPLAYED_LSN_SQL = "SELECT pg_wal_lsn_diff(pg_last_wal_replay_lsn(), '0/0')::bigint";
+
+    @FunctionalInterface
+    public interface TransactionCallback<R> {
+        R doInTransaction(Connection connection) throws SQLException;
+    }
+
+    /**
+     * A node: its pool and its stats.
+     */
+    record Node(PooledDataSource pool, NodeStats stats) {
+    }
+
+    /**
+     * A physical connection and the node it was borrowed from.
+     */
+    record Route(Node node, Connection connection) {
+    }
+
+    private final RoutingConfig config;
+    private final Node primary;
+    private final List<Node> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder primaryFallbacks = new LongAdder();
+    private final ScheduledExecutorService healthChecker;
+
+    public RoutingDataSource(RoutingConfig config) {
+        this.config = config;
+        this.primary = new Node(new PooledDataSource(config.primary()), new NodeStats(config.primary().url(), true));
+        for (var url : config.replicaUrls()) {
+            replicas.add(new Node(new PooledDataSource(config.primary().withUrl(url)), new NodeStats(url, false)));
+        }
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "routing-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var periodNanos = config.healthCheckInterval().toNanos();
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public RoutingConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * A connection routed on first use, according to its read-only flag at that time.
+     */
+    @Override
+    public Connection getConnection() {
+        return new RoutingConnection(this, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("A routing DataSource always uses the credentials of its configuration");
+    }
+
+    public RoutingSession newSession() {
+        return new RoutingSession(this);
+    }
+
+    /**
+     * Runs the callback in a read-only transaction, on a replica when one is available.
+     */
+    public <R> R inReadOnlyTransaction(TransactionCallback<R> callback) throws SQLException {
+        return inTransaction(true, callback);
+    }
+
+    /**
+     * Runs the callback in a read-write transaction on the primary.
+     */
+    public <R> R inTransaction(TransactionCallback<R> callback) throws SQLException {
+        return inTransaction(false, callback);
+    }
+
+    private <R> R inTransaction(boolean readOnly, TransactionCallback<R> callback) throws SQLException {
+        // closing the connection rolls back when the callback fails
+        try (var connection = getConnection()) {
+            connection.setReadOnly(readOnly);
+            connection.setAutoCommit(false);
+            var result = callback.doInTransaction(connection);
+            connection.commit();
+            return result;
+        }
+    }
+
+    /**
+     * Borrows a physical connection from the node the logical one is routed to.
+     *
+     * @param session the session of the connection, null if it has none
+     */
+    Route route(boolean readOnly, RoutingSession session) throws SQLException {
+        if (readOnly && !replicas.isEmpty()) {
+            var minimumLsn = session == null ? -1 : session.getLastWriteLsn();
+            var tried = new ArrayList<Node>(replicas.size());
+            Node replica;
+            while ((replica = leastOutstandingReplica(minimumLsn, tried)) != null) {
+                var route = tryBorrow(replica);
+                if (route != null) {
+                    return route;
+                }
+                tried.add(replica);
+            }
+            primaryFallbacks.increment();
+        }
+        var route = tryBorrow(primary);
+        if (route == null) {
+            throw new SQLException("Cannot get a connection from the primary " + primary.stats().getUrl(), "08001");
+        }
+        return route;
+    }
+
+    private Node leastOutstandingReplica(long minimumLsn, List<Node> excluded) {
+        var size = replicas.size();
+        var start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        Node best = null;
+        for (var i = 0; i < size; i++) {
+            var candidate = replicas.get((start + i) % size);
+            var stats = candidate.stats();
+            if (!stats.healthy || excluded.contains(candidate)
+                    || minimumLsn >= 0 && stats.replayedLsn < minimumLsn) {
+                continue;
+            }
+            if (best == null || stats.outstanding.get() < best.stats().outstanding.get()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static Route tryBorrow(Node node) throws SQLException {
+        var stats = node.stats();
+        // counted before borrowing, so that threads routing at the same time already see each other
+        stats.outstanding.incrementAndGet();
+        try {
+            var connection = node.pool().getConnection();
+            stats.routedConnections.increment();
+            stats.healthy = true;
+            return new Route(node, connection);
+        } catch (SQLException e) {
+            stats.outstanding.decrementAndGet();
+            var exhausted = isExhausted(e);
+            if (exhausted) {
+                stats.exhausted.increment();
+            } else {
+                stats.failures.increment();
+            }
+            if (stats.isPrimary()) {
+                throw e;
+            }
+            if (!exhausted) {
+                markUnhealthy(stats, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Whether the pool of the node only had no connection free in time. The node is busy, not down: taking it out of
+     * the rotation would pile its reads onto the other nodes, the next node is tried and its health is left as is.
+     */
+    private static boolean isExhausted(SQLException e) {
+        return e instanceof SQLTransientException;
+    }
+
+    private static void markUnhealthy(NodeStats stats, SQLException cause) {
+        if (stats.healthy) {
+            stats.healthy = false;
+            LOGGER.log(System.Logger.Level.WARNING, "Replica %s is unhealthy, reads go to the other nodes".formatted(stats.getUrl()), cause);
+        }
+    }
+
+    /**
+     * Gives the physical connection back to its node.
+     */
+    static void release(Route route) throws SQLException {
+        try {
+            route.connection().close();
+        } finally {
+            route.node().stats().outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * The WAL position of the primary, through a connection to it.
+     */
+    static long currentLsn(Connection primaryConnection) throws SQLException {
+        try (var statement = primaryConnection.createStatement(); var resultSet = statement.executeQuery(CURRENT_LSN_SQL)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private void checkHealth() {
+        check(primary);
+        replicas.forEach(this::check);
+    }
+
+    private void check(Node node) {
+        var stats = node.stats();
+        try (var connection = node.pool().getConnection(); var statement = connection.createStatement()) {
+            statement.setQueryTimeout((int) Math.max(1, config.healthCheckInterval().toSeconds()));
+            if (!stats.isPrimary()) {
+                try (var resultSet = statement.executeQuery(REPLAYED_LSN_SQL)) {
+                    resultSet.next();
+                    var lsn = resultSet.getLong(1);
+                    stats.replayedLsn = resultSet.wasNull() ? -1 : lsn;
+                }
+            } else {
+                statement.execute("SELECT 1");
+            }
+            if (!stats.healthy) {
+                LOGGER.log(System.Logger.Level.INFO, "Node %s is healthy again".formatted(stats.getUrl()));
+                stats.healthy = true;
+            }
+        } catch (SQLException e) {
+            if (isExhausted(e)) {
+                stats.exhausted.increment();
+                return;
+            }
+            stats.failures.increment();
+            markUnhealthy(stats, e);
+        } catch (RuntimeException e) {
+            // the scheduler would stop running the checks
+            LOGGER.log(System.Logger.Level.ERROR, "Health check of %s failed".formatted(stats.getUrl()), e);
+        }
+    }
+
+    /**
+     * Runs the health check of every node now, instead of waiting for the next scheduled one.
+     */
+    public void checkHealthNow() {
+        checkHealth();
+    }
+
+    public NodeStats getPrimaryStats() {
+        return primary.stats();
+    }
+
+    public List<NodeStats> getReplicaStats() {
+        return replicas.stream().map(Node::stats).toList();
+    }
+
+    /**
+     * Read-only connections which went to the primary because no replica was healthy or caught up with their session.
+     */
+    public long getPrimaryFallbacks() {
+        return primaryFallbacks.sum();
+    }
+
+    /**
+     * One line per node, with how many connections it served.
+     */
+    public String report() {
+        var report = new StringBuilder();
+        report.append(primary.stats()).append('\n');
+        for (var replica : replicas) {
+            report.append(replica.stats()).append('\n');
+        }
+        report.append("primary fallbacks: ").append(getPrimaryFallbacks()).append('\n');
+        return report.toString();
+    }
+
+    /**
+     * Closes the pools of all the nodes.
+     */
+    @Override
+    public void close() {
+        healthChecker.shutdownNow();
+        primary.pool().close();
+        replicas.forEach(replica -> replica.pool().close());
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.pool().getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.pool().setLogWriter(out);
+        for (var replica : replicas) {
+            replica.pool().setLogWriter(out);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Use PoolConfig.connectionTimeout");
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
@@ -0,0 +1,40 @@
+package net.toiditimtoi.jdbc.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connections of one user or request, which must read what they wrote even though replicas lag behind.
+ * <p>
+ * When a read-write connection of the session commits, runs a statement other than a SELECT in auto-commit mode, or is
+ * closed, the session remembers how far the WAL of the primary went. Its read-only connections then only go to a
+ * replica which replayed at least that far (as of its last health check), otherwise to the primary. This costs one
+ * query per commit or auto-commit write on the primary, so sessions are only for the code which needs read-your-writes,
+ * {@link RoutingDataSource#getConnection()} does not pay for it.
+ * <p>
+ * A session may be used by several threads.
+ */
+public final class RoutingSession {
+    private final RoutingDataSource dataSource;
+    private final AtomicLong lastWriteLsn = new AtomicLong(-1);
+
+    RoutingSession(RoutingDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public Connection getConnection() {
+        return new RoutingConnection(dataSource, this);
+    }
+
+    /**
+     * The WAL position of the primary after the last write of the session, -1 if it did not write yet.
+     */
+    public long getLastWriteLsn() {
+        return lastWriteLsn.get();
+    }
+
+    void recordWrite(long lsn) {
+        lastWriteLsn.accumulateAndGet(lsn, Math::max);
+    }
+}
@@ -0,0 +1,63 @@
+package net.toiditimtoi.jdbc.shard;
+
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one shard of a {@link ShardedPosts} served, and how fast. A shard much slower or much busier than the others
+ * shows skew: a hot range of ids, or a node with less resources.
+ */
+public final class ShardStats {
+    private final int shard;
+    final LongAdder routed = new LongAdder();
+    final LongAdder scatterLegs = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder rowsWritten = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    ShardStats(int shard) {
+        this.shard = shard;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * Single-key operations sent to this shard because it owns the id.
+     */
+    public long getRouted() {
+        return routed.sum();
+    }
+
+    /**
+     * Parts of cross-shard queries run on this shard.
+     */
+    public long getScatterLegs() {
+        return scatterLegs.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    /**
+     * Time of every operation on this shard, borrowing the connection included. For a merged stream, the time to
+     * open the cursor and fetch its first rows.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardStats[shard=%d, routed=%d, scatterLegs=%d, failures=%d, rowsWritten=%d, p50=%dus, p99=%dus, max=%dus]".formatted(
+                shard, getRouted(), getScatterLegs(), getFailures(), getRowsWritten(),
+                latency.getValueAtPercentile(50) / 1_000, latency.getValueAtPercentile(99) / 1_000, latency.getMaxNanos() / 1_000);
+    }
+}
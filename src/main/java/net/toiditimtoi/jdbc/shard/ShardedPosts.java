@@ -0,0 +1,516 @@
+package net.toiditimtoi.jdbc.shard;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.UncheckedSQLException;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import net.toiditimtoi.jdbc.update.OptimisticLockException;
+import net.toiditimtoi.jdbc.update.OptimisticPostUpdater;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Posts partitioned by id over several databases, each holding its own post table.
+ * <p>
+ * The shard of a post is a jump consistent hash of its id (Lamping and Veach): ids spread evenly whatever their
+ * sequence, and going from n to n + 1 shards only moves 1 / (n + 1) of the posts, all of them to the new shard.
+ * Since the shard depends on the id, the id is taken before the insert from an {@link IdGenerator}, which must hand
+ * out ids unique across the shards, like a {@link net.toiditimtoi.jdbc.id.SequenceIdAllocator} on one sequence.
+ * <p>
+ * Reads and writes of a single post go to the shard owning its id, and are as cheap as without sharding. Queries
+ * over all the posts are scattered to every shard at the same time on a pool of {@code 2 * shards} threads, and
+ * gathered:
+ * <ul>
+ *     <li>{@link #scatter(ShardCallback)} and {@link #queryAll(String, RowMapper, Object...)} wait for every shard,
+ *     for aggregates and small results</li>
+ *     <li>{@link #stream(String, RowMapper, Comparator, Object...)} merges results ordered the same way on every
+ *     shard. The cursors are opened in parallel, then the rows are read through them {@code fetchSize} at a time,
+ *     always taking the smallest head, so the stream holds at most a chunk per shard whatever the size of the result</li>
+ * </ul>
+ * A cross-shard query is not a snapshot: every shard runs it in its own transaction. When a shard fails the others
+ * still run to the end, their connections are given back and the first failure is thrown, the others suppressed.
+ * <p>
+ * Every operation is timed per shard, see {@link #getStats()} and {@link #report()}.
+ * <p>
+ * The writes bypass any {@link net.toiditimtoi.jdbc.cache.PostCache}: a cache loads its posts from a single data
+ * source and cannot front the shards. A cache kept over one shard has to be invalidated by the caller after
+ * {@link #update(Post)} and {@link #delete(long)}.
+ */
+public final class ShardedPosts implements AutoCloseable {
+    private static final String INSERT_SQL = "INSERT INTO post(id, title, version) VALUES (?, ?, ?)";
+    private static final String SELECT_BY_ID_SQL = "SELECT id, title, version FROM post WHERE id = ?";
+    private static final String DELETE_SQL = "DELETE FROM post WHERE id = ?";
+    private static final RowMapper<Post> POST_MAPPER = RowMappers.forRecord(Post.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    @FunctionalInterface
+    public interface IdGenerator {
+        long nextId() throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface ShardCallback<R> {
+        R doInShard(Connection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface Leg<R> {
+        R run(int shard) throws SQLException;
+    }
+
+    private final List<DataSource> shards;
+    private final List<ShardStats> stats = new ArrayList<>();
+    private final IdGenerator ids;
+    private final int fetchSize;
+    private final ExecutorService executor;
+
+    public ShardedPosts(List<? extends DataSource> shards, IdGenerator ids, int fetchSize) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1 but was " + fetchSize);
+        }
+        this.shards = List.copyOf(shards);
+        this.ids = ids;
+        this.fetchSize = fetchSize;
+        for (var shard = 0; shard < shards.size(); shard++) {
+            stats.add(new ShardStats(shard));
+        }
+        var poolNumber = POOL_NUMBER.incrementAndGet();
+        var threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(2 * shards.size(), runnable -> {
+            var thread = new Thread(runnable, "shard-query-%d-%d".formatted(poolNumber, threadNumber.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * The shard owning the post with the given id.
+     */
+    public int shardOf(long id) {
+        return shardOf(id, shards.size());
+    }
+
+    /**
+     * Jump consistent hash of the id, mixed first so that consecutive ids do not follow each other.
+     */
+    public static int shardOf(long id, int shardCount) {
+        var key = id;
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        long bucket = -1;
+        long next = 0;
+        while (next < shardCount) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    public List<ShardStats> getStats() {
+        return List.copyOf(stats);
+    }
+
+    public String report() {
+        var report = new StringBuilder();
+        for (var shard : stats) {
+            report.append(shard).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Runs the callback with a connection of the shard owning the id, in autocommit unless the callback changes it.
+     */
+    public <R> R inShard(long id, ShardCallback<R> callback) throws SQLException {
+        var shard = shardOf(id);
+        stats.get(shard).routed.increment();
+        return timed(shard, owner -> {
+            try (var connection = shards.get(owner).getConnection()) {
+                return callback.doInShard(connection);
+            }
+        });
+    }
+
+    /**
+     * Inserts a new post on its shard, with an id of the generator.
+     */
+    public Post persist(Post post) throws SQLException {
+        if (!post.isNew()) {
+            throw new IllegalArgumentException("Post %d is already persisted".formatted(post.id()));
+        }
+        var persisted = post.withId(ids.nextId());
+        inShard(persisted.id(), connection -> CachedStatements.executeUpdate(connection, INSERT_SQL,
+                persisted.id(), persisted.title(), persisted.version()));
+        stats.get(shardOf(persisted.id())).rowsWritten.increment();
+        return persisted;
+    }
+
+    /**
+     * Inserts new posts, batched per shard, every shard in parallel and in its own transaction.
+     */
+    public List<Post> persistAll(Collection<Post> posts) throws SQLException {
+        var persisted = new ArrayList<Post>(posts.size());
+        var byShard = new ArrayList<List<Post>>();
+        for (var shard = 0; shard < shards.size(); shard++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (var post : posts) {
+            if (!post.isNew()) {
+                throw new IllegalArgumentException("Post %d is already persisted".formatted(post.id()));
+            }
+            var withId = post.withId(ids.nextId());
+            persisted.add(withId);
+            byShard.get(shardOf(withId.id())).add(withId);
+        }
+        parallel(shard -> {
+            var shardPosts = byShard.get(shard);
+            if (shardPosts.isEmpty()) {
+                return null;
+            }
+            try (var connection = shards.get(shard).getConnection()) {
+                connection.setAutoCommit(false);
+                try (var writer = new BatchWriter<Post>(connection, INSERT_SQL, BatchConfig.of(500).rewritingInserts(),
+                        (statement, index, post) -> {
+                            statement.setLong(index, post.id());
+                            statement.setString(index + 1, post.title());
+                            statement.setInt(index + 2, post.version());
+                        })) {
+                    writer.addAll(shardPosts);
+                }
+                connection.commit();
+            }
+            stats.get(shard).rowsWritten.add(shardPosts.size());
+            return null;
+        });
+        return persisted;
+    }
+
+    public Optional<Post> find(long id) throws SQLException {
+        return inShard(id, connection -> CachedStatements.queryFirst(connection, SELECT_BY_ID_SQL, POST_MAPPER, id));
+    }
+
+    /**
+     * Writes the title of the post if its version is still the one it was read with.
+     *
+     * @return the post with its new version
+     * @throws OptimisticLockException when the post was changed or deleted since it was read
+     */
+    public Post update(Post post) throws SQLException {
+        var updated = inShard(post.id(), connection -> CachedStatements.executeUpdate(connection,
+                OptimisticPostUpdater.VERSIONED_UPDATE_SQL, post.title(), post.id(), post.version()));
+        if (updated == 0) {
+            throw new OptimisticLockException(post, 1);
+        }
+        stats.get(shardOf(post.id())).rowsWritten.increment();
+        return post.withVersion(post.version() + 1);
+    }
+
+    public boolean delete(long id) throws SQLException {
+        var deleted = inShard(id, connection -> CachedStatements.executeUpdate(connection, DELETE_SQL, id)) > 0;
+        if (deleted) {
+            stats.get(shardOf(id)).rowsWritten.increment();
+        }
+        return deleted;
+    }
+
+    /**
+     * Runs the callback on every shard at the same time.
+     *
+     * @return the result of every shard, in the order of the shards
+     */
+    public <R> List<R> scatter(ShardCallback<R> callback) throws SQLException {
+        return parallel(shard -> {
+            try (var connection = shards.get(shard).getConnection()) {
+                return callback.doInShard(connection);
+            }
+        });
+    }
+
+    /**
+     * The rows of the query on every shard, shard after shard, in no meaningful order.
+     */
+    public <T> List<T> queryAll(String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        var rows = new ArrayList<T>();
+        for (var shardRows : scatter(connection -> CachedStatements.query(connection, sql, mapper, parameters))) {
+            rows.addAll(shardRows);
+        }
+        return rows;
+    }
+
+    /**
+     * The rows of the query on every shard, merged in the order of the comparator. The query must return its rows in
+     * that same order, with an ORDER BY. A LIMIT n in the query gives the first n rows of all the posts once the
+     * stream is limited to n as well.
+     * <p>
+     * The stream borrows a connection per shard until it is exhausted or closed, and must be closed.
+     * SQL failures while reading surface as {@link UncheckedSQLException}.
+     */
+    public <T> Stream<T> stream(String sql, RowMapper<T> mapper, Comparator<? super T> order, Object... parameters) throws SQLException {
+        var cursors = new AtomicReferenceArray<Cursor<T>>(shards.size());
+        try {
+            parallel(shard -> {
+                var cursor = Cursor.open(shard, shards.get(shard), sql, mapper, fetchSize, parameters);
+                cursors.set(shard, cursor);
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            for (var shard = 0; shard < cursors.length(); shard++) {
+                var cursor = cursors.get(shard);
+                if (cursor != null) {
+                    cursor.closeQuietly(e);
+                }
+            }
+            throw e;
+        }
+        var merge = new MergeIterator<T>(order);
+        for (var shard = 0; shard < cursors.length(); shard++) {
+            merge.add(cursors.get(shard));
+        }
+        var spliterator = Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(merge::close);
+    }
+
+    private <R> R timed(int shard, Leg<R> operation) throws SQLException {
+        var shardStats = stats.get(shard);
+        var start = System.nanoTime();
+        try {
+            return operation.run(shard);
+        } catch (SQLException | RuntimeException e) {
+            shardStats.failures.increment();
+            throw e;
+        } finally {
+            shardStats.latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs the leg on every shard on the executor, and waits for all of them.
+     */
+    private <R> List<R> parallel(Leg<R> leg) throws SQLException {
+        var futures = new ArrayList<Future<R>>(shards.size());
+        for (var shard = 0; shard < shards.size(); shard++) {
+            var index = shard;
+            stats.get(shard).scatterLegs.increment();
+            futures.add(executor.submit(() -> timed(index, leg)));
+        }
+        var results = new ArrayList<R>(futures.size());
+        SQLException failure = null;
+        var interrupted = false;
+        for (var future : futures) {
+            try {
+                while (true) {
+                    try {
+                        results.add(future.get());
+                        break;
+                    } catch (InterruptedException e) {
+                        // the legs hold connections, they are not abandoned
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                var cause = e.getCause() instanceof SQLException sqlException
+                        ? new SQLException(sqlException.getMessage(), sqlException.getSQLState(), sqlException.getErrorCode(), sqlException)
+                        : new SQLException("A shard query failed", e.getCause());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+                results.add(null);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Stops the threads of the cross-shard queries. The DataSources of the shards are left open.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * A server-side cursor on one shard, and the row it is positioned on.
+     */
+    private static final class Cursor<T> {
+        final int shard;
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final RowMapper<T> mapper;
+        T head;
+
+        private Cursor(int shard, Connection connection, PreparedStatement statement, ResultSet resultSet, RowMapper<T> mapper) {
+            this.shard = shard;
+            this.connection = connection;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.mapper = mapper;
+        }
+
+        static <T> Cursor<T> open(int shard, DataSource dataSource, String sql, RowMapper<T> mapper, int fetchSize,
+                                  Object[] parameters) throws SQLException {
+            var connection = dataSource.getConnection();
+            try {
+                // the cursor lives in a transaction
+                connection.setAutoCommit(false);
+                var statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                for (var i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                var resultSet = statement.executeQuery();
+                var cursor = new Cursor<>(shard, connection, statement, resultSet, mapper.bind(resultSet));
+                // the first chunk is fetched here, in parallel with the other shards
+                cursor.advance();
+                return cursor;
+            } catch (SQLException | RuntimeException e) {
+                // the connection goes back to the pool, which rolls back and closes the statement
+                connection.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Moves to the next row, and ends the transaction after the last one.
+         *
+         * @return false when the cursor is exhausted
+         */
+        boolean advance() throws SQLException {
+            if (resultSet.next()) {
+                head = mapper.map(resultSet);
+                return true;
+            }
+            head = null;
+            try (connection; statement; resultSet) {
+                connection.commit();
+            }
+            return false;
+        }
+
+        void closeQuietly(Exception failure) {
+            try (connection; statement; resultSet) {
+                connection.rollback();
+            } catch (SQLException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * K-way merge of the cursors: the cursor with the smallest head is at the top of a heap, ties go to the lower
+     * shard so the order is deterministic.
+     */
+    private static final class MergeIterator<T> implements Iterator<T>, AutoCloseable {
+        private final PriorityQueue<Cursor<T>> heads;
+        private boolean closed;
+
+        MergeIterator(Comparator<? super T> order) {
+            Comparator<Cursor<T>> byHead = (left, right) -> order.compare(left.head, right.head);
+            this.heads = new PriorityQueue<>(byHead.thenComparingInt(cursor -> cursor.shard));
+        }
+
+        void add(Cursor<T> cursor) {
+            if (cursor.head != null) {
+                heads.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var cursor = heads.poll();
+            var row = cursor.head;
+            try {
+                if (cursor.advance()) {
+                    heads.add(cursor);
+                }
+            } catch (SQLException e) {
+                throw closeAfter(cursor, new UncheckedSQLException(e));
+            } catch (RuntimeException e) {
+                // thrown by the row mapper, the polled cursor is no longer in the heads closed by close()
+                throw closeAfter(cursor, e);
+            }
+            return row;
+        }
+
+        private RuntimeException closeAfter(Cursor<T> cursor, RuntimeException failure) {
+            cursor.closeQuietly(failure);
+            try {
+                close();
+            } catch (UncheckedSQLException e) {
+                failure.addSuppressed(e);
+            }
+            return failure;
+        }
+
+        /**
+         * Closes the cursors not read to the end. Safe to call more than once.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            var failure = new SQLException("Could not close the cursors of the merge");
+            for (var cursor : heads) {
+                cursor.closeQuietly(failure);
+            }
+            heads.clear();
+            if (failure.getSuppressed().length > 0) {
+                throw new UncheckedSQLException(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.toiditimtoi.jdbc.snapshot;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.SqlIdentifiers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The posts matching a condition, held in memory and brought up to date incrementally.
+ * <p>
+ * ResultSetTest keeps a scrollable ResultSet in sync by calling {@code refreshRow()} on every row, one query per row
+ * held whether it changed or not. Here a refresh is a single query: the ids and versions held are sent as two arrays,
+ * and the server joins them with the table and only returns the differences:
+ * <pre>{@code
+ * SELECT p.id, p.title, p.version, h.id
+ * FROM (SELECT id, title, version FROM post WHERE ...) p
+ * FULL JOIN unnest(?::bigint[], ?::int[]) AS h(id, version) ON p.id = h.id
+ * WHERE p.id IS NULL OR h.id IS NULL OR coalesce(p.version, 0) <> h.version
+ * }</pre>
+ * A row without {@code h.id} is a post to add, one without {@code p.id} a post to remove, and the others are posts
+ * held at another version. The changes are applied to the snapshot in place, so what comes back over the network and
+ * what is done with it scales with the number of changed posts. What does not is sending the arrays, 12 bytes per post
+ * held in the binary array encoding of pgjdbc, and the join on the server, which is cheap compared with a round trip
+ * per post. The first refresh, with nothing held yet, is the initial load.
+ * <p>
+ * This relies on every writer incrementing the version of the posts it changes, like
+ * {@link net.toiditimtoi.jdbc.update.OptimisticPostUpdater} does: a title changed without a new version goes unnoticed.
+ * <p>
+ * Refreshes are serialized. Readers never wait for them, they see the posts of a {@link ConcurrentHashMap}, so a
+ * reader running during a refresh may see some of its changes and not yet the others.
+ */
+public final class PostSnapshot {
+    private final DataSource dataSource;
+    private final String sql;
+    private final Object[] parameters;
+    private final ConcurrentHashMap<Long, Post> posts = new ConcurrentHashMap<>();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    /**
+     * A snapshot of the whole post table.
+     */
+    public PostSnapshot(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    /**
+     * @param condition  the WHERE condition of the posts held, like {@code title LIKE ?}, or null for all of them
+     * @param parameters the parameters of the condition
+     */
+    public PostSnapshot(DataSource dataSource, String condition, Object... parameters) {
+        this(dataSource, "post", condition, parameters);
+    }
+
+    private PostSnapshot(DataSource dataSource, String table, String condition, Object[] parameters) {
+        SqlIdentifiers.requireTableName(table);
+        this.dataSource = dataSource;
+        this.parameters = parameters.clone();
+        this.sql = "SELECT p.id, p.title, p.version, h.id FROM (SELECT id, title, version FROM " + table
+                + (condition == null ? "" : " WHERE " + condition) + ") p"
+                + " FULL JOIN unnest(?::bigint[], ?::int[]) AS h(id, version) ON p.id = h.id"
+                + " WHERE p.id IS NULL OR h.id IS NULL OR coalesce(p.version, 0) <> h.version";
+    }
+
+    /**
+     * A snapshot of a whole table with the columns of the post table, like a copy of it.
+     */
+    public static PostSnapshot ofTable(DataSource dataSource, String table) {
+        return new PostSnapshot(dataSource, table, null, new Object[0]);
+    }
+
+    public RefreshResult refresh() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            return refresh(connection);
+        }
+    }
+
+    public RefreshResult refresh(Connection connection) throws SQLException {
+        refreshLock.lock();
+        try {
+            var start = System.nanoTime();
+            var ids = new long[posts.size()];
+            var versions = new int[ids.length];
+            var held = 0;
+            // only the refresh changes the map, and it holds the lock
+            for (var post : posts.values()) {
+                ids[held] = post.id();
+                versions[held++] = post.version();
+            }
+            return CachedStatements.execute(connection, sql, statement -> {
+                var index = 1;
+                for (var parameter : parameters) {
+                    statement.setObject(index++, parameter);
+                }
+                // pgjdbc sends primitive arrays in binary
+                statement.setObject(index++, ids);
+                statement.setObject(index, versions);
+                var inserted = 0;
+                var updated = 0;
+                var deleted = 0;
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        var id = resultSet.getLong(1);
+                        if (resultSet.wasNull()) {
+                            posts.remove(resultSet.getLong(4));
+                            deleted++;
+                            continue;
+                        }
+                        if (resultSet.getObject(4) == null) {
+                            inserted++;
+                        } else {
+                            updated++;
+                        }
+                        posts.put(id, new Post(id, resultSet.getString(2), resultSet.getInt(3)));
+                    }
+                }
+                return new RefreshResult(inserted, updated, deleted, Duration.ofNanos(System.nanoTime() - start));
+            });
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    public Optional<Post> get(long id) {
+        return Optional.ofNullable(posts.get(id));
+    }
+
+    public int size() {
+        return posts.size();
+    }
+
+    /**
+     * The posts held, in no particular order. A live view: it follows the refreshes.
+     */
+    public Collection<Post> posts() {
+        return Collections.unmodifiableCollection(posts.values());
+    }
+}
@@ -0,0 +1,26 @@
+package net.toiditimtoi.jdbc.snapshot;
+
+import java.time.Duration;
+
+/**
+ * What a {@link PostSnapshot#refresh()} changed in the snapshot.
+ *
+ * @param inserted the posts which were not held yet, all of them on the first refresh
+ * @param updated  the posts held at another version
+ * @param deleted  the posts held which are gone, or no longer match the condition of the snapshot
+ * @param elapsed  the time the refresh took, applying the changes included
+ */
+public record RefreshResult(int inserted, int updated, int deleted, Duration elapsed) {
+
+    /**
+     * The rows the server sent back.
+     */
+    public int changes() {
+        return inserted + updated + deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "%d inserted, %d updated, %d deleted in %d ms".formatted(inserted, updated, deleted, elapsed.toMillis());
+    }
+}
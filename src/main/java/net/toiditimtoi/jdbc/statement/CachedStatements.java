@@ -0,0 +1,96 @@
+package net.toiditimtoi.jdbc.statement;
+
+import net.toiditimtoi.jdbc.query.RowMapper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Runs parameterized SQL through the {@link StatementCache} of the connection.
+ * <p>
+ * Building SQL with {@code String.formatted} gives the server a different statement for every value, so it parses
+ * and plans every time, and a title like {@code ' OR 1=1 --} ends up as SQL. Here the values are always bound as
+ * parameters and the statement is reused.
+ * <p>
+ * Connections of a {@link net.toiditimtoi.jdbc.pool.PooledDataSource} carry a cache. Any other connection works as
+ * well, the statement is then prepared and closed on every call.
+ */
+public final class CachedStatements {
+
+    @FunctionalInterface
+    public interface StatementCallback<R> {
+        R doInStatement(PreparedStatement statement) throws SQLException;
+    }
+
+    private CachedStatements() {
+    }
+
+    public static int executeUpdate(Connection connection, String sql, Object... parameters) throws SQLException {
+        return execute(connection, sql, statement -> {
+            bind(statement, parameters);
+            return statement.executeUpdate();
+        });
+    }
+
+    public static <T> List<T> query(Connection connection, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        return execute(connection, sql, statement -> {
+            bind(statement, parameters);
+            try (var resultSet = statement.executeQuery()) {
+                var rowMapper = mapper.bind(resultSet);
+                var rows = new ArrayList<T>();
+                while (resultSet.next()) {
+                    rows.add(rowMapper.map(resultSet));
+                }
+                return rows;
+            }
+        });
+    }
+
+    public static <T> Optional<T> queryFirst(Connection connection, String sql, RowMapper<T> mapper, Object... parameters) throws SQLException {
+        return execute(connection, sql, statement -> {
+            bind(statement, parameters);
+            statement.setMaxRows(1);
+            try (var resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.ofNullable(mapper.bind(resultSet).map(resultSet)) : Optional.empty();
+            } finally {
+                statement.setMaxRows(0);
+            }
+        });
+    }
+
+    /**
+     * Lends the cached statement for the given SQL to the callback, for anything the other methods do not cover.
+     * The statement must not be closed or kept after the callback returns.
+     */
+    public static <R> R execute(Connection connection, String sql, StatementCallback<R> callback) throws SQLException {
+        if (!connection.isWrapperFor(StatementCache.class)) {
+            try (var statement = connection.prepareStatement(sql)) {
+                return callback.doInStatement(statement);
+            }
+        }
+        var cache = connection.unwrap(StatementCache.class);
+        var statement = cache.borrow(sql);
+        try {
+            if (connection.isWrapperFor(StatementDecorator.class)) {
+                return callback.doInStatement(connection.unwrap(StatementDecorator.class).decorate(sql, statement));
+            }
+            return callback.doInStatement(statement);
+        } finally {
+            cache.release(sql, statement);
+        }
+    }
+
+    /**
+     * Binds the parameters in order with {@link PreparedStatement#setObject(int, Object)}, for the callbacks of
+     * {@link #execute(Connection, String, StatementCallback)}.
+     */
+    public static void bind(PreparedStatement statement, Object... parameters) throws SQLException {
+        for (var i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.toiditimtoi.jdbc.statement;
+
+import org.postgresql.PGStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used PreparedStatements of one physical connection, keyed by their SQL.
+ * <p>
+ * Preparing a statement again for every execution means the driver parses the SQL again, and the server never sees
+ * the same statement often enough to keep a named, already planned version of it. Kept here, the same statement object
+ * is executed over and over, reaches {@link StatementCacheConfig#prepareThreshold()} quickly and from then on the
+ * server only binds and executes it.
+ * <p>
+ * A statement is borrowed with {@link #borrow(String)} and must be given back with {@link #release(String, PreparedStatement)}.
+ * Evicted statements are closed, which also deallocates their server-side counterpart.
+ * <p>
+ * Like the connection it belongs to, a cache is used by one thread at a time. Use it through {@link CachedStatements}.
+ */
+public final class StatementCache implements AutoCloseable {
+    // what a statement costs in the driver beyond its SQL text, a rough guess which is good enough to bound the cache
+    private static final int STATEMENT_OVERHEAD_BYTES = 512;
+
+    private final Connection connection;
+    private final StatementCacheConfig config;
+    private final StatementCacheStats stats;
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    public StatementCache(Connection connection, StatementCacheConfig config, StatementCacheStats stats) {
+        this.connection = connection;
+        this.config = config;
+        this.stats = stats;
+    }
+
+    public PreparedStatement borrow(String sql) throws SQLException {
+        var cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            stats.hits.increment();
+            cached.inUse = true;
+            return cached.statement;
+        }
+        stats.misses.increment();
+        var statement = connection.prepareStatement(sql);
+        if (statement.isWrapperFor(PGStatement.class)) {
+            statement.unwrap(PGStatement.class).setPrepareThreshold(config.prepareThreshold());
+        }
+        if (cached != null) {
+            // the same SQL is already running on this connection (a nested call), this one is not kept
+            return statement;
+        }
+        cached = new CachedStatement(sql, statement);
+        cached.inUse = true;
+        statements.put(sql, cached);
+        bytes += cached.estimatedBytes;
+        evictIfNeeded();
+        return statement;
+    }
+
+    public void release(String sql, PreparedStatement statement) throws SQLException {
+        var cached = statements.get(sql);
+        if (cached == null || cached.statement != statement) {
+            statement.close();
+            return;
+        }
+        if (statement.isClosed()) {
+            // closed by the caller despite being cached, forget it
+            statements.remove(sql);
+            bytes -= cached.estimatedBytes;
+            return;
+        }
+        cached.inUse = false;
+        if (++cached.executions == config.prepareThreshold()) {
+            stats.serverPrepared.increment();
+        }
+        statement.clearParameters();
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        var iterator = statements.values().iterator();
+        // iteration goes from the least to the most recently used, statements being used are skipped
+        while ((statements.size() > config.maxStatements() || bytes > config.maxBytes()) && iterator.hasNext()) {
+            var eldest = iterator.next();
+            if (eldest.inUse) {
+                continue;
+            }
+            iterator.remove();
+            bytes -= eldest.estimatedBytes;
+            stats.evictions.increment();
+            closeQuietly(eldest.statement);
+        }
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public long estimatedBytes() {
+        return bytes;
+    }
+
+    public StatementCacheStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        for (var cached : statements.values()) {
+            closeQuietly(cached.statement);
+        }
+        statements.clear();
+        bytes = 0;
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // nothing more we can do for a statement we are discarding anyway
+        }
+    }
+
+    private static final class CachedStatement {
+        final PreparedStatement statement;
+        final long estimatedBytes;
+        boolean inUse;
+        long executions;
+
+        CachedStatement(String sql, PreparedStatement statement) {
+            this.statement = statement;
+            this.estimatedBytes = sql.length() * 2L + STATEMENT_OVERHEAD_BYTES;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package net.toiditimtoi.jdbc.statement;
+
+/**
+ * Limits of the PreparedStatement cache kept for every pooled connection.
+ *
+ * @param maxStatements    statements kept per connection, 0 disables the cache
+ * @param maxBytes         rough upper bound of the memory the cached statements of one connection may take
+ * @param prepareThreshold executions after which pgjdbc switches a statement to a named server-prepared statement,
+ *                         so the server parses and plans it once instead of on every execution (pgjdbc defaults to 5)
+ */
+public record StatementCacheConfig(int maxStatements, long maxBytes, int prepareThreshold) {
+
+    public StatementCacheConfig {
+        if (maxStatements < 0) {
+            throw new IllegalArgumentException("maxStatements must not be negative but was " + maxStatements);
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative but was " + maxBytes);
+        }
+    }
+
+    public static StatementCacheConfig defaults() {
+        return new StatementCacheConfig(128, 1024 * 1024, 2);
+    }
+
+    public static StatementCacheConfig disabled() {
+        return new StatementCacheConfig(0, 0, 5);
+    }
+
+    public boolean isEnabled() {
+        return maxStatements > 0;
+    }
+}
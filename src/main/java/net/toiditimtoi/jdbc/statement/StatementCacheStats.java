@@ -0,0 +1,45 @@
+package net.toiditimtoi.jdbc.statement;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by the statement caches of all the connections of a pool, to size the cache in production.
+ * A high miss rate with many evictions means the cache is too small for the number of distinct statements.
+ */
+public final class StatementCacheStats {
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder serverPrepared = new LongAdder();
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * How many cached statements reached the prepare threshold, which is how many named statements were created on the server.
+     */
+    public long getServerPrepared() {
+        return serverPrepared.sum();
+    }
+
+    public double getHitRatio() {
+        var hits = getHits();
+        var total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCacheStats[hits=%d, misses=%d, evictions=%d, serverPrepared=%d]"
+                .formatted(getHits(), getMisses(), getEvictions(), getServerPrepared());
+    }
+}
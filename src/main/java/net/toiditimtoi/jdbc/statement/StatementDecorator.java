@@ -0,0 +1,16 @@
+package net.toiditimtoi.jdbc.statement;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Implemented by connection wrappers which must see every statement executed through them, like
+ * {@link net.toiditimtoi.jdbc.metrics.InstrumentedDataSource} measuring them.
+ * <p>
+ * A {@link StatementCache} prepares its statements on the physical connection, below any wrapper, so the statements
+ * {@link CachedStatements} borrows from it are handed to the wrapper first. The wrapper returned is only used for the
+ * duration of the callback, the statement given back to the cache is still the cached one.
+ */
+public interface StatementDecorator {
+    PreparedStatement decorate(String sql, PreparedStatement statement) throws SQLException;
+}
@@ -0,0 +1,23 @@
+package net.toiditimtoi.jdbc.update;
+
+import net.toiditimtoi.jdbc.Post;
+
+import java.sql.SQLException;
+
+/**
+ * The post changed (or disappeared) since it was read, so the versioned UPDATE matched no row.
+ * Its SQLState is the one of a serialization failure, the usual signal that retrying the whole unit of work may succeed.
+ */
+public class OptimisticLockException extends SQLException {
+    private final transient Post stalePost;
+
+    public OptimisticLockException(Post stalePost, int attempts) {
+        super("Post %d was modified concurrently, version %d is stale after %d attempt(s)"
+                .formatted(stalePost.id(), stalePost.version(), attempts), "40001");
+        this.stalePost = stalePost;
+    }
+
+    public Post getStalePost() {
+        return stalePost;
+    }
+}
@@ -0,0 +1,171 @@
+package net.toiditimtoi.jdbc.update;
+
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import net.toiditimtoi.jdbc.cache.PostCache;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Updates posts with optimistic locking on the version column instead of locking them with SELECT ... FOR UPDATE.
+ * <p>
+ * Every update is {@code UPDATE post SET title = ?, version = version + 1 WHERE id = ? AND version = ?} with the
+ * version that was read. If somebody else updated the row in the meantime, the version no longer matches and the
+ * update count is 0. Nobody waits on a row lock held across the read and the write, a conflict costs a retry instead.
+ * <p>
+ * The updates go out as JDBC batches, the update count of each row tells which ones conflicted.
+ * Rows are loaded and updated in id order, so that two batches waiting on each other's row locks cannot deadlock.
+ */
+public final class OptimisticPostUpdater {
+    public static final String VERSIONED_UPDATE_SQL = "UPDATE post SET title = ?, version = version + 1 WHERE id = ? AND version = ?";
+    private static final String SELECT_BY_IDS_SQL = "SELECT id, title, version FROM post WHERE id = ANY(?) ORDER BY id";
+
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final RetryPolicy retryPolicy;
+    private final PostCache cache;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    public OptimisticPostUpdater(DataSource dataSource, int batchSize, RetryPolicy retryPolicy) {
+        this(dataSource, batchSize, retryPolicy, null);
+    }
+
+    /**
+     * @param cache refreshed with the posts updated by {@link #update(Collection, UnaryOperator)} once they are committed
+     */
+    public OptimisticPostUpdater(DataSource dataSource, int batchSize, RetryPolicy retryPolicy, PostCache cache) {
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.retryPolicy = retryPolicy;
+        this.cache = cache;
+    }
+
+    /**
+     * @param updated   the posts written, with their new version
+     * @param conflicts the posts whose version was stale, as they were given
+     */
+    public record BatchOutcome(List<Post> updated, List<Post> conflicts) {
+        public boolean hasConflicts() {
+            return !conflicts.isEmpty();
+        }
+    }
+
+    /**
+     * Writes the given posts, each one expected to still be at the version it carries. No retry happens here,
+     * the caller decides what to do with the conflicts.
+     * The transaction belongs to the caller, who has to refresh any {@link PostCache} with the updated posts after
+     * committing it.
+     */
+    public BatchOutcome update(Connection connection, Collection<Post> posts) throws SQLException {
+        var updated = new ArrayList<Post>(posts.size());
+        var stale = new ArrayList<Post>();
+        var config = BatchConfig.of(batchSize);
+        try (var writer = new BatchWriter<Post>(connection, VERSIONED_UPDATE_SQL, config, (statement, index, post) -> {
+            statement.setString(index, post.title());
+            statement.setLong(index + 1, post.id());
+            statement.setInt(index + 2, post.version());
+        })) {
+            writer.onRowCount((post, count) -> {
+                if (count == 0) {
+                    stale.add(post);
+                } else if (count == 1 || count == Statement.SUCCESS_NO_INFO) {
+                    updated.add(post.withVersion(post.version() + 1));
+                } else {
+                    throw new IllegalStateException("Versioned update of post %d matched %d rows".formatted(post.id(), count));
+                }
+            });
+            writer.addAll(posts);
+        }
+        updates.add(updated.size());
+        conflicts.add(stale.size());
+        return new BatchOutcome(updated, stale);
+    }
+
+    /**
+     * Reads the given posts, applies the change and writes them back in batches. Posts that conflicted are read again
+     * and the change is applied to their fresh state, up to {@link RetryPolicy#maxAttempts()} times.
+     * Each attempt runs in its own transaction.
+     *
+     * @return the updated posts, with their new version
+     * @throws OptimisticLockException if some posts still conflict after the last attempt
+     */
+    public List<Post> update(Collection<Long> ids, UnaryOperator<Post> change) throws SQLException {
+        var result = new ArrayList<Post>(ids.size());
+        var remaining = List.copyOf(ids);
+        for (var attempt = 1; ; attempt++) {
+            BatchOutcome outcome;
+            try (var connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                var changed = load(connection, remaining).stream()
+                        .map(post -> change.apply(post).withId(post.id()).withVersion(post.version()))
+                        .toList();
+                outcome = update(connection, changed);
+                connection.commit();
+            }
+            if (cache != null) {
+                cache.refresh(outcome.updated());
+            }
+            result.addAll(outcome.updated());
+            if (!outcome.hasConflicts()) {
+                return result;
+            }
+            if (attempt == retryPolicy.maxAttempts()) {
+                throw new OptimisticLockException(outcome.conflicts().get(0), attempt);
+            }
+            remaining = outcome.conflicts().stream().map(Post::id).toList();
+            try {
+                retryPolicy.backoffBefore(attempt + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while backing off before retrying", e);
+            }
+        }
+    }
+
+    public Post update(long id, UnaryOperator<Post> change) throws SQLException {
+        var updated = update(List.of(id), change);
+        if (updated.isEmpty()) {
+            throw new SQLException("Post %d does not exist".formatted(id), "02000");
+        }
+        return updated.get(0);
+    }
+
+    private static List<Post> load(Connection connection, List<Long> ids) throws SQLException {
+        var idArray = connection.createArrayOf("bigint", ids.toArray());
+        try {
+            return CachedStatements.query(connection, SELECT_BY_IDS_SQL, RowMappers.forRecord(Post.class), idArray);
+        } finally {
+            idArray.free();
+        }
+    }
+
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * Conflicts per attempted row update.
+     */
+    public double getConflictRate() {
+        var conflicts = getConflicts();
+        var total = conflicts + getUpdates();
+        return total == 0 ? 0 : (double) conflicts / total;
+    }
+}
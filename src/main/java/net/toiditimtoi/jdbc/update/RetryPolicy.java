@@ -0,0 +1,41 @@
+package net.toiditimtoi.jdbc.update;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often a conflicting versioned update is retried after reloading the row.
+ * The pause between attempts grows exponentially and is randomized, so that writers colliding on the same row do not
+ * collide again on the next attempt.
+ *
+ * @param maxAttempts total attempts, the first one included
+ * @param baseBackoff pause before the second attempt
+ * @param maxBackoff  upper bound of the pause
+ */
+public record RetryPolicy(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+
+    public RetryPolicy {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1 but was " + maxAttempts);
+        }
+    }
+
+    public static RetryPolicy noRetry() {
+        return new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+    }
+
+    public static RetryPolicy of(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, Duration.ofMillis(1), Duration.ofMillis(50));
+    }
+
+    /**
+     * Sleeps before the given attempt (2 for the first retry), a random time up to the exponential bound.
+     */
+    void backoffBefore(int attempt) throws InterruptedException {
+        var bound = Math.min(maxBackoff.toNanos(), baseBackoff.toNanos() << Math.min(attempt - 2, 20));
+        if (bound > 0) {
+            var nanos = ThreadLocalRandom.current().nextLong(bound);
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+    }
+}
@@ -1,49 +1,145 @@
 package net.toiditimtoi.jdbc;
 
+import net.toiditimtoi.jdbc.batch.ParameterBinder;
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.TestInfo;
 
-import java.sql.DriverManager;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Every test class runs against its own database, copied from a template holding the post table and the seed posts,
+ * so test classes run in parallel without seeing each other's rows (see junit-platform.properties).
+ * <p>
+ * Each test runs in a transaction rolled back at the end, instead of truncating and seeding the table again before it.
+ * Classes annotated with {@link CommitsTransactions} opt out of that.
+ */
 public abstract class BasePostgresSqlTest {
-    protected static final String USER = "postgres";
-    protected static final String PASSWORD = "mysecretpassword";
-    protected static final String URL = "jdbc:postgresql://localhost:5433/dummy";
-
     protected static final String POST_TABLE_NAME = "post";
 
+    // connections to the database of the running test, borrowed from the pool of that database
+    protected static final TestDataSource DATA_SOURCE = new TestDataSource();
+
+    protected static final String INSERT_POST_SQL = "INSERT INTO post(title, version) VALUES (?, ?)";
+    protected static final ParameterBinder<Post> POST_BINDER = (statement, index, post) -> {
+        statement.setString(index, post.title());
+        statement.setInt(index + 1, post.version());
+    };
+
+    protected static final List<Post> SEED_POSTS = List.of(
+            Post.newPost("Hypersistence"),
+            Post.newPost("Advanced Java Performance"),
+            Post.newPost("Getting Oracle Certified Programmer"));
+
+    private static final Map<Class<?>, TestDatabase> DATABASES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<TestDatabase>> EXTRA_DATABASES = new ConcurrentHashMap<>();
+
+    private Connection rollbackConnection;
+
+    /**
+     * The URL of the database of the running test, for the tests opening their own connections.
+     */
+    protected static String url() {
+        return DATA_SOURCE.url();
+    }
+
+    protected static String user() {
+        return DATA_SOURCE.user();
+    }
+
+    protected static String password() {
+        return DATA_SOURCE.password();
+    }
+
+    /**
+     * A pool of its own on the database of the running test, for the tests needing real concurrent connections.
+     * The test closes it.
+     */
+    protected static PooledDataSource pool(int maxPoolSize) {
+        return new PooledDataSource(PoolConfig.of(url(), user(), password()).withMaxPoolSize(maxPoolSize));
+    }
+
+    private static boolean commitsTransactions(Class<?> testClass) {
+        return testClass.isAnnotationPresent(CommitsTransactions.class);
+    }
+
     @BeforeAll
-    public static void createTableIfNotExists() throws SQLException {
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
-            var createTableSqlString = "CREATE TABLE IF NOT EXISTS %s(id serial PRIMARY KEY, title varchar(255), version int)".formatted(POST_TABLE_NAME);
-            try (var stm = connection.createStatement()) {
-                // create the table if not exists
-                stm.executeUpdate(createTableSqlString);
-            }
+    public static void leaseDatabase(TestInfo testInfo) {
+        var testClass = testInfo.getTestClass().orElseThrow();
+        DATABASES.put(testClass, PostgresServer.instance().lease());
+    }
+
+    @AfterAll
+    public static void releaseDatabase(TestInfo testInfo) {
+        var testClass = testInfo.getTestClass().orElseThrow();
+        var database = DATABASES.remove(testClass);
+        if (database != null) {
+            PostgresServer.instance().release(database, !commitsTransactions(testClass));
         }
+        var extraDatabases = EXTRA_DATABASES.remove(testClass);
+        if (extraDatabases != null) {
+            extraDatabases.forEach(extraDatabase -> PostgresServer.instance().release(extraDatabase, false));
+        }
+    }
+
+    /**
+     * The URL of another database with the schema and the seed posts, standing for another server in the tests of
+     * several nodes, like a primary and its replicas. It is dropped once the test class is done.
+     */
+    protected String leaseExtraDatabase() {
+        var database = PostgresServer.instance().lease();
+        EXTRA_DATABASES.computeIfAbsent(getClass(), testClass -> new CopyOnWriteArrayList<>()).add(database);
+        return database.url();
     }
 
     @BeforeEach
     public void restoreSnapshot() throws SQLException {
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
-            var truncateSql = "TRUNCATE %s RESTART IDENTITY".formatted(POST_TABLE_NAME);
-            var createTableSqlString = "CREATE TABLE IF NOT EXISTS %s(id serial not null , title varchar(255), version int)".formatted(POST_TABLE_NAME);
-            try (var stm = connection.createStatement()) {
-                // create the table if not exists
-                stm.executeUpdate(createTableSqlString);
+        var database = DATABASES.get(getClass());
+        if (commitsTransactions(getClass())) {
+            TestDataSource.bind(new TestDataSource.TestScope(database, null));
+            truncateAndSeed(database);
+            return;
+        }
+        rollbackConnection = database.pool().getConnection();
+        rollbackConnection.setAutoCommit(false);
+        try (var statement = rollbackConnection.createStatement()) {
+            // sequences are not transactional, the ids taken by the previous test are not given back by its rollback
+            statement.execute("SELECT setval('post_id_seq', %d)".formatted(SEED_POSTS.size()));
+        }
+        TestDataSource.bind(new TestDataSource.TestScope(database, rollbackConnection));
+    }
+
+    private static void truncateAndSeed(TestDatabase database) throws SQLException {
+        try (var connection = database.pool().getConnection()) {
+            try (var statement = connection.createStatement()) {
+                // a test may have changed how the sequence increments (pooled id allocation), put it back
+                statement.executeUpdate("ALTER SEQUENCE post_id_seq INCREMENT BY 1");
 
                 // truncate the table, reset the sequence
-                stm.executeUpdate(truncateSql);
-
-                // insert some records into the DB
-                var insertQuery = """
-                        INSERT INTO post(title, version) values
-                        ('Hypersistence', 0),
-                        ('Advanced Java Performance', 0),
-                        ('Getting Oracle Certified Programmer', 0);
-                        """;
-                stm.executeUpdate(insertQuery);
+                statement.executeUpdate("TRUNCATE %s RESTART IDENTITY".formatted(POST_TABLE_NAME));
+            }
+            PostgresServer.seed(connection);
+        }
+    }
+
+    @AfterEach
+    public void rollback() throws SQLException {
+        TestDataSource.unbind();
+        if (rollbackConnection != null) {
+            try {
+                rollbackConnection.rollback();
+            } finally {
+                rollbackConnection.close();
+                rollbackConnection = null;
             }
         }
     }
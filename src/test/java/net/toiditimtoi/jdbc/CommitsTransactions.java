@@ -0,0 +1,16 @@
+package net.toiditimtoi.jdbc;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The tests of this class are not wrapped in a transaction rolled back at the end: they use several connections at
+ * once, from several threads, or open their own. They commit for real, so the table is truncated and seeded again
+ * before each test, and the database of the class is dropped afterwards.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CommitsTransactions {
+}
@@ -1,5 +1,6 @@
 package net.toiditimtoi.jdbc;
 
+import net.toiditimtoi.jdbc.mapping.RowMappers;
 import org.junit.jupiter.api.Test;
 
 import java.sql.*;
@@ -9,7 +10,7 @@ public class GeneralTest extends BasePostgresSqlTest {
     @Test
     public void summaryExample() throws SQLException {
         // before doing any interaction with the database, we need to establish a connection to the database
-        try(Connection connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try(Connection connection = DATA_SOURCE.getConnection()) {
             try(Statement statement = connection.createStatement()) {
                 String insertStm = """
                         insert into post(title, version) values
@@ -20,11 +21,9 @@ public class GeneralTest extends BasePostgresSqlTest {
                 System.out.println(rowAffected);
                 String sql = "select * from post";
                 try(ResultSet result = statement.executeQuery(sql)) {
-                    while(result.next()) {
-                        int id = result.getInt("id");
-                        String title = result.getString("title");
-                        int version = result.getInt("version");
-                        String output = String.format("Id = %d, title = %s, version = %d", id, title, version);
+                    // the column labels are resolved once for the whole result, not once per row
+                    for (Post post : RowMappers.forRecord(Post.class).mapAll(result)) {
+                        String output = String.format("Id = %d, title = %s, version = %d", post.id(), post.title(), post.version());
                         System.out.println(output);
                     }
                 }
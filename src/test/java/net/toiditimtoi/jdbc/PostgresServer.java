@@ -0,0 +1,193 @@
+package net.toiditimtoi.jdbc;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Postgres server of the test JVM, and the databases the test classes run against.
+ * <p>
+ * By default a Postgres process is started from the embedded binaries, tuned for tests (no fsync), and stopped when the
+ * JVM exits. With {@code -Dtest.jdbc.url=jdbc:postgresql://localhost:5433/postgres} (plus {@code test.jdbc.user} and
+ * {@code test.jdbc.password}) an existing server is used instead.
+ * <p>
+ * The schema and the seed posts are created once, in a template database. Every test class then gets its own copy
+ * of it: {@code CREATE DATABASE ... TEMPLATE} copies the files of the template, which is much faster than creating and
+ * seeding the tables again. Databases left clean by their class are handed to the next class instead of being dropped.
+ */
+final class PostgresServer {
+    private static PostgresServer instance;
+
+    private final String adminUrl;
+    private final String user;
+    private final String password;
+    // unique per JVM, so that several test JVMs can share an external server
+    private final String prefix = "post_test_" + ProcessHandle.current().pid();
+    private final String templateName = prefix + "_template";
+    private final AtomicInteger databaseCount = new AtomicInteger();
+    private final ConcurrentLinkedQueue<TestDatabase> cleanDatabases = new ConcurrentLinkedQueue<>();
+    private final List<TestDatabase> allDatabases = new ArrayList<>();
+
+    private PostgresServer(String adminUrl, String user, String password) {
+        this.adminUrl = adminUrl;
+        this.user = user;
+        this.password = password;
+    }
+
+    static synchronized PostgresServer instance() {
+        if (instance == null) {
+            instance = start();
+            instance.createTemplate();
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::dropDatabases));
+        }
+        return instance;
+    }
+
+    private static PostgresServer start() {
+        var url = System.getProperty("test.jdbc.url");
+        if (url != null) {
+            return new PostgresServer(url, System.getProperty("test.jdbc.user", "postgres"), System.getProperty("test.jdbc.password", ""));
+        }
+        try {
+            var embedded = EmbeddedPostgres.builder()
+                    // the data is thrown away anyway, do not pay for durability
+                    .setServerConfig("fsync", "off")
+                    .setServerConfig("synchronous_commit", "off")
+                    .setServerConfig("full_page_writes", "off")
+                    .setServerConfig("max_connections", "300")
+                    .start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    embedded.close();
+                } catch (IOException ignored) {
+                    // the JVM is exiting
+                }
+            }));
+            return new PostgresServer(embedded.getJdbcUrl("postgres", "postgres"), "postgres", "");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start the embedded Postgres", e);
+        }
+    }
+
+    String user() {
+        return user;
+    }
+
+    String password() {
+        return password;
+    }
+
+    /**
+     * The admin URL with its database replaced.
+     */
+    String urlOf(String database) {
+        var hostStart = adminUrl.indexOf("//") + 2;
+        var pathStart = adminUrl.indexOf('/', hostStart);
+        var queryStart = adminUrl.indexOf('?', pathStart);
+        return adminUrl.substring(0, pathStart + 1) + database + (queryStart < 0 ? "" : adminUrl.substring(queryStart));
+    }
+
+    private Connection connect(String url) throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    private void executeAsAdmin(String sql) throws SQLException {
+        try (var connection = connect(adminUrl); var statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private void createTemplate() {
+        try {
+            executeAsAdmin("DROP DATABASE IF EXISTS " + templateName);
+            executeAsAdmin("CREATE DATABASE " + templateName);
+            // the template must not have any open connection while it is copied, this one is closed right away
+            try (var connection = connect(urlOf(templateName))) {
+                try (var statement = connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE %s(id serial PRIMARY KEY, title varchar(255), version int)"
+                            .formatted(BasePostgresSqlTest.POST_TABLE_NAME));
+                    // the index PostPager seeks in for the title order
+                    statement.executeUpdate("CREATE INDEX post_title_id_idx ON %s(title, id)"
+                            .formatted(BasePostgresSqlTest.POST_TABLE_NAME));
+                }
+                seed(connection);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot create the template database", e);
+        }
+    }
+
+    /**
+     * Inserts the seed posts, all of them in a single multi-row INSERT.
+     */
+    static void seed(Connection connection) throws SQLException {
+        var seedPosts = BasePostgresSqlTest.SEED_POSTS;
+        try (var writer = new BatchWriter<>(connection, BasePostgresSqlTest.INSERT_POST_SQL,
+                BatchConfig.of(seedPosts.size()).rewritingInserts(), BasePostgresSqlTest.POST_BINDER)) {
+            writer.addAll(seedPosts);
+        }
+    }
+
+    /**
+     * A database with the schema and the seed posts, either left clean by a previous test class or copied from the template.
+     */
+    TestDatabase lease() {
+        var database = cleanDatabases.poll();
+        return database != null ? database : cloneTemplate();
+    }
+
+    private synchronized TestDatabase cloneTemplate() {
+        // synchronized: Postgres refuses to copy a template which is being copied by another CREATE DATABASE
+        var name = prefix + "_" + databaseCount.incrementAndGet();
+        try {
+            executeAsAdmin("DROP DATABASE IF EXISTS " + name);
+            executeAsAdmin("CREATE DATABASE %s TEMPLATE %s".formatted(name, templateName));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot copy the template database", e);
+        }
+        var database = new TestDatabase(name, urlOf(name), user, password);
+        allDatabases.add(database);
+        return database;
+    }
+
+    /**
+     * Takes the database back. A database in which transactions were committed is dropped, the next class gets a fresh copy.
+     */
+    void release(TestDatabase database, boolean clean) {
+        if (clean) {
+            cleanDatabases.add(database);
+            return;
+        }
+        database.close();
+        try {
+            executeAsAdmin("DROP DATABASE IF EXISTS %s WITH (FORCE)".formatted(database.name()));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot drop " + database.name(), e);
+        }
+        synchronized (this) {
+            allDatabases.remove(database);
+        }
+    }
+
+    private synchronized void dropDatabases() {
+        try {
+            for (var database : allDatabases) {
+                database.close();
+                executeAsAdmin("DROP DATABASE IF EXISTS %s WITH (FORCE)".formatted(database.name()));
+            }
+            executeAsAdmin("DROP DATABASE IF EXISTS " + templateName);
+        } catch (SQLException ignored) {
+            // the embedded server may already be gone, it takes its databases with it
+        }
+    }
+}
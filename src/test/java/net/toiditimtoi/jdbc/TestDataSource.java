@@ -0,0 +1,233 @@
+package net.toiditimtoi.jdbc;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.logging.Logger;
+
+/**
+ * The {@code DATA_SOURCE} of the tests: it hands out connections to the database of the test running on the current
+ * thread, or of the test which started the current thread.
+ * <p>
+ * In a test rolled back at the end (the default), every connection handed out is a view of one physical connection
+ * whose transaction spans the whole test. What the test commits is only committed up to that transaction, so nothing
+ * has to be cleaned up after the test and the next test starts from the template data again:
+ * <ul>
+ *     <li>switching auto-commit off starts a savepoint, which commit releases and rollback rolls back to</li>
+ *     <li>closing a connection still in a transaction rolls back to its savepoint, like closing a physical connection does</li>
+ *     <li>statements in auto-commit mode run directly in the transaction of the test</li>
+ * </ul>
+ * Since all of them share the one physical connection, such a test must not use connections from several threads.
+ */
+public final class TestDataSource implements DataSource {
+    private static final InheritableThreadLocal<TestScope> CURRENT = new InheritableThreadLocal<>();
+
+    /**
+     * What the test running on a thread works with.
+     *
+     * @param database           the database of its class
+     * @param rollbackConnection the physical connection whose transaction wraps the test, null if the test commits for real
+     */
+    record TestScope(TestDatabase database, Connection rollbackConnection) {
+    }
+
+    static void bind(TestScope scope) {
+        CURRENT.set(scope);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    private static TestScope scope() {
+        var scope = CURRENT.get();
+        if (scope == null) {
+            throw new IllegalStateException("No test database for thread " + Thread.currentThread().getName()
+                    + ", only threads started by a running test can use DATA_SOURCE");
+        }
+        return scope;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        var scope = scope();
+        if (scope.rollbackConnection() == null) {
+            return scope.database().pool().getConnection();
+        }
+        return (Connection) Proxy.newProxyInstance(TestDataSource.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new SavepointConnection(scope.rollbackConnection()));
+    }
+
+    /**
+     * The connections of the pool of the current test database which are borrowed, always 0 in a rolled back test.
+     */
+    public int getActiveConnections() {
+        return scope().database().pool().getActiveConnections();
+    }
+
+    String url() {
+        return scope().database().url();
+    }
+
+    String user() {
+        return scope().database().user();
+    }
+
+    String password() {
+        return scope().database().password();
+    }
+
+    /**
+     * Turns the transaction demarcation of a logical connection into savepoints of the physical one.
+     */
+    private static final class SavepointConnection implements InvocationHandler {
+        private final Connection physical;
+        private boolean autoCommit = true;
+        private boolean closed;
+        private Savepoint savepoint;
+
+        SavepointConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        rollbackToSavepoint();
+                        closed = true;
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return closed;
+                }
+                case "isValid" -> {
+                    return !closed && physical.isValid((Integer) args[0]);
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "TestConnection[" + physical + "]";
+                }
+                default -> {
+                    // everything else goes to the physical connection
+                }
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed", "08003");
+            }
+            switch (method.getName()) {
+                case "getAutoCommit" -> {
+                    return autoCommit;
+                }
+                case "setAutoCommit" -> {
+                    var enabled = (Boolean) args[0];
+                    if (enabled && !autoCommit) {
+                        // like JDBC, switching auto-commit back on commits
+                        releaseSavepoint();
+                    } else if (!enabled && autoCommit) {
+                        savepoint = physical.setSavepoint();
+                    }
+                    autoCommit = enabled;
+                    return null;
+                }
+                case "commit" -> {
+                    if (!autoCommit) {
+                        releaseSavepoint();
+                        savepoint = physical.setSavepoint();
+                    }
+                    return null;
+                }
+                case "rollback" -> {
+                    if (args == null) {
+                        if (autoCommit) {
+                            // rolling back the physical connection would end the transaction of the test
+                            throw new SQLException("Cannot rollback when autoCommit is enabled", "25P01");
+                        }
+                        rollbackToSavepoint();
+                        savepoint = physical.setSavepoint();
+                        return null;
+                    }
+                }
+                default -> {
+                    // delegated below
+                }
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void releaseSavepoint() throws SQLException {
+            if (savepoint != null) {
+                physical.releaseSavepoint(savepoint);
+                savepoint = null;
+            }
+        }
+
+        private void rollbackToSavepoint() throws SQLException {
+            if (savepoint != null) {
+                physical.rollback(savepoint);
+                physical.releaseSavepoint(savepoint);
+                savepoint = null;
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The test databases are always accessed with the same user");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
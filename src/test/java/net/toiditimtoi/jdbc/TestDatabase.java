@@ -0,0 +1,47 @@
+package net.toiditimtoi.jdbc;
+
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+
+/**
+ * A database copied from the template by {@link PostgresServer}, used by one test class at a time, with its own pool.
+ */
+final class TestDatabase {
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final PooledDataSource pool;
+
+    TestDatabase(String name, String url, String user, String password) {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.pool = new PooledDataSource(PoolConfig.of(url, user, password));
+    }
+
+    String name() {
+        return name;
+    }
+
+    String url() {
+        return url;
+    }
+
+    String user() {
+        return user;
+    }
+
+    String password() {
+        return password;
+    }
+
+    PooledDataSource pool() {
+        return pool;
+    }
+
+    void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,106 @@
+package net.toiditimtoi.jdbc.async;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Requests wait for a permit in a queue, not for a connection inside the pool, and never more of them run than the
+ * pool has connections.
+ */
+@CommitsTransactions
+public class AsyncPersistenceExecutorTest extends BasePostgresSqlTest {
+    private static final String SELECT_TITLE_BY_ID_SQL = "SELECT title FROM post WHERE id = ?";
+
+    @Test
+    public void tens_of_thousands_of_requests_share_a_few_connections() {
+        var requests = 20_000;
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        try (var pool = pool(4); var executor = new AsyncPersistenceExecutor(pool)) {
+            var start = System.nanoTime();
+            var titles = new ArrayList<CompletableFuture<String>>(requests);
+            for (var i = 0; i < requests; i++) {
+                var id = i % SEED_POSTS.size() + 1;
+                titles.add(executor.execute(connection -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        return CachedStatements.queryFirst(connection, SELECT_TITLE_BY_ID_SQL, resultSet -> resultSet.getString(1), id).orElseThrow();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }));
+            }
+            CompletableFuture.allOf(titles.toArray(CompletableFuture[]::new)).join();
+            var elapsed = System.nanoTime() - start;
+
+            for (var i = 0; i < requests; i++) {
+                assertEquals(SEED_POSTS.get(i % SEED_POSTS.size()).title(), titles.get(i).join());
+            }
+            assertTrue(maxRunning.get() <= 4, "at most 4 requests at a time but saw " + maxRunning.get());
+            assertTrue(pool.getTotalConnections() <= 4);
+            assertEquals(requests, executor.getCompleted());
+            System.out.printf("%d requests in %d ms on %s threads%n", requests, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                    executor.isUsingVirtualThreads() ? "virtual" : "platform");
+        }
+    }
+
+    @Test
+    public void a_failing_transaction_is_rolled_back() {
+        try (var pool = pool(2); var executor = new AsyncPersistenceExecutor(pool)) {
+            var failed = executor.inTransaction(connection -> {
+                CachedStatements.executeUpdate(connection, "UPDATE post SET title = ? WHERE id = 1", "Changed");
+                throw new SQLException("Something went wrong after the update");
+            });
+            var exception = assertThrows(CompletionException.class, failed::join);
+            assertInstanceOf(SQLException.class, exception.getCause());
+
+            var title = executor.queryFirst(SELECT_TITLE_BY_ID_SQL, resultSet -> resultSet.getString(1), 1L).join();
+            assertEquals("Hypersistence", title.orElseThrow());
+
+            assertEquals(1, (int) executor.inTransaction(connection ->
+                    CachedStatements.executeUpdate(connection, "UPDATE post SET title = ? WHERE id = 1", "Changed")).join());
+            assertEquals(1, executor.query("SELECT id FROM post WHERE title = ?", resultSet -> resultSet.getLong(1), "Changed").join().size());
+        }
+    }
+
+    @Test
+    public void requests_beyond_the_queue_limit_are_rejected() throws InterruptedException {
+        var blocking = new CountDownLatch(1);
+        try (var pool = pool(1); var executor = new AsyncPersistenceExecutor(pool, 1, 1)) {
+            var first = executor.execute(connection -> {
+                try {
+                    return blocking.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new SQLException(e);
+                }
+            });
+            while (executor.getRunning() == 0) {
+                Thread.onSpinWait();
+            }
+            var second = executor.executeUpdate("UPDATE post SET version = version + 1");
+            var third = executor.executeUpdate("UPDATE post SET version = version + 1");
+
+            var exception = assertThrows(CompletionException.class, third::join);
+            assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+            assertEquals(1, executor.getRejected());
+            assertEquals(1, executor.getQueued());
+
+            blocking.countDown();
+            assertTrue(first.join());
+            assertEquals(3, (int) second.join());
+        }
+    }
+}
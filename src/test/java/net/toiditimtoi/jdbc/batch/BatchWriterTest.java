@@ -0,0 +1,114 @@
+package net.toiditimtoi.jdbc.batch;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sending one INSERT per row means one network round trip per row, and the round trip is usually the expensive part.
+ * JDBC batching sends many rows at once. Postgres goes one step further when the rows are folded into a single
+ * multi-row INSERT, because it parses and plans one statement for the whole batch.
+ */
+public class BatchWriterTest extends BasePostgresSqlTest {
+
+    private static List<Post> newPosts(int count) {
+        return IntStream.rangeClosed(1, count).mapToObj(i -> Post.newPost("Post " + i)).toList();
+    }
+
+    @Test
+    public void rows_are_sent_once_per_batch_and_the_generated_ids_come_back() throws SQLException {
+        var ids = new ArrayList<Long>();
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var config = BatchConfig.of(4).returningKeys("id");
+            try (var writer = new BatchWriter<>(connection, INSERT_POST_SQL, config, POST_BINDER)) {
+                writer.onGeneratedKey((post, id) -> ids.add(id));
+                writer.addAll(newPosts(10));
+                // 2 full batches went out automatically, the last 2 rows are still buffered
+                assertEquals(2, writer.getRoundTrips());
+                writer.close();
+                assertEquals(3, writer.getRoundTrips());
+                assertEquals(10, writer.getRowsAffected());
+            }
+        }
+        // the 3 seed rows took ids 1 to 3
+        assertEquals(LongStream.rangeClosed(4, 13).boxed().toList(), ids);
+    }
+
+    @Test
+    public void inserts_are_rewritten_into_a_multi_row_values_list() throws SQLException {
+        var inserted = new ArrayList<Post>();
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var config = BatchConfig.of(50).rewritingInserts().returningKeys("id");
+            try (var writer = new BatchWriter<>(connection, INSERT_POST_SQL, config, POST_BINDER)) {
+                writer.onGeneratedKey((post, id) -> inserted.add(post.withId(id)));
+                writer.addAll(newPosts(120));
+                writer.flush();
+                assertEquals(3, writer.getRoundTrips());
+                assertEquals(120, writer.getRowsWritten());
+            }
+            assertEquals(120, inserted.size());
+            // each generated id belongs to the row it is paired with
+            try (var statement = connection.prepareStatement("SELECT title FROM post WHERE id = ?")) {
+                for (var post : List.of(inserted.get(0), inserted.get(77), inserted.get(119))) {
+                    statement.setLong(1, post.id());
+                    try (var resultSet = statement.executeQuery()) {
+                        assertTrue(resultSet.next());
+                        assertEquals(post.title(), resultSet.getString(1));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void updates_are_batched_too() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var sql = "UPDATE post SET version = version + 1 WHERE id = ?";
+            try (var writer = new BatchWriter<Long>(connection, sql, BatchConfig.of(10), (statement, index, id) -> statement.setLong(index, id))) {
+                writer.addAll(List.of(1L, 2L, 3L, 42L));
+                assertEquals(3, writer.flush());
+            }
+        }
+    }
+
+    @Test
+    public void only_inserts_can_be_rewritten() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var config = BatchConfig.of(10).rewritingInserts();
+            assertThrows(IllegalArgumentException.class, () -> new BatchWriter<>(connection, "UPDATE post SET version = ?", config, POST_BINDER));
+        }
+    }
+
+    /**
+     * Not a precise benchmark, but enough to see the trend. Every run is rolled back so the table does not grow.
+     */
+    @Test
+    public void rows_per_second_at_different_batch_sizes() throws SQLException {
+        var rows = 10_000;
+        var posts = newPosts(rows);
+        System.out.printf("%-18s %10s %12s%n", "mode", "batch size", "rows/sec");
+        for (var mode : BatchConfig.Mode.values()) {
+            for (var batchSize : new int[]{1, 10, 50, 500}) {
+                try (var connection = DATA_SOURCE.getConnection()) {
+                    connection.setAutoCommit(false);
+                    var config = new BatchConfig(batchSize, mode, List.of("id"));
+                    var start = System.nanoTime();
+                    try (var writer = new BatchWriter<>(connection, INSERT_POST_SQL, config, POST_BINDER)) {
+                        writer.addAll(posts);
+                    }
+                    var elapsedNanos = System.nanoTime() - start;
+                    connection.rollback();
+                    System.out.printf("%-18s %10d %12.0f%n", mode, batchSize, rows * 1e9 / elapsedNanos);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package net.toiditimtoi.jdbc.cache;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import net.toiditimtoi.jdbc.update.OptimisticPostUpdater;
+import net.toiditimtoi.jdbc.update.RetryPolicy;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Hot posts are served from memory. The cache only admits a post if it is asked for more often than the one it would
+ * evict, and a cached post is only replaced by a newer version.
+ */
+public class PostCacheTest extends BasePostgresSqlTest {
+
+    private static void insertPosts(int count) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var writer = new BatchWriter<>(connection, INSERT_POST_SQL, BatchConfig.of(500).rewritingInserts(), POST_BINDER)) {
+            for (var i = 0; i < count; i++) {
+                writer.add(Post.newPost("Post " + i));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlAction {
+        void run() throws SQLException;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * DATA_SOURCE, running the action once when the first connection borrowed is given back: for a load, after its
+     * SELECT read the post and before the post is cached.
+     */
+    private static DataSource runningOnFirstClose(SqlAction action) {
+        var ran = new AtomicBoolean();
+        return (DataSource) Proxy.newProxyInstance(PostCacheTest.class.getClassLoader(), new Class<?>[]{DataSource.class},
+                (dataSource, method, args) -> {
+                    var result = invoke(DATA_SOURCE, method, args);
+                    if (!(result instanceof Connection connection)) {
+                        return result;
+                    }
+                    return Proxy.newProxyInstance(PostCacheTest.class.getClassLoader(), new Class<?>[]{Connection.class},
+                            (proxy, connectionMethod, connectionArgs) -> {
+                                if (connectionMethod.getName().equals("close") && ran.compareAndSet(false, true)) {
+                                    action.run();
+                                }
+                                return invoke(connection, connectionMethod, connectionArgs);
+                            });
+                });
+    }
+
+    /**
+     * Ids from 1 to n, id k being requested with a probability proportional to 1 / k^s, like the popularity of posts.
+     */
+    private static final class Zipf {
+        private final double[] cumulative;
+        private final Random random;
+
+        Zipf(int n, double s, long seed) {
+            cumulative = new double[n];
+            var sum = 0.0;
+            for (var k = 1; k <= n; k++) {
+                sum += 1 / Math.pow(k, s);
+                cumulative[k - 1] = sum;
+            }
+            for (var k = 0; k < n; k++) {
+                cumulative[k] /= sum;
+            }
+            random = new Random(seed);
+        }
+
+        long next() {
+            var index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return (index >= 0 ? index : -index - 1) + 1;
+        }
+    }
+
+    @Test
+    public void a_hit_does_not_touch_the_database() throws SQLException {
+        var cache = new PostCache(DATA_SOURCE, 10);
+        var first = cache.get(1).orElseThrow();
+        var second = cache.get(1).orElseThrow();
+
+        assertSame(first, second);
+        assertEquals("Hypersistence", second.title());
+        assertEquals(1, cache.getStats().getLoads());
+        assertEquals(1, cache.getStats().getHits());
+        assertTrue(cache.get(42).isEmpty());
+    }
+
+    @Test
+    public void updates_refresh_the_cached_post() throws SQLException {
+        var cache = new PostCache(DATA_SOURCE, 10);
+        var updater = new OptimisticPostUpdater(DATA_SOURCE, 50, RetryPolicy.of(3), cache);
+        assertEquals(0, cache.get(1).orElseThrow().version());
+
+        updater.update(1, post -> post.withTitle("High-Performance Java Persistence"));
+
+        var cached = cache.get(1).orElseThrow();
+        assertEquals("High-Performance Java Persistence", cached.title());
+        assertEquals(1, cached.version());
+        assertEquals(1, cache.getStats().getLoads());
+    }
+
+    @Test
+    public void an_older_version_never_replaces_a_newer_one() throws SQLException {
+        var cache = new PostCache(DATA_SOURCE, 10);
+        var current = cache.get(1).orElseThrow();
+        var newer = current.withTitle("Newer").withVersion(current.version() + 1);
+        cache.refresh(newer);
+
+        // a load which read the row before the update committed finishes late
+        cache.refresh(current);
+
+        assertEquals(newer, cache.getIfPresent(1).orElseThrow());
+    }
+
+    @Test
+    public void posts_changed_with_plain_sql_are_invalidated() throws SQLException {
+        var cache = new PostCache(DATA_SOURCE, 10);
+        cache.get(1);
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection, "UPDATE post SET title = ?, version = version + 1 WHERE id = ?", "Renamed", 1);
+        }
+        cache.invalidate(1);
+
+        assertEquals("Renamed", cache.get(1).orElseThrow().title());
+        assertEquals(2, cache.getStats().getLoads());
+    }
+
+    @Test
+    public void an_invalidation_during_a_load_keeps_the_loaded_post_out_of_the_cache() throws SQLException {
+        var cache = new PostCache[1];
+        // the post is changed and invalidated after the load read version 0, before it caches it
+        cache[0] = new PostCache(runningOnFirstClose(() -> {
+            try (var connection = DATA_SOURCE.getConnection()) {
+                CachedStatements.executeUpdate(connection, "UPDATE post SET title = ?, version = version + 1 WHERE id = ?", "Renamed", 1);
+            }
+            cache[0].invalidate(1);
+        }), 10);
+
+        var loaded = cache[0].get(1).orElseThrow();
+
+        assertEquals(0, loaded.version());
+        assertTrue(cache[0].getIfPresent(1).isEmpty());
+        assertEquals(1, cache[0].getStats().getDiscardedLoads());
+        assertEquals("Renamed", cache[0].get(1).orElseThrow().title());
+    }
+
+    @Test
+    public void a_scan_does_not_flush_the_hot_posts() throws SQLException {
+        insertPosts(1_000);
+        var cache = new PostCache(DATA_SOURCE, 100);
+        for (var round = 0; round < 5; round++) {
+            for (var id = 1; id <= 50; id++) {
+                cache.get(id);
+            }
+        }
+        // every other post, read once
+        for (var id = 51; id <= 1_003; id++) {
+            cache.get(id);
+        }
+        var stillCached = IntStream.rangeClosed(1, 50).filter(id -> cache.getIfPresent(id).isPresent()).count();
+        assertTrue(stillCached >= 45, "only " + stillCached + " hot posts survived the scan");
+        assertTrue(cache.size() <= cache.getMaximumSize());
+    }
+
+    /**
+     * 1000 posts, a cache holding 10% of them and a Zipfian popularity: most reads are served from memory.
+     */
+    @Test
+    public void zipfian_reads_save_most_round_trips() throws SQLException {
+        insertPosts(997);
+        var posts = 1_000;
+        var reads = 50_000;
+        var cache = new PostCache(DATA_SOURCE, posts / 10);
+        var zipf = new Zipf(posts, 1.0, 42);
+
+        var start = System.nanoTime();
+        for (var i = 0; i < reads; i++) {
+            assertTrue(cache.get(zipf.next()).isPresent());
+        }
+        var elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        var stats = cache.getStats();
+        System.out.printf("%d Zipfian reads over %d posts in %d ms, %d round trips saved: %s, hit ratio %.1f%%%n",
+                reads, posts, elapsedMillis, stats.getHits(), stats, stats.getHitRatio() * 100);
+        assertEquals(reads, stats.getHits() + stats.getMisses());
+        assertTrue(stats.getHitRatio() > 0.6, "hit ratio " + stats.getHitRatio());
+        assertTrue(cache.size() <= cache.getMaximumSize());
+    }
+}
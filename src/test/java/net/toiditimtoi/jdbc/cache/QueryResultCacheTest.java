@@ -0,0 +1,208 @@
+package net.toiditimtoi.jdbc.cache;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * QueryingTheDbTest runs the same SELECT every time. Here its rows are kept in memory until a write to the post
+ * table, from this pool or from another one, is notified by the trigger the cache installs.
+ */
+@CommitsTransactions
+public class QueryResultCacheTest extends BasePostgresSqlTest {
+    private static final String SELECT_BY_VERSION_SQL = "SELECT id, title, version FROM post WHERE version = ? ORDER BY id";
+    private static final String SELECT_TITLE_SQL = "SELECT title FROM post WHERE id = ?";
+    private static final RowSet.RowReader<Post> POST_READER =
+            row -> new Post(row.getLong("id"), row.getString("title"), row.getInt("version"));
+
+    private static QueryResultCache listeningCache(PooledDataSource pool, QueryCacheConfig config) throws SQLException {
+        var cache = new QueryResultCache(pool, config.withPollInterval(Duration.ofMillis(50)));
+        cache.watch("post");
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!cache.isListening()) {
+            assertTrue(System.nanoTime() < deadline, "the listener did not connect");
+            Thread.onSpinWait();
+        }
+        return cache;
+    }
+
+    private static void awaitEviction(QueryResultCache cache) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.size() > 0) {
+            assertTrue(System.nanoTime() < deadline, "the write was not notified");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void the_same_query_with_the_same_parameters_is_a_hit() throws SQLException {
+        try (var pool = pool(4); var cache = listeningCache(pool, QueryCacheConfig.defaults())) {
+            var first = cache.query(SELECT_BY_VERSION_SQL, 0);
+            var second = cache.query("SELECT id, title, version\n  FROM post\n WHERE version = ?\n ORDER BY id;", 0);
+            var other = cache.query(SELECT_BY_VERSION_SQL, 1);
+
+            assertSame(first, second);
+            assertEquals(SEED_POSTS, first.map(POST_READER));
+            assertTrue(other.isEmpty());
+            assertEquals(1, cache.getStats().getHits());
+            assertEquals(2, cache.getStats().getMisses());
+            assertEquals(1.0 / 3, cache.getStats().getHitRatio(), 0.01);
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void a_write_from_another_pool_evicts_the_results_of_the_table() throws Exception {
+        try (var pool = pool(4); var otherJvm = pool(1); var cache = listeningCache(pool, QueryCacheConfig.defaults())) {
+            assertEquals(SEED_POSTS.get(0).title(), cache.query(SELECT_TITLE_SQL, 1L).map(row -> row.getString("title")).get(0));
+            assertEquals(1, cache.size());
+
+            try (var connection = otherJvm.getConnection()) {
+                CachedStatements.executeUpdate(connection, "UPDATE post SET title = ? WHERE id = ?", "Renamed elsewhere", 1L);
+            }
+            awaitEviction(cache);
+
+            assertEquals("Renamed elsewhere", cache.query(SELECT_TITLE_SQL, 1L).map(row -> row.getString("title")).get(0));
+            var lag = cache.getStats().getInvalidationLag();
+            assertTrue(lag.getCount() >= 1);
+            assertTrue(lag.getValueAtPercentile(50) < TimeUnit.SECONDS.toNanos(1), "lag " + lag);
+            assertTrue(cache.getStats().getInvalidations() >= 1);
+        }
+    }
+
+    /**
+     * Readers hammer the query while a writer renames the post over and over. Right after each commit returns, no
+     * reader may see a title older than the one committed.
+     */
+    @Test
+    public void no_stale_read_after_a_committed_write() throws Exception {
+        var writes = 200;
+        try (var pool = pool(8); var cache = listeningCache(pool, QueryCacheConfig.defaults())) {
+            var committed = new AtomicLong(-1);
+            var done = new AtomicBoolean();
+            var readers = new ArrayList<CompletableFuture<Long>>();
+            for (var r = 0; r < 4; r++) {
+                readers.add(CompletableFuture.supplyAsync(() -> {
+                    var reads = 0L;
+                    try {
+                        while (!done.get()) {
+                            var floor = committed.get();
+                            var title = cache.query(SELECT_TITLE_SQL, 1L).map(row -> row.getString("title")).get(0);
+                            var seen = title.startsWith("Rename ") ? Long.parseLong(title.substring(7)) : -1;
+                            if (seen < floor) {
+                                throw new AssertionError("read \"" + title + "\" after rename " + floor + " was committed");
+                            }
+                            reads++;
+                        }
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return reads;
+                }));
+            }
+
+            try (var connection = pool.getConnection()) {
+                connection.setAutoCommit(false);
+                for (var i = 0; i < writes; i++) {
+                    CachedStatements.executeUpdate(connection, "UPDATE post SET title = ? WHERE id = ?", "Rename " + i, 1L);
+                    cache.commit(connection, "post");
+                    committed.set(i);
+                    // the readers get a chance to cache the new title
+                    Thread.sleep(1);
+                }
+            } finally {
+                done.set(true);
+            }
+
+            var reads = 0L;
+            for (var reader : readers) {
+                reads += reader.get(30, TimeUnit.SECONDS);
+            }
+            assertTrue(reads > writes);
+            assertTrue(cache.getStats().getHits() > 0, cache.getStats().toString());
+        }
+    }
+
+    @Test
+    public void queries_the_cache_cannot_follow_go_to_the_database() throws SQLException {
+        try (var pool = pool(4); var cache = listeningCache(pool, QueryCacheConfig.defaults())) {
+            try (var connection = pool.getConnection(); var statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS unwatched(id bigint)");
+            }
+            cache.query("SELECT id FROM post WHERE id = ? FOR UPDATE", 1L);
+            cache.query("SELECT count(*) FROM unwatched");
+            cache.query("SELECT p.id FROM post p JOIN unwatched u ON u.id = p.id");
+            cache.query("SELECT * FROM generate_series(1, 3)");
+            cache.query("SELECT now()");
+            // functions outside the FROM clause, volatile or reading who knows what
+            cache.query("SELECT id, now() FROM post");
+            cache.query("SELECT id FROM post WHERE id = ? AND random() < 2", 1L);
+
+            assertEquals(7, cache.getStats().getBypasses());
+            assertEquals(0, cache.getStats().getMisses());
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void a_table_of_the_same_name_in_another_schema_is_not_watched() throws SQLException {
+        try (var pool = pool(4); var cache = listeningCache(pool, QueryCacheConfig.defaults())) {
+            try (var connection = pool.getConnection(); var statement = connection.createStatement()) {
+                statement.execute("CREATE SCHEMA IF NOT EXISTS other");
+                statement.execute("CREATE TABLE IF NOT EXISTS other.post(id bigint, title text, version int)");
+            }
+            assertEquals(Set.of("public.post"), cache.getWatchedTables());
+
+            cache.query("SELECT id FROM other.post");
+            cache.query("SELECT id FROM public.post WHERE id = ?", 1L);
+            cache.query("SELECT id FROM post WHERE id = ?", 1L);
+
+            assertEquals(1, cache.getStats().getBypasses());
+            assertEquals(2, cache.getStats().getMisses());
+            assertEquals(2, cache.size());
+            cache.invalidate("post");
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void results_are_evicted_beyond_the_byte_bound() throws SQLException {
+        var sql = "SELECT ?::int AS n, id, title, version FROM post ORDER BY id";
+        long oneResult;
+        try (var connection = DATA_SOURCE.getConnection(); var statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, 0);
+            try (var resultSet = statement.executeQuery()) {
+                oneResult = RowSet.read(resultSet).estimatedBytes();
+            }
+        }
+        try (var pool = pool(4); var cache = listeningCache(pool, QueryCacheConfig.defaults().withMaximumBytes(oneResult * 5 / 2))) {
+            cache.query(sql, 1);
+            cache.query(sql, 2);
+            cache.query(sql, 1);
+            // 2 is the least recently used
+            cache.query(sql, 3);
+
+            assertEquals(2, cache.size());
+            assertTrue(cache.getEstimatedBytes() <= cache.getConfig().maximumBytes());
+            assertEquals(1, cache.getStats().getEvictions());
+            cache.query(sql, 1);
+            cache.query(sql, 2);
+            assertEquals(2, cache.getStats().getHits());
+            assertEquals(4, cache.getStats().getMisses());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.toiditimtoi.jdbc.columnar;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * QueryingTheDbTest maps every row to a Post and formats it. For reporting, the posts are decoded into reused columnar
+ * chunks and aggregated there.
+ */
+public class ColumnarPostScanTest extends BasePostgresSqlTest {
+
+    private static void generatePosts(int count) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.prepareStatement("INSERT INTO post(title, version) "
+                     + "SELECT CASE WHEN g % 100 = 0 THEN NULL ELSE 'Generated post ' || (g % 10) END, g % 5 FROM generate_series(1, ?) g")) {
+            statement.setInt(1, count);
+            statement.executeUpdate();
+        }
+    }
+
+    @Test
+    public void the_same_chunk_is_refilled_until_the_end_of_the_scan() throws SQLException {
+        generatePosts(997);
+        var scan = new ColumnarPostScan(DATA_SOURCE, 100);
+        var chunks = new HashSet<PostChunk>();
+        var sizes = new ArrayList<Integer>();
+        var ids = new ArrayList<Long>();
+
+        var rows = scan.scan("SELECT id, title, version FROM post ORDER BY id", chunk -> {
+            chunks.add(chunk);
+            sizes.add(chunk.size());
+            for (var i = 0; i < chunk.size(); i++) {
+                ids.add(chunk.id(i));
+            }
+        });
+
+        assertEquals(1_000, rows);
+        assertEquals(1, chunks.size());
+        assertEquals(10, sizes.size());
+        assertEquals(100, (int) sizes.get(0));
+        assertEquals(1L, (long) ids.get(0));
+        assertEquals(1_000L, (long) ids.get(999));
+    }
+
+    @Test
+    public void titles_are_decoded_once_per_distinct_title() throws SQLException {
+        var scan = new ColumnarPostScan(DATA_SOURCE, 2);
+        var titles = new ArrayList<String>();
+        scan.scan("SELECT id, title, version FROM post ORDER BY id", chunk -> {
+            for (var i = 0; i < chunk.size(); i++) {
+                titles.add(chunk.title(i));
+            }
+        });
+        assertEquals(SEED_POSTS.stream().map(Post::title).toList(), titles);
+
+        generatePosts(1_000);
+        var instances = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        scan.scan("SELECT id, title, version FROM post WHERE title LIKE 'Generated%'", chunk -> {
+            for (var i = 0; i < chunk.size(); i++) {
+                instances.add(chunk.title(i));
+            }
+        });
+        // 10 distinct titles, 10 Strings for 990 rows
+        assertEquals(10, instances.size());
+    }
+
+    @Test
+    public void the_summary_matches_the_aggregates_of_the_database() throws SQLException {
+        generatePosts(10_000);
+        var scan = new ColumnarPostScan(DATA_SOURCE, 1_000);
+
+        var summary = scan.summarize("SELECT id, title, version FROM post WHERE id > ?", 3);
+
+        assertEquals(10_000, summary.rows());
+        assertEquals(4, summary.minId());
+        assertEquals(10_003, summary.maxId());
+        assertEquals(0, summary.minVersion());
+        assertEquals(4, summary.maxVersion());
+        assertEquals(100, summary.nullTitles());
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT title, count(*) FROM post WHERE id > 3 AND title IS NOT NULL GROUP BY title")) {
+            Map<String, Long> expected = new LinkedHashMap<>();
+            while (resultSet.next()) {
+                expected.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+            assertEquals(expected, summary.titleCounts());
+        }
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT sum(version) FROM post WHERE id > 3")) {
+            resultSet.next();
+            assertEquals(resultSet.getLong(1), summary.sumVersions());
+        }
+    }
+
+    @Test
+    public void an_empty_scan_has_an_empty_summary() throws SQLException {
+        var summary = new ColumnarPostScan(DATA_SOURCE, 10).summarize("SELECT id, title, version FROM post WHERE id < 0");
+
+        assertEquals(0, summary.rows());
+        assertTrue(summary.titleCounts().isEmpty());
+    }
+}
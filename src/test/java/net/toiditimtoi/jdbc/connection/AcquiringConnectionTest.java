@@ -1,6 +1,7 @@
 package net.toiditimtoi.jdbc.connection;
 
 import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
 import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
@@ -31,7 +32,7 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
     @Test
     public void opening_a_connection_with_url_only() {
         var invalidCredentialsException = assertThrows(SQLException.class, () -> {
-                    try (var myFirstConnection = DriverManager.getConnection(URL)) {
+                    try (var myFirstConnection = DriverManager.getConnection(url())) {
                         System.out.println(myFirstConnection.getAutoCommit());
                     }
                 }
@@ -47,7 +48,7 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
      */
     @Test
     public void opening_another_connection_successfully_using_url_user_and_password() throws SQLException {
-        try (var mySecondConnection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (var mySecondConnection = DriverManager.getConnection(url(), user(), password())) {
             // check if the connection is still opened and valid to use
             assertTrue(mySecondConnection.isValid(1000));
         }
@@ -65,9 +66,9 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
     @Test
     public void opening_connection_successfully_using_url_and_properties() throws SQLException {
         var userAndPasswordProperties = new Properties();
-        userAndPasswordProperties.put("user", USER);
-        userAndPasswordProperties.put("password", PASSWORD);
-        try (var myThirdConnection = DriverManager.getConnection(URL, userAndPasswordProperties)) {
+        userAndPasswordProperties.put("user", user());
+        userAndPasswordProperties.put("password", password());
+        try (var myThirdConnection = DriverManager.getConnection(url(), userAndPasswordProperties)) {
             assertTrue(myThirdConnection.isValid(1000));
         }
     }
@@ -85,7 +86,7 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
     public void closing_the_connection_after_we_are_done() throws SQLException {
         Connection connection = null;
         try {
-            connection = DriverManager.getConnection(URL, USER, PASSWORD);
+            connection = DATA_SOURCE.getConnection();
             assertTrue(connection.isValid(1000));
         } catch (SQLException e) {
             throw new RuntimeException(e);
@@ -104,31 +105,20 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
     @Test
     public void configuring_auto_commit_mode() throws SQLException {
         var postName = "Disappear Book";
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (var connection = DATA_SOURCE.getConnection()) {
             // autocommit is enabled by default
             assertTrue(connection.getAutoCommit());
 
             // toggle autocommit off to play around with transaction
             connection.setAutoCommit(false);
-            try (var statement = connection.createStatement()) {
-                var insertSql = createInsertQuery(postName);
-                var rowsAffected = statement.executeUpdate(insertSql);
-                assertEquals(1, rowsAffected);
-            }
+            var rowsAffected = insertPost(connection, postName);
+            assertEquals(1, rowsAffected);
         }
         // after the block above, the connection was closed without calling COMMIT
         // now let's see if the record is still there
-        try (var anotherConnection = DriverManager.getConnection(URL, USER, PASSWORD)) {
-            try (var statement = anotherConnection.createStatement()) {
-                var query = createSelectQuery(postName);
-                try (var resultSet = statement.executeQuery(query)) {
-                    String firstTitle = null;
-                    while (resultSet.next()) {
-                        firstTitle = resultSet.getString("title");
-                    }
-                    assertNull(firstTitle);
-                }
-            }
+        try (var anotherConnection = DATA_SOURCE.getConnection()) {
+            var firstTitle = findTitle(anotherConnection, postName);
+            assertNull(firstTitle);
         }
     }
 
@@ -140,32 +130,21 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
     @Test
     public void manually_committing_the_query() throws SQLException {
         var postName = "Disappear Book";
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (var connection = DATA_SOURCE.getConnection()) {
             // autocommit is enabled by default
             assertTrue(connection.getAutoCommit());
 
             // toggle autocommit off to play around with transaction
             connection.setAutoCommit(false);
-            try (var statement = connection.createStatement()) {
-                var insertSql = createInsertQuery(postName);
-                var rowsAffected = statement.executeUpdate(insertSql);
-                assertEquals(1, rowsAffected);
-                connection.commit();
-            }
+            var rowsAffected = insertPost(connection, postName);
+            assertEquals(1, rowsAffected);
+            connection.commit();
         }
         // after the block above, the connection was closed without calling COMMIT
         // now let's see if the record is still there
-        try (var anotherConnection = DriverManager.getConnection(URL, USER, PASSWORD)) {
-            try (var statement = anotherConnection.createStatement()) {
-                var query = createSelectQuery(postName);
-                try (var resultSet = statement.executeQuery(query)) {
-                    String firstTitle = null;
-                    while (resultSet.next()) {
-                        firstTitle = resultSet.getString("title");
-                    }
-                    assertEquals("Disappear Book", firstTitle);
-                }
-            }
+        try (var anotherConnection = DATA_SOURCE.getConnection()) {
+            var firstTitle = findTitle(anotherConnection, postName);
+            assertEquals("Disappear Book", firstTitle);
         }
     }
 
@@ -175,16 +154,13 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
         Connection connection = null;
         var postName = "Rolling in the deep";
         try {
-            connection = DriverManager.getConnection(URL, USER, PASSWORD);
+            connection = DATA_SOURCE.getConnection();
             connection.setAutoCommit(false);
-            try (var statement = connection.createStatement()) {
-                var sql = createInsertQuery(postName);
-                statement.executeUpdate(sql);
-                if (true) {
-                    throw new RuntimeException("I need another discussion with my wife before doing this");
-                }
-                // if everything goes well, we should commit the transaction
+            insertPost(connection, postName);
+            if (true) {
+                throw new RuntimeException("I need another discussion with my wife before doing this");
             }
+            // if everything goes well, we should commit the transaction
             connection.commit();
         } catch (Exception anyException) {
             // in case any exception happened, roll back
@@ -192,23 +168,15 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
             connection.rollback();
         } finally {
             assert connection != null;
-            String title = null;
-            var selectSql = createSelectQuery(postName);
-            try (var stm = connection.createStatement()) {
-                try (var resultSet = stm.executeQuery(selectSql)) {
-                    while (resultSet.next()) {
-                        title = resultSet.getString("title");
-                    }
-                    assertNull(title);
-                    connection.close();
-                }
-            }
+            var title = findTitle(connection, postName);
+            assertNull(title);
+            connection.close();
         }
     }
 
     @Test
     public void prepared_statement() {
-        try (Connection connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (Connection connection = DATA_SOURCE.getConnection()) {
             try (var preparedStm = connection.prepareStatement("INSERT INTO post(title, version) values (?, 0)")) {
                 preparedStm.setString(1, "Prepared Statement");
                 var rowAffected = preparedStm.executeUpdate();
@@ -221,17 +189,23 @@ public class AcquiringConnectionTest extends BasePostgresSqlTest {
 
     @Test
     public void get_metadata() throws SQLException {
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (var connection = DATA_SOURCE.getConnection()) {
             var metadata = connection.getMetaData();
             assertNotNull(metadata);
         }
     }
 
-    private String createInsertQuery(String postName) {
-        return "INSERT INTO post(title, version) values ('%s', 0)".formatted(postName);
+    /**
+     * The title is bound as a parameter instead of being formatted into the SQL: the SQL text is the same for every
+     * title, so the connection's statement cache can reuse the statement, and a title containing a quote cannot
+     * change what the SQL does.
+     */
+    private int insertPost(Connection connection, String postName) throws SQLException {
+        return CachedStatements.executeUpdate(connection, "INSERT INTO post(title, version) values (?, 0)", postName);
     }
 
-    private String createSelectQuery(String postName) {
-        return "SELECT * FROM post WHERE title = '%s'".formatted(postName);
+    private String findTitle(Connection connection, String postName) throws SQLException {
+        return CachedStatements.queryFirst(connection, "SELECT title FROM post WHERE title = ?",
+                resultSet -> resultSet.getString("title"), postName).orElse(null);
     }
 }
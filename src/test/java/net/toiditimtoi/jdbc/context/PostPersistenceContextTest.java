@@ -0,0 +1,150 @@
+package net.toiditimtoi.jdbc.context;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.cache.PostCache;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import net.toiditimtoi.jdbc.update.OptimisticLockException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * UpdateTheDatabaseTest runs one executeUpdate per change. A persistence context collects the changes of a unit of
+ * work and writes them in a few batches when it is flushed.
+ */
+public class PostPersistenceContextTest extends BasePostgresSqlTest {
+
+    private static List<Post> allPostsById() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            return CachedStatements.query(connection, "SELECT id, title, version FROM post ORDER BY id", RowMappers.forRecord(Post.class));
+        }
+    }
+
+    @Test
+    public void a_post_read_twice_is_loaded_once_and_is_the_same_instance() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var context = new PostPersistenceContext(connection, 50);
+            var first = context.find(1).orElseThrow();
+
+            // a change behind the back of the context is not seen, it was read already
+            CachedStatements.executeUpdate(connection, "UPDATE post SET title = 'Changed' WHERE id = 1");
+
+            assertSame(first, context.find(1).orElseThrow());
+            assertTrue(context.find(42).isEmpty());
+        }
+    }
+
+    @Test
+    public void only_the_changed_posts_are_written_when_flushing() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            connection.setAutoCommit(false);
+            var context = new PostPersistenceContext(connection, 50);
+            var posts = context.findAll(List.of(3L, 1L, 2L));
+            assertEquals(List.of(3L, 1L, 2L), posts.stream().map(Post::id).toList());
+
+            context.update(posts.get(0).withTitle("Getting Oracle Certified Programmer 2nd"));
+            // same title, not dirty
+            context.update(posts.get(1).withTitle(new String("Hypersistence")));
+            context.remove(2);
+            context.persist(Post.newPost("High-Performance Java Persistence"));
+            assertTrue(context.isDirty(3));
+            assertFalse(context.isDirty(1));
+            assertEquals(1, context.countDirty());
+
+            var result = context.commit();
+
+            assertEquals(List.of(new Post(4, "High-Performance Java Persistence", 0)), result.inserted());
+            assertEquals(List.of(new Post(3, "Getting Oracle Certified Programmer 2nd", 1)), result.updated());
+            assertEquals(List.of(2L), result.deleted());
+            // one batch per statement
+            assertEquals(3, result.roundTrips());
+            assertEquals(List.of(
+                    new Post(1, "Hypersistence", 0),
+                    new Post(3, "Getting Oracle Certified Programmer 2nd", 1),
+                    new Post(4, "High-Performance Java Persistence", 0)), allPostsById());
+
+            // flushed posts are managed at their new state, nothing is left to write
+            assertEquals(1, context.find(3).orElseThrow().version());
+            assertTrue(context.find(4).isPresent());
+            assertTrue(context.find(2).isEmpty());
+            assertTrue(context.flush().isEmpty());
+        }
+    }
+
+    @Test
+    public void a_commit_refreshes_the_cache_with_what_it_wrote() throws SQLException {
+        var cache = new PostCache(DATA_SOURCE, 10);
+        cache.get(1);
+        cache.get(2);
+        try (var connection = DATA_SOURCE.getConnection()) {
+            connection.setAutoCommit(false);
+            var context = new PostPersistenceContext(connection, 50, cache);
+            context.update(context.find(1).orElseThrow().withTitle("High-Performance Java Persistence"));
+            context.remove(2);
+            context.flush();
+
+            // flushed, not committed yet
+            assertEquals(0, cache.getIfPresent(1).orElseThrow().version());
+            assertTrue(cache.getIfPresent(2).isPresent());
+
+            context.commit();
+        }
+        assertEquals(new Post(1, "High-Performance Java Persistence", 1), cache.getIfPresent(1).orElseThrow());
+        assertTrue(cache.getIfPresent(2).isEmpty());
+        assertTrue(cache.get(2).isEmpty());
+    }
+
+    @Test
+    public void updates_are_sent_in_batches() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection,
+                    "INSERT INTO post(title, version) SELECT 'Generated post ' || g, 0 FROM generate_series(1, 997) g");
+            var context = new PostPersistenceContext(connection, 100);
+            var posts = context.findAll(LongStream.rangeClosed(1, 1_000).boxed().toList());
+            assertEquals(1_000, context.size());
+            posts.forEach(post -> context.update(post.withTitle(post.title() + " 2nd")));
+
+            var result = context.flush();
+
+            assertEquals(1_000, result.updated().size());
+            assertEquals(10, result.roundTrips());
+            assertTrue(allPostsById().stream().allMatch(post -> post.title().endsWith(" 2nd") && post.version() == 1));
+        }
+    }
+
+    @Test
+    public void a_post_changed_meanwhile_fails_the_flush() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var context = new PostPersistenceContext(connection, 50);
+            var post = context.find(1).orElseThrow();
+            CachedStatements.executeUpdate(connection, "UPDATE post SET version = version + 1 WHERE id = 1");
+
+            context.update(post.withTitle("Hypersistence 2nd"));
+            var failure = assertThrows(OptimisticLockException.class, context::flush);
+
+            assertEquals(1, failure.getStalePost().id());
+            assertEquals(0, failure.getStalePost().version());
+        }
+    }
+
+    @Test
+    public void only_managed_posts_can_be_changed() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var context = new PostPersistenceContext(connection, 50);
+
+            assertThrows(IllegalArgumentException.class, () -> context.update(new Post(1, "Hypersistence 2nd", 0)));
+            assertThrows(IllegalArgumentException.class, () -> context.remove(1));
+            assertThrows(IllegalArgumentException.class, () -> context.persist(new Post(1, "Hypersistence", 0)));
+
+            context.attach(new Post(1, "Hypersistence", 0));
+            context.remove(1);
+            assertThrows(IllegalArgumentException.class, () -> context.update(new Post(1, "Hypersistence 2nd", 0)));
+        }
+    }
+}
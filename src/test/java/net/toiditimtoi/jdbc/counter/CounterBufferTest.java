@@ -0,0 +1,181 @@
+package net.toiditimtoi.jdbc.counter;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.UncheckedSQLException;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The posts of the seed have a version of 0, and {@code version} is the only integer column of post: it is the
+ * counter of these tests.
+ */
+@CommitsTransactions
+public class CounterBufferTest extends BasePostgresSqlTest {
+
+    private static long versionOf(PooledDataSource pool, long id) throws SQLException {
+        try (var connection = pool.getConnection()) {
+            return CachedStatements.queryFirst(connection, "SELECT version FROM post WHERE id = ?", resultSet -> resultSet.getLong(1), id)
+                    .orElseThrow();
+        }
+    }
+
+    private static void inParallel(int threads, Runnable task) {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var i = 0; i < threads; i++) {
+            futures.add(CompletableFuture.runAsync(task));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    }
+
+    /**
+     * The flushes run every 5 ms while 8 threads increment, so that cells are drained, retired and created again
+     * under their feet: not a single increment may be lost or counted twice.
+     */
+    @Test
+    public void concurrent_increments_are_all_written_once() throws Exception {
+        try (var pool = pool(4)) {
+            var config = CounterBufferConfig.defaults().withFlushInterval(Duration.ofMillis(5));
+            try (var buffer = new CounterBuffer(pool, "post", "version", config)) {
+                inParallel(8, () -> {
+                    for (var i = 0; i < 20_000; i++) {
+                        buffer.increment(i % 3 + 1);
+                        if (i % 5_000 == 0) {
+                            // long enough for the cells to be idle and retired
+                            sleep(20);
+                        }
+                    }
+                });
+                buffer.close();
+
+                var stats = buffer.getStats();
+                System.out.println(stats);
+                assertEquals(160_000, stats.getIncrements());
+                assertEquals(0, stats.getFailures());
+                assertTrue(stats.getRowsUpdated() < 160_000, stats.toString());
+                assertTrue(stats.getRetiredCells() > 0, stats.toString());
+            }
+            var total = 0L;
+            for (var id = 1; id <= 3; id++) {
+                total += versionOf(pool, id);
+            }
+            assertEquals(160_000, total);
+            assertEquals(53_336, versionOf(pool, 1), "ids 1, 2, 3 in turn from 0 to 19 999, 6 667 times id 1 per thread");
+        }
+    }
+
+    @Test
+    public void increments_are_pending_until_the_flush() throws Exception {
+        try (var pool = pool(4)) {
+            var config = CounterBufferConfig.defaults().withFlushInterval(Duration.ofHours(1));
+            try (var buffer = new CounterBuffer(pool, "post", "version", config)) {
+                buffer.increment(1, 5);
+                buffer.increment(1, -2);
+                buffer.increment(2);
+
+                assertEquals(3, buffer.pendingDelta(1));
+                assertEquals(0, versionOf(pool, 1));
+                buffer.flush();
+                assertEquals(0, buffer.pendingDelta(1));
+                assertEquals(3, versionOf(pool, 1));
+                assertEquals(1, versionOf(pool, 2));
+                assertEquals(2, buffer.getStats().getRowsUpdated());
+            }
+        }
+    }
+
+    @Test
+    public void flush_on_commit_returns_once_the_increment_is_committed() throws Exception {
+        try (var pool = pool(4)) {
+            var config = CounterBufferConfig.defaults().withDurability(CounterBufferConfig.Durability.FLUSH_ON_COMMIT);
+            try (var buffer = new CounterBuffer(pool, "post", "version", config)) {
+                buffer.increment(1);
+                assertEquals(1, versionOf(pool, 1));
+
+                inParallel(16, () -> {
+                    for (var i = 0; i < 200; i++) {
+                        buffer.increment(1);
+                    }
+                });
+                assertEquals(3_201, versionOf(pool, 1));
+                var stats = buffer.getStats();
+                System.out.println(stats);
+                assertTrue(stats.getFlushes() < 3_201, "the threads waiting at the same time share a flush: " + stats);
+            }
+        }
+    }
+
+    @Test
+    public void too_many_pending_ids_start_a_flush() throws Exception {
+        try (var pool = pool(4)) {
+            var config = CounterBufferConfig.defaults().withFlushInterval(Duration.ofHours(1)).withMaxPendingIds(3);
+            try (var buffer = new CounterBuffer(pool, "post", "version", config)) {
+                buffer.increment(1);
+                buffer.increment(2);
+                assertEquals(0, buffer.getStats().getFlushes());
+                buffer.increment(3);
+
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (versionOf(pool, 3) == 0 && System.nanoTime() < deadline) {
+                    sleep(10);
+                }
+                assertEquals(1, versionOf(pool, 1));
+                assertEquals(1, versionOf(pool, 3));
+            }
+        }
+    }
+
+    @Test
+    public void the_increments_of_a_failed_flush_are_written_by_the_next_one() throws Exception {
+        try (var pool = pool(4); var connection = pool.getConnection(); var statement = connection.createStatement()) {
+            var config = CounterBufferConfig.defaults().withFlushInterval(Duration.ofHours(1));
+            try (var buffer = new CounterBuffer(pool, "post", "version", config)) {
+                buffer.increment(1, 10);
+                buffer.increment(42);
+                statement.execute("ALTER TABLE post ADD CONSTRAINT small_version CHECK (version < 5)");
+
+                assertThrows(SQLException.class, buffer::flush);
+                assertEquals(10, buffer.pendingDelta(1));
+                assertEquals(1, buffer.getStats().getFailures());
+
+                statement.execute("ALTER TABLE post DROP CONSTRAINT small_version");
+                buffer.flush();
+                assertEquals(10, versionOf(pool, 1));
+                assertEquals(1, buffer.getStats().getRowsUpdated());
+                assertEquals(1, buffer.getStats().getMissingRows(), "post 42 does not exist");
+            }
+        }
+    }
+
+    @Test
+    public void a_failed_flush_on_commit_fails_its_increments() throws Exception {
+        try (var pool = pool(4); var connection = pool.getConnection(); var statement = connection.createStatement()) {
+            var config = CounterBufferConfig.defaults().withDurability(CounterBufferConfig.Durability.FLUSH_ON_COMMIT);
+            try (var buffer = new CounterBuffer(pool, "post", "version", config)) {
+                statement.execute("ALTER TABLE post ADD CONSTRAINT small_version CHECK (version < 5)");
+                assertThrows(UncheckedSQLException.class, () -> buffer.increment(1, 10));
+
+                statement.execute("ALTER TABLE post DROP CONSTRAINT small_version");
+                buffer.increment(1);
+                assertEquals(11, versionOf(pool, 1));
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
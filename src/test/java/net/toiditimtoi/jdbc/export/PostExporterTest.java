@@ -0,0 +1,139 @@
+package net.toiditimtoi.jdbc.export;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.copy.PostCopyLoader;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@CommitsTransactions
+public class PostExporterTest extends BasePostgresSqlTest {
+    private static final int POSTS = 10_000;
+
+    /**
+     * The 3 posts of the seed and 10 000 more, every hundredth without a title, then a gap in the ids.
+     */
+    private static List<Post> seedPosts() throws SQLException {
+        new PostCopyLoader(DATA_SOURCE).load(IntStream.range(0, POSTS)
+                .mapToObj(i -> Post.newPost(i % 100 == 0 ? null : "Exported post " + i))
+                .iterator(), false);
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection, "DELETE FROM post WHERE id BETWEEN 2000 AND 4999");
+            return CachedStatements.query(connection, "SELECT id, title, version FROM post ORDER BY id", RowMappers.forRecord(Post.class));
+        }
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void the_csv_files_concatenated_are_the_table_ordered_by_id() throws Exception {
+        var expected = seedPosts();
+        var directory = Files.createTempDirectory("export");
+        // a connection per worker, and the coordinator holding the snapshot
+        try (var pool = pool(4)) {
+            var result = new PostExporter(pool, ExportConfig.defaults().withWorkers(3)).export(directory, "posts");
+
+            assertEquals(12, result.files().size(), "3 workers, 4 ranges each");
+            assertEquals(expected.size(), result.rows());
+            var lines = new ArrayList<String>();
+            var bytes = 0L;
+            for (var file : result.files()) {
+                assertTrue(file.getFileName().toString().endsWith(".csv"), file.toString());
+                lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+                bytes += Files.size(file);
+            }
+            assertEquals(bytes, result.bytes(), "the files are truncated to what was written");
+            assertEquals("id,title,version", lines.get(0));
+            assertEquals(expected.size() + 1, lines.size());
+            for (var i = 0; i < expected.size(); i++) {
+                var post = expected.get(i);
+                assertEquals("%d,%s,%d".formatted(post.id(), post.title() == null ? "" : post.title(), post.version()), lines.get(i + 1));
+            }
+            System.out.println("%.0f rows/s, %.1f MB/s".formatted(result.rowsPerSecond(), result.megabytesPerSecond()));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    public void the_columnar_files_hold_every_post() throws Exception {
+        var expected = seedPosts();
+        var directory = Files.createTempDirectory("export");
+        try (var pool = pool(3)) {
+            // small blocks and regions, so that files hold several blocks and are mapped several times
+            var config = ExportConfig.defaults().withFormat(ExportFormat.COLUMNAR).withWorkers(2).withBlockRows(500).withRegionBytes(4096);
+            var result = new PostExporter(pool, config).export(directory, "posts");
+
+            assertEquals(expected.size(), result.rows());
+            var exported = new ArrayList<Post>();
+            for (var file : result.files()) {
+                ColumnarExportReader.read(file, block -> {
+                    assertTrue(block.size() <= 500);
+                    for (var i = 0; i < block.size(); i++) {
+                        exported.add(new Post(block.ids()[i], block.titles()[i], block.versions()[i]));
+                    }
+                });
+            }
+            assertEquals(expected, exported);
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    public void an_empty_table_is_exported_to_an_empty_file() throws Exception {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection, "DELETE FROM post");
+        }
+        var directory = Files.createTempDirectory("export");
+        try (var pool = pool(3)) {
+            var exporter = new PostExporter(pool, ExportConfig.defaults().withWorkers(2));
+            var result = exporter.export(directory, "posts");
+
+            assertEquals(0, result.rows());
+            assertEquals(1, result.files().size());
+            assertEquals(List.of("id,title,version"), Files.readAllLines(result.files().get(0)));
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    @Test
+    public void a_failed_range_fails_the_export_and_leaves_no_file() throws Exception {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection, "CREATE TABLE only_ids AS SELECT generate_series(1, 1000)::bigint AS id");
+        }
+        var directory = Files.createTempDirectory("export");
+        try (var pool = pool(3)) {
+            var exporter = new PostExporter(pool, ExportConfig.defaults().withTable("only_ids").withWorkers(2));
+
+            var e = assertThrows(SQLException.class, () -> exporter.export(directory, "posts"));
+            assertEquals("42703", e.getSQLState(), "no title column");
+            try (var files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            deleteAll(directory);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.toiditimtoi.jdbc.id;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.batch.BatchConfig;
+import net.toiditimtoi.jdbc.batch.BatchWriter;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static net.toiditimtoi.jdbc.id.SequenceIdAllocator.Strategy.HI_LO;
+import static net.toiditimtoi.jdbc.id.SequenceIdAllocator.Strategy.POOLED_LO;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Instead of one nextval per row, we reserve a range of ids with one nextval and hand them out from memory.
+ * With the ids known before the INSERT, the rows can be batched without asking the database for the generated keys.
+ */
+@CommitsTransactions
+public class SequenceIdAllocatorTest extends BasePostgresSqlTest {
+    private static final String INSERT_POST_WITH_ID_SQL = "INSERT INTO post(id, title, version) VALUES (?, ?, ?)";
+
+    private static void execute(String sql) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection(); var statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    @Test
+    public void pooled_lo_reserves_ranges_of_post_id_seq() throws SQLException {
+        execute("ALTER SEQUENCE post_id_seq INCREMENT BY 50");
+        var allocator = new SequenceIdAllocator(DATA_SOURCE, "post_id_seq", 50, POOLED_LO);
+
+        try (var connection = DATA_SOURCE.getConnection()) {
+            try (var writer = new BatchWriter<Post>(connection, INSERT_POST_WITH_ID_SQL, BatchConfig.of(50).rewritingInserts(),
+                    (statement, index, post) -> {
+                        statement.setLong(index, post.id());
+                        statement.setString(index + 1, post.title());
+                        statement.setInt(index + 2, post.version());
+                    })) {
+                for (var i = 0; i < 120; i++) {
+                    writer.add(Post.newPost("Pre-assigned " + i).withId(allocator.nextId()));
+                }
+            }
+        }
+        // 120 ids cost 3 round trips instead of 120
+        assertEquals(3, allocator.getRangesFetched());
+
+        // a plain INSERT relying on the serial default takes the next value of the sequence and does not collide
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO post(title, version) values ('Serial default', 0)");
+            try (var resultSet = statement.executeQuery("SELECT count(*), count(DISTINCT id) FROM post")) {
+                resultSet.next();
+                assertEquals(124, resultSet.getInt(1));
+                assertEquals(124, resultSet.getInt(2));
+            }
+        }
+    }
+
+    @Test
+    public void pooled_lo_refuses_a_sequence_incrementing_by_something_else() {
+        var allocator = new SequenceIdAllocator(DATA_SOURCE, "post_id_seq", 50, POOLED_LO);
+        assertThrows(IllegalStateException.class, allocator::nextId);
+    }
+
+    @Test
+    public void pooled_lo_finds_the_sequence_the_way_nextval_does() throws SQLException {
+        execute("ALTER SEQUENCE post_id_seq INCREMENT BY 50");
+        var qualified = new SequenceIdAllocator(DATA_SOURCE, "public.post_id_seq", 50, POOLED_LO);
+        var quoted = new SequenceIdAllocator(DATA_SOURCE, "\"post_id_seq\"", 50, POOLED_LO);
+
+        assertTrue(qualified.nextId() < quoted.nextId());
+        assertEquals("42P01", assertThrows(SQLException.class,
+                new SequenceIdAllocator(DATA_SOURCE, "public.no_such_seq", 50, POOLED_LO)::nextId).getSQLState());
+        assertThrows(SQLException.class, new SequenceIdAllocator(DATA_SOURCE, "post", 50, POOLED_LO)::nextId);
+    }
+
+    @Test
+    public void hi_lo_turns_every_hi_value_into_a_block_of_ids() throws SQLException {
+        execute("CREATE SEQUENCE IF NOT EXISTS post_hilo_seq");
+        execute("ALTER SEQUENCE post_hilo_seq RESTART WITH 1");
+        var allocator = new SequenceIdAllocator(DATA_SOURCE, "post_hilo_seq", 10, HI_LO);
+
+        for (var expected = 1L; expected <= 25; expected++) {
+            assertEquals(expected, allocator.nextId());
+        }
+        // hi = 1, 2 and 3
+        assertEquals(3, allocator.getRangesFetched());
+    }
+
+    /**
+     * Each allocator stands for another JVM: they only share the sequence, nothing in memory.
+     */
+    @Test
+    public void allocators_sharing_a_sequence_never_hand_out_the_same_id() throws Exception {
+        execute("ALTER SEQUENCE post_id_seq INCREMENT BY 20");
+        var allocators = new ArrayList<SequenceIdAllocator>();
+        for (var i = 0; i < 4; i++) {
+            allocators.add(new SequenceIdAllocator(DATA_SOURCE, "post_id_seq", 20, POOLED_LO));
+        }
+        var executor = Executors.newFixedThreadPool(16);
+        try {
+            var tasks = new ArrayList<Callable<long[]>>();
+            for (var i = 0; i < 16; i++) {
+                var allocator = allocators.get(i % allocators.size());
+                tasks.add(() -> {
+                    var ids = new long[2_000];
+                    for (var j = 0; j < ids.length; j++) {
+                        ids[j] = allocator.nextId();
+                    }
+                    return ids;
+                });
+            }
+            var seen = new HashSet<Long>();
+            for (var future : executor.invokeAll(tasks)) {
+                for (var id : future.get()) {
+                    assertTrue(seen.add(id), "id handed out twice: " + id);
+                }
+            }
+            assertEquals(32_000, seen.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * How many ids per second we get from 1 to 64 threads. The fewer round trips, the less the threads wait for each other.
+     */
+    @Test
+    public void contention_from_1_to_64_threads() throws Exception {
+        var allocationSize = 1_000;
+        execute("ALTER SEQUENCE post_id_seq INCREMENT BY " + allocationSize);
+        var idsPerThread = 100_000;
+        System.out.printf("%8s %15s %14s%n", "threads", "ids/sec", "round trips");
+        for (var threads = 1; threads <= 64; threads *= 2) {
+            var allocator = new SequenceIdAllocator(DATA_SOURCE, "post_id_seq", allocationSize, POOLED_LO);
+            allocator.nextId();
+            var executor = Executors.newFixedThreadPool(threads);
+            var startLine = new CountDownLatch(1);
+            var tasks = new ArrayList<Callable<Void>>();
+            for (var i = 0; i < threads; i++) {
+                tasks.add(() -> {
+                    startLine.await();
+                    for (var j = 0; j < idsPerThread; j++) {
+                        allocator.nextId();
+                    }
+                    return null;
+                });
+            }
+            var futures = tasks.stream().map(executor::submit).toList();
+            var start = System.nanoTime();
+            startLine.countDown();
+            for (var future : futures) {
+                future.get();
+            }
+            var elapsedNanos = System.nanoTime() - start;
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            System.out.printf("%8d %15.0f %14d%n", threads, (double) threads * idsPerThread * 1e9 / elapsedNanos, allocator.getRangesFetched());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package net.toiditimtoi.jdbc.limit;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.metrics.LatencyHistogram;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@CommitsTransactions
+@Isolated
+public class ConcurrencyLimiterTest extends BasePostgresSqlTest {
+    // a few milliseconds of CPU on the server, its latency grows with the statements sharing the cores
+    private static final String CPU_BOUND_SQL = "SELECT count(*) FROM generate_series(1, 200000)";
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Feeds windows of 20 statements of the given latency, each started with the whole limit in flight.
+     */
+    private static long feed(GradientLimit limit, long now, int windows, long latencyNanos) {
+        for (var window = 0; window < windows; window++) {
+            for (var i = 0; i < 20; i++) {
+                limit.onSample(now + i, latencyNanos, limit.get(), false);
+            }
+            now += WINDOW_NANOS;
+            limit.onSample(now, latencyNanos, limit.get(), false);
+        }
+        return now;
+    }
+
+    @Test
+    public void the_limit_grows_while_the_latency_holds_and_shrinks_when_it_rises() {
+        var limit = new GradientLimit(LimiterConfig.of(64).withInitialLimit(8), 0);
+
+        var now = feed(limit, 0, 30, TimeUnit.MILLISECONDS.toNanos(1));
+        var grown = limit.get();
+        assertTrue(grown > 20, "1 ms whatever the load, the database has capacity left: " + grown);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), limit.getBaselineNanos());
+
+        now = feed(limit, now, 30, TimeUnit.MILLISECONDS.toNanos(4));
+        var shrunk = limit.get();
+        assertTrue(shrunk < grown / 2, "4 times slower, the statements queue inside the database: " + shrunk);
+
+        limit.onSample(now + WINDOW_NANOS, 0, 1, true);
+        assertTrue(limit.get() < shrunk, "a timeout backs off: " + limit.get());
+    }
+
+    @Test
+    public void the_limit_does_not_grow_beyond_what_the_requests_use() {
+        var limit = new GradientLimit(LimiterConfig.of(64).withInitialLimit(8), 0);
+        var now = 0L;
+        for (var window = 0; window < 30; window++) {
+            for (var i = 0; i <= 20; i++) {
+                limit.onSample(now, TimeUnit.MILLISECONDS.toNanos(1), 2, false);
+                now += WINDOW_NANOS / 20;
+            }
+        }
+        assertEquals(8, limit.get());
+    }
+
+    @Test
+    public void a_request_past_its_deadline_is_never_sent() throws Exception {
+        try (var pool = pool(2)) {
+            var limiter = new ConcurrencyLimiter(pool, LimiterConfig.of(2));
+            var expired = new Deadline(System.nanoTime() - 1);
+
+            var e = assertThrows(SQLTimeoutException.class, () -> limiter.executeUpdate(expired, INSERT_POST_SQL, "Never sent", 0));
+
+            assertEquals(Deadline.NOT_SENT, e.getSQLState());
+            try (var connection = pool.getConnection()) {
+                assertEquals(3L, (long) CachedStatements.queryFirst(connection, "SELECT count(*) FROM post", resultSet -> resultSet.getLong(1)).orElseThrow());
+            }
+            assertEquals(1, limiter.getStats().getExpired());
+            assertEquals(0, limiter.getInFlight());
+        }
+    }
+
+    @Test
+    public void the_deadline_becomes_the_query_timeout() throws Exception {
+        try (var pool = pool(2)) {
+            var limiter = new ConcurrencyLimiter(pool, LimiterConfig.of(8));
+            var initialLimit = limiter.getLimit();
+
+            var began = System.nanoTime();
+            var e = assertThrows(SQLException.class, () -> limiter.queryFirst(Deadline.after(Duration.ofMillis(800)),
+                    "SELECT pg_sleep(5)", resultSet -> resultSet.getString(1)));
+            var elapsed = Duration.ofNanos(System.nanoTime() - began);
+
+            assertEquals("57014", e.getSQLState());
+            assertTrue(elapsed.toMillis() < 2_000, "cancelled after the second the query timeout was rounded up to: " + elapsed);
+            assertEquals(1, limiter.getStats().getTimeouts());
+            assertTrue(limiter.getLimit() < initialLimit, "a timeout backs off");
+
+            // the statement went back to the cache without its timeout
+            try (var connection = pool.getConnection()) {
+                CachedStatements.execute(connection, "SELECT pg_sleep(5)", statement -> {
+                    assertEquals(0, statement.getQueryTimeout());
+                    return null;
+                });
+            }
+        }
+    }
+
+    @Test
+    public void requests_beyond_the_queue_fail_at_once_and_queued_ones_wait_until_their_deadline() throws Exception {
+        try (var pool = pool(2)) {
+            var limiter = new ConcurrencyLimiter(pool, LimiterConfig.of(1).withMaxQueued(1));
+            var busy = CompletableFuture.runAsync(() -> {
+                try {
+                    limiter.queryFirst(Deadline.after(Duration.ofSeconds(5)), "SELECT pg_sleep(1)", resultSet -> resultSet.getString(1));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            while (limiter.getInFlight() == 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+
+            var queued = CompletableFuture.supplyAsync(() -> assertThrows(SQLTimeoutException.class,
+                    () -> limiter.queryFirst(Deadline.after(Duration.ofMillis(200)), "SELECT 1", resultSet -> resultSet.getInt(1))));
+            while (limiter.getWaiting() == 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            var began = System.nanoTime();
+            assertThrows(SQLTransientException.class,
+                    () -> limiter.queryFirst(Deadline.after(Duration.ofSeconds(5)), "SELECT 1", resultSet -> resultSet.getInt(1)));
+            assertTrue(System.nanoTime() - began < TimeUnit.MILLISECONDS.toNanos(100), "rejected without waiting");
+
+            queued.join();
+            busy.join();
+            var stats = limiter.getStats();
+            assertEquals(1, stats.getRejected());
+            assertEquals(1, stats.getExpired());
+            assertEquals(1, stats.getAdmitted());
+            assertEquals(1, (int) limiter.queryFirst(Deadline.after(Duration.ofSeconds(1)), "SELECT 1", resultSet -> resultSet.getInt(1)).orElseThrow());
+        }
+    }
+
+    /**
+     * First the capacity of the database, with as many closed-loop clients as cores. Then 64 clients, without any
+     * pause between their requests, straight on a pool of 32, and the same clients through a limiter in front of it:
+     * with the limiter the statements in flight shrink below the pool, the queue in front of the database stays short
+     * and the excess is turned away at once, so the successful requests keep a p99 well below the one of the pool
+     * alone, and the database still completes at least half of its capacity.
+     */
+    @Test
+    public void under_overload_the_latency_stays_bounded_and_the_throughput_degrades_gracefully() throws Exception {
+        var cores = Runtime.getRuntime().availableProcessors();
+        double capacity;
+        try (var pool = pool(cores)) {
+            var completed = new LongAdder();
+            run(cores, Duration.ofSeconds(2), () -> {
+                try (var connection = pool.getConnection()) {
+                    CachedStatements.queryFirst(connection, CPU_BOUND_SQL, resultSet -> resultSet.getLong(1));
+                    completed.increment();
+                }
+            });
+            capacity = completed.sum() / 2.0;
+        }
+
+        var unlimited = new LatencyHistogram();
+        try (var pool = pool(32)) {
+            run(64, Duration.ofSeconds(3), () -> {
+                var began = System.nanoTime();
+                try (var connection = pool.getConnection()) {
+                    CachedStatements.queryFirst(connection, CPU_BOUND_SQL, resultSet -> resultSet.getLong(1));
+                    unlimited.record(System.nanoTime() - began);
+                } catch (SQLTransientException e) {
+                    // the pool timed out
+                    TimeUnit.MILLISECONDS.sleep(5);
+                }
+            });
+        }
+
+        try (var pool = pool(32)) {
+            var limiter = new ConcurrencyLimiter(pool, LimiterConfig.of(32).withMaxQueued(16));
+            var successes = new LatencyHistogram();
+            var failures = new LongAdder();
+            run(64, Duration.ofSeconds(3), () -> {
+                var began = System.nanoTime();
+                try {
+                    limiter.queryFirst(Deadline.after(Duration.ofSeconds(1)), CPU_BOUND_SQL, resultSet -> resultSet.getLong(1));
+                    successes.record(System.nanoTime() - began);
+                } catch (SQLTransientException e) {
+                    // what a client would do with a 503
+                    failures.increment();
+                    TimeUnit.MILLISECONDS.sleep(5);
+                } catch (SQLException e) {
+                    assertEquals("57014", e.getSQLState(), e.toString());
+                    failures.increment();
+                }
+            });
+
+            var goodput = successes.getCount() / 3.0;
+            System.out.println("capacity %.0f/s, goodput %.0f/s, %s, without limiter %s, %s, limit %d"
+                    .formatted(capacity, goodput, successes, unlimited, limiter.getStats(), limiter.getLimit()));
+            assertTrue(failures.sum() > 0, "64 clients without pause overload the database");
+            assertTrue(limiter.getLimit() < limiter.getConfig().maxLimit(), "the limit shrank below the pool: " + limiter.getLimit());
+            assertTrue(successes.getValueAtPercentile(99) < TimeUnit.SECONDS.toNanos(1), successes.toString());
+            assertTrue(successes.getValueAtPercentile(99) < unlimited.getValueAtPercentile(99) * 2 / 3,
+                    "with the limiter %s, without %s".formatted(successes, unlimited));
+            assertTrue(limiter.getStats().getResponseTimes().getValueAtPercentile(99) < TimeUnit.SECONDS.toNanos(2),
+                    limiter.getStats().toString());
+            assertTrue(goodput > capacity / 2, "goodput %.0f/s, capacity %.0f/s".formatted(goodput, capacity));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        void run() throws Exception;
+    }
+
+    private static void run(int clients, Duration duration, Request request) {
+        var stopped = new AtomicBoolean();
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var i = 0; i < clients; i++) {
+            var thread = new CompletableFuture<Void>();
+            futures.add(thread);
+            new Thread(() -> {
+                try {
+                    while (!stopped.get()) {
+                        request.run();
+                    }
+                    thread.complete(null);
+                } catch (Throwable e) {
+                    thread.completeExceptionally(e);
+                }
+            }, "overload-client-" + i).start();
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(duration.toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopped.set(true);
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+    }
+}
@@ -0,0 +1,135 @@
+package net.toiditimtoi.jdbc.load;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Short runs of the load generator on the post table of the test database.
+ */
+@CommitsTransactions
+public class LoadGeneratorTest extends BasePostgresSqlTest {
+
+    private static LoadConfig shortRun() {
+        return LoadConfig.defaults()
+                .withWarmup(Duration.ofMillis(200))
+                .withDuration(Duration.ofSeconds(2))
+                .withReportInterval(Duration.ofMillis(500))
+                .withSeedRows(1_000);
+    }
+
+    @Test
+    public void the_open_loop_sends_requests_at_the_configured_rate() throws Exception {
+        var file = Files.createTempFile("load", ".csv");
+        try (var pool = pool(4)) {
+            var config = shortRun()
+                    .withRate(400)
+                    .withConcurrency(4)
+                    .withMix(OperationMix.parse("lookup=80,insert=10,versioned_update=10"));
+            var listened = new ArrayList<IntervalReport>();
+            LoadResult result;
+            try (var report = ReportFile.create(file)) {
+                result = new LoadGenerator(pool, config).run(reports -> {
+                    listened.addAll(reports);
+                    report.append(reports);
+                });
+            }
+
+            var total = result.total();
+            assertEquals(IntervalReport.ALL, total.operation());
+            assertEquals(800, total.count(), 800 * 0.1);
+            assertEquals(400, total.throughput(), 400 * 0.15);
+            assertEquals(0, total.errors());
+            assertEquals(total.count(), result.totalServiceTime().count());
+            assertEquals(0, result.missedRequests());
+            assertEquals(4, result.responseTimes().size(), "lookup, insert, versioned_update and all");
+
+            var intervals = result.intervals().stream().filter(interval -> interval.operation().equals(IntervalReport.ALL)).toList();
+            assertTrue(intervals.size() >= 4, intervals.toString());
+            assertEquals(listened, result.intervals());
+            var lines = Files.readAllLines(file);
+            assertEquals(IntervalReport.CSV_HEADER, lines.get(0));
+            assertEquals(result.intervals().size() + 1, lines.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The post table is locked for a second in the middle of the run. Only the requests of the two workers are
+     * blocked, but 200 more were due meanwhile: their response times show the stall, the service times do not.
+     */
+    @Test
+    public void a_stall_shows_in_the_latency_of_every_request_it_delayed() throws Exception {
+        try (var pool = pool(2); var locker = pool(1)) {
+            var config = shortRun()
+                    .withWarmup(Duration.ZERO)
+                    .withDuration(Duration.ofSeconds(3))
+                    .withRate(200)
+                    .withConcurrency(2)
+                    .withSeedRows(0)
+                    .withMix(OperationMix.parse("lookup=1"));
+            var stall = CompletableFuture.runAsync(() -> {
+                try (var connection = locker.getConnection(); var statement = connection.createStatement()) {
+                    TimeUnit.MILLISECONDS.sleep(800);
+                    connection.setAutoCommit(false);
+                    statement.execute("LOCK TABLE post IN ACCESS EXCLUSIVE MODE");
+                    TimeUnit.SECONDS.sleep(1);
+                    connection.commit();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            var result = new LoadGenerator(pool, config).run(reports -> {
+            });
+            stall.join();
+
+            var responseTime = result.total();
+            var serviceTime = result.totalServiceTime();
+            System.out.println(responseTime);
+            System.out.println(serviceTime);
+            assertTrue(responseTime.p99Nanos() > TimeUnit.MILLISECONDS.toNanos(500), responseTime.toString());
+            assertTrue(serviceTime.p99Nanos() < TimeUnit.MILLISECONDS.toNanos(100), serviceTime.toString());
+            assertTrue(serviceTime.maxNanos() > TimeUnit.MILLISECONDS.toNanos(500), serviceTime.toString());
+        }
+    }
+
+    @Test
+    public void the_closed_loop_measures_service_times() throws Exception {
+        try (var pool = pool(2)) {
+            var config = shortRun()
+                    .withMode(LoadConfig.Mode.CLOSED_LOOP)
+                    .withConcurrency(2)
+                    .withDuration(Duration.ofMillis(500))
+                    .withMix(OperationMix.parse("lookup=90,scan=1,delete=9"));
+
+            var result = new LoadGenerator(pool, config).run(reports -> {
+            });
+
+            assertTrue(result.total().count() > 100);
+            assertEquals(result.total().count(), result.totalServiceTime().count());
+            assertEquals(0, result.total().errors());
+        }
+    }
+
+    @Test
+    public void mixes_are_parsed_and_picked_by_weight() {
+        var mix = OperationMix.parse("Lookup=3, delete=1");
+        assertEquals("lookup=3,delete=1", mix.toString());
+        assertEquals(Operation.LOOKUP, mix.pick(0));
+        assertEquals(Operation.LOOKUP, mix.pick(0.74));
+        assertEquals(Operation.DELETE, mix.pick(0.75));
+        assertEquals(Operation.DELETE, mix.pick(0.999));
+        assertThrows(IllegalArgumentException.class, () -> OperationMix.parse("lookup=0"));
+        assertThrows(IllegalArgumentException.class, () -> OperationMix.parse("select=1"));
+    }
+}
@@ -0,0 +1,122 @@
+package net.toiditimtoi.jdbc.mapping;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * QueryingTheDbTest notes that reading columns by index is faster than by label on large results:
+ * getInt("id") has to find the column for the label on every call.
+ * The compiled mappers resolve the labels once per result layout and read by index from then on.
+ */
+public class RowMappersTest extends BasePostgresSqlTest {
+
+    interface PostSink {
+        void accept(long id, String title, int version);
+    }
+
+    record TitleAndId(String title, long id) {
+    }
+
+    @Test
+    public void rows_are_mapped_into_a_record() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT * FROM post ORDER BY id")) {
+            var posts = RowMappers.forRecord(Post.class).mapAll(resultSet);
+            assertEquals(SEED_POSTS.size(), posts.size());
+            assertEquals(new Post(1, "Hypersistence", 0), posts.get(0));
+        }
+    }
+
+    @Test
+    public void components_are_matched_by_label_whatever_the_column_order() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT version, id, title FROM post WHERE id = 2")) {
+            assertTrue(resultSet.next());
+            assertEquals(new TitleAndId("Advanced Java Performance", 2), RowMappers.forRecord(TitleAndId.class).map(resultSet));
+        }
+    }
+
+    @Test
+    public void mappers_bound_to_different_layouts_map_their_rows_side_by_side() throws SQLException {
+        var mapper = RowMappers.forRecord(TitleAndId.class);
+        try (var connection = DATA_SOURCE.getConnection();
+             var byId = connection.createStatement();
+             var byTitle = connection.createStatement();
+             var idFirst = byId.executeQuery("SELECT id, title FROM post ORDER BY id");
+             var titleFirst = byTitle.executeQuery("SELECT title, id FROM post ORDER BY id")) {
+            var idFirstMapper = mapper.bind(idFirst);
+            var titleFirstMapper = mapper.bind(titleFirst);
+            while (idFirst.next()) {
+                assertTrue(titleFirst.next());
+                assertEquals(idFirstMapper.map(idFirst), titleFirstMapper.map(titleFirst));
+            }
+            assertFalse(titleFirst.next());
+        }
+    }
+
+    @Test
+    public void a_missing_column_is_reported() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT id FROM post")) {
+            assertTrue(resultSet.next());
+            assertThrows(SQLException.class, () -> RowMappers.forRecord(Post.class).map(resultSet));
+        }
+    }
+
+    @Test
+    public void columns_are_pushed_into_a_primitive_sink() throws SQLException {
+        var mapper = RowMappers.forSink(PostSink.class, "id", "title", "version");
+        var sums = new long[2];
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT * FROM post")) {
+            var rows = mapper.forEach(resultSet, (id, title, version) -> {
+                sums[0] += id;
+                sums[1] += title.length();
+            });
+            assertEquals(3, rows);
+        }
+        assertEquals(1 + 2 + 3, sums[0]);
+        assertEquals(SEED_POSTS.stream().mapToInt(post -> post.title().length()).sum(), sums[1]);
+    }
+
+    /**
+     * A rough comparison on a million rows already in memory, so only the mapping is measured.
+     * The JMH benchmarks give the precise numbers.
+     */
+    @Test
+    public void compiled_mapping_versus_label_lookups() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+             var resultSet = statement.executeQuery("SELECT g AS id, 'Post ' || g AS title, 0 AS version FROM generate_series(1, 1000000) g")) {
+            var mapper = RowMappers.forSink(PostSink.class, "id", "title", "version");
+            var checksum = new long[1];
+            PostSink sink = (id, title, version) -> checksum[0] += id + version + title.length();
+            for (var round = 0; round < 3; round++) {
+                resultSet.beforeFirst();
+                var start = System.nanoTime();
+                while (resultSet.next()) {
+                    sink.accept(resultSet.getLong("id"), resultSet.getString("title"), resultSet.getInt("version"));
+                }
+                var labelNanos = System.nanoTime() - start;
+
+                resultSet.beforeFirst();
+                start = System.nanoTime();
+                mapper.forEach(resultSet, sink);
+                var compiledNanos = System.nanoTime() - start;
+
+                System.out.printf("Round %d: by label %d ms, compiled %d ms%n", round, labelNanos / 1_000_000, compiledNanos / 1_000_000);
+            }
+            assertTrue(checksum[0] > 0);
+        }
+    }
+}
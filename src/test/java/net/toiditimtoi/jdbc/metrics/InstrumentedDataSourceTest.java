@@ -0,0 +1,200 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The connections of an {@link InstrumentedDataSource} behave like the ones they wrap, and record what their
+ * statements cost per statement shape.
+ */
+public class InstrumentedDataSourceTest extends BasePostgresSqlTest {
+    private static final String SELECT_TITLE_BY_ID_SQL = "SELECT title FROM post WHERE id = ?";
+
+    @Test
+    public void statements_with_the_same_shape_are_recorded_together() throws SQLException {
+        var dataSource = new InstrumentedDataSource(DATA_SOURCE, new JdbcMetrics());
+        try (var connection = dataSource.getConnection()) {
+            try (var statement = connection.prepareStatement(SELECT_TITLE_BY_ID_SQL)) {
+                for (var id = 1; id <= 2; id++) {
+                    statement.setLong(1, id);
+                    try (var resultSet = statement.executeQuery()) {
+                        assertTrue(resultSet.next());
+                        assertSame(statement, resultSet.getStatement());
+                    }
+                }
+            }
+            try (var statement = connection.createStatement()) {
+                // the same shape with literals, the way it should not be written
+                for (var id = 1; id <= 3; id++) {
+                    try (var resultSet = statement.executeQuery("SELECT title FROM post WHERE id = " + id)) {
+                        while (resultSet.next()) {
+                            assertNotNull(resultSet.getString(1));
+                        }
+                    }
+                }
+                assertEquals(3, statement.executeUpdate("UPDATE post SET version = version + 1"));
+            }
+        }
+
+        var metrics = dataSource.getMetrics();
+        var select = metrics.getStatement(SELECT_TITLE_BY_ID_SQL);
+        assertEquals(SELECT_TITLE_BY_ID_SQL, select.getShape());
+        assertSame(select, metrics.getStatement("SELECT title FROM post WHERE id = 42"));
+        assertEquals(5, select.getExecutions());
+        assertEquals(5, select.getFetchTime().getCount());
+        assertEquals(5, select.getRowsReturned());
+        assertTrue(select.getExecutionTime().getValueAtPercentile(50) > 0);
+
+        var update = metrics.getStatement("UPDATE post SET version = version + 1");
+        assertEquals("UPDATE post SET version = version + ?", update.getShape());
+        assertEquals(3, update.getRowsAffected());
+        assertEquals(1, metrics.getConnectionAcquireTime().getCount());
+        assertEquals(2, metrics.getStatements().size());
+        System.out.print(metrics.report(10));
+    }
+
+    @Test
+    public void transactions_are_timed_from_their_first_statement_to_their_end() throws SQLException {
+        var dataSource = new InstrumentedDataSource(DATA_SOURCE, new JdbcMetrics());
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (var statement = connection.createStatement()) {
+                statement.execute("SELECT pg_sleep(0.02)");
+            }
+            connection.commit();
+            // no statement, no transaction
+            connection.rollback();
+
+            try (var statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE post SET title = 'Rolled back'");
+            }
+            connection.rollback();
+        }
+        var transactionTime = dataSource.getMetrics().getTransactionTime();
+        assertEquals(2, transactionTime.getCount());
+        assertTrue(transactionTime.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void statements_cancelled_by_their_timeout_are_recorded_as_failures() throws SQLException, IOException {
+        var metrics = new JdbcMetrics(MetricsConfig.defaults().withSlowStatementThreshold(Duration.ofMillis(500)));
+        var dataSource = new InstrumentedDataSource(DATA_SOURCE, metrics);
+        var file = Files.createTempFile("failed-statements", ".jfr");
+        try (var recording = new Recording()) {
+            recording.enable(SlowStatementEvent.NAME);
+            recording.start();
+            try (var connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try (var statement = connection.prepareStatement("SELECT pg_sleep(?)")) {
+                    statement.setQueryTimeout(1);
+                    statement.setDouble(1, 5);
+                    var failure = assertThrows(SQLException.class, statement::executeQuery);
+                    assertEquals("57014", failure.getSQLState());
+                }
+                connection.rollback();
+            }
+            recording.stop();
+            recording.dump(file);
+
+            var sleep = metrics.getStatement("SELECT pg_sleep(?)");
+            assertEquals(1, sleep.getExecutions());
+            assertEquals(1, sleep.getFailures());
+            assertTrue(sleep.getExecutionTime().getMaxNanos() >= TimeUnit.SECONDS.toNanos(1));
+            assertEquals(1, metrics.getTransactionTime().getCount());
+
+            var events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(SlowStatementEvent.NAME))
+                    .toList();
+            assertEquals(1, events.size());
+            assertTrue(events.get(0).getBoolean("failed"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void the_same_query_in_a_loop_is_reported_once_per_transaction() throws SQLException {
+        var suspicions = new ArrayList<String>();
+        var metrics = new JdbcMetrics(MetricsConfig.defaults().withNPlusOneThreshold(3))
+                .onNPlusOne((statement, sql, executions) -> suspicions.add(statement.getShape() + " x" + executions));
+        var dataSource = new InstrumentedDataSource(DATA_SOURCE, metrics);
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            for (var transaction = 0; transaction < 2; transaction++) {
+                // the ids of the posts, then each post on its own: the N+1
+                var ids = CachedStatements.query(connection, "SELECT id FROM post ORDER BY id", resultSet -> resultSet.getLong(1));
+                for (var id : ids) {
+                    CachedStatements.queryFirst(connection, SELECT_TITLE_BY_ID_SQL, resultSet -> resultSet.getString(1), id);
+                }
+                connection.commit();
+            }
+        }
+        assertEquals(List.of(SELECT_TITLE_BY_ID_SQL + " x3", SELECT_TITLE_BY_ID_SQL + " x3"), suspicions);
+        assertEquals(2, metrics.getStatement(SELECT_TITLE_BY_ID_SQL).getNPlusOneSuspicions());
+        assertEquals(0, metrics.getStatement("SELECT id FROM post ORDER BY id").getNPlusOneSuspicions());
+        assertEquals(2, metrics.getNPlusOneSuspicions());
+    }
+
+    @Test
+    public void pooled_connections_keep_their_statement_cache() throws SQLException {
+        try (var pool = pool(1)) {
+            var dataSource = new InstrumentedDataSource(pool, new JdbcMetrics());
+            for (var i = 0; i < 3; i++) {
+                try (var connection = dataSource.getConnection()) {
+                    var title = CachedStatements.queryFirst(connection, SELECT_TITLE_BY_ID_SQL, resultSet -> resultSet.getString(1), 1L);
+                    assertEquals("Hypersistence", title.orElseThrow());
+                }
+            }
+            assertEquals(1, pool.getStatementCacheStats().getMisses());
+            assertEquals(2, pool.getStatementCacheStats().getHits());
+            var select = dataSource.getMetrics().getStatement(SELECT_TITLE_BY_ID_SQL);
+            assertEquals(3, select.getExecutions());
+            assertEquals(3, select.getRowsReturned());
+            assertEquals(3, dataSource.getMetrics().getConnectionAcquireTime().getCount());
+        }
+    }
+
+    @Test
+    public void slow_statements_are_flight_recorder_events() throws SQLException, IOException {
+        var metrics = new JdbcMetrics(MetricsConfig.defaults().withSlowStatementThreshold(Duration.ofMillis(30)));
+        var dataSource = new InstrumentedDataSource(DATA_SOURCE, metrics);
+        var file = Files.createTempFile("slow-statements", ".jfr");
+        try (var recording = new Recording()) {
+            recording.enable(SlowStatementEvent.NAME);
+            recording.start();
+            try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+                statement.execute("SELECT pg_sleep(0.05)");
+                statement.execute("SELECT 1");
+            }
+            recording.stop();
+            recording.dump(file);
+
+            var events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(SlowStatementEvent.NAME))
+                    .toList();
+            assertEquals(1, events.size());
+            RecordedEvent event = events.get(0);
+            assertEquals("SELECT pg_sleep(0.05)", event.getString("sql"));
+            assertEquals("SELECT pg_sleep(?)", event.getString("shape"));
+            assertEquals("execute", event.getString("phase"));
+            assertTrue(event.getDuration("elapsed").toMillis() >= 50);
+            assertNotNull(event.getStackTrace());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
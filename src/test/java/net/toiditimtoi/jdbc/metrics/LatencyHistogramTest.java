@@ -0,0 +1,66 @@
+package net.toiditimtoi.jdbc.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_are_within_the_bucket_precision() {
+        var histogram = new LatencyHistogram();
+        // 1 microsecond to 100 milliseconds, evenly
+        for (var micros = 1L; micros <= 100_000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMaxNanos());
+        assertEquals(50_000.5, histogram.getMeanNanos() / 1_000, 0.01);
+        for (var percentile : new double[]{1, 10, 50, 90, 99, 99.9}) {
+            var expected = TimeUnit.MICROSECONDS.toNanos((long) (percentile * 1_000));
+            var actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected, "p" + percentile + " = " + actual);
+            assertTrue(actual <= expected * 1.032, "p" + percentile + " = " + actual);
+        }
+        assertEquals(histogram.getMaxNanos(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void small_values_are_exact_and_huge_ones_are_capped() {
+        var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (var nanos = 0; nanos < 32; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(15, histogram.getValueAtPercentile(50));
+        assertEquals(31, histogram.getValueAtPercentile(100));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getMaxNanos());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE_NANOS, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void threads_record_concurrently_without_losing_values() throws InterruptedException {
+        var histogram = new LatencyHistogram();
+        var threads = new ArrayList<Thread>();
+        for (var i = 0; i < 8; i++) {
+            var thread = new Thread(() -> {
+                for (var j = 0; j < 100_000; j++) {
+                    histogram.record(ThreadLocalRandom.current().nextLong(1_000, 1_000_000));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertEquals(800_000, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), histogram.getValueAtPercentile(100), 32_000);
+    }
+}
@@ -0,0 +1,150 @@
+package net.toiditimtoi.jdbc.page;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ResultSetTest moves through a scrollable ResultSet with absolute() and relative(), which only works because the
+ * driver holds every row of the result. PostPager seeks to the start of each page in the index instead.
+ */
+public class PostPagerTest extends BasePostgresSqlTest {
+
+    private static void generatePosts(int count) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             // few distinct titles, the id has to break the ties of the title order
+             var statement = connection.prepareStatement("INSERT INTO post(title, version) SELECT 'Generated post ' || (g % 7), 0 FROM generate_series(1, ?) g")) {
+            statement.setInt(1, count);
+            statement.executeUpdate();
+        }
+    }
+
+    private static List<Post> allPosts(String orderBy) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            return CachedStatements.query(connection, "SELECT id, title, version FROM post WHERE title IS NOT NULL ORDER BY " + orderBy,
+                    RowMappers.forRecord(Post.class));
+        }
+    }
+
+    private static List<Page> walkForward(PostPager pager) throws SQLException {
+        var pages = new ArrayList<Page>();
+        var page = pager.first();
+        pages.add(page);
+        while (page.hasNext()) {
+            page = pager.page(page.nextCursor());
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private static List<Post> postsOf(List<Page> pages) {
+        return pages.stream().flatMap(page -> page.posts().stream()).toList();
+    }
+
+    @Test
+    public void walking_forward_visits_every_post_once_in_id_order() throws SQLException {
+        generatePosts(47);
+        var pager = new PostPager(DATA_SOURCE, PostOrder.ID, 10);
+
+        var pages = walkForward(pager);
+
+        assertEquals(5, pages.size());
+        assertEquals(allPosts("id"), postsOf(pages));
+        assertFalse(pages.get(0).hasPrevious());
+        assertTrue(pages.get(4).hasPrevious());
+        assertEquals(10, pages.get(3).posts().size());
+        assertEquals(10, pages.get(4).posts().size());
+    }
+
+    @Test
+    public void walking_backward_from_the_last_page_visits_the_same_pages() throws SQLException {
+        generatePosts(45);
+        var pager = new PostPager(DATA_SOURCE, PostOrder.TITLE, 10);
+        var forward = walkForward(pager);
+
+        var backward = new ArrayList<Page>();
+        var page = pager.last();
+        backward.add(0, page);
+        while (page.hasPrevious()) {
+            page = pager.page(page.previousCursor());
+            backward.add(0, page);
+        }
+
+        assertEquals(allPosts("title, id"), postsOf(forward));
+        assertEquals(postsOf(forward), postsOf(backward));
+        assertFalse(backward.get(backward.size() - 1).hasNext());
+        // backward, the short page is the first one
+        assertEquals(8, backward.get(0).posts().size());
+        assertFalse(backward.get(0).hasPrevious());
+    }
+
+    @Test
+    public void a_cursor_is_not_moved_by_rows_inserted_before_it() throws SQLException {
+        generatePosts(20);
+        var pager = new PostPager(DATA_SOURCE, PostOrder.TITLE, 5);
+        var first = pager.first();
+        var expected = pager.page(first.nextCursor()).posts();
+
+        // sorts before every generated post, OFFSET 5 would now return the last post of the first page again
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection, INSERT_POST_SQL, "A post inserted meanwhile", 0);
+        }
+
+        assertEquals(expected, pager.page(first.nextCursor()).posts());
+    }
+
+    @Test
+    public void the_previous_page_of_the_second_page_is_the_first_page() throws SQLException {
+        generatePosts(20);
+        var pager = new PostPager(DATA_SOURCE, PostOrder.ID, 5);
+        var first = pager.first();
+        var second = pager.page(first.nextCursor());
+
+        var previous = pager.page(second.previousCursor());
+
+        assertEquals(first.posts(), previous.posts());
+        assertFalse(previous.hasPrevious());
+        assertTrue(previous.hasNext());
+    }
+
+    @Test
+    public void posts_without_title_are_left_out_of_the_title_order() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.executeUpdate(connection, INSERT_POST_SQL, null, 0);
+        }
+        var byTitle = walkForward(new PostPager(DATA_SOURCE, PostOrder.TITLE, 2));
+        var byId = walkForward(new PostPager(DATA_SOURCE, PostOrder.ID, 2));
+
+        assertEquals(SEED_POSTS.size(), postsOf(byTitle).size());
+        assertEquals(SEED_POSTS.size() + 1, postsOf(byId).size());
+    }
+
+    @Test
+    public void a_table_smaller_than_a_page_has_a_single_page() throws SQLException {
+        var page = new PostPager(DATA_SOURCE, PostOrder.ID, 10).first();
+
+        assertEquals(SEED_POSTS.stream().map(Post::title).toList(), page.posts().stream().map(Post::title).toList());
+        assertFalse(page.hasNext());
+        assertFalse(page.hasPrevious());
+    }
+
+    @Test
+    public void cursors_are_checked() throws SQLException {
+        var byId = new PostPager(DATA_SOURCE, PostOrder.ID, 1);
+        var byTitle = new PostPager(DATA_SOURCE, PostOrder.TITLE, 1);
+        var cursor = byId.first().nextCursor();
+
+        assertThrows(IllegalArgumentException.class, () -> byTitle.page(cursor));
+        assertThrows(IllegalArgumentException.class, () -> byId.page("not a cursor"));
+        assertThrows(IllegalArgumentException.class, () -> byId.page("SUQKPgp4"));
+        assertThrows(IllegalArgumentException.class, () -> new PostPager(DATA_SOURCE, "post; DROP TABLE post", PostOrder.ID, 1));
+    }
+}
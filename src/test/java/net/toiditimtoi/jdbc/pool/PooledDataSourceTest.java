@@ -0,0 +1,188 @@
+package net.toiditimtoi.jdbc.pool;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Opening a physical connection is expensive: TCP handshake, authentication, and Postgres forks a new backend process for it.
+ * A pool opens a few connections once and lends them out again and again.
+ * Closing a pooled connection does not close the physical connection, it gives it back to the pool.
+ */
+@CommitsTransactions
+@Isolated
+public class PooledDataSourceTest extends BasePostgresSqlTest {
+
+    private static PoolConfig singleConnectionConfig() {
+        return PoolConfig.of(url(), user(), password()).withMaxPoolSize(1);
+    }
+
+    private static int backendPid(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery("SELECT pg_backend_pid()")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    @Test
+    public void the_same_physical_connection_is_reused() throws SQLException {
+        try (var pool = new PooledDataSource(singleConnectionConfig())) {
+            int firstPid;
+            try (var connection = pool.getConnection()) {
+                firstPid = backendPid(connection);
+            }
+            try (var connection = pool.getConnection()) {
+                // the same Postgres backend process serves us, no new connection was opened
+                assertEquals(firstPid, backendPid(connection));
+            }
+            assertEquals(1, pool.getTotalConnections());
+            assertEquals(1, pool.getIdleConnections());
+        }
+    }
+
+    /**
+     * Closing a physical connection without committing discards the transaction.
+     * A pooled connection must behave the same way, and the next borrower must not inherit the settings we changed.
+     */
+    @Test
+    public void connection_state_is_reset_when_it_goes_back_to_the_pool() throws SQLException {
+        try (var pool = new PooledDataSource(singleConnectionConfig())) {
+            try (var connection = pool.getConnection()) {
+                connection.setAutoCommit(false);
+                connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+                try (var statement = connection.prepareStatement("INSERT INTO post(title, version) values (?, 0)")) {
+                    statement.setString(1, "Never committed");
+                    statement.executeUpdate();
+                }
+                connection.setReadOnly(true);
+            }
+            try (var connection = pool.getConnection()) {
+                assertTrue(connection.getAutoCommit());
+                assertFalse(connection.isReadOnly());
+                assertEquals(Connection.TRANSACTION_READ_COMMITTED, connection.getTransactionIsolation());
+                try (var statement = connection.prepareStatement("SELECT count(*) FROM post WHERE title = ?")) {
+                    statement.setString(1, "Never committed");
+                    try (var resultSet = statement.executeQuery()) {
+                        resultSet.next();
+                        assertEquals(0, resultSet.getInt(1));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void statements_left_open_are_closed_when_the_connection_is_returned() throws SQLException {
+        try (var pool = new PooledDataSource(singleConnectionConfig())) {
+            var connection = pool.getConnection();
+            var statement = connection.createStatement();
+            connection.close();
+            assertTrue(statement.isClosed());
+            assertTrue(connection.isClosed());
+            assertThrows(SQLException.class, connection::createStatement);
+        }
+    }
+
+    @Test
+    public void borrowing_times_out_when_the_pool_is_exhausted() throws SQLException {
+        var config = singleConnectionConfig().withConnectionTimeout(Duration.ofMillis(200));
+        try (var pool = new PooledDataSource(config)) {
+            try (var ignored = pool.getConnection()) {
+                assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+            }
+            // once returned, the connection can be borrowed again
+            try (var connection = pool.getConnection()) {
+                assertTrue(connection.isValid(1));
+            }
+        }
+    }
+
+    @Test
+    public void idle_connections_are_evicted() throws Exception {
+        var config = PoolConfig.of(url(), user(), password()).withIdleTimeout(Duration.ofMillis(100));
+        try (var pool = new PooledDataSource(config)) {
+            pool.getConnection().close();
+            assertEquals(1, pool.getTotalConnections());
+            Thread.sleep(500);
+            assertEquals(0, pool.getTotalConnections());
+        }
+    }
+
+    @Test
+    public void pool_never_opens_more_than_max_pool_size_connections() throws Exception {
+        var config = PoolConfig.of(url(), user(), password()).withMaxPoolSize(4);
+        try (var pool = new PooledDataSource(config)) {
+            var executor = Executors.newFixedThreadPool(16);
+            try {
+                var tasks = new ArrayList<Callable<Integer>>();
+                for (var i = 0; i < 16; i++) {
+                    tasks.add(() -> {
+                        var maxSeen = 0;
+                        for (var j = 0; j < 500; j++) {
+                            try (var connection = pool.getConnection()) {
+                                maxSeen = Math.max(maxSeen, pool.getTotalConnections());
+                                assertTrue(connection.isValid(1));
+                            }
+                        }
+                        return maxSeen;
+                    });
+                }
+                for (var future : executor.invokeAll(tasks)) {
+                    assertTrue(future.get() <= 4);
+                }
+            } finally {
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, pool.getActiveConnections());
+        }
+    }
+
+    /**
+     * This is the whole point of the pool. The numbers I got locally: a few milliseconds to open a physical connection,
+     * a few microseconds to borrow one from the pool.
+     */
+    @Test
+    public void borrowing_is_much_cheaper_than_opening_a_physical_connection() throws SQLException {
+        var iterations = 50;
+        var start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            DriverManager.getConnection(url(), user(), password()).close();
+        }
+        var physicalNanos = (System.nanoTime() - start) / iterations;
+
+        // warm up the pool first, so we do not measure opening its connection
+        DATA_SOURCE.getConnection().close();
+        iterations = 10_000;
+        start = System.nanoTime();
+        for (var i = 0; i < iterations; i++) {
+            DATA_SOURCE.getConnection().close();
+        }
+        var pooledNanos = (System.nanoTime() - start) / iterations;
+
+        System.out.printf("Opening a physical connection: %d us, borrowing a pooled one: %d us%n",
+                TimeUnit.NANOSECONDS.toMicros(physicalNanos), TimeUnit.NANOSECONDS.toMicros(pooledNanos));
+        assertTrue(pooledNanos < physicalNanos);
+    }
+
+    @Test
+    public void the_config_does_not_print_the_password() {
+        var config = PoolConfig.of(url(), user(), "s3cret-password");
+        assertFalse(config.toString().contains("s3cret-password"));
+        assertTrue(config.toString().contains("maxPoolSize=10"));
+    }
+}
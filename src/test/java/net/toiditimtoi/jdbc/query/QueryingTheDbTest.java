@@ -3,7 +3,6 @@ package net.toiditimtoi.jdbc.query;
 import net.toiditimtoi.jdbc.BasePostgresSqlTest;
 import org.junit.jupiter.api.Test;
 
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -13,7 +12,7 @@ public class QueryingTheDbTest extends BasePostgresSqlTest {
 
     @Test
     public void execute_normal_query_and_get_back_result_set() throws SQLException {
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (var connection = DATA_SOURCE.getConnection()) {
             var statement = connection.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
             var query = "SELECT * FROM %s".formatted(POST_TABLE_NAME);
             var resultSet = statement.executeQuery(query);
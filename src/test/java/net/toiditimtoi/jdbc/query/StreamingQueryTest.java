@@ -0,0 +1,93 @@
+package net.toiditimtoi.jdbc.query;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.Post;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Isolated;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * QueryingTheDbTest uses a scrollable ResultSet, and the driver has to keep every row in the heap to be able to scroll.
+ * With a forward-only ResultSet, autocommit off and a fetch size, the driver reads the rows through a server-side
+ * cursor, fetchSize rows at a time.
+ */
+@CommitsTransactions
+@Isolated
+public class StreamingQueryTest extends BasePostgresSqlTest {
+    private static final RowMapper<Post> POST_MAPPER =
+            resultSet -> new Post(resultSet.getLong(1), resultSet.getString(2), resultSet.getInt(3));
+
+    private static void generatePosts(int count) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.prepareStatement("INSERT INTO post(title, version) SELECT 'Generated post ' || g, 0 FROM generate_series(1, ?) g")) {
+            statement.setInt(1, count);
+            statement.executeUpdate();
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        var runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void rows_are_streamed_and_mapped_lazily() throws SQLException {
+        var query = new StreamingQuery(DATA_SOURCE, 2);
+        try (var posts = query.stream("SELECT id, title, version FROM post WHERE version = ? ORDER BY id", POST_MAPPER, 0)) {
+            assertEquals(
+                    SEED_POSTS.stream().map(Post::title).toList(),
+                    posts.map(Post::title).toList());
+        }
+        // the connection went back to the pool
+        assertEquals(0, DATA_SOURCE.getActiveConnections());
+    }
+
+    @Test
+    public void closing_the_stream_early_closes_the_cursor() throws SQLException {
+        generatePosts(10_000);
+        var query = new StreamingQuery(DATA_SOURCE, 100);
+        try (var posts = query.stream("SELECT id, title, version FROM post", POST_MAPPER)) {
+            assertEquals(5, posts.limit(5).count());
+        }
+        assertEquals(0, DATA_SOURCE.getActiveConnections());
+    }
+
+    /**
+     * We sample the heap while scanning a million rows. Materializing them would take hundreds of megabytes,
+     * streaming keeps one chunk of fetchSize rows at a time.
+     */
+    @Test
+    public void heap_stays_flat_while_scanning_a_large_table() throws SQLException {
+        var rows = 1_000_000;
+        generatePosts(rows);
+        var query = new StreamingQuery(DATA_SOURCE, 1_000);
+
+        var baseline = usedHeapAfterGc();
+        var maxGrowth = 0L;
+        var count = 0L;
+        var start = System.nanoTime();
+        var firstRowNanos = 0L;
+        try (var iterator = query.iterator("SELECT id, title, version FROM post", POST_MAPPER)) {
+            while (iterator.hasNext()) {
+                var post = iterator.next();
+                assertNotNull(post.title());
+                if (++count == 1) {
+                    firstRowNanos = System.nanoTime() - start;
+                }
+                if (count % 100_000 == 0) {
+                    maxGrowth = Math.max(maxGrowth, usedHeapAfterGc() - baseline);
+                }
+            }
+        }
+        System.out.printf("Scanned %d rows, first row after %d ms, max heap growth %d KB%n",
+                count, TimeUnit.NANOSECONDS.toMillis(firstRowNanos), maxGrowth / 1024);
+        assertEquals(rows + SEED_POSTS.size(), count);
+        assertTrue(maxGrowth < 32 * 1024 * 1024, "heap grew by " + maxGrowth + " bytes");
+    }
+}
@@ -1,9 +1,10 @@
 package net.toiditimtoi.jdbc.resultset;
 
 import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
 import org.junit.jupiter.api.Test;
 
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -17,7 +18,7 @@ public class ResultSetTest extends BasePostgresSqlTest {
 
     @Test
     public void test_result_set_scrollability() throws SQLException {
-        try(var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try(var connection = DATA_SOURCE.getConnection()) {
             // can navigate forward, backward, jump to first, last, absolute position, relative position from the current position
             try(var statement = connection.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY, ResultSet.CLOSE_CURSORS_AT_COMMIT)) {
                 var query = "SELECT * FROM post";
@@ -77,7 +78,7 @@ public class ResultSetTest extends BasePostgresSqlTest {
      */
     @Test
     public void result_set_sensitivity_to_changes() throws SQLException, InterruptedException {
-        try(var conn = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try(var conn = DATA_SOURCE.getConnection()) {
             try(var statement = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE, ResultSet.CLOSE_CURSORS_AT_COMMIT)) {
                 var query = "SELECT * from %s".formatted(POST_TABLE_NAME);
                 try(var resultSet = statement.executeQuery(query)) {
@@ -108,9 +109,7 @@ public class ResultSetTest extends BasePostgresSqlTest {
 
     private static void printCurrentRow(ResultSet resultSet) throws SQLException {
         var currentPos = resultSet.getRow();
-        var id = resultSet.getInt("id");
-        var title = resultSet.getString("title");
-        var version = resultSet.getInt("version");
-        System.out.printf("Current row (%s): ID= %s, Title= %s, Version= %s%n", currentPos, id, title, version);
+        var post = RowMappers.forRecord(Post.class).map(resultSet);
+        System.out.printf("Current row (%s): ID= %s, Title= %s, Version= %s%n", currentPos, post.id(), post.title(), post.version());
     }
 }
@@ -0,0 +1,203 @@
+package net.toiditimtoi.jdbc.routing;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test database stands for the primary, and extra databases for its replicas. They are not replicating: every
+ * replica gets a title of its own for the first post, so the tests can tell where a connection was routed.
+ */
+@CommitsTransactions
+public class RoutingDataSourceTest extends BasePostgresSqlTest {
+    private static final String SELECT_FIRST_TITLE_SQL = "SELECT title FROM post WHERE id = 1";
+
+    private RoutingDataSource routing(String... replicaUrls) {
+        return new RoutingDataSource(RoutingConfig.of(PoolConfig.of(url(), user(), password()).withMaxPoolSize(4), replicaUrls));
+    }
+
+    private String replica(String firstTitle) throws SQLException {
+        var replicaUrl = leaseExtraDatabase();
+        try (var connection = DriverManager.getConnection(replicaUrl, user(), password());
+             var statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE post SET title = '%s' WHERE id = 1".formatted(firstTitle));
+        }
+        return replicaUrl;
+    }
+
+    private static String firstTitle(Connection connection) throws SQLException {
+        return CachedStatements.queryFirst(connection, SELECT_FIRST_TITLE_SQL, resultSet -> resultSet.getString(1)).orElseThrow();
+    }
+
+    @Test
+    public void read_only_connections_are_spread_over_the_replicas() throws Exception {
+        try (var routing = routing(replica("replica 1"), replica("replica 2"))) {
+            // busy replicas are avoided: two read-only connections open at the same time go to different replicas
+            try (var first = routing.getConnection(); var second = routing.getConnection()) {
+                first.setReadOnly(true);
+                second.setReadOnly(true);
+                assertEquals(Set.of("replica 1", "replica 2"), Set.of(firstTitle(first), firstTitle(second)));
+            }
+            try (var connection = routing.getConnection()) {
+                assertEquals("Hypersistence", firstTitle(connection));
+            }
+
+            var executor = Executors.newFixedThreadPool(4);
+            try {
+                var reads = new ArrayList<Future<String>>();
+                for (var i = 0; i < 400; i++) {
+                    reads.add(executor.submit((Callable<String>) () -> routing.inReadOnlyTransaction(RoutingDataSourceTest::firstTitle)));
+                }
+                for (var read : reads) {
+                    assertTrue(read.get().startsWith("replica"));
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            System.out.print(routing.report());
+            assertEquals(1, routing.getPrimaryStats().getRoutedConnections());
+            for (var replica : routing.getReplicaStats()) {
+                assertTrue(replica.getRoutedConnections() > 100, replica.toString());
+                assertEquals(0, replica.getOutstanding());
+            }
+            assertEquals(0, routing.getPrimaryFallbacks());
+        }
+    }
+
+    @Test
+    public void a_session_reads_its_own_writes() throws SQLException {
+        try (var routing = routing(replica("replica"))) {
+            var session = routing.newSession();
+            assertEquals(-1, session.getLastWriteLsn());
+            try (var connection = session.getConnection()) {
+                CachedStatements.executeUpdate(connection, "UPDATE post SET title = ? WHERE id = 1", "Written");
+            }
+            assertTrue(session.getLastWriteLsn() > 0);
+
+            // the replica does not replay the WAL of this primary, so it never catches up with the session
+            routing.checkHealthNow();
+            assertEquals(-1, routing.getReplicaStats().get(0).getReplayedLsn());
+            try (var connection = session.getConnection()) {
+                connection.setReadOnly(true);
+                assertEquals("Written", firstTitle(connection));
+            }
+            assertEquals(1, routing.getPrimaryFallbacks());
+
+            // outside of the session, reading a stale replica is fine
+            try (var connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                assertEquals("replica", firstTitle(connection));
+            }
+        }
+    }
+
+    @Test
+    public void an_auto_commit_write_is_recorded_while_its_connection_is_still_open() throws SQLException {
+        try (var routing = routing(replica("replica"))) {
+            var session = routing.newSession();
+            routing.checkHealthNow();
+            try (var writer = session.getConnection()) {
+                try (var statement = writer.createStatement()) {
+                    statement.executeQuery("SELECT title FROM post WHERE id = 1").close();
+                    assertEquals(-1, session.getLastWriteLsn());
+                    statement.executeUpdate("UPDATE post SET title = 'Written' WHERE id = 1");
+                }
+                assertTrue(session.getLastWriteLsn() > 0);
+
+                try (var reader = session.getConnection()) {
+                    reader.setReadOnly(true);
+                    assertEquals("Written", firstTitle(reader));
+                }
+                assertEquals(1, routing.getPrimaryFallbacks());
+
+                var afterFirstWrite = session.getLastWriteLsn();
+                CachedStatements.executeUpdate(writer, "UPDATE post SET title = ? WHERE id = 1", "Written again");
+                assertTrue(session.getLastWriteLsn() > afterFirstWrite);
+            }
+        }
+    }
+
+    @Test
+    public void switching_back_to_read_write_moves_the_connection_to_the_primary() throws SQLException {
+        try (var routing = routing(replica("replica"));
+             var connection = routing.getConnection()) {
+            connection.setReadOnly(true);
+            connection.setAutoCommit(false);
+            assertEquals("replica", firstTitle(connection));
+            assertThrows(SQLException.class, () -> CachedStatements.executeUpdate(connection, "UPDATE post SET version = 1"));
+            connection.rollback();
+
+            connection.setReadOnly(false);
+            assertEquals(0, routing.getReplicaStats().get(0).getOutstanding());
+            assertEquals("Hypersistence", firstTitle(connection));
+            assertFalse(connection.getAutoCommit());
+            connection.commit();
+
+            // once on the primary, the connection stays there to read what it wrote
+            connection.setReadOnly(true);
+            assertEquals("Hypersistence", firstTitle(connection));
+        }
+    }
+
+    @Test
+    public void a_busy_replica_is_skipped_but_stays_healthy() throws SQLException {
+        var config = RoutingConfig.of(PoolConfig.of(url(), user(), password()).withMaxPoolSize(1)
+                .withConnectionTimeout(Duration.ofMillis(100)), replica("replica"));
+        try (var routing = new RoutingDataSource(config); var busy = routing.getConnection()) {
+            busy.setReadOnly(true);
+            assertEquals("replica", firstTitle(busy));
+
+            // the only connection of the replica is taken
+            try (var connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                assertEquals("Hypersistence", firstTitle(connection));
+            }
+            routing.checkHealthNow();
+
+            var replica = routing.getReplicaStats().get(0);
+            assertTrue(replica.isHealthy());
+            assertEquals(0, replica.getFailures());
+            assertEquals(2, replica.getExhausted());
+            assertEquals(1, routing.getPrimaryFallbacks());
+        }
+    }
+
+    @Test
+    public void unhealthy_replicas_are_skipped() throws SQLException {
+        var url = url();
+        var pathStart = url.indexOf('/', url.indexOf("//") + 2);
+        var queryStart = url.indexOf('?', pathStart);
+        var missingUrl = url.substring(0, pathStart + 1) + "no_such_database" + (queryStart < 0 ? "" : url.substring(queryStart));
+
+        try (var routing = routing(missingUrl, replica("replica"))) {
+            for (var i = 0; i < 10; i++) {
+                assertEquals("replica", routing.inReadOnlyTransaction(RoutingDataSourceTest::firstTitle));
+            }
+            var missing = routing.getReplicaStats().get(0);
+            assertFalse(missing.isHealthy());
+            assertEquals(1, missing.getFailures());
+            assertEquals(0, missing.getRoutedConnections());
+
+            routing.checkHealthNow();
+            assertFalse(missing.isHealthy());
+            assertEquals(2, missing.getFailures());
+            assertTrue(routing.getReplicaStats().get(1).isHealthy());
+            assertEquals(0, routing.getPrimaryFallbacks());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package net.toiditimtoi.jdbc.shard;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.id.SequenceIdAllocator;
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import net.toiditimtoi.jdbc.query.RowMapper;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import net.toiditimtoi.jdbc.update.OptimisticLockException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The test database and two extra databases stand for three servers, each holding a third of the posts.
+ */
+@CommitsTransactions
+public class ShardedPostsTest extends BasePostgresSqlTest {
+    private static final RowMapper<Post> POST_MAPPER =
+            resultSet -> new Post(resultSet.getLong(1), resultSet.getString(2), resultSet.getInt(3));
+    private static final Comparator<Post> BY_TITLE_AND_ID = Comparator.comparing(Post::title).thenComparingLong(Post::id);
+
+    // leased once, the databases are dropped after the class
+    private static List<String> shardUrls;
+
+    private final List<PooledDataSource> pools = new ArrayList<>();
+    private ShardedPosts posts;
+
+    @BeforeEach
+    public void startShards() throws SQLException {
+        if (shardUrls == null) {
+            shardUrls = List.of(url(), leaseExtraDatabase(), leaseExtraDatabase());
+        }
+        for (var url : shardUrls) {
+            var pool = new PooledDataSource(PoolConfig.of(url, user(), password()).withMaxPoolSize(4));
+            try (var connection = pool.getConnection(); var statement = connection.createStatement()) {
+                statement.executeUpdate("TRUNCATE post");
+            }
+            pools.add(pool);
+        }
+        var ids = new SequenceIdAllocator(pools.get(0), "post_hilo_seq", 100, SequenceIdAllocator.Strategy.HI_LO);
+        posts = new ShardedPosts(pools, ids::nextId, 100);
+    }
+
+    @AfterEach
+    public void stopShards() {
+        posts.close();
+        pools.forEach(PooledDataSource::close);
+        pools.clear();
+    }
+
+    private long countOnShard(int shard) throws SQLException {
+        try (var connection = pools.get(shard).getConnection()) {
+            return CachedStatements.queryFirst(connection, "SELECT count(*) FROM post", resultSet -> resultSet.getLong(1)).orElseThrow();
+        }
+    }
+
+    private List<Post> generatePosts(int count) throws SQLException {
+        var random = new Random(42);
+        var newPosts = new ArrayList<Post>();
+        for (var i = 0; i < count; i++) {
+            newPosts.add(Post.newPost("Post " + random.nextInt(count)));
+        }
+        return posts.persistAll(newPosts);
+    }
+
+    @Test
+    public void consecutive_ids_spread_evenly_and_few_move_when_a_shard_is_added() {
+        var ids = 300_000;
+        var counts = new int[3];
+        var moved = 0;
+        for (var id = 1; id <= ids; id++) {
+            var shard = ShardedPosts.shardOf(id, 3);
+            counts[shard]++;
+            var grown = ShardedPosts.shardOf(id, 4);
+            if (grown != shard) {
+                assertEquals(3, grown, "a post only moves to the new shard");
+                moved++;
+            }
+        }
+        for (var count : counts) {
+            assertEquals(ids / 3.0, count, ids / 3.0 * 0.02);
+        }
+        assertEquals(ids / 4.0, moved, ids / 4.0 * 0.02);
+    }
+
+    @Test
+    public void a_post_is_read_and_written_on_the_shard_owning_its_id() throws SQLException {
+        var persisted = new ArrayList<Post>();
+        for (var i = 0; i < 60; i++) {
+            persisted.add(posts.persist(Post.newPost("Post " + i)));
+        }
+        var perShard = new long[3];
+        for (var post : persisted) {
+            perShard[posts.shardOf(post.id())]++;
+            assertEquals(post, posts.find(post.id()).orElseThrow());
+        }
+        for (var shard = 0; shard < 3; shard++) {
+            assertEquals(perShard[shard], countOnShard(shard));
+            assertTrue(perShard[shard] > 0);
+        }
+
+        var first = persisted.get(0);
+        var renamed = posts.update(first.withTitle("Renamed"));
+        assertEquals(1, renamed.version());
+        assertEquals(renamed, posts.find(first.id()).orElseThrow());
+        assertThrows(OptimisticLockException.class, () -> posts.update(first.withTitle("Stale")));
+
+        assertTrue(posts.delete(first.id()));
+        assertFalse(posts.delete(first.id()));
+        assertTrue(posts.find(first.id()).isEmpty());
+
+        var routed = posts.getStats().stream().mapToLong(ShardStats::getRouted).sum();
+        // 60 inserts, 60 finds, 2 updates, a find, 2 deletes and a find
+        assertEquals(60 + 60 + 2 + 1 + 2 + 1, routed);
+        assertEquals(0, posts.getStats().stream().mapToLong(ShardStats::getScatterLegs).sum());
+    }
+
+    @Test
+    public void ordered_results_of_every_shard_are_merged_as_a_stream() throws SQLException {
+        var persisted = generatePosts(5_000);
+        var expected = persisted.stream().sorted(BY_TITLE_AND_ID).toList();
+        // COLLATE "C" sorts like String.compareTo, whatever the collation of the databases
+
+        try (var merged = posts.stream("SELECT id, title, version FROM post ORDER BY title COLLATE \"C\", id", POST_MAPPER, BY_TITLE_AND_ID)) {
+            assertEquals(expected, merged.toList());
+        }
+        try (var top = posts.stream("SELECT id, title, version FROM post ORDER BY title COLLATE \"C\", id LIMIT ?", POST_MAPPER, BY_TITLE_AND_ID, 10)) {
+            assertEquals(expected.subList(0, 10), top.limit(10).toList());
+        }
+        // closed early, the cursors are rolled back and every connection went back
+        try (var firstRows = posts.stream("SELECT id, title, version FROM post ORDER BY title COLLATE \"C\", id", POST_MAPPER, BY_TITLE_AND_ID)) {
+            assertEquals(expected.subList(0, 3), firstRows.limit(3).toList());
+        }
+        for (var pool : pools) {
+            assertEquals(0, pool.getActiveConnections());
+        }
+    }
+
+    @Test
+    public void a_failing_row_mapper_gives_every_connection_back() throws SQLException {
+        generatePosts(300);
+
+        // past the first row of every shard, mapped when the cursors are opened
+        var mapped = new AtomicInteger();
+        RowMapper<Long> failingMapper = resultSet -> {
+            if (mapped.incrementAndGet() > 50) {
+                throw new IllegalStateException("Cannot map the post " + resultSet.getLong(1));
+            }
+            return resultSet.getLong(1);
+        };
+        try (var ids = posts.stream("SELECT id FROM post ORDER BY id", failingMapper, Comparator.<Long>naturalOrder())) {
+            assertThrows(IllegalStateException.class, ids::toList);
+        }
+        for (var pool : pools) {
+            assertEquals(0, pool.getActiveConnections());
+        }
+    }
+
+    @Test
+    public void cross_shard_queries_run_on_every_shard_and_are_timed_per_shard() throws SQLException {
+        generatePosts(3_000);
+
+        var counts = posts.scatter(connection -> CachedStatements.queryFirst(connection, "SELECT count(*) FROM post",
+                resultSet -> resultSet.getLong(1)).orElseThrow());
+        assertEquals(3, counts.size());
+        assertEquals(3_000L, counts.stream().mapToLong(Long::longValue).sum());
+        for (var shard = 0; shard < 3; shard++) {
+            assertEquals(countOnShard(shard), (long) counts.get(shard));
+        }
+        assertEquals(3_000, posts.queryAll("SELECT id, title, version FROM post WHERE version = ?", POST_MAPPER, 0).size());
+
+        System.out.print(posts.report());
+        for (var shard : posts.getStats()) {
+            // persistAll, scatter and queryAll
+            assertEquals(3, shard.getScatterLegs());
+            assertEquals(3, shard.getLatency().getCount());
+            assertEquals(countOnShard(shard.getShard()), shard.getRowsWritten());
+        }
+    }
+
+    @Test
+    public void a_failing_shard_fails_the_query_and_every_connection_is_given_back() throws SQLException {
+        try (var connection = pools.get(0).getConnection(); var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE only_on_the_first_shard(id bigint)");
+        }
+        try {
+            var failure = assertThrows(SQLException.class,
+                    () -> posts.queryAll("SELECT id FROM only_on_the_first_shard", resultSet -> resultSet.getLong(1)));
+            assertEquals("42P01", failure.getSQLState());
+            assertEquals(1, failure.getSuppressed().length);
+            assertThrows(SQLException.class,
+                    () -> posts.stream("SELECT id FROM only_on_the_first_shard ORDER BY id", resultSet -> resultSet.getLong(1), Comparator.<Long>naturalOrder()));
+
+            assertEquals(0, posts.getStats().get(0).getFailures());
+            assertEquals(2, posts.getStats().get(1).getFailures());
+            assertEquals(2, posts.getStats().get(2).getFailures());
+            for (var pool : pools) {
+                assertEquals(0, pool.getActiveConnections());
+            }
+        } finally {
+            try (var connection = pools.get(0).getConnection(); var statement = connection.createStatement()) {
+                statement.execute("DROP TABLE only_on_the_first_shard");
+            }
+        }
+    }
+}
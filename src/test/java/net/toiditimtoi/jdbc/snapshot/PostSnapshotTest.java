@@ -0,0 +1,106 @@
+package net.toiditimtoi.jdbc.snapshot;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import net.toiditimtoi.jdbc.update.OptimisticPostUpdater;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ResultSetTest.result_set_sensitivity_to_changes calls refreshRow() on every row to see the changes made meanwhile.
+ * PostSnapshot asks for the changed rows only, in one query.
+ */
+public class PostSnapshotTest extends BasePostgresSqlTest {
+
+    private static void generatePosts(int count) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection();
+             var statement = connection.prepareStatement("INSERT INTO post(title, version) SELECT 'Generated post ' || g, 0 FROM generate_series(1, ?) g")) {
+            statement.setInt(1, count);
+            statement.executeUpdate();
+        }
+    }
+
+    private static int executeUpdate(String sql, Object... parameters) throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            return CachedStatements.executeUpdate(connection, sql, parameters);
+        }
+    }
+
+    private static List<Post> allPosts() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            return CachedStatements.query(connection, "SELECT id, title, version FROM post", RowMappers.forRecord(Post.class));
+        }
+    }
+
+    @Test
+    public void the_first_refresh_loads_the_posts() throws SQLException {
+        var snapshot = new PostSnapshot(DATA_SOURCE);
+
+        var result = snapshot.refresh();
+
+        assertEquals(SEED_POSTS.size(), result.inserted());
+        assertEquals(SEED_POSTS.size(), result.changes());
+        assertEquals(new HashSet<>(allPosts()), new HashSet<>(snapshot.posts()));
+    }
+
+    @Test
+    public void a_refresh_only_brings_the_changed_posts() throws SQLException {
+        generatePosts(10_000);
+        var snapshot = new PostSnapshot(DATA_SOURCE);
+        snapshot.refresh();
+
+        executeUpdate(OptimisticPostUpdater.VERSIONED_UPDATE_SQL, "Hypersistence 2nd", 1L, 0);
+        executeUpdate(OptimisticPostUpdater.VERSIONED_UPDATE_SQL, "Generated post 500 2nd", 503L, 0);
+        executeUpdate(INSERT_POST_SQL, "A new post", 0);
+        executeUpdate("DELETE FROM post WHERE id = ?", 2L);
+
+        var result = snapshot.refresh();
+        System.out.println(result);
+
+        assertEquals(1, result.inserted());
+        assertEquals(2, result.updated());
+        assertEquals(1, result.deleted());
+        assertEquals("Hypersistence 2nd", snapshot.get(1).orElseThrow().title());
+        assertEquals(1, snapshot.get(503).orElseThrow().version());
+        assertTrue(snapshot.get(2).isEmpty());
+        assertEquals(new HashSet<>(allPosts()), new HashSet<>(snapshot.posts()));
+
+        assertEquals(0, snapshot.refresh().changes());
+    }
+
+    @Test
+    public void posts_no_longer_matching_the_condition_are_removed() throws SQLException {
+        generatePosts(10);
+        var snapshot = new PostSnapshot(DATA_SOURCE, "title LIKE ?", "Generated%");
+        assertEquals(10, snapshot.refresh().inserted());
+
+        executeUpdate(OptimisticPostUpdater.VERSIONED_UPDATE_SQL, "Renamed post", 4L, 0);
+        var result = snapshot.refresh();
+
+        assertEquals(1, result.deleted());
+        assertEquals(1, result.changes());
+        assertEquals(9, snapshot.size());
+        assertTrue(snapshot.get(4).isEmpty());
+    }
+
+    /**
+     * The version is all the refresh compares, a writer not incrementing it is not seen.
+     */
+    @Test
+    public void a_change_without_a_new_version_goes_unnoticed() throws SQLException {
+        var snapshot = new PostSnapshot(DATA_SOURCE);
+        snapshot.refresh();
+
+        executeUpdate("UPDATE post SET title = ? WHERE id = ?", "Hypersistence 2nd", 1L);
+
+        assertEquals(0, snapshot.refresh().changes());
+        assertEquals("Hypersistence", snapshot.get(1).orElseThrow().title());
+    }
+}
@@ -0,0 +1,110 @@
+package net.toiditimtoi.jdbc.statement;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.pool.PoolConfig;
+import net.toiditimtoi.jdbc.pool.PooledDataSource;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGStatement;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every pooled connection keeps the PreparedStatements it prepared, keyed by SQL.
+ * Executing the same SQL again reuses the statement, and after a couple of executions pgjdbc turns it into a named
+ * server-side statement, so Postgres stops parsing and planning it.
+ */
+@CommitsTransactions
+public class StatementCacheTest extends BasePostgresSqlTest {
+    private static final String COUNT_BY_TITLE_SQL = "SELECT count(*) FROM post WHERE title = ?";
+
+    private static PooledDataSource singleConnectionPool(StatementCacheConfig cacheConfig) {
+        return new PooledDataSource(PoolConfig.of(url(), user(), password()).withMaxPoolSize(1).withStatementCache(cacheConfig));
+    }
+
+    @Test
+    public void the_same_sql_reuses_the_same_statement() throws SQLException {
+        try (var pool = singleConnectionPool(StatementCacheConfig.defaults())) {
+            PreparedStatement first;
+            try (var connection = pool.getConnection()) {
+                first = CachedStatements.execute(connection, COUNT_BY_TITLE_SQL, statement -> statement);
+            }
+            // even through another logical connection, since the cache belongs to the physical connection
+            try (var connection = pool.getConnection()) {
+                var second = CachedStatements.execute(connection, COUNT_BY_TITLE_SQL, statement -> statement);
+                assertSame(first, second);
+            }
+            var stats = pool.getStatementCacheStats();
+            assertEquals(1, stats.getMisses());
+            assertEquals(1, stats.getHits());
+            assertEquals(0.5, stats.getHitRatio());
+        }
+    }
+
+    @Test
+    public void hot_statements_become_server_prepared() throws SQLException {
+        try (var pool = singleConnectionPool(new StatementCacheConfig(16, 64 * 1024, 2));
+             var connection = pool.getConnection()) {
+            for (var i = 0; i < 3; i++) {
+                var count = CachedStatements.queryFirst(connection, COUNT_BY_TITLE_SQL, resultSet -> resultSet.getInt(1), "Hypersistence");
+                assertEquals(1, (int) count.orElseThrow());
+            }
+            var serverPrepared = CachedStatements.execute(connection, COUNT_BY_TITLE_SQL,
+                    statement -> statement.unwrap(PGStatement.class).isUseServerPrepare());
+            assertTrue(serverPrepared);
+            assertEquals(1, pool.getStatementCacheStats().getServerPrepared());
+        }
+    }
+
+    @Test
+    public void least_recently_used_statements_are_evicted_and_closed() throws SQLException {
+        try (var pool = singleConnectionPool(new StatementCacheConfig(2, 64 * 1024, 5));
+             var connection = pool.getConnection()) {
+            var eldest = CachedStatements.execute(connection, "SELECT 1", statement -> statement);
+            CachedStatements.execute(connection, "SELECT 2", statement -> statement);
+            CachedStatements.execute(connection, "SELECT 3", statement -> statement);
+
+            assertTrue(eldest.isClosed());
+            assertEquals(2, connection.unwrap(StatementCache.class).size());
+            assertEquals(1, pool.getStatementCacheStats().getEvictions());
+        }
+    }
+
+    @Test
+    public void the_byte_limit_is_enforced_too() throws SQLException {
+        try (var pool = singleConnectionPool(new StatementCacheConfig(100, 2_000, 5));
+             var connection = pool.getConnection()) {
+            for (var i = 0; i < 10; i++) {
+                CachedStatements.executeUpdate(connection, "UPDATE post SET version = version WHERE id = " + i);
+            }
+            var cache = connection.unwrap(StatementCache.class);
+            assertTrue(cache.estimatedBytes() <= 2_000);
+            assertTrue(cache.size() < 10);
+        }
+    }
+
+    @Test
+    public void a_statement_already_in_use_is_not_handed_out_twice() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            CachedStatements.execute(connection, COUNT_BY_TITLE_SQL, outer -> {
+                var inner = CachedStatements.execute(connection, COUNT_BY_TITLE_SQL, statement -> statement);
+                assertNotSame(outer, inner);
+                // the nested one was not cached, so it is closed already
+                assertTrue(inner.isClosed());
+                return null;
+            });
+        }
+    }
+
+    @Test
+    public void values_are_bound_not_formatted_into_the_sql() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var title = "Hypersistence' OR '1'='1";
+            var count = CachedStatements.queryFirst(connection, COUNT_BY_TITLE_SQL, resultSet -> resultSet.getInt(1), title);
+            assertEquals(0, (int) count.orElseThrow());
+        }
+    }
+}
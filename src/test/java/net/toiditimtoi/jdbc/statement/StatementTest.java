@@ -3,7 +3,6 @@ package net.toiditimtoi.jdbc.statement;
 import net.toiditimtoi.jdbc.BasePostgresSqlTest;
 import org.junit.jupiter.api.Test;
 
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -21,7 +20,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 public class StatementTest extends BasePostgresSqlTest {
     @Test
     public void creating_using_and_closing_statement() throws SQLException {
-        try (var connection = DriverManager.getConnection(URL, USER, PASSWORD)) {
+        try (var connection = DATA_SOURCE.getConnection()) {
 
             // using try-with-resource is always the recommended way to safely close the statement
             try (var statement = connection.createStatement()) {
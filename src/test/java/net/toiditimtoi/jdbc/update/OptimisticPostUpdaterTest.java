@@ -0,0 +1,140 @@
+package net.toiditimtoi.jdbc.update;
+
+import net.toiditimtoi.jdbc.BasePostgresSqlTest;
+import net.toiditimtoi.jdbc.CommitsTransactions;
+import net.toiditimtoi.jdbc.Post;
+import net.toiditimtoi.jdbc.mapping.RowMappers;
+import net.toiditimtoi.jdbc.statement.CachedStatements;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A versioned UPDATE only matches the row if nobody changed it since we read it.
+ * The update count of every row in the batch tells which posts were stale, those are read again and retried.
+ */
+@CommitsTransactions
+public class OptimisticPostUpdaterTest extends BasePostgresSqlTest {
+
+    private static List<Post> findAll() throws SQLException {
+        try (var connection = DATA_SOURCE.getConnection()) {
+            return CachedStatements.query(connection, "SELECT id, title, version FROM post ORDER BY id", RowMappers.forRecord(Post.class));
+        }
+    }
+
+    @Test
+    public void a_stale_version_is_reported_as_a_conflict() throws SQLException {
+        var posts = findAll();
+        var updater = new OptimisticPostUpdater(DATA_SOURCE, 50, RetryPolicy.noRetry());
+
+        // somebody else updates the second post after we read it
+        updater.update(posts.get(1).id(), post -> post.withTitle("Changed concurrently"));
+
+        try (var connection = DATA_SOURCE.getConnection()) {
+            var outcome = updater.update(connection, posts.stream().map(post -> post.withTitle(post.title() + " 2nd edition")).toList());
+
+            assertEquals(2, outcome.updated().size());
+            assertEquals(1, outcome.conflicts().size());
+            assertEquals(posts.get(1).id(), outcome.conflicts().get(0).id());
+            outcome.updated().forEach(post -> assertEquals(1, post.version()));
+        }
+        assertEquals("Changed concurrently", findAll().get(1).title());
+    }
+
+    @Test
+    public void a_conflict_is_retried_on_the_fresh_row() throws SQLException {
+        var id = findAll().get(0).id();
+        var updater = new OptimisticPostUpdater(DATA_SOURCE, 50, RetryPolicy.of(3));
+        var interfered = new boolean[1];
+
+        var updated = updater.update(id, post -> {
+            if (!interfered[0]) {
+                interfered[0] = true;
+                // a concurrent writer bumps the version between our read and our write
+                try (var connection = DATA_SOURCE.getConnection()) {
+                    CachedStatements.executeUpdate(connection, "UPDATE post SET version = version + 1 WHERE id = ?", id);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return post.withTitle(post.title().toUpperCase());
+        });
+
+        assertEquals("HYPERSISTENCE", updated.title());
+        assertEquals(2, updated.version());
+        assertEquals(1, updater.getConflicts());
+        assertEquals(1, updater.getUpdates());
+    }
+
+    @Test
+    public void giving_up_throws_an_optimistic_lock_exception() throws SQLException {
+        var stale = findAll().get(0);
+        var updater = new OptimisticPostUpdater(DATA_SOURCE, 50, RetryPolicy.noRetry());
+
+        var e = assertThrows(OptimisticLockException.class, () -> updater.update(stale.id(), post -> {
+            try (var connection = DATA_SOURCE.getConnection()) {
+                CachedStatements.executeUpdate(connection, "UPDATE post SET version = version + 1 WHERE id = ?", stale.id());
+            } catch (SQLException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return post;
+        }));
+        assertEquals("40001", e.getSQLState());
+        assertEquals(stale.id(), e.getStalePost().id());
+    }
+
+    /**
+     * Many threads increment overlapping posts, no update may get lost: every successful update bumps the version by
+     * exactly one, so the sum of the versions is the number of successful updates.
+     */
+    @Test
+    public void no_update_is_lost_under_contention() throws Exception {
+        var ids = findAll().stream().map(Post::id).toList();
+        var updater = new OptimisticPostUpdater(DATA_SOURCE, 50, new RetryPolicy(50, Duration.ofMillis(1), Duration.ofMillis(20)));
+        var threads = 8;
+        var updatesPerThread = 200;
+        var executor = Executors.newFixedThreadPool(threads);
+        var start = new CountDownLatch(1);
+        var tasks = new ArrayList<Callable<Integer>>();
+        for (var t = 0; t < threads; t++) {
+            tasks.add(() -> {
+                start.await();
+                var succeeded = 0;
+                for (var i = 0; i < updatesPerThread; i++) {
+                    // two of the three posts, so batches overlap partially
+                    var skip = ThreadLocalRandom.current().nextInt(ids.size());
+                    var batch = new ArrayList<>(ids);
+                    batch.remove(skip);
+                    succeeded += updater.update(batch, post -> post.withTitle(post.title())).size();
+                }
+                return succeeded;
+            });
+        }
+        var begin = System.nanoTime();
+        var futures = tasks.stream().map(executor::submit).toList();
+        start.countDown();
+        var succeeded = 0L;
+        for (var future : futures) {
+            succeeded += future.get();
+        }
+        var elapsed = Duration.ofNanos(System.nanoTime() - begin);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        var versionSum = findAll().stream().mapToLong(Post::version).sum();
+        assertEquals(succeeded, versionSum);
+        assertEquals(succeeded, updater.getUpdates());
+        System.out.printf("%d threads: %d row updates in %d ms (%.0f updates/s), conflict rate %.1f%%%n",
+                threads, succeeded, elapsed.toMillis(), succeeded * 1e9 / elapsed.toNanos(), updater.getConflictRate() * 100);
+    }
+}